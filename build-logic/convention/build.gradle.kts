@@ -67,6 +67,11 @@ gradlePlugin {
             implementationClass = "com.buzbuz.gradle.convention.AndroidRoomConventionPlugin"
         }
 
+        register("androidBenchmark") {
+            id = "com.buzbuz.gradle.android.benchmark"
+            implementationClass = "com.buzbuz.gradle.convention.AndroidBenchmarkConventionPlugin"
+        }
+
         register("androidUnitTest") {
             id = "com.buzbuz.gradle.android.unittest"
             implementationClass = "com.buzbuz.gradle.convention.AndroidUnitTestConventionPlugin"
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.gradle.convention
+
+import com.buzbuz.gradle.convention.utils.getLibs
+import com.buzbuz.gradle.convention.utils.kaptTest
+import com.buzbuz.gradle.convention.utils.plugins
+import com.buzbuz.gradle.convention.utils.testImplementation
+
+import org.gradle.api.Plugin
+import org.gradle.api.Project
+import org.gradle.api.tasks.testing.Test
+import org.gradle.kotlin.dsl.dependencies
+import org.gradle.kotlin.dsl.withType
+
+/**
+ * Adds JMH benchmarks to the unit tests of a module.
+ *
+ * The benchmarks are declared in the unit tests sources, in order to access the internal classes of the module, and
+ * are executed by a subclass of BenchmarksRunner. They are skipped by default, run them with the `benchmark` property:
+ * `./gradlew testDebugUnitTest -Pbenchmark`, or `-Pbenchmark=<regex>` to select some of them. The results are written
+ * in json in build/reports/benchmarks.
+ */
+class AndroidBenchmarkConventionPlugin : Plugin<Project> {
+
+    override fun apply(target: Project): Unit = with(target) {
+        val libs = getLibs()
+
+        // The JMH generator is a Java annotation processor, it can't be executed by KSP
+        plugins {
+            apply(libs.plugins.jetbrainsKotlinKapt)
+        }
+
+        dependencies {
+            add("testImplementation", project(":core:common:benchmark"))
+            testImplementation(libs.getLibrary("jmh.core"))
+            kaptTest(libs.getLibrary("jmh.generator.annprocess"))
+        }
+
+        val benchmarkFilter = findProperty(PROPERTY_BENCHMARK)?.toString() ?: return
+        tasks.withType<Test>().configureEach {
+            filter.includeTestsMatching("*$BENCHMARKS_RUNNER_SUFFIX")
+            systemProperty(SYSTEM_PROPERTY_INCLUDE, benchmarkFilter)
+            systemProperty(
+                SYSTEM_PROPERTY_RESULT_FILE,
+                layout.buildDirectory.file("reports/benchmarks/$name.json").get().asFile.absolutePath,
+            )
+            // Measures are never up to date
+            outputs.upToDateWhen { false }
+        }
+    }
+}
+
+/** Gradle property enabling the benchmarks. Its value, if any, is a regex selecting the benchmarks. */
+private const val PROPERTY_BENCHMARK = "benchmark"
+/** Suffix of the name of the unit tests running the benchmarks. */
+private const val BENCHMARKS_RUNNER_SUFFIX = "BenchmarksRunner"
+/** System properties read by the BenchmarksRunner. */
+private const val SYSTEM_PROPERTY_INCLUDE = "benchmark.include"
+private const val SYSTEM_PROPERTY_RESULT_FILE = "benchmark.resultFile"
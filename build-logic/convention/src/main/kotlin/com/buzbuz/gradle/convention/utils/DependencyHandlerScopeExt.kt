@@ -32,5 +32,8 @@ internal fun DependencyHandlerScope.ksp(dependency: Provider<MinimalExternalModu
 internal fun DependencyHandlerScope.kspTest(dependency: Provider<MinimalExternalModuleDependency>) =
     add("kspTest", dependency)
 
+internal fun DependencyHandlerScope.kaptTest(dependency: Provider<MinimalExternalModuleDependency>) =
+    add("kaptTest", dependency)
+
 internal fun DependencyHandlerScope.testImplementation(dependency: Provider<MinimalExternalModuleDependency>) =
     add("testImplementation", dependency)
\ No newline at end of file
@@ -41,6 +41,8 @@ internal class VersionCatalogWrapper(private val libs: VersionCatalog) {
             get() = libs.getPluginId("androidxRoom")
         val jetbrainsKotlinAndroid: String
             get() = libs.getPluginId("jetbrainsKotlinAndroid")
+        val jetbrainsKotlinKapt: String
+            get() = libs.getPluginId("jetbrainsKotlinKapt")
         val jetbrainsKotlinSerialization: String
             get() = libs.getPluginId("jetbrainsKotlinSerialization")
         val googleKsp: String
@@ -5,6 +5,7 @@ plugins {
     alias(libs.plugins.googleDaggerHiltAndroid) apply false
     alias(libs.plugins.googleKsp) apply false
     alias(libs.plugins.jetbrainsKotlinAndroid) apply false
+    alias(libs.plugins.jetbrainsKotlinKapt) apply false
     alias(libs.plugins.jetbrainsKotlinSerialization) apply false
     alias(libs.plugins.androidxNavigationSafeArgs) apply false
     alias(libs.plugins.androidxRoom) apply false
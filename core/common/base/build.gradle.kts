@@ -18,6 +18,7 @@
 plugins {
     alias(libs.plugins.buzbuz.androidLibrary)
     alias(libs.plugins.buzbuz.androidUnitTest)
+    alias(libs.plugins.buzbuz.androidBenchmark)
     alias(libs.plugins.buzbuz.kotlinSerialization)
     alias(libs.plugins.buzbuz.hilt)
 }
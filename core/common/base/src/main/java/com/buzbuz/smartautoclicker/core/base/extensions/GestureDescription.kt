@@ -40,6 +40,28 @@ fun GestureDescription.Builder.buildSingleStroke(path: Path, durationMs: Long, s
     return build()
 }
 
+/**
+ * Build a gesture containing one stroke per path, each one starting after the end of the previous one.
+ *
+ * All strokes are executed with a single gesture dispatch. Paths exceeding [GestureDescription.getMaxStrokeCount], or
+ * ending after [GestureDescription.getMaxGestureDuration], are ignored.
+ */
+fun GestureDescription.Builder.buildSequentialStrokes(paths: List<Path>, durationMs: Long, intervalMs: Long): GestureDescription {
+    val strokeDurationMs = durationMs.toNormalizedStrokeDurationMs()
+    val strokeIntervalMs = max(0, intervalMs)
+    val strokeCount = min(paths.size, GestureDescription.getMaxStrokeCount())
+
+    var startTime = 0L
+    for (index in 0 until strokeCount) {
+        if (startTime + strokeDurationMs > GestureDescription.getMaxGestureDuration()) break
+
+        addStroke(GestureDescription.StrokeDescription(paths[index], startTime, strokeDurationMs))
+        startTime += strokeDurationMs + strokeIntervalMs
+    }
+
+    return build()
+}
+
 private fun Long.toNormalizedStrokeStartTime(): Long =
     max(0, this)
 
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.base
+
+import com.buzbuz.smartautoclicker.core.base.identifier.Identifier
+import com.buzbuz.smartautoclicker.core.base.interfaces.EntityWithId
+import com.buzbuz.smartautoclicker.core.base.interfaces.Identifiable
+
+import kotlinx.coroutines.runBlocking
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Benchmark of [DatabaseListUpdater.refreshUpdateValues] on a large list.
+ * A quarter of the items are new, a quarter of the entities are removed and the others are updated, in a random order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class DatabaseListUpdaterBenchmark {
+
+    private data class Item(
+        override val id: Identifier,
+    ) : Identifiable
+
+    private data class Entity(
+        override val id: Long,
+    ) : EntityWithId
+
+    @Param("10000")
+    @JvmField var entityCount: Int = 0
+
+    private val updater = DatabaseListUpdater<Item, Entity>()
+    private lateinit var currentEntities: List<Entity>
+    private lateinit var newItems: List<Item>
+
+    @Setup
+    fun setUp() {
+        val removedCount = entityCount / 4
+        currentEntities = (1..entityCount).map { id -> Entity(id.toLong()) }
+        newItems = buildList {
+            (removedCount + 1..entityCount).forEach { id -> add(Item(Identifier(databaseId = id.toLong()))) }
+            (1..removedCount).forEach { id -> add(Item(Identifier(tempId = id.toLong()))) }
+        }.shuffled(Random(BENCHMARK_SEED))
+    }
+
+    @Benchmark
+    fun refreshUpdateValues(blackhole: Blackhole) = runBlocking {
+        updater.refreshUpdateValues(currentEntities, newItems) { item -> Entity(item.id.databaseId) }
+        blackhole.consume(updater.toBeRemoved.size)
+    }
+}
+
+private const val BENCHMARK_SEED = 42
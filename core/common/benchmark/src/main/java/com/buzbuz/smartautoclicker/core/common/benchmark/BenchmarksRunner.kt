@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.common.benchmark
+
+import org.junit.Assert.assertFalse
+import org.junit.Assume.assumeNoException
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+import org.openjdk.jmh.results.format.ResultFormatType
+import org.openjdk.jmh.runner.NoBenchmarksException
+import org.openjdk.jmh.runner.Runner
+import org.openjdk.jmh.runner.options.OptionsBuilder
+import org.openjdk.jmh.runner.options.TimeValue
+
+import java.io.File
+
+/**
+ * Unit test executing the JMH benchmarks of a module.
+ *
+ * Each module with benchmarks declares a subclass named with the BenchmarksRunner suffix in its unit tests, annotated
+ * with the test runner required by the benchmarked code. The benchmarks are executed in the test process, as the
+ * classes of an Android module can't be loaded in a forked JVM, and only when the `benchmark` gradle property is set.
+ * Otherwise, or if none of the module benchmarks are selected by its regex, the test is skipped.
+ */
+abstract class BenchmarksRunner {
+
+    @Test
+    fun runBenchmarks() {
+        val include = System.getProperty(SYSTEM_PROPERTY_INCLUDE)
+        assumeTrue("Benchmarks are only executed with -Pbenchmark", include != null)
+
+        val options = OptionsBuilder()
+            .include(if (include.isNullOrEmpty()) ".*" else include)
+            .forks(0)
+            .threads(1)
+            .warmupIterations(WARMUP_ITERATIONS)
+            .warmupTime(TimeValue.seconds(ITERATION_DURATION_S))
+            .measurementIterations(MEASUREMENT_ITERATIONS)
+            .measurementTime(TimeValue.seconds(ITERATION_DURATION_S))
+            .shouldFailOnError(true)
+            .apply {
+                System.getProperty(SYSTEM_PROPERTY_RESULT_FILE)?.let { resultFile ->
+                    File(resultFile).parentFile?.mkdirs()
+                    resultFormat(ResultFormatType.JSON)
+                    result(resultFile)
+                }
+            }
+            .build()
+
+        val results = try {
+            Runner(options).run()
+        } catch (ex: NoBenchmarksException) {
+            // The regex can select the benchmarks of other modules only
+            assumeNoException("No benchmarks matching $include in this module", ex)
+            return
+        }
+
+        assertFalse("No benchmarks executed", results.isEmpty())
+    }
+}
+
+/** The regex selecting the benchmarks to execute. Empty to execute all of them. */
+private const val SYSTEM_PROPERTY_INCLUDE = "benchmark.include"
+/** The path of the json file receiving the results. */
+private const val SYSTEM_PROPERTY_RESULT_FILE = "benchmark.resultFile"
+
+private const val WARMUP_ITERATIONS = 3
+private const val MEASUREMENT_ITERATIONS = 5
+private const val ITERATION_DURATION_S = 1L
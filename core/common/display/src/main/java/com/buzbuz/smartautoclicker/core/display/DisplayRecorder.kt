@@ -29,15 +29,21 @@ import android.media.ImageReader
 import android.media.projection.MediaProjection
 import android.media.projection.MediaProjectionManager
 import android.os.Handler
+import android.os.HandlerThread
 import android.os.Looper
+import android.os.SystemClock
 import android.util.Log
 
 import androidx.annotation.MainThread
 import androidx.annotation.WorkerThread
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.filter
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import javax.inject.Inject
 import javax.inject.Singleton
+import kotlin.math.roundToInt
 
 /**
  * Record the screen and provide [Image] from it.
@@ -72,9 +78,39 @@ class DisplayRecorder @Inject internal constructor() {
     /** Allow access to [Image] rendered into the surface view of the [VirtualDisplay] */
     private var imageReader: ImageReader? = null
 
+    /** Thread receiving the new images notifications from the [imageReader]. */
+    private var imageAvailableThread: HandlerThread? = null
+    /** Handler of the [imageAvailableThread]. */
+    private var imageAvailableHandler: Handler? = null
+
+    /** Backing property for [frameAvailable]. */
+    private val _frameAvailable = MutableStateFlow(NO_FRAME_TIME_NS)
+    /**
+     * Notifies each new image available in the image reader, with its arrival time in
+     * [SystemClock.elapsedRealtimeNanos]. Frames arriving while the previous one is still handled are conflated, only
+     * the last one is kept. Use [useLatestImage] to get the image.
+     */
+    val frameAvailable: Flow<Long> = _frameAvailable.filter { it != NO_FRAME_TIME_NS }
+
+    /** Called by the image reader on the [imageAvailableThread] when a new image is available. */
+    private val imageAvailableListener = ImageReader.OnImageAvailableListener {
+        _frameAvailable.value = SystemClock.elapsedRealtimeNanos()
+    }
+
     /** Cache for the current frame. Interpreted from an [Image]. */
     private var latestAcquiredFrameBitmap: Bitmap? = null
 
+    /** The size of the recorded screen, in pixels. Set when the screen record starts or the display is resized. */
+    private var screenSize: Point? = null
+    /** The density of the recorded screen. Set when the screen record starts or the display is resized. */
+    private var screenDensityDpi: Int = 0
+    /** Ratio between the size of the captured images and the size of the screen. See [setCaptureScale]. */
+    var captureScale: Double = 1.0
+        private set
+    /** Tells if the capture is paused. See [setCapturePaused]. */
+    var isCapturePaused: Boolean = false
+        private set
+
     /**
      * Start the media projection.
      *
@@ -127,11 +163,19 @@ class DisplayRecorder @Inject internal constructor() {
 
         Log.d(TAG, "Start screen record with display size $displaySize")
 
-        @SuppressLint("WrongConstant")
-        imageReader = ImageReader.newInstance(displaySize.x, displaySize.y, PixelFormat.RGBA_8888, 2)
+        screenSize = displaySize
+        screenDensityDpi = context.resources.configuration.densityDpi
+        val captureSize = getCaptureSize(displaySize)
+
+        imageAvailableThread = HandlerThread(IMAGE_AVAILABLE_THREAD_NAME).apply {
+            start()
+            imageAvailableHandler = Handler(looper)
+        }
+
+        imageReader = newImageReader(captureSize)
         try {
             virtualDisplay = projection!!.createVirtualDisplay(
-                VIRTUAL_DISPLAY_NAME, displaySize.x, displaySize.y, context.resources.configuration.densityDpi,
+                VIRTUAL_DISPLAY_NAME, captureSize.x, captureSize.y, screenDensityDpi,
                 DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR, imageReader!!.surface, null,
                 null)
         } catch (sEx: SecurityException) {
@@ -145,19 +189,77 @@ class DisplayRecorder @Inject internal constructor() {
 
         Log.d(TAG, "Resizing virtual display to $displaySize")
 
+        screenSize = displaySize
+        screenDensityDpi = context.resources.configuration.densityDpi
+        resizeVirtualDisplay(getCaptureSize(displaySize))
+    }
+
+    /**
+     * Set the scale of the captured images, compared to the screen size.
+     *
+     * With a scale lower than 1, the virtual display and its image reader are smaller than the screen, letting the
+     * compositor downscale the screen content instead of the detection. The images keep the screen aspect ratio.
+     * The scale should be reset to 1 before taking screenshots for conditions, as they require the full resolution.
+     *
+     * @param scale the capture scale, in ]0, 1].
+     */
+    suspend fun setCaptureScale(scale: Double): Unit = mutex.withLock {
+        if (scale <= 0 || scale > 1) throw IllegalArgumentException("Invalid capture scale $scale")
+        if (scale == captureScale) return
+
+        captureScale = scale
+        val displaySize = screenSize ?: return
+        if (virtualDisplay == null || imageReader == null) return
+
+        Log.d(TAG, "Setting capture scale to $scale")
+        resizeVirtualDisplay(getCaptureSize(displaySize))
+    }
+
+    /**
+     * Pause or resume the capture of the screen.
+     *
+     * While paused, the virtual display has no surface: the compositor stops rendering it, and no new images are
+     * available. The virtual display and the image reader are kept, allowing to resume without waiting for their
+     * creation.
+     *
+     * @param paused true to pause the capture, false to resume it.
+     */
+    suspend fun setCapturePaused(paused: Boolean): Unit = mutex.withLock {
+        if (paused == isCapturePaused) return
+
+        Log.d(TAG, if (paused) "Pausing capture" else "Resuming capture")
+
+        isCapturePaused = paused
+        virtualDisplay?.surface = if (paused) null else imageReader?.surface
+    }
+
+    private fun resizeVirtualDisplay(captureSize: Point) {
         virtualDisplay?.let { vDisplay ->
             imageReader?.close()
-            imageReader = ImageReader.newInstance(displaySize.x, displaySize.y, PixelFormat.RGBA_8888, 2)
+            imageReader = newImageReader(captureSize)
 
-            vDisplay.surface = imageReader?.surface
+            if (!isCapturePaused) vDisplay.surface = imageReader?.surface
             vDisplay.resize(
-                displaySize.x,
-                displaySize.y,
-                context.resources.configuration.densityDpi,
+                captureSize.x,
+                captureSize.y,
+                screenDensityDpi,
             )
         }
     }
 
+    @SuppressLint("WrongConstant")
+    private fun newImageReader(captureSize: Point): ImageReader =
+        ImageReader.newInstance(captureSize.x, captureSize.y, PixelFormat.RGBA_8888, 2).apply {
+            setOnImageAvailableListener(imageAvailableListener, imageAvailableHandler)
+        }
+
+    private fun getCaptureSize(displaySize: Point): Point =
+        if (captureScale == 1.0) displaySize
+        else Point(
+            (displaySize.x * captureScale).roundToInt().coerceAtLeast(1),
+            (displaySize.y * captureScale).roundToInt().coerceAtLeast(1),
+        )
+
     /** @return the last image of the screen, or null if they have been processed. */
     suspend fun acquireLatestBitmap(): Bitmap? = mutex.withLock {
         imageReader?.acquireLatestImage()?.use { image ->
@@ -166,6 +268,21 @@ class DisplayRecorder @Inject internal constructor() {
         }
     }
 
+    /**
+     * Execute a block with the last image of the screen, without copying its pixels into a bitmap.
+     *
+     * The image is closed once the block returns, its planes must not be used afterward. The screen record can't be
+     * stopped, resized or paused during the block execution, so it should be kept as short as possible.
+     *
+     * @param block the code to execute with the image.
+     * @return the result of the block, or null if there is no new image.
+     */
+    suspend fun <T> useLatestImage(block: suspend (Image) -> T): T? = mutex.withLock {
+        imageReader?.acquireLatestImage()?.use { image ->
+            block(image)
+        }
+    }
+
     suspend fun takeScreenshot(completion: suspend (Bitmap) -> Unit) {
         var finished = false
         do {
@@ -197,9 +314,17 @@ class DisplayRecorder @Inject internal constructor() {
             virtualDisplay = null
         }
         imageReader?.apply {
+            setOnImageAvailableListener(null, null)
             close()
             imageReader = null
         }
+        imageAvailableThread?.apply {
+            quitSafely()
+            imageAvailableThread = null
+            imageAvailableHandler = null
+        }
+        isCapturePaused = false
+        _frameAvailable.value = NO_FRAME_TIME_NS
     }
 
     /**
@@ -259,6 +384,10 @@ private fun Image.toBitmap(resultBitmap: Bitmap? = null): Bitmap {
     return bitmap
 }
 
+/** Value of [DisplayRecorder.frameAvailable] before the first frame. */
+private const val NO_FRAME_TIME_NS = -1L
+/** Name of the thread receiving the new images notifications. */
+private const val IMAGE_AVAILABLE_THREAD_NAME = "DisplayRecorderImages"
 /** Tag for logs. */
 private const val TAG = "DisplayRecorder"
 /** Name of the virtual display generating [Image]. */
@@ -35,10 +35,13 @@ import androidx.test.ext.junit.runners.AndroidJUnit4
 import com.buzbuz.smartautoclicker.core.display.shadows.ShadowImageReader
 import com.buzbuz.smartautoclicker.core.display.utils.anyNotNull
 
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.runBlocking
 
 import org.junit.After
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -225,4 +228,43 @@ class DisplayRecorderTests {
 
         verify(mockStoppedListener).onStopped()
     }
-}
\ No newline at end of file
+
+    @Test
+    fun frameAvailable_onImageAvailable() = runBlocking {
+        displayRecorder.startProjection(mockContext, TEST_DATA_RESULT_CODE, TEST_DATA_PROJECTION_DATA_INTENT,
+            mockStoppedListener::onStopped)
+        displayRecorder.startScreenRecord(mockContext, TEST_DATA_DISPLAY_SIZE)
+
+        val imageListenerCaptor = ArgumentCaptor.forClass(ImageReader.OnImageAvailableListener::class.java)
+        verify(mockImageReader).setOnImageAvailableListener(imageListenerCaptor.capture(), anyNotNull())
+        imageListenerCaptor.value.onImageAvailable(mockImageReader)
+
+        assertTrue(displayRecorder.frameAvailable.first() > 0)
+    }
+
+    @Test
+    fun stopScreenRecord_removeImageListener() = runBlocking {
+        displayRecorder.startProjection(mockContext, TEST_DATA_RESULT_CODE, TEST_DATA_PROJECTION_DATA_INTENT,
+            mockStoppedListener::onStopped)
+        displayRecorder.startScreenRecord(mockContext, TEST_DATA_DISPLAY_SIZE)
+
+        displayRecorder.stopScreenRecord()
+
+        verify(mockImageReader).setOnImageAvailableListener(null, null)
+    }
+
+    @Test
+    fun setCapturePaused() = runBlocking {
+        displayRecorder.startProjection(mockContext, TEST_DATA_RESULT_CODE, TEST_DATA_PROJECTION_DATA_INTENT,
+            mockStoppedListener::onStopped)
+        displayRecorder.startScreenRecord(mockContext, TEST_DATA_DISPLAY_SIZE)
+
+        displayRecorder.setCapturePaused(true)
+        verify(mockVirtualDisplay).surface = null
+        assertTrue(displayRecorder.isCapturePaused)
+
+        displayRecorder.setCapturePaused(false)
+        verify(mockVirtualDisplay).surface = mockSurface
+        assertFalse(displayRecorder.isCapturePaused)
+    }
+}
@@ -19,6 +19,7 @@ plugins {
     alias(libs.plugins.buzbuz.kotlinSerialization)
     alias(libs.plugins.buzbuz.androidRoom)
     alias(libs.plugins.buzbuz.androidUnitTest)
+    alias(libs.plugins.buzbuz.androidBenchmark)
     alias(libs.plugins.buzbuz.hilt)
 }
 
@@ -169,6 +169,11 @@ enum class ClickPositionType {
      * When the condition operator is OR, click on the condition detected condition.
      */
     ON_DETECTED_CONDITION,
+    /**
+     * Click on all occurrences of the detected condition on the screen.
+     * The condition is selected the same way as for [ON_DETECTED_CONDITION].
+     */
+    ON_ALL_DETECTED_OCCURRENCES,
 }
 
 /**
@@ -352,7 +352,7 @@ internal abstract class CompatDeserializer : Deserializer {
             ?: return null
 
         when (clickPositionType) {
-            ClickPositionType.ON_DETECTED_CONDITION -> {
+            ClickPositionType.ON_DETECTED_CONDITION, ClickPositionType.ON_ALL_DETECTED_OCCURRENCES -> {
                 x = null
                 y = null
                 clickOnConditionId = jsonClick.getLong("clickOnConditionId", true) ?: return null
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.database.serialization
+
+import com.buzbuz.smartautoclicker.core.database.CLICK_DATABASE_VERSION
+import com.buzbuz.smartautoclicker.core.database.entity.ActionEntity
+import com.buzbuz.smartautoclicker.core.database.entity.ActionType
+import com.buzbuz.smartautoclicker.core.database.entity.ClickPositionType
+import com.buzbuz.smartautoclicker.core.database.entity.CompleteActionEntity
+import com.buzbuz.smartautoclicker.core.database.entity.CompleteEventEntity
+import com.buzbuz.smartautoclicker.core.database.entity.CompleteScenario
+import com.buzbuz.smartautoclicker.core.database.entity.ConditionEntity
+import com.buzbuz.smartautoclicker.core.database.entity.ConditionType
+import com.buzbuz.smartautoclicker.core.database.entity.EventEntity
+import com.buzbuz.smartautoclicker.core.database.entity.EventType
+import com.buzbuz.smartautoclicker.core.database.entity.ScenarioEntity
+import com.buzbuz.smartautoclicker.core.database.utils.encodeToJsonObject
+
+import kotlinx.serialization.json.JsonObject
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmark of the deserialization of a large scenario backup, with the compatibility deserializer used for the
+ * backups of the previous database version, and with the kotlinx deserializer used for the current version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class DeserializerBenchmark {
+
+    @Param("200")
+    @JvmField var eventCount: Int = 0
+
+    private lateinit var jsonCompleteScenario: JsonObject
+    private lateinit var compatDeserializer: Deserializer
+    private lateinit var kotlinDeserializer: Deserializer
+
+    @Setup
+    fun setUp() {
+        jsonCompleteScenario = newLargeScenario(eventCount).encodeToJsonObject()
+        compatDeserializer = DeserializerFactory.create(CLICK_DATABASE_VERSION - 1)!!
+        kotlinDeserializer = DeserializerFactory.create(CLICK_DATABASE_VERSION)!!
+    }
+
+    @Benchmark
+    fun compatDeserialization(): CompleteScenario =
+        compatDeserializer.deserializeCompleteScenario(jsonCompleteScenario)
+
+    @Benchmark
+    fun kotlinDeserialization(): CompleteScenario =
+        kotlinDeserializer.deserializeCompleteScenario(jsonCompleteScenario)
+
+    private fun newLargeScenario(eventCount: Int): CompleteScenario {
+        var nextId = 1L
+
+        return CompleteScenario(
+            scenario = ScenarioEntity(id = nextId++, name = "Benchmark", detectionQuality = 1200),
+            events = List(eventCount) { eventIndex ->
+                val eventId = nextId++
+                CompleteEventEntity(
+                    event = EventEntity(
+                        id = eventId,
+                        scenarioId = 1L,
+                        name = "Event $eventIndex",
+                        conditionOperator = 1,
+                        priority = eventIndex,
+                        type = EventType.IMAGE_EVENT,
+                    ),
+                    conditions = List(ITEMS_PER_EVENT) { conditionIndex ->
+                        ConditionEntity(
+                            id = nextId++,
+                            eventId = eventId,
+                            name = "Condition $conditionIndex",
+                            type = ConditionType.ON_IMAGE_DETECTED,
+                            path = "/conditions/$eventId-$conditionIndex.png",
+                            areaLeft = conditionIndex,
+                            areaTop = conditionIndex,
+                            areaRight = conditionIndex + 100,
+                            areaBottom = conditionIndex + 100,
+                            threshold = 10,
+                            detectionType = 1,
+                            shouldBeDetected = true,
+                        )
+                    },
+                    actions = List(ITEMS_PER_EVENT) { actionIndex ->
+                        CompleteActionEntity(
+                            action = ActionEntity(
+                                id = nextId++,
+                                eventId = eventId,
+                                priority = actionIndex,
+                                name = "Click $actionIndex",
+                                type = ActionType.CLICK,
+                                clickPositionType = ClickPositionType.USER_SELECTED,
+                                x = actionIndex * 10,
+                                y = actionIndex * 20,
+                                pressDuration = 50,
+                            ),
+                            intentExtras = emptyList(),
+                            eventsToggle = emptyList(),
+                        )
+                    },
+                )
+            },
+        )
+    }
+}
+
+/** Number of conditions, and of actions, in each event of the benchmarked scenario. */
+private const val ITEMS_PER_EVENT = 10
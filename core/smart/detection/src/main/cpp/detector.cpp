@@ -16,10 +16,13 @@
  */
 #include <android/log.h>
 #include <android/bitmap.h>
+#include <chrono>
 #include <memory>
 #include <opencv2/imgproc/imgproc_c.h>
 
 #include "utils/androidBitmap.hpp"
+#include "utils/imageBuffer.hpp"
+#include "utils/pyramid.hpp"
 #include "utils/roi.hpp"
 #include "utils/scaling.hpp"
 #include "detector.hpp"
@@ -30,79 +33,271 @@ using namespace smartautoclicker;
 void Detector::setScreenMetrics(JNIEnv *env, jstring metricsTag, jobject screenImage, double detectionQuality) {
     // Initial the current image mat. When the size of the image change (e.g. rotation), this method should be called
     // to update it.
-    fullSizeColorCurrentImage = createColorMatFromARGB8888BitmapData(env, screenImage);
+    if (!createColorMatFromARGB8888BitmapData(env, screenImage, *colorCurrentImage)) return;
 
+    // The bitmap is a full size screenshot
+    fullSizeScreen = colorCurrentImage->size();
+    captureRatio = 1;
+    updateScaleRatio(env, metricsTag, detectionQuality);
+}
+
+void Detector::setScreenMetrics(JNIEnv *env, jstring metricsTag, jobject screenBuffer, int width, int height, int rowStride,
+                                int screenWidth, int screenHeight, double detectionQuality) {
+    if (!createColorMatFromRGBA8888Buffer(env, screenBuffer, width, height, rowStride, *colorCurrentImage)) return;
+
+    // The buffer can be captured at a lower resolution than the screen
+    fullSizeScreen = cv::Size(screenWidth, screenHeight);
+    captureRatio = (double) width / screenWidth;
+    updateScaleRatio(env, metricsTag, detectionQuality);
+}
+
+void Detector::updateScaleRatio(JNIEnv *env, jstring metricsTag, double detectionQuality) {
     // Select the scale ratio depending on the screen size.
     // We reduce the size to improve the processing time, but we don't want it to be too small because it will impact
     // the performance of the detection.
     const char *tag = env->GetStringUTFChars(metricsTag, 0);
-    scaleRatio = findBestScaleRatio(*fullSizeColorCurrentImage, detectionQuality, tag);
+    frameScaleRatio = findBestScaleRatio(*colorCurrentImage, detectionQuality, tag);
     env->ReleaseStringUTFChars(metricsTag, tag);
+
+    // The conditions and areas are in screen coordinates, so the detection scale ratio is relative to the screen.
+    double newScaleRatio = frameScaleRatio * captureRatio;
+
+    // The cached conditions are scaled with the previous ratio, they must be computed again.
+    if (newScaleRatio != scaleRatio) conditionsCache.clear();
+    scaleRatio = newScaleRatio;
+
+    // The screen have changed, the last known positions are no longer valid.
+    localityHints.clear();
+    // Nor the previous image and the results on it, the next image must be considered as changed.
+    currentImageTiles.invalidate();
+    reusableResults.clear();
 }
 
 void Detector::setScreenImage(JNIEnv *env, jobject screenImage) {
     // Get screen info from the android bitmap format
-    fullSizeColorCurrentImage = createColorMatFromARGB8888BitmapData(env, screenImage);
+    if (!createColorMatFromARGB8888BitmapData(env, screenImage, *colorCurrentImage)) return;
+
+    updateScaledCurrentImages();
+}
 
-    // Convert to gray for template matching
-    cv::Mat fullSizeGrayCurrentImage(fullSizeColorCurrentImage->rows, fullSizeColorCurrentImage->cols, CV_8UC1);
-    cv::cvtColor(*fullSizeColorCurrentImage, fullSizeGrayCurrentImage, cv::COLOR_RGBA2GRAY);
+void Detector::setScreenImage(JNIEnv *env, jobject screenBuffer, int width, int height, int rowStride) {
+    // Read the pixels directly from the buffer, without any copy
+    if (!createColorMatFromRGBA8888Buffer(env, screenBuffer, width, height, rowStride, *colorCurrentImage)) return;
 
-    // Scale down the image and store it apart (the cache image is not resized)
-    scaleMat(fullSizeGrayCurrentImage, scaleRatio, *scaledGrayCurrentImage);
+    updateScaledCurrentImages();
 }
 
-DetectionResult Detector::detectCondition(JNIEnv *env, jobject conditionImage, int threshold) {
-    return detectCondition(
-        env,
-        conditionImage,
-        cv::Rect(0, 0, fullSizeColorCurrentImage->cols, fullSizeColorCurrentImage->rows),
-        threshold
-    );
+void Detector::updateScaledCurrentImages() {
+    // Scale down the image and store it apart (the captured image is not resized). If the screen is captured at the
+    // detection resolution, the compositor have already done most of the work.
+    // The color image is scaled before the conversion to gray for template matching: the captured pixels are read only
+    // once, and there is no full size gray image to write and read again.
+    // All images are written in the memory of the previous ones, OpenCV only reallocates it if the size has changed.
+    const uchar* previousScaledColorData = scaledColorCurrentImage->data;
+    const uchar* previousScaledGrayData = scaledGrayCurrentImage->data;
+    const uchar* previousCoarseGrayData = coarseGrayCurrentImage->data;
+
+    scaleMat(*colorCurrentImage, frameScaleRatio, *scaledColorCurrentImage);
+    cv::cvtColor(*scaledColorCurrentImage, *scaledGrayCurrentImage, cv::COLOR_RGBA2GRAY);
+
+    // Reduce it again for the coarse level of the pyramid matching
+    scaleToPyramidCoarse(*scaledGrayCurrentImage, *coarseGrayCurrentImage);
+
+    bufferAllocations.onImageWritten(*scaledColorCurrentImage, previousScaledColorData);
+    bufferAllocations.onImageWritten(*scaledGrayCurrentImage, previousScaledGrayData);
+    bufferAllocations.onImageWritten(*coarseGrayCurrentImage, previousCoarseGrayData);
+
+    // Compare with the previous image, tile by tile. The signatures are computed on the image used for the matching,
+    // so changes not visible in it, such as a color change keeping the same luminance, are ignored.
+    currentImageTiles.update(*scaledGrayCurrentImage);
+    if (currentImageTiles.isChanged()) frameGeneration++;
 }
 
-DetectionResult Detector::detectCondition(JNIEnv *env, jobject conditionImage, int x, int y, int width, int height, int threshold) {
-    return detectCondition(env, conditionImage, cv::Rect(x, y, width, height), threshold);
+void Detector::releaseScreenImage() {
+    // Only the header is cleared, the pixels are owned by the caller
+    colorCurrentImage->release();
 }
 
-DetectionResult Detector::detectCondition(JNIEnv *env, jobject conditionImage, cv::Rect fullSizeDetectionRoi, int threshold) {
-    // Reset the results cache
+bool Detector::isScreenImageChanged() const {
+    return currentImageTiles.isChanged();
+}
+
+DetectionResult Detector::detectCondition(JNIEnv *env, jlong conditionId, jobject conditionImage, int threshold) {
+    return detectCondition(env, conditionId, conditionImage, getFullScreenRoi(), threshold);
+}
+
+DetectionResult Detector::detectCondition(JNIEnv *env, jlong conditionId, jobject conditionImage, int x, int y, int width, int height, int threshold) {
+    return detectCondition(env, conditionId, conditionImage, cv::Rect(x, y, width, height), threshold);
+}
+
+DetectionResult Detector::detectCondition(JNIEnv *env, jlong conditionId, jobject conditionImage, cv::Rect fullSizeDetectionRoi, int threshold) {
+    DetectionResult detectionResult;
     detectionResult.reset();
 
     // setScreenImage haven't been called first
-    if (scaledGrayCurrentImage->empty()) {
-        __android_log_print(ANDROID_LOG_ERROR, "Detector",
-                            "detectCondition caught an exception");
-        jclass je = env->FindClass("java/lang/Exception");
-        env->ThrowNew(je, "Can't detect condition, scaledGrayCurrentImage is empty !");
+    if (isScreenImageNotSet(env)) return detectionResult;
+
+    // Get the condition image information from the cache, or from the android bitmap format if not cached yet.
+    auto conditionTemplate = getConditionTemplate(env, conditionId, conditionImage);
+    if (conditionTemplate == nullptr) return detectionResult;
+
+    // The detection area haven't changed since the previous image, the result is the same.
+    if (findReusableResult(conditionId, *conditionTemplate, fullSizeDetectionRoi, threshold, detectionResult)) {
+        onDetectionCompleted(conditionId, fullSizeDetectionRoi, threshold, detectionResult, true);
         return detectionResult;
     }
 
+    LocalitySample localitySample;
+    detectionResult = matchConditionLocalityFirst(conditionId, *conditionTemplate, fullSizeDetectionRoi, threshold,
+                                                  localitySample, matchingBuffers[0]);
+    onLocalitySearchCompleted(conditionId, detectionResult, localitySample);
+    onDetectionCompleted(conditionId, fullSizeDetectionRoi, threshold, detectionResult, false);
+
+    return detectionResult;
+}
+
+DetectionResult Detector::matchConditionLocalityFirst(jlong conditionId, const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeDetectionRoi,
+                                                      int threshold, LocalitySample& localitySample, MatchingBuffers& buffers) const {
+    localitySample = LocalitySample();
+
+    // Try around the last known position first, if the window is small enough compared to the detection area.
+    auto localityHint = localityHints.find(conditionId);
+    if (localityHint != localityHints.end() && localityHint->second.hasPosition) {
+        auto windowRoi = getLocalityWindowRoi(localityHint->second.position, *conditionTemplate.fullSizeColor, fullSizeDetectionRoi);
+
+        if (isLocalityWindowApplicable(windowRoi, *conditionTemplate.fullSizeColor, fullSizeDetectionRoi)) {
+            auto windowSearchStart = std::chrono::steady_clock::now();
+            auto windowResult = matchCondition(conditionTemplate, windowRoi, threshold, buffers);
+            localitySample.isAttempted = true;
+            localitySample.windowSearchNs = std::chrono::duration_cast<std::chrono::nanoseconds>(
+                    std::chrono::steady_clock::now() - windowSearchStart).count();
+
+            if (windowResult.isDetected) {
+                localitySample.isHit = true;
+                return windowResult;
+            }
+        }
+    }
+
+    // Not found around the last position, search in the whole detection area.
+    auto fullSearchStart = std::chrono::steady_clock::now();
+    auto result = matchCondition(conditionTemplate, fullSizeDetectionRoi, threshold, buffers);
+    localitySample.fullSearchNs = std::chrono::duration_cast<std::chrono::nanoseconds>(
+            std::chrono::steady_clock::now() - fullSearchStart).count();
+
+    return result;
+}
+
+void Detector::onLocalitySearchCompleted(jlong conditionId, const DetectionResult& result, const LocalitySample& localitySample) {
+    LocalityHint& localityHint = localityHints[conditionId];
+
+    if (localitySample.isAttempted) {
+        localityStats.searchCount++;
+        if (localitySample.isHit) {
+            localityStats.hitCount++;
+            if (localityHint.fullSearchCount > 0) {
+                localityStats.savedTimeNs += localityHint.fullSearchTotalNs / localityHint.fullSearchCount - localitySample.windowSearchNs;
+            }
+        } else {
+            localityStats.savedTimeNs -= localitySample.windowSearchNs;
+        }
+    }
+
+    if (localitySample.fullSearchNs > 0) {
+        localityHint.fullSearchTotalNs += localitySample.fullSearchNs;
+        localityHint.fullSearchCount++;
+    }
+
+    localityHint.hasPosition = result.isDetected;
+    if (result.isDetected) {
+        localityHint.position.x = (int) result.centerX;
+        localityHint.position.y = (int) result.centerY;
+    }
+}
+
+const LocalityStats& Detector::getLocalityStats() const {
+    return localityStats;
+}
+
+bool Detector::findReusableResult(jlong conditionId, const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeDetectionRoi,
+                                  int threshold, DetectionResult& result) const {
+    auto reusableResult = reusableResults.find(conditionId);
+    if (reusableResult == reusableResults.end()) return false;
+
+    const ReusableResult& previous = reusableResult->second;
+
+    // The coarse pyramid image mixes the pixels around the area borders, they must be unchanged as well.
+    auto scaledDetectionRoi = getScaledImageRoi(fullSizeDetectionRoi);
+    scaledDetectionRoi -= cv::Point(PYRAMID_FACTOR, PYRAMID_FACTOR);
+    scaledDetectionRoi += cv::Size(PYRAMID_FACTOR * 2, PYRAMID_FACTOR * 2);
+
+    const cv::Mat& fullSizeColorCondition = *conditionTemplate.fullSizeColor;
+    cv::Rect fullSizeHitRoi(
+            (int) previous.result.centerX - fullSizeColorCondition.cols / 2,
+            (int) previous.result.centerY - fullSizeColorCondition.rows / 2,
+            fullSizeColorCondition.cols,
+            fullSizeColorCondition.rows);
+
+    if (!isResultReusable(previous, fullSizeDetectionRoi, threshold, frameGeneration, currentImageTiles,
+                          scaledDetectionRoi, getScaledImageRoi(fullSizeHitRoi),
+                          fullSizeDetectionRoi == getFullScreenRoi())) {
+        return false;
+    }
+
+    result = previous.result;
+    return true;
+}
+
+void Detector::onDetectionCompleted(jlong conditionId, const cv::Rect& fullSizeDetectionRoi, int threshold,
+                                    const DetectionResult& result, bool isReused) {
+    ReuseStats& conditionReuseStats = reuseStats[conditionId];
+    conditionReuseStats.detectionCount++;
+    if (isReused) conditionReuseStats.reuseCount++;
+
+    ReusableResult& reusableResult = reusableResults[conditionId];
+    reusableResult.frameGeneration = frameGeneration;
+    reusableResult.fullSizeDetectionRoi = fullSizeDetectionRoi;
+    reusableResult.threshold = threshold;
+    reusableResult.result = result;
+}
+
+const std::unordered_map<jlong, ReuseStats>& Detector::getReuseStats() const {
+    return reuseStats;
+}
+
+long long Detector::getBufferAllocationCount() const {
+    return bufferAllocations.getCount();
+}
+
+bool Detector::getDetectionImage(const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeDetectionRoi,
+                                 cv::Rect& scaledDetectionRoi, cv::Mat& croppedGrayCurrentImage) const {
     // Get and check the detection area in normal and scaled size
-    if (isRoiNotContainedInImage(fullSizeDetectionRoi, *fullSizeColorCurrentImage)) {
-        logInvalidRoiInImage(fullSizeDetectionRoi, *fullSizeColorCurrentImage);
-        return detectionResult;
+    if (isRoiNotContainedInSize(fullSizeDetectionRoi, fullSizeScreen)) {
+        logInvalidRoiInSize(fullSizeDetectionRoi, fullSizeScreen);
+        return false;
+    }
+    scaledDetectionRoi = getScaledRoi(fullSizeDetectionRoi, scaleRatio);
+    if (captureRatio != 1) {
+        // The captured image size is rounded by the compositor, absorb the difference at the borders.
+        scaledDetectionRoi &= cv::Rect(0, 0, scaledGrayCurrentImage->cols, scaledGrayCurrentImage->rows);
     }
-    auto scaledDetectionRoi = getScaledRoi(fullSizeDetectionRoi, scaleRatio);
     if (isRoiNotContainedInImage(scaledDetectionRoi, *scaledGrayCurrentImage)) {
         logInvalidRoiInImage(scaledDetectionRoi, *scaledGrayCurrentImage);
-        return detectionResult;
+        return false;
     }
 
-    // Get the condition image information from the android bitmap format.
-    auto fullSizeColorCondition = createColorMatFromARGB8888BitmapData(env, conditionImage);
-
+    auto fullSizeColorCondition = conditionTemplate.fullSizeColor.get();
     if (isRoiNotContainingImage(fullSizeDetectionRoi, *fullSizeColorCondition)) {
         logInvalidRoiInImage(fullSizeDetectionRoi, *fullSizeColorCondition);
-        return detectionResult;
+        return false;
     }
-    auto scaledGrayCondition = scaleAndChangeToGray(*fullSizeColorCondition);
+    auto scaledGrayCondition = conditionTemplate.scaledGray.get();
     if (isRoiNotContainingImage(scaledDetectionRoi, *scaledGrayCondition)) {
         logInvalidRoiInImage(scaledDetectionRoi, *scaledGrayCondition);
-        return detectionResult;
+        return false;
     }
     // Crop the scaled gray current image to only get the detection area
-    auto croppedGrayCurrentImage = Mat(*scaledGrayCurrentImage, scaledDetectionRoi);
+    croppedGrayCurrentImage = Mat(*scaledGrayCurrentImage, scaledDetectionRoi);
     if (isImageNotContainingImage(croppedGrayCurrentImage, *scaledGrayCondition)) {
         __android_log_print(
                 ANDROID_LOG_ERROR, "Detector",
@@ -110,29 +305,78 @@ DetectionResult Detector::detectCondition(JNIEnv *env, jobject conditionImage, c
                 croppedGrayCurrentImage.cols, croppedGrayCurrentImage.rows,
                 scaledGrayCondition->cols, scaledGrayCondition->rows
         );
+        return false;
+    }
+
+    return true;
+}
+
+bool Detector::isColorMatching(const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeMatchingRoi, int threshold) const {
+    // The color means are the same at any resolution, so this is done in the captured image.
+    auto colorMatchingRoi = getColorImageRoi(fullSizeMatchingRoi);
+    return !colorMatchingRoi.empty()
+           && getColorDiff(Mat(*colorCurrentImage, colorMatchingRoi), conditionTemplate.colorMeans) < threshold;
+}
+
+DetectionResult Detector::matchCondition(const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeDetectionRoi, int threshold,
+                                         MatchingBuffers& buffers) const {
+    DetectionResult detectionResult;
+    detectionResult.reset();
+
+    cv::Rect scaledDetectionRoi;
+    cv::Mat croppedGrayCurrentImage;
+    if (!getDetectionImage(conditionTemplate, fullSizeDetectionRoi, scaledDetectionRoi, croppedGrayCurrentImage)) {
         return detectionResult;
     }
+    auto scaledGrayCondition = conditionTemplate.scaledGray.get();
 
-    // Get the matching results
-    auto matchingResults = matchTemplate(croppedGrayCurrentImage, *scaledGrayCondition);
+    // The detection area have the size of the condition, there is a single position to verify.
+    if (croppedGrayCurrentImage.size() == scaledGrayCondition->size()) {
+        return matchConditionAtPosition(conditionTemplate, croppedGrayCurrentImage, fullSizeDetectionRoi, threshold);
+    }
+
+    // Get the matching results. For big search areas, avoid the full matching by using the pyramid.
+    if (isPyramidMatchingApplicable(croppedGrayCurrentImage, *scaledGrayCondition, conditionTemplate.coarseGray.get())) {
+        auto pyramidResults = matchTemplatePyramid(croppedGrayCurrentImage, scaledDetectionRoi, *scaledGrayCondition,
+                                                   *conditionTemplate.coarseGray, buffers);
+        bool isColorRejected = findDetectedCandidate(conditionTemplate, pyramidResults, fullSizeDetectionRoi, threshold,
+                                                     detectionResult);
+
+        // The colors are ignored by the coarse matching: the condition can be after the refined candidates, behind
+        // similar shapes of other colors. Only the full matching can find it.
+        if (detectionResult.isDetected || !isColorRejected) return detectionResult;
+        detectionResult.reset();
+    }
+
+    auto matchingResults = matchTemplate(croppedGrayCurrentImage, *scaledGrayCondition, buffers.results);
+    findDetectedCandidate(conditionTemplate, matchingResults, fullSizeDetectionRoi, threshold, detectionResult);
+
+    return detectionResult;
+}
+
+bool Detector::findDetectedCandidate(const ConditionTemplate& conditionTemplate, cv::Mat& matchingResults,
+                                     const cv::Rect& fullSizeDetectionRoi, int threshold, DetectionResult& detectionResult) const {
+    auto fullSizeColorCondition = conditionTemplate.fullSizeColor.get();
+    auto scaledGrayCondition = conditionTemplate.scaledGray.get();
 
     // Until a condition is detected or none fits
     cv::Rect scaledMatchingRoi;
     cv::Rect fullSizeMatchingRoi;
+    bool isColorRejected = false;
     detectionResult.isDetected = false;
     while (!detectionResult.isDetected) {
         // Find the max value and its position in the result
-        locateMinMax(*matchingResults, detectionResult);
+        locateMinMax(matchingResults, detectionResult);
 
         // Calculate the ROI based on the maximum location
         scaledMatchingRoi = getRoiForResult(detectionResult.maxLoc, *scaledGrayCondition);
-        fullSizeMatchingRoi = getDetectionResultFullSizeRoi(fullSizeDetectionRoi, fullSizeColorCondition->cols, fullSizeColorCondition->rows);
+        fullSizeMatchingRoi = getDetectionResultFullSizeRoi(detectionResult, fullSizeDetectionRoi, fullSizeColorCondition->cols, fullSizeColorCondition->rows);
         if (isRoiNotContainedInImage(scaledMatchingRoi, *scaledGrayCurrentImage) ||
-            isRoiNotContainedInImage(fullSizeMatchingRoi, *fullSizeColorCurrentImage)) {
+            isRoiNotContainedInSize(fullSizeMatchingRoi, fullSizeScreen)) {
             // Roi is out of bounds, invalid match
             detectionResult.centerX = 0;
             detectionResult.centerY = 0;
-            markRoiAsInvalidInResults(scaledMatchingRoi, *matchingResults);
+            markRoiAsInvalidInResults(scaledMatchingRoi, matchingResults);
             continue;
         }
 
@@ -143,41 +387,340 @@ DetectionResult Detector::detectCondition(JNIEnv *env, jobject conditionImage, c
         if (!isResultAboveThreshold(detectionResult, threshold)) break;
 
         // Check if the colors are matching in the candidate area.
-        auto fullSizeColorCroppedCurrentImage = Mat(*fullSizeColorCurrentImage, fullSizeMatchingRoi);
-        double colorDiff = getColorDiff(fullSizeColorCroppedCurrentImage, *fullSizeColorCondition);
-        if (colorDiff < threshold) {
+        if (isColorMatching(conditionTemplate, fullSizeMatchingRoi, threshold)) {
             detectionResult.isDetected = true;
         } else {
             // Colors are invalid, modify the matching result to indicate that.
-            markRoiAsInvalidInResults(scaledMatchingRoi, *matchingResults);
+            markRoiAsInvalidInResults(scaledMatchingRoi, matchingResults);
+            isColorRejected = true;
         }
     }
 
+    return isColorRejected;
+}
+
+DetectionResult Detector::matchConditionAtPosition(const ConditionTemplate& conditionTemplate, const cv::Mat& croppedGrayCurrentImage,
+                                                   const cv::Rect& fullSizeDetectionRoi, int threshold) const {
+    DetectionResult detectionResult;
+    detectionResult.reset();
+
+    detectionResult.maxVal = conditionTemplate.exactMatch.match(croppedGrayCurrentImage, *conditionTemplate.scaledGray,
+                                                                getMinimumMatchingScore(threshold));
+
+    auto fullSizeColorCondition = conditionTemplate.fullSizeColor.get();
+    auto fullSizeMatchingRoi = getDetectionResultFullSizeRoi(detectionResult, fullSizeDetectionRoi,
+                                                             fullSizeColorCondition->cols, fullSizeColorCondition->rows);
+    if (isRoiNotContainedInSize(fullSizeMatchingRoi, fullSizeScreen)) return detectionResult;
+
+    detectionResult.centerX = fullSizeMatchingRoi.x + ((int) (fullSizeMatchingRoi.width / 2));
+    detectionResult.centerY = fullSizeMatchingRoi.y + ((int) (fullSizeMatchingRoi.height / 2));
+    if (!isResultAboveThreshold(detectionResult, threshold)) return detectionResult;
+
+    // Check if the colors are matching, in the captured image as for the other detections.
+    if (isColorMatching(conditionTemplate, fullSizeMatchingRoi, threshold)) {
+        detectionResult.isDetected = true;
+    } else {
+        // As with the matching results, an invalid color invalidates the only candidate.
+        detectionResult.maxVal = 0;
+    }
+
     return detectionResult;
 }
 
+const std::vector<jint>& Detector::detectAllOccurrences(JNIEnv *env, jlong conditionId, jobject conditionImage, int threshold,
+                                                        int maxResults) {
+    return detectAllOccurrences(env, conditionId, conditionImage, getFullScreenRoi(), threshold, maxResults);
+}
+
+const std::vector<jint>& Detector::detectAllOccurrences(JNIEnv *env, jlong conditionId, jobject conditionImage, int x, int y,
+                                                        int width, int height, int threshold, int maxResults) {
+    return detectAllOccurrences(env, conditionId, conditionImage, cv::Rect(x, y, width, height), threshold, maxResults);
+}
+
+const std::vector<jint>& Detector::detectAllOccurrences(JNIEnv *env, jlong conditionId, jobject conditionImage,
+                                                        cv::Rect fullSizeDetectionRoi, int threshold, int maxResults) {
+    occurrenceCenters.clear();
+    occurrenceLocations.clear();
+
+    // setScreenImage haven't been called first
+    if (isScreenImageNotSet(env)) return occurrenceCenters;
+
+    auto conditionTemplate = getConditionTemplate(env, conditionId, conditionImage);
+    if (conditionTemplate == nullptr) return occurrenceCenters;
+
+    cv::Rect scaledDetectionRoi;
+    cv::Mat croppedGrayCurrentImage;
+    if (!getDetectionImage(*conditionTemplate, fullSizeDetectionRoi, scaledDetectionRoi, croppedGrayCurrentImage)) {
+        return occurrenceCenters;
+    }
+
+    // All positions are needed: the pyramid would only refine the best candidates, and the locality search would stop
+    // at the first one.
+    auto matchingResults = matchTemplate(croppedGrayCurrentImage, *conditionTemplate->scaledGray, matchingBuffers[0].results);
+    findOccurrenceCandidates(matchingResults, (float) getMinimumMatchingScore(threshold), occurrenceCandidates);
+
+    const cv::Mat& fullSizeColorCondition = *conditionTemplate->fullSizeColor;
+    const cv::Size scaledConditionSize = conditionTemplate->scaledGray->size();
+    DetectionResult candidateResult;
+    for (const OccurrenceCandidate& candidate : occurrenceCandidates) {
+        if ((int) occurrenceLocations.size() >= maxResults) break;
+
+        // The candidates are sorted by score, a candidate overlapping an accepted occurrence is a worse match of it.
+        bool isSuppressed = false;
+        for (const cv::Point& occurrenceLocation : occurrenceLocations) {
+            if (isSameOccurrence(candidate.location, occurrenceLocation, scaledConditionSize)) {
+                isSuppressed = true;
+                break;
+            }
+        }
+        if (isSuppressed) continue;
+
+        candidateResult.reset();
+        candidateResult.maxLoc = candidate.location;
+        auto fullSizeMatchingRoi = getDetectionResultFullSizeRoi(candidateResult, fullSizeDetectionRoi,
+                                                                 fullSizeColorCondition.cols, fullSizeColorCondition.rows);
+        if (isRoiNotContainedInSize(fullSizeMatchingRoi, fullSizeScreen)) continue;
+
+        // A candidate with invalid colors is not an occurrence, so it doesn't suppress its neighbours.
+        if (!isColorMatching(*conditionTemplate, fullSizeMatchingRoi, threshold)) continue;
+
+        occurrenceLocations.push_back(candidate.location);
+        occurrenceCenters.push_back(fullSizeMatchingRoi.x + fullSizeMatchingRoi.width / 2);
+        occurrenceCenters.push_back(fullSizeMatchingRoi.y + fullSizeMatchingRoi.height / 2);
+    }
+
+    return occurrenceCenters;
+}
+
+DetectionBatchBuffers& Detector::getBatchBuffers(int count) {
+    if (batchBuffers.resize(count)) bufferAllocations.onAllocation();
+    return batchBuffers;
+}
+
+int Detector::detectConditions(JNIEnv *env, const DetectionBatch& batch) {
+    if (isScreenImageNotSet(env)) return 0;
+
+    // Resolve all templates first, on the calling thread as it requires the JNI environment to read the bitmaps.
+    if ((size_t) batch.count > batchResults.capacity()) bufferAllocations.onAllocation();
+    batchTemplates.resize(batch.count);
+    batchResults.resize(batch.count);
+    batchLocalitySamples.resize(batch.count);
+    batchReused.resize(batch.count);
+    for (int i = 0; i < batch.count; i++) {
+        batchTemplates[i] = getBatchConditionTemplate(env, batch, i);
+    }
+    if (env->ExceptionCheck()) return 0;
+
+    // Reuse the results of the conditions in unchanged areas, they will not be matched.
+    for (int i = 0; i < batch.count; i++) {
+        batchReused[i] = batchTemplates[i] != nullptr && findReusableResult(batch.conditionIds[i], *batchTemplates[i],
+                getBatchDetectionRoi(batch, i), batch.thresholds[i], batchResults[i]);
+    }
+
+    // With a worker pool, all conditions are matched in parallel, and the short circuit is applied on the results.
+    bool isParallel = workerPool != nullptr && batch.count > 1;
+    if (isParallel) {
+        workerPool->run(batch.count, [this, &batch](int index, int workerIndex) {
+            batch.durationsNs[index] = 0;
+            if (batchReused[index]) return;
+
+            auto matchingStart = std::chrono::steady_clock::now();
+            batchResults[index] = matchBatchCondition(batch, index, batchLocalitySamples[index], matchingBuffers[workerIndex]);
+            batch.durationsNs[index] = std::chrono::duration_cast<std::chrono::nanoseconds>(
+                    std::chrono::steady_clock::now() - matchingStart).count();
+        });
+    }
+
+    int evaluatedCount = 0;
+    for (int i = 0; i < batch.count; i++) {
+        if (!isParallel) {
+            batch.durationsNs[i] = 0;
+            if (!batchReused[i]) {
+                auto matchingStart = std::chrono::steady_clock::now();
+                batchResults[i] = matchBatchCondition(batch, i, batchLocalitySamples[i], matchingBuffers[0]);
+                batch.durationsNs[i] = std::chrono::duration_cast<std::chrono::nanoseconds>(
+                        std::chrono::steady_clock::now() - matchingStart).count();
+            }
+        }
+
+        // No condition image, it can't be fulfilled
+        const DetectionResult& result = batchResults[i];
+        if (batchTemplates[i] != nullptr) {
+            if (!batchReused[i]) onLocalitySearchCompleted(batch.conditionIds[i], result, batchLocalitySamples[i]);
+            onDetectionCompleted(batch.conditionIds[i], getBatchDetectionRoi(batch, i), batch.thresholds[i], result,
+                                 batchReused[i]);
+        }
+        bool isFulfilled = batchTemplates[i] != nullptr && result.isDetected == (batch.shouldBeDetected[i] == JNI_TRUE);
+
+        jint* resultValues = batch.results + i * BATCH_RESULT_STRIDE;
+        resultValues[0] = result.isDetected ? 1 : 0;
+        resultValues[1] = isFulfilled ? 1 : 0;
+        resultValues[2] = (jint) result.centerX;
+        resultValues[3] = (jint) result.centerY;
+        batch.confidenceRates[i] = result.maxVal;
+        evaluatedCount++;
+
+        // Short circuit once the result of the batch is known
+        if (batch.conditionsOperator == BATCH_OPERATOR_AND && !isFulfilled) break;
+        if (batch.conditionsOperator == BATCH_OPERATOR_OR && isFulfilled) break;
+    }
+
+    return evaluatedCount;
+}
+
+DetectionResult Detector::matchBatchCondition(const DetectionBatch& batch, int index, LocalitySample& localitySample,
+                                              MatchingBuffers& buffers) const {
+    const ConditionTemplate* conditionTemplate = batchTemplates[index];
+    if (conditionTemplate == nullptr) {
+        DetectionResult emptyResult;
+        emptyResult.reset();
+        return emptyResult;
+    }
+
+    return matchConditionLocalityFirst(batch.conditionIds[index], *conditionTemplate, getBatchDetectionRoi(batch, index),
+                                       batch.thresholds[index], localitySample, buffers);
+}
+
+cv::Rect Detector::getBatchDetectionRoi(const DetectionBatch& batch, int index) const {
+    if (batch.detectionTypes[index] == BATCH_DETECTION_TYPE_WHOLE_SCREEN) return getFullScreenRoi();
+
+    const jint* area = batch.areas + index * BATCH_AREA_STRIDE;
+    return {area[0], area[1], area[2], area[3]};
+}
+
+void Detector::setDetectionThreadCount(int threadCount) {
+    if (workerPool != nullptr && workerPool->getThreadCount() == threadCount) return;
+
+    // The calling thread also matches conditions, so it is not part of the pool.
+    workerPool = threadCount > 1 ? std::make_unique<WorkerPool>(threadCount - 1) : nullptr;
+    matchingBuffers.resize(workerPool != nullptr ? workerPool->getThreadCount() : 1);
+}
+
+const ConditionTemplate* Detector::getBatchConditionTemplate(JNIEnv *env, const DetectionBatch& batch, int index) {
+    jobject conditionImage = env->GetObjectArrayElement(batch.conditionBitmaps, index);
+    if (conditionImage == nullptr) return nullptr;
+
+    auto conditionTemplate = getConditionTemplate(env, batch.conditionIds[index], conditionImage);
+
+    // Avoid overflowing the local references table with big batches
+    env->DeleteLocalRef(conditionImage);
+    return conditionTemplate;
+}
+
+bool Detector::isScreenImageNotSet(JNIEnv *env) const {
+    if (!colorCurrentImage->empty() && !scaledGrayCurrentImage->empty()) return false;
+
+    __android_log_print(ANDROID_LOG_ERROR, "Detector",
+                        "detectCondition caught an exception");
+    jclass je = env->FindClass("java/lang/Exception");
+    env->ThrowNew(je, "Can't detect condition, scaledGrayCurrentImage is empty !");
+    return true;
+}
+
+cv::Rect Detector::getFullScreenRoi() const {
+    return {0, 0, fullSizeScreen.width, fullSizeScreen.height};
+}
+
+cv::Rect Detector::getScaledImageRoi(const cv::Rect& fullSizeRoi) const {
+    return getScaledRoi(fullSizeRoi, scaleRatio) & cv::Rect(0, 0, scaledGrayCurrentImage->cols, scaledGrayCurrentImage->rows);
+}
+
+cv::Rect Detector::getColorImageRoi(const cv::Rect& fullSizeRoi) const {
+    if (captureRatio == 1) return fullSizeRoi;
+    return getScaledRoi(fullSizeRoi, captureRatio) & cv::Rect(0, 0, colorCurrentImage->cols, colorCurrentImage->rows);
+}
+
+const ConditionTemplate* Detector::getConditionTemplate(JNIEnv *env, jlong conditionId, jobject conditionImage) {
+    auto cachedTemplate = conditionsCache.find(conditionId);
+    if (cachedTemplate != conditionsCache.end()) return cachedTemplate->second.get();
+
+    // Not in cache, copy the condition pixels, as the bitmap can be recycled once the detection is done.
+    auto fullSizeColorCondition = cloneColorMatFromARGB8888BitmapData(env, conditionImage);
+    if (fullSizeColorCondition == nullptr) return nullptr;
+
+    auto conditionTemplate = std::make_unique<ConditionTemplate>();
+    conditionTemplate->scaledGray = scaleAndChangeToGray(*fullSizeColorCondition);
+    conditionTemplate->colorMeans = mean(*fullSizeColorCondition);
+    if (conditionTemplate->scaledGray->cols >= PYRAMID_MIN_CONDITION_SIZE * PYRAMID_FACTOR
+            && conditionTemplate->scaledGray->rows >= PYRAMID_MIN_CONDITION_SIZE * PYRAMID_FACTOR) {
+        conditionTemplate->coarseGray = std::make_unique<cv::Mat>();
+        scaleToPyramidCoarse(*conditionTemplate->scaledGray, *conditionTemplate->coarseGray);
+    }
+    conditionTemplate->exactMatch.initialize(*conditionTemplate->scaledGray);
+    conditionTemplate->fullSizeColor = std::move(fullSizeColorCondition);
+
+    auto result = conditionTemplate.get();
+    conditionsCache[conditionId] = std::move(conditionTemplate);
+    return result;
+}
+
+void Detector::clearConditionsCache() {
+    conditionsCache.clear();
+    localityHints.clear();
+    reusableResults.clear();
+}
+
 std::unique_ptr<Mat> Detector::scaleAndChangeToGray(const cv::Mat& fullSizeColored) const {
-    // Convert the condition into a gray mat
-    cv::Mat fullSizeGrayCondition(fullSizeColored.rows, fullSizeColored.cols, CV_8UC1);
-    cv::cvtColor(fullSizeColored, fullSizeGrayCondition, cv::COLOR_RGBA2GRAY);
+    // Scale it, in the same order than the screen image to get the same gray values for the same pixels
+    auto scaledColorCondition = Mat(max((int) (fullSizeColored.rows * scaleRatio), 1),
+                                    max((int) (fullSizeColored.cols * scaleRatio), 1),
+                                    CV_8UC4);
+    scaleMat(fullSizeColored, scaleRatio, scaledColorCondition);
 
-    // Scale it
-    auto scaledGrayCondition = Mat(max((int) (fullSizeGrayCondition.rows * scaleRatio), 1),
-                                   max((int) (fullSizeGrayCondition.cols * scaleRatio), 1),
-                                   CV_8UC1);
-    scaleMat(fullSizeGrayCondition, scaleRatio, scaledGrayCondition);
+    // Convert the condition into a gray mat
+    auto scaledGrayCondition = std::make_unique<cv::Mat>(scaledColorCondition.rows, scaledColorCondition.cols, CV_8UC1);
+    cv::cvtColor(scaledColorCondition, *scaledGrayCondition, cv::COLOR_RGBA2GRAY);
 
-    return std::make_unique<cv::Mat>(scaledGrayCondition);
+    return scaledGrayCondition;
 }
 
-std::unique_ptr<Mat> Detector::matchTemplate(const Mat& image, const Mat& condition) {
-    cv::Mat resultMat(max(image.rows - condition.rows + 1, 0),
-                      max(image.cols - condition.cols + 1, 0),
-                      CV_32F);
+Mat Detector::matchTemplate(const Mat& image, const Mat& condition, ReusableBuffer& resultsBuffer) const {
+    // The results have the size expected by OpenCV, so it writes them in the buffer memory instead of allocating.
+    cv::Mat resultMat = resultsBuffer.getImage(max(image.rows - condition.rows + 1, 0),
+                                               max(image.cols - condition.cols + 1, 0),
+                                               CV_32F, bufferAllocations);
+    const uchar* bufferData = resultMat.data;
 
     cv::matchTemplate(image, condition, resultMat, cv::TM_CCOEFF_NORMED);
 
-    return std::make_unique<cv::Mat>(resultMat);
+    bufferAllocations.onImageWritten(resultMat, bufferData);
+    return resultMat;
+}
+
+Mat Detector::matchTemplatePyramid(const Mat& image, const cv::Rect& scaledDetectionRoi, const Mat& condition,
+                                   const Mat& coarseCondition, MatchingBuffers& buffers) const {
+    // Match at the coarse level. If the coarse area is too small after the rounding, fallback to the full matching.
+    auto coarseDetectionRoi = getPyramidCoarseRoi(scaledDetectionRoi, *coarseGrayCurrentImage);
+    if (coarseDetectionRoi.width < coarseCondition.cols || coarseDetectionRoi.height < coarseCondition.rows) {
+        return matchTemplate(image, condition, buffers.results);
+    }
+    auto coarseResults = matchTemplate(Mat(*coarseGrayCurrentImage, coarseDetectionRoi), coarseCondition, buffers.coarseResults);
+
+    auto refinedResults = buffers.results.getImage(max(image.rows - condition.rows + 1, 0),
+                                                   max(image.cols - condition.cols + 1, 0),
+                                                   CV_32F, bufferAllocations);
+    refinedResults.setTo(cv::Scalar(0));
+
+    // Refine the best candidates at the working scale, and keep their results only
+    double coarseMaxVal;
+    cv::Point coarseMaxLoc;
+    for (int i = 0; i < PYRAMID_CANDIDATES_COUNT; i++) {
+        minMaxLoc(coarseResults, nullptr, &coarseMaxVal, nullptr, &coarseMaxLoc, Mat());
+        if (coarseMaxVal <= PYRAMID_INVALID_CANDIDATE) break;
+        markCandidateAsInvalidInCoarseResults(coarseMaxLoc, coarseCondition, coarseResults);
+
+        // Convert the coarse location into the searched image coordinates
+        cv::Point candidateLoc(
+                (coarseDetectionRoi.x + coarseMaxLoc.x) * PYRAMID_FACTOR - scaledDetectionRoi.x,
+                (coarseDetectionRoi.y + coarseMaxLoc.y) * PYRAMID_FACTOR - scaledDetectionRoi.y);
+        auto refineRoi = getPyramidRefineRoi(candidateLoc, condition, image);
+        if (refineRoi.width < condition.cols || refineRoi.height < condition.rows) continue;
+
+        auto candidateResults = matchTemplate(Mat(image, refineRoi), condition, buffers.candidateResults);
+        candidateResults.copyTo(Mat(refinedResults, cv::Rect(refineRoi.x, refineRoi.y, candidateResults.cols, candidateResults.rows)));
+    }
+
+    return refinedResults;
 }
 
 void Detector::locateMinMax(const Mat& matchingResult, DetectionResult& results) {
@@ -185,12 +728,15 @@ void Detector::locateMinMax(const Mat& matchingResult, DetectionResult& results)
 }
 
 bool Detector::isResultAboveThreshold(const DetectionResult& results, const int threshold) {
-    return results.maxVal > ((double) (100 - threshold) / 100);
+    return results.maxVal > getMinimumMatchingScore(threshold);
+}
+
+double Detector::getMinimumMatchingScore(const int threshold) {
+    return (double) (100 - threshold) / 100;
 }
 
-double Detector::getColorDiff(const cv::Mat& image, const cv::Mat& condition) {
+double Detector::getColorDiff(const cv::Mat& image, const cv::Scalar& conditionColorMeans) {
     auto imageColorMeans = mean(image);
-    auto conditionColorMeans = mean(condition);
 
     double diff = 0;
     for (int i = 0; i < 3; i++) {
@@ -199,10 +745,10 @@ double Detector::getColorDiff(const cv::Mat& image, const cv::Mat& condition) {
     return (diff * 100) / (255 * 3);
 }
 
-cv::Rect Detector::getDetectionResultFullSizeRoi(const cv::Rect& fullSizeDetectionRoi, int fullSizeWidth, int fullSizeHeight) const {
+cv::Rect Detector::getDetectionResultFullSizeRoi(const DetectionResult& result, const cv::Rect& fullSizeDetectionRoi, int fullSizeWidth, int fullSizeHeight) const {
     return {
-            fullSizeDetectionRoi.x + cvRound(detectionResult.maxLoc.x / scaleRatio),
-            fullSizeDetectionRoi.y + cvRound(detectionResult.maxLoc.y / scaleRatio),
+            fullSizeDetectionRoi.x + cvRound(result.maxLoc.x / scaleRatio),
+            fullSizeDetectionRoi.y + cvRound(result.maxLoc.y / scaleRatio),
             fullSizeWidth,
             fullSizeHeight
     };
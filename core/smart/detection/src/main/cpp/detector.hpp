@@ -16,9 +16,19 @@
  */
 
 #include <jni.h>
+#include <unordered_map>
+#include <vector>
 #include <opencv2/imgproc/imgproc.hpp>
 
+#include "types/conditionTemplate.hpp"
+#include "types/detectionBatch.hpp"
 #include "types/detectionResult.hpp"
+#include "types/frameTiles.hpp"
+#include "types/localitySearch.hpp"
+#include "types/occurrenceSearch.hpp"
+#include "types/resultReuse.hpp"
+#include "types/reusableBuffer.hpp"
+#include "utils/workerPool.hpp"
 
 namespace smartautoclicker {
 
@@ -27,21 +37,155 @@ namespace smartautoclicker {
     private:
         double scaleRatio = 1;
 
-        std::unique_ptr<cv::Mat> fullSizeColorCurrentImage = nullptr;
+        /** Ratio between the captured screen images and the screen. Lower than 1 if the screen is captured scaled. */
+        double captureRatio = 1;
+        /** Ratio between the scaled gray current image and the captured screen image. */
+        double frameScaleRatio = 1;
+        /** The size of the screen. All areas and positions are in this coordinates space. */
+        cv::Size fullSizeScreen;
+
+        /**
+         * The captured screen image, in color. Its size is the screen size multiplied by the capture ratio.
+         * Set on the pixels of each new image without copy, empty if there is no valid image.
+         */
+        std::unique_ptr<cv::Mat> colorCurrentImage = std::make_unique<cv::Mat>();
+        /** The captured screen image scaled with the frame scale ratio, before its conversion to gray. Reused for each image. */
+        std::unique_ptr<cv::Mat> scaledColorCurrentImage = std::make_unique<cv::Mat>();
         std::unique_ptr<cv::Mat> scaledGrayCurrentImage = std::make_unique<cv::Mat>();
-
-        DetectionResult detectionResult;
+        /** The scaled gray current image reduced for the coarse level of the pyramid matching. */
+        std::unique_ptr<cv::Mat> coarseGrayCurrentImage = std::make_unique<cv::Mat>();
+
+        /** The tiles of the scaled gray current image, tracking the areas changed since the previous image. */
+        FrameTiles currentImageTiles;
+        /** Incremented for each image different from the previous one. */
+        long long frameGeneration = 0;
+
+        /** The last result of the conditions, by condition identifier. Only modified by the calling thread. */
+        std::unordered_map<jlong, ReusableResult> reusableResults;
+        /** Statistics of the results reuse, by condition identifier. */
+        std::unordered_map<jlong, ReuseStats> reuseStats;
+
+        /** The pre-processed conditions images, by condition identifier. Valid only for the current scale ratio. */
+        std::unordered_map<jlong, std::unique_ptr<ConditionTemplate>> conditionsCache;
+
+        /** The last known position of the conditions, by condition identifier. Only modified by the calling thread. */
+        std::unordered_map<jlong, LocalityHint> localityHints;
+        /** Statistics of the locality search. */
+        LocalityStats localityStats;
+
+        /** Threads matching the conditions of a batch in parallel. Null if the batches are processed sequentially. */
+        std::unique_ptr<WorkerPool> workerPool = nullptr;
+        /** The templates of the batch currently detected, resolved before the matching. */
+        std::vector<const ConditionTemplate*> batchTemplates;
+        /** The results of the batch currently detected, one per condition. */
+        std::vector<DetectionResult> batchResults;
+        /** The locality search information of the batch currently detected, one per condition. */
+        std::vector<LocalitySample> batchLocalitySamples;
+        /** For each condition of the batch currently detected, true if the result of the previous frame is reused. */
+        std::vector<bool> batchReused;
+        /** The values of the batch currently detected, copied from the Java arrays. */
+        DetectionBatchBuffers batchBuffers;
+
+        /** The buffers for the matching, one per thread matching the conditions. The calling thread uses the first one. */
+        std::vector<MatchingBuffers> matchingBuffers = std::vector<MatchingBuffers>(1);
+        /** The local maxima of the matching results of the current occurrences search. */
+        std::vector<OccurrenceCandidate> occurrenceCandidates;
+        /** The location in the matching results of the occurrences found by the current search. */
+        std::vector<cv::Point> occurrenceLocations;
+        /** The center of the occurrences found by the current search, as [x, y] in screen coordinates. */
+        std::vector<jint> occurrenceCenters;
+
+        /** The allocations of the images owned by the detector. Updated by all threads matching the conditions. */
+        mutable BufferAllocations bufferAllocations;
+
+        void updateScaleRatio(JNIEnv *env, jstring metricsTag, double detectionQuality);
+        /** Get the area of the captured color image corresponding to a full size area. Can be empty. */
+        cv::Rect getColorImageRoi(const cv::Rect& fullSizeRoi) const;
+        void updateScaledCurrentImages();
 
         std::unique_ptr<cv::Mat> scaleAndChangeToGray(const cv::Mat &fullSizeColored) const;
-
-        static std::unique_ptr<cv::Mat> matchTemplate(const cv::Mat& image, const cv::Mat& condition);
+        const ConditionTemplate* getConditionTemplate(JNIEnv *env, jlong conditionId, jobject conditionImage);
+        const ConditionTemplate* getBatchConditionTemplate(JNIEnv *env, const DetectionBatch& batch, int index);
+
+        bool isScreenImageNotSet(JNIEnv *env) const;
+        cv::Rect getFullScreenRoi() const;
+
+        /** Match a condition in an image. The returned results use the memory of [resultsBuffer]. */
+        cv::Mat matchTemplate(const cv::Mat& image, const cv::Mat& condition, ReusableBuffer& resultsBuffer) const;
+        /**
+         * Match a condition at the coarse pyramid level first, then refine the best candidates at the working scale.
+         * The returned results have the same size than [matchTemplate] ones, with 0 outside of the refined candidates.
+         */
+        cv::Mat matchTemplatePyramid(const cv::Mat& image, const cv::Rect& scaledDetectionRoi, const cv::Mat& condition,
+                                     const cv::Mat& coarseCondition, MatchingBuffers& buffers) const;
         static void locateMinMax(const cv::Mat& matchingResult, DetectionResult& results);
         static bool isResultAboveThreshold(const DetectionResult& results, const int threshold);
-        static double getColorDiff(const cv::Mat& image, const cv::Mat& condition);
-
-        cv::Rect getDetectionResultFullSizeRoi(const cv::Rect& detectionRoi, int fullSizeWidth, int fullSizeHeight) const;
-
-        DetectionResult detectCondition(JNIEnv *env, jobject conditionImage, cv::Rect fullSizeDetectionRoi, int threshold);
+        /** Get the matching score a result must exceed to be detected with the given threshold. */
+        static double getMinimumMatchingScore(const int threshold);
+        static double getColorDiff(const cv::Mat& image, const cv::Scalar& conditionColorMeans);
+
+        cv::Rect getDetectionResultFullSizeRoi(const DetectionResult& result, const cv::Rect& detectionRoi, int fullSizeWidth, int fullSizeHeight) const;
+
+        DetectionResult detectCondition(JNIEnv *env, jlong conditionId, jobject conditionImage, cv::Rect fullSizeDetectionRoi, int threshold);
+        const std::vector<jint>& detectAllOccurrences(JNIEnv *env, jlong conditionId, jobject conditionImage,
+                                                      cv::Rect fullSizeDetectionRoi, int threshold, int maxResults);
+
+        /**
+         * Get the part of the scaled gray current image to match a condition template in.
+         * @return false if the detection area is invalid for this condition. The reason is logged.
+         */
+        bool getDetectionImage(const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeDetectionRoi,
+                               cv::Rect& scaledDetectionRoi, cv::Mat& croppedGrayCurrentImage) const;
+        /** Tells if the colors of the captured image in a full size area are close to the condition ones. */
+        bool isColorMatching(const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeMatchingRoi, int threshold) const;
+
+        /**
+         * Match a condition template on the current screen image. Thread safe, the screen image is only read, as long
+         * as each thread uses its own [buffers].
+         */
+        DetectionResult matchCondition(const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeDetectionRoi, int threshold,
+                                       MatchingBuffers& buffers) const;
+        /**
+         * Find the best candidate of the matching results above the threshold and with the condition colors. The
+         * candidates rejected are marked as invalid in [matchingResults].
+         *
+         * @return true if a candidate above the threshold has been rejected because of its colors.
+         */
+        bool findDetectedCandidate(const ConditionTemplate& conditionTemplate, cv::Mat& matchingResults,
+                                   const cv::Rect& fullSizeDetectionRoi, int threshold, DetectionResult& detectionResult) const;
+        /**
+         * Match a condition template in a detection area of its size, such as an EXACT condition one. The matching
+         * score is computed in a single pass, stopping as soon as the threshold can't be reached.
+         */
+        DetectionResult matchConditionAtPosition(const ConditionTemplate& conditionTemplate, const cv::Mat& croppedGrayCurrentImage,
+                                                 const cv::Rect& fullSizeDetectionRoi, int threshold) const;
+        DetectionResult matchBatchCondition(const DetectionBatch& batch, int index, LocalitySample& localitySample,
+                                            MatchingBuffers& buffers) const;
+        /**
+         * Match a condition template around its last known position first, then in the whole detection area if it
+         * wasn't found. Thread safe, the locality hints are only read.
+         */
+        DetectionResult matchConditionLocalityFirst(jlong conditionId, const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeDetectionRoi,
+                                                    int threshold, LocalitySample& localitySample, MatchingBuffers& buffers) const;
+        /** Update the locality hint of a condition and the statistics. Must be called from the calling thread. */
+        void onLocalitySearchCompleted(jlong conditionId, const DetectionResult& result, const LocalitySample& localitySample);
+
+        /**
+         * Get the result of a condition on the previous image, if it is still valid for the current one.
+         * For a condition in a part of the screen, none of the tiles of its detection area must have changed. For a
+         * condition in the whole screen, it must have been detected on a position with no changed tiles, and only a
+         * few tiles must have changed elsewhere.
+         *
+         * @return true if the result can be reused, false if the condition must be detected again.
+         */
+        bool findReusableResult(jlong conditionId, const ConditionTemplate& conditionTemplate, const cv::Rect& fullSizeDetectionRoi,
+                                int threshold, DetectionResult& result) const;
+        /** Keep the result of a condition for the next images, and update the statistics. Must be called from the calling thread. */
+        void onDetectionCompleted(jlong conditionId, const cv::Rect& fullSizeDetectionRoi, int threshold,
+                                  const DetectionResult& result, bool isReused);
+        /** Get the area of the scaled gray current image corresponding to a full size area. Can be empty. */
+        cv::Rect getScaledImageRoi(const cv::Rect& fullSizeRoi) const;
+        cv::Rect getBatchDetectionRoi(const DetectionBatch& batch, int index) const;
 
     public:
 
@@ -49,10 +193,61 @@ namespace smartautoclicker {
 
         void setScreenMetrics(JNIEnv *env, jstring metricsTag, jobject screenImage, double detectionQuality);
 
+        /**
+         * Set the screen metrics from a direct RGBA_8888 buffer. The buffer image can be smaller than the screen, if
+         * it is captured at a lower resolution, but must have the same aspect ratio.
+         */
+        void setScreenMetrics(JNIEnv *env, jstring metricsTag, jobject screenBuffer, int width, int height, int rowStride,
+                              int screenWidth, int screenHeight, double detectionQuality);
+
         void setScreenImage(JNIEnv *env, jobject screenImage);
 
-        DetectionResult detectCondition(JNIEnv *env, jobject conditionImage, int threshold);
-        DetectionResult detectCondition(JNIEnv *env, jobject conditionImage, int x, int y, int width, int height, int threshold);
+        /** Use the pixels of a direct RGBA_8888 buffer as screen image, without copy. It must stay valid until the next image. */
+        void setScreenImage(JNIEnv *env, jobject screenBuffer, int width, int height, int rowStride);
+
+        /**
+         * Forget the pixels of the current screen image, once its memory is no longer valid. The scaled images are kept,
+         * but no detection can be made until the next image.
+         */
+        void releaseScreenImage();
+
+        /**
+         * Tells if the current screen image is different from the previous one, as seen by the detection. Always true
+         * for the first image after a call to setScreenMetrics.
+         */
+        bool isScreenImageChanged() const;
+
+        DetectionResult detectCondition(JNIEnv *env, jlong conditionId, jobject conditionImage, int threshold);
+        DetectionResult detectCondition(JNIEnv *env, jlong conditionId, jobject conditionImage, int x, int y, int width, int height, int threshold);
+
+        /**
+         * Detect all occurrences of a condition in a detection area, from the best match to the worst one. Candidates
+         * overlapping a better occurrence are suppressed.
+         *
+         * @return the center of each occurrence, as [x, y] in screen coordinates. Valid until the next call.
+         */
+        const std::vector<jint>& detectAllOccurrences(JNIEnv *env, jlong conditionId, jobject conditionImage, int threshold, int maxResults);
+        const std::vector<jint>& detectAllOccurrences(JNIEnv *env, jlong conditionId, jobject conditionImage, int x, int y, int width,
+                                                      int height, int threshold, int maxResults);
+
+        /** Get the buffers to copy the values of a batch of [count] conditions in, before calling detectConditions. */
+        DetectionBatchBuffers& getBatchBuffers(int count);
+
+        int detectConditions(JNIEnv *env, const DetectionBatch& batch);
+
+        void setDetectionThreadCount(int threadCount);
+
+        void clearConditionsCache();
+
+        const LocalityStats& getLocalityStats() const;
+
+        const std::unordered_map<jlong, ReuseStats>& getReuseStats() const;
+
+        /**
+         * Get the number of times the memory of the detector images and buffers have been allocated. It only changes
+         * with the screen metrics or the conditions, a steady detection shouldn't allocate anything.
+         */
+        long long getBufferAllocationCount() const;
     };
 }
 
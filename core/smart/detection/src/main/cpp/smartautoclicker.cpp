@@ -20,37 +20,49 @@
 #include <jni.h>
 #include <opencv2/imgproc/imgproc.hpp>
 #include <string>
+#include <vector>
 
 #include "detector.hpp"
 
 using namespace smartautoclicker;
 
+/** The field id of NativeDetector.nativePtr. Resolved once, at the first call to getObject. */
+static jfieldID nativeObjectPointerID = nullptr;
+/** The method id of DetectionResult.setResults. Resolved once, at the first call to setDetectionResult. */
+static jmethodID setResultsMethodID = nullptr;
+
 /**
  * This function is a helper providing the boiler plate code to return the native object from Java object.
  * The "nativePtr" is reached from this code, casted to Detector's pointer and returned. This will be used in
  * all our native methods wrappers to recover the object before invoking it's methods.
  */
 static Detector *getObject(JNIEnv *env, jobject self) {
-    jclass cls = env->GetObjectClass(self);
-    if (!cls)
-        env->FatalError("GetObjectClass failed");
+    if (!nativeObjectPointerID) {
+        jclass cls = env->GetObjectClass(self);
+        if (!cls)
+            env->FatalError("GetObjectClass failed");
 
-    jfieldID nativeObjectPointerID = env->GetFieldID(cls, "nativePtr", "J");
-    if (!nativeObjectPointerID)
-        env->FatalError("GetFieldID failed");
+        nativeObjectPointerID = env->GetFieldID(cls, "nativePtr", "J");
+        if (!nativeObjectPointerID)
+            env->FatalError("GetFieldID failed");
+    }
 
     jlong nativeObjectPointer = env->GetLongField(self, nativeObjectPointerID);
     return reinterpret_cast<Detector *>(nativeObjectPointer);
 }
 
 static void setDetectionResult(JNIEnv *env, jobject self, DetectionResult result) {
-    jclass cls = env->GetObjectClass(self);
-    if (!cls)
-        env->FatalError("GetObjectClass failed");
+    if (!setResultsMethodID) {
+        jclass cls = env->GetObjectClass(self);
+        if (!cls)
+            env->FatalError("GetObjectClass failed");
 
-    jmethodID methodId = env->GetMethodID(cls, "setResults", "(ZIID)V");
+        setResultsMethodID = env->GetMethodID(cls, "setResults", "(ZIID)V");
+        if (!setResultsMethodID)
+            env->FatalError("GetMethodID failed");
+    }
 
-    env->CallVoidMethod(self, methodId, result.isDetected, (int) result.centerX, (int) result.centerY, result.maxVal);
+    env->CallVoidMethod(self, setResultsMethodID, result.isDetected, (int) result.centerX, (int) result.centerY, result.maxVal);
 }
 
 extern "C" {
@@ -79,19 +91,62 @@ extern "C" {
         getObject(env, self)->setScreenImage(env, screenBitmap);
     }
 
+    JNIEXPORT void JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_updateScreenMetricsFromBuffer(
+            JNIEnv *env,
+            jobject self,
+            jstring metricsTag,
+            jobject screenBuffer,
+            jint width,
+            jint height,
+            jint rowStride,
+            jint screenWidth,
+            jint screenHeight,
+            jdouble detectionQuality
+    ) {
+        getObject(env, self)->setScreenMetrics(env, metricsTag, screenBuffer, width, height, rowStride, screenWidth,
+                                               screenHeight, detectionQuality);
+    }
+
+    JNIEXPORT void JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_setScreenImageFromBuffer(
+            JNIEnv *env,
+            jobject self,
+            jobject screenBuffer,
+            jint width,
+            jint height,
+            jint rowStride
+    ) {
+        getObject(env, self)->setScreenImage(env, screenBuffer, width, height, rowStride);
+    }
+
+    JNIEXPORT void JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_clearScreenImage(
+            JNIEnv *env,
+            jobject self
+    ) {
+        getObject(env, self)->releaseScreenImage();
+    }
+
+    JNIEXPORT jboolean JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_isScreenImageChanged(
+            JNIEnv *env,
+            jobject self
+    ) {
+        return getObject(env, self)->isScreenImageChanged();
+    }
+
     JNIEXPORT void JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_detect(
             JNIEnv *env,
             jobject self,
+            jlong conditionId,
             jobject conditionBitmap,
             jint threshold,
             jobject result
     ) {
-        setDetectionResult(env, result, getObject(env, self)->detectCondition(env, conditionBitmap, threshold));
+        setDetectionResult(env, result, getObject(env, self)->detectCondition(env, conditionId, conditionBitmap, threshold));
     }
 
     JNIEXPORT void JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_detectAt(
             JNIEnv *env,
             jobject self,
+            jlong conditionId,
             jobject conditionBitmap,
             jint x,
             jint y,
@@ -100,7 +155,132 @@ extern "C" {
             jint threshold,
             jobject result
     ) {
-        setDetectionResult(env, result, getObject(env, self)->detectCondition(env, conditionBitmap, x, y, width, height, threshold));
+        setDetectionResult(env, result, getObject(env, self)->detectCondition(env, conditionId, conditionBitmap, x, y, width, height, threshold));
+    }
+
+    JNIEXPORT jintArray JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_detectAll(
+            JNIEnv *env,
+            jobject self,
+            jlong conditionId,
+            jobject conditionBitmap,
+            jboolean inWholeScreen,
+            jint x,
+            jint y,
+            jint width,
+            jint height,
+            jint threshold,
+            jint maxResults
+    ) {
+        Detector* detector = getObject(env, self);
+        const std::vector<jint>& occurrences = inWholeScreen == JNI_TRUE
+                ? detector->detectAllOccurrences(env, conditionId, conditionBitmap, threshold, maxResults)
+                : detector->detectAllOccurrences(env, conditionId, conditionBitmap, x, y, width, height, threshold, maxResults);
+        if (env->ExceptionCheck()) return nullptr;
+
+        jintArray result = env->NewIntArray((jsize) occurrences.size());
+        if (result != nullptr) env->SetIntArrayRegion(result, 0, (jsize) occurrences.size(), occurrences.data());
+        return result;
+    }
+
+    JNIEXPORT jint JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_detectBatch(
+            JNIEnv *env,
+            jobject self,
+            jint count,
+            jint conditionsOperator,
+            jlongArray conditionIds,
+            jobjectArray conditionBitmaps,
+            jintArray areas,
+            jintArray thresholds,
+            jintArray detectionTypes,
+            jbooleanArray shouldBeDetected,
+            jintArray results,
+            jdoubleArray confidenceRates,
+            jlongArray durationsNs
+    ) {
+        Detector* detector = getObject(env, self);
+
+        // Copy the values in the detector buffers, the arrays elements accessors could allocate a copy at each call.
+        DetectionBatchBuffers& buffers = detector->getBatchBuffers(count);
+        env->GetLongArrayRegion(conditionIds, 0, count, buffers.conditionIds.data());
+        env->GetIntArrayRegion(areas, 0, count * BATCH_AREA_STRIDE, buffers.areas.data());
+        env->GetIntArrayRegion(thresholds, 0, count, buffers.thresholds.data());
+        env->GetIntArrayRegion(detectionTypes, 0, count, buffers.detectionTypes.data());
+        env->GetBooleanArrayRegion(shouldBeDetected, 0, count, buffers.shouldBeDetected.data());
+
+        DetectionBatch batch;
+        batch.count = count;
+        batch.conditionsOperator = conditionsOperator;
+        batch.conditionBitmaps = conditionBitmaps;
+        batch.conditionIds = buffers.conditionIds.data();
+        batch.areas = buffers.areas.data();
+        batch.thresholds = buffers.thresholds.data();
+        batch.detectionTypes = buffers.detectionTypes.data();
+        batch.shouldBeDetected = buffers.shouldBeDetected.data();
+        batch.results = buffers.results.data();
+        batch.confidenceRates = buffers.confidenceRates.data();
+        batch.durationsNs = buffers.durationsNs.data();
+
+        int evaluatedCount = detector->detectConditions(env, batch);
+
+        // Inputs are read only, only the results of the evaluated conditions needs to be copied back
+        if (evaluatedCount > 0) {
+            env->SetIntArrayRegion(results, 0, evaluatedCount * BATCH_RESULT_STRIDE, buffers.results.data());
+            env->SetDoubleArrayRegion(confidenceRates, 0, evaluatedCount, buffers.confidenceRates.data());
+            env->SetLongArrayRegion(durationsNs, 0, evaluatedCount, buffers.durationsNs.data());
+        }
+
+        return evaluatedCount;
+    }
+
+    JNIEXPORT void JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_setThreadCount(
+            JNIEnv *env,
+            jobject self,
+            jint threadCount
+    ) {
+        getObject(env, self)->setDetectionThreadCount(threadCount);
+    }
+
+    JNIEXPORT void JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_getLocalityStats(
+            JNIEnv *env,
+            jobject self,
+            jlongArray stats
+    ) {
+        const LocalityStats& localityStats = getObject(env, self)->getLocalityStats();
+        jlong values[] = { localityStats.searchCount, localityStats.hitCount, localityStats.savedTimeNs };
+        env->SetLongArrayRegion(stats, 0, 3, values);
+    }
+
+    JNIEXPORT jlongArray JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_getReuseStats(
+            JNIEnv *env,
+            jobject self
+    ) {
+        const auto& reuseStats = getObject(env, self)->getReuseStats();
+
+        std::vector<jlong> values;
+        values.reserve(reuseStats.size() * 3);
+        for (const auto& conditionStats : reuseStats) {
+            values.push_back(conditionStats.first);
+            values.push_back(conditionStats.second.detectionCount);
+            values.push_back(conditionStats.second.reuseCount);
+        }
+
+        jlongArray stats = env->NewLongArray((jsize) values.size());
+        if (stats != nullptr) env->SetLongArrayRegion(stats, 0, (jsize) values.size(), values.data());
+        return stats;
+    }
+
+    JNIEXPORT jlong JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_getAllocationCount(
+            JNIEnv *env,
+            jobject self
+    ) {
+        return getObject(env, self)->getBufferAllocationCount();
+    }
+
+    JNIEXPORT void JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_clearCache(
+            JNIEnv *env,
+            jobject self
+    ) {
+        getObject(env, self)->clearConditionsCache();
     }
 
     JNIEXPORT void JNICALL Java_com_buzbuz_smartautoclicker_core_detection_NativeDetector_deleteDetector(
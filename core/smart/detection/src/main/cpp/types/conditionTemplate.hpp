@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <memory>
+#include <opencv2/core/mat.hpp>
+
+#include "exactMatchTemplate.hpp"
+
+namespace smartautoclicker {
+
+    /**
+     * The pre-processed content of a condition image.
+     * Computed once per scale ratio and kept across frames by the detector.
+     */
+    class ConditionTemplate {
+
+    public:
+        /** Copy of the condition bitmap pixels, in RGBA. */
+        std::unique_ptr<cv::Mat> fullSizeColor;
+        /** The condition converted to gray and scaled with the detector scale ratio. */
+        std::unique_ptr<cv::Mat> scaledGray;
+        /** The scaled gray condition reduced for the coarse pyramid level. Null if it is too small for the pyramid. */
+        std::unique_ptr<cv::Mat> coarseGray;
+        /** The mean of each color channel of the condition. */
+        cv::Scalar colorMeans;
+        /** The statistics of the scaled gray condition for the detection at a single position. */
+        ExactMatchTemplate exactMatch;
+    };
+}
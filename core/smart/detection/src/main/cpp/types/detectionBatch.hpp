@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <jni.h>
+#include <vector>
+
+namespace smartautoclicker {
+
+    /** Values of the batch operator. Must match DetectionBatch.kt. */
+    const int BATCH_OPERATOR_NONE = 0;
+    const int BATCH_OPERATOR_AND = 1;
+    const int BATCH_OPERATOR_OR = 2;
+
+    /** Values of the batch detection types. Must match DetectionBatch.kt. */
+    const int BATCH_DETECTION_TYPE_EXACT = 1;
+    const int BATCH_DETECTION_TYPE_WHOLE_SCREEN = 2;
+    const int BATCH_DETECTION_TYPE_IN_AREA = 3;
+
+    /** Number of values for each area, as [left, top, width, height]. */
+    const int BATCH_AREA_STRIDE = 4;
+    /** Number of values for each result, as [isDetected, isFulfilled, centerX, centerY]. */
+    const int BATCH_RESULT_STRIDE = 4;
+
+    /** The content of a detection batch, as provided by the Java code. */
+    class DetectionBatch {
+
+    public:
+        int count;
+        int conditionsOperator;
+
+        const jlong* conditionIds;
+        jobjectArray conditionBitmaps;
+        const jint* areas;
+        const jint* thresholds;
+        const jint* detectionTypes;
+        const jboolean* shouldBeDetected;
+
+        jint* results;
+        jdouble* confidenceRates;
+        jlong* durationsNs;
+    };
+
+    /**
+     * The memory the batches values are copied in, reused for each batch.
+     * The JNI array elements accessors can copy the arrays in a new memory at each call, while copying a region of
+     * the arrays in these vectors doesn't allocate anything once they are big enough.
+     */
+    class DetectionBatchBuffers {
+
+    public:
+        std::vector<jlong> conditionIds;
+        std::vector<jint> areas;
+        std::vector<jint> thresholds;
+        std::vector<jint> detectionTypes;
+        std::vector<jboolean> shouldBeDetected;
+        std::vector<jint> results;
+        std::vector<jdouble> confidenceRates;
+        std::vector<jlong> durationsNs;
+
+        /**
+         * Resize the buffers for a batch of [count] conditions.
+         * @return true if they had to grow, false if their memory is reused.
+         */
+        bool resize(int count) {
+            bool isGrowing = (size_t) count > conditionIds.capacity();
+
+            conditionIds.resize(count);
+            areas.resize(count * BATCH_AREA_STRIDE);
+            thresholds.resize(count);
+            detectionTypes.resize(count);
+            shouldBeDetected.resize(count);
+            results.resize(count * BATCH_RESULT_STRIDE);
+            confidenceRates.resize(count);
+            durationsNs.resize(count);
+
+            return isGrowing;
+        }
+    };
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <cstdint>
+#include <limits>
+#include <vector>
+#include <opencv2/core.hpp>
+
+namespace smartautoclicker {
+
+    /** The statistics of a scaled gray condition, allowing to verify it at a single position in one pass. */
+    class ExactMatchTemplate {
+
+    public:
+        /** The mean of the pixels. */
+        double mean = 0;
+        /** The sum of the squared differences between the pixels and their mean. */
+        double squareSum = 0;
+        /** For each row, the sum of the differences to the mean of this row and all previous ones. Starts with an additional 0. */
+        std::vector<double> previousCenteredSums;
+        /** For each row, the square sum of this row and all following ones. Ends with an additional 0. */
+        std::vector<double> remainingSquareSums;
+
+        /** Compute the statistics of a scaled gray condition required by [match]. */
+        void initialize(const cv::Mat& grayCondition) {
+            const int width = grayCondition.cols;
+            previousCenteredSums.assign(grayCondition.rows + 1, 0);
+            remainingSquareSums.assign(grayCondition.rows + 1, 0);
+
+            uint64_t pixelSum = 0;
+            for (int row = 0; row < grayCondition.rows; row++) {
+                const uchar* pixels = grayCondition.ptr(row);
+                for (int column = 0; column < width; column++) pixelSum += pixels[column];
+            }
+            mean = (double) pixelSum / ((double) width * grayCondition.rows);
+
+            for (int row = grayCondition.rows - 1; row >= 0; row--) {
+                const uchar* pixels = grayCondition.ptr(row);
+
+                double rowSquareSum = 0;
+                for (int column = 0; column < width; column++) {
+                    double centered = pixels[column] - mean;
+                    rowSquareSum += centered * centered;
+                }
+                remainingSquareSums[row] = remainingSquareSums[row + 1] + rowSquareSum;
+            }
+            squareSum = remainingSquareSums[0];
+
+            for (int row = 0; row < grayCondition.rows; row++) {
+                const uchar* pixels = grayCondition.ptr(row);
+
+                uint64_t rowSum = 0;
+                for (int column = 0; column < width; column++) rowSum += pixels[column];
+                previousCenteredSums[row + 1] = previousCenteredSums[row] + (double) rowSum - width * mean;
+            }
+        }
+
+        /**
+         * Compute the normalized correlation coefficient between an image and a condition of the same size, as
+         * cv::matchTemplate with TM_CCOEFF_NORMED would for its single result, without allocating any result matrix.
+         * As with OpenCV, a uniform condition has a score of 1, and a uniform image a score of 0 with any other condition.
+         *
+         * The image statistics and the correlation are accumulated row by row in a single pass. After each row, the
+         * maximum score the remaining rows can reach is bounded with the Cauchy-Schwarz inequality, and the computation
+         * stops once it can't exceed minScore. The score is unknown in this case, and 0 is returned, as for a candidate
+         * with invalid colors. Use a minScore of -1 to always get the score.
+         */
+        double match(const cv::Mat& grayImage, const cv::Mat& grayCondition, double minScore) const {
+            const int width = grayCondition.cols;
+            const int height = grayCondition.rows;
+            const uint64_t pixelCount = (uint64_t) width * height;
+
+            // Same uniform condition check than cv::matchTemplate, on the variance
+            if (squareSum / (double) pixelCount < std::numeric_limits<double>::epsilon()) return 1;
+
+            uint64_t pixelSum = 0;
+            uint64_t pixelSquareSum = 0;
+            uint64_t productSum = 0;
+            for (int row = 0; row < height; row++) {
+                const uchar* imagePixels = grayImage.ptr(row);
+                const uchar* conditionPixels = grayCondition.ptr(row);
+
+                uint64_t rowSum = 0;
+                uint64_t rowSquareSum = 0;
+                uint64_t rowProductSum = 0;
+                for (int column = 0; column < width; column++) {
+                    const uint32_t pixel = imagePixels[column];
+                    rowSum += pixel;
+                    rowSquareSum += pixel * pixel;
+                    rowProductSum += pixel * conditionPixels[column];
+                }
+                pixelSum += rowSum;
+                pixelSquareSum += rowSquareSum;
+                productSum += rowProductSum;
+
+                if (row + 1 < height && isBelowScore(row + 1, width, pixelSum, pixelSquareSum, productSum, minScore)) {
+                    return 0;
+                }
+            }
+
+            // Sum of (pixel - imageMean) * (conditionPixel - mean), the condition differences to their mean sum to 0
+            const double correlation = (double) productSum - mean * (double) pixelSum;
+            const double imageSquareSum =
+                    (double) (pixelCount * pixelSquareSum - pixelSum * pixelSum) / (double) pixelCount;
+
+            // Same uniform image check and rounding errors handling than cv::matchTemplate
+            if (imageSquareSum <= std::min(0.5, 10 * std::numeric_limits<float>::epsilon() * (double) pixelSquareSum)) {
+                return 0;
+            }
+            const double denominator = std::sqrt(imageSquareSum * squareSum);
+            if (std::fabs(correlation) < denominator) return correlation / denominator;
+            if (std::fabs(correlation) < denominator * 1.125) return correlation > 0 ? 1 : -1;
+            return 0;
+        }
+
+    private:
+        /**
+         * Tells if the score can't exceed minScore, whatever the values of the image rows following the first doneRows.
+         *
+         * With C the condition differences to their mean, and P the image differences to the image mean, the score is
+         * sum(P.C) / sqrt(sum(P²) * sum(C²)). The image mean is unknown until all rows are read, but the differences to
+         * the mean of the done rows bound the correlation of these rows, and Cauchy-Schwarz bounds the remaining ones:
+         * score² <= (max(covariance, 0)² / doneImageSquareSum + doneConditionSum² / doneCount + remainingSquareSum) / squareSum
+         */
+        bool isBelowScore(int doneRows, int width, uint64_t pixelSum, uint64_t pixelSquareSum, uint64_t productSum,
+                          double minScore) const {
+            if (minScore < 0) return false;
+
+            const double doneCount = (double) width * doneRows;
+            const double doneConditionSum = previousCenteredSums[doneRows];
+            const double doneImageMean = (double) pixelSum / doneCount;
+            const double doneImageSquareSum = (double) pixelSquareSum - (double) pixelSum * doneImageMean;
+            const double covariance = (double) productSum - mean * (double) pixelSum - doneImageMean * doneConditionSum;
+
+            double maxCorrelationSquare = doneConditionSum * doneConditionSum / doneCount + remainingSquareSums[doneRows];
+            if (covariance > 0) {
+                // A uniform image part has no covariance, it can only be rounding errors
+                if (doneImageSquareSum <= 0) return false;
+                maxCorrelationSquare += covariance * covariance / doneImageSquareSum;
+            }
+
+            return maxCorrelationSquare <= minScore * minScore * squareSum;
+        }
+    };
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+#include <cstdint>
+#include <vector>
+#include <opencv2/core/mat.hpp>
+
+#include "../utils/frameSignature.hpp"
+
+namespace smartautoclicker {
+
+    /** Size of the side of a tile, in pixels of the scaled gray image. */
+    const int FRAME_TILE_SIZE = 32;
+
+    /**
+     * Split the scaled gray image in tiles, and keep track of the tiles that have changed since the previous image.
+     * A signature is kept for each tile, and compared with the one of the same tile in the next image.
+     */
+    class FrameTiles {
+
+    private:
+        int columns = 0;
+        int rows = 0;
+        /** The signature of each tile of the last image, row by row. */
+        std::vector<uint64_t> signatures;
+        /** For each tile, 1 if it has changed since the previous image, 0 if not. */
+        std::vector<uint8_t> dirtyTiles;
+        /** The number of tiles set in [dirtyTiles]. */
+        int dirtyCount = 0;
+        /** False if there is no previous image to compare with. */
+        bool isValid = false;
+
+    public:
+        /** Compute the signatures of the tiles of a new image and compare them with the previous image ones. */
+        void update(const cv::Mat& grayImage) {
+            int newColumns = (grayImage.cols + FRAME_TILE_SIZE - 1) / FRAME_TILE_SIZE;
+            int newRows = (grayImage.rows + FRAME_TILE_SIZE - 1) / FRAME_TILE_SIZE;
+
+            // Without a previous image of the same size, all tiles are considered as changed
+            if (!isValid || newColumns != columns || newRows != rows) {
+                columns = newColumns;
+                rows = newRows;
+                signatures.assign(columns * rows, 0);
+                dirtyTiles.assign(columns * rows, 1);
+                dirtyCount = columns * rows;
+                isValid = false;
+            } else {
+                dirtyCount = 0;
+            }
+
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    cv::Rect tileRoi(column * FRAME_TILE_SIZE, row * FRAME_TILE_SIZE, FRAME_TILE_SIZE, FRAME_TILE_SIZE);
+                    tileRoi &= cv::Rect(0, 0, grayImage.cols, grayImage.rows);
+
+                    int index = row * columns + column;
+                    uint64_t signature = computeRegionSignature(grayImage, tileRoi);
+                    if (isValid) {
+                        dirtyTiles[index] = signature != signatures[index] ? 1 : 0;
+                        dirtyCount += dirtyTiles[index];
+                    }
+                    signatures[index] = signature;
+                }
+            }
+
+            isValid = true;
+        }
+
+        /** Forget the previous image. All tiles of the next image will be considered as changed. */
+        void invalidate() {
+            isValid = false;
+        }
+
+        /** Tells if at least one tile have changed since the previous image. */
+        bool isChanged() const {
+            return dirtyCount > 0;
+        }
+
+        /** Get the ratio of tiles that have changed since the previous image, between 0 and 1. */
+        double getDirtyRatio() const {
+            return dirtyTiles.empty() ? 1 : (double) dirtyCount / dirtyTiles.size();
+        }
+
+        /** Tells if an area of the scaled gray image intersects at least one tile changed since the previous image. */
+        bool isDirty(const cv::Rect& scaledRoi) const {
+            if (dirtyCount == 0) return false;
+            if (scaledRoi.empty()) return true;
+
+            int firstColumn = std::max(scaledRoi.x / FRAME_TILE_SIZE, 0);
+            int lastColumn = std::min((scaledRoi.x + scaledRoi.width - 1) / FRAME_TILE_SIZE, columns - 1);
+            int firstRow = std::max(scaledRoi.y / FRAME_TILE_SIZE, 0);
+            int lastRow = std::min((scaledRoi.y + scaledRoi.height - 1) / FRAME_TILE_SIZE, rows - 1);
+
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    if (dirtyTiles[row * columns + column] != 0) return true;
+                }
+            }
+            return false;
+        }
+    };
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+#include <opencv2/core/mat.hpp>
+#include <opencv2/core/types.hpp>
+
+namespace smartautoclicker {
+
+    /** Size of the margin around the condition in the locality window, as a ratio of the condition biggest side. */
+    const double LOCALITY_WINDOW_MARGIN_RATIO = 1.0;
+    /** Maximum ratio between the locality window area and the detection area to try the locality search. */
+    const double LOCALITY_WINDOW_MAX_AREA_RATIO = 0.25;
+
+    /** The locality search information of a condition, kept between frames. */
+    class LocalityHint {
+
+    public:
+        /** True if the condition was detected at the last frame. */
+        bool hasPosition = false;
+        /** The center of the condition at the last detection, in full size coordinates. */
+        cv::Point position;
+
+        /** The total duration of the full area searches of this condition. */
+        long long fullSearchTotalNs = 0;
+        /** The number of full area searches of this condition. */
+        long long fullSearchCount = 0;
+    };
+
+    /** Information about a single detection using the locality search. Written by the matching thread. */
+    class LocalitySample {
+
+    public:
+        bool isAttempted = false;
+        bool isHit = false;
+        long long windowSearchNs = 0;
+        long long fullSearchNs = 0;
+    };
+
+    /** Statistics of the locality search since the detector creation. */
+    class LocalityStats {
+
+    public:
+        /** Number of searches in a locality window. */
+        long long searchCount = 0;
+        /** Number of searches in a locality window that have detected the condition. */
+        long long hitCount = 0;
+        /**
+         * Estimated processing time saved by the locality search: average full search duration minus window search
+         * duration for hits, and window search duration lost for misses.
+         */
+        long long savedTimeNs = 0;
+    };
+
+    /** Get the window around the last known position of a condition, contained in the detection area. */
+    inline cv::Rect getLocalityWindowRoi(const cv::Point& lastPosition, const cv::Mat& condition, const cv::Rect& detectionRoi) {
+        int margin = (int) (std::max(condition.cols, condition.rows) * LOCALITY_WINDOW_MARGIN_RATIO);
+        cv::Rect windowRoi(
+                lastPosition.x - condition.cols / 2 - margin,
+                lastPosition.y - condition.rows / 2 - margin,
+                condition.cols + 2 * margin,
+                condition.rows + 2 * margin
+        );
+        return windowRoi & detectionRoi;
+    }
+
+    /** Tells if searching in the locality window is worth it compared to the whole detection area. */
+    inline bool isLocalityWindowApplicable(const cv::Rect& windowRoi, const cv::Mat& condition, const cv::Rect& detectionRoi) {
+        return windowRoi.width >= condition.cols && windowRoi.height >= condition.rows
+               && windowRoi.area() <= detectionRoi.area() * LOCALITY_WINDOW_MAX_AREA_RATIO;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <algorithm>
+#include <cstdlib>
+#include <vector>
+#include <opencv2/core/mat.hpp>
+
+namespace smartautoclicker {
+
+    /** A local maximum of the matching results, candidate for an occurrence of a condition. */
+    class OccurrenceCandidate {
+
+    public:
+        float score;
+        cv::Point location;
+    };
+
+    /**
+     * Collect the local maxima of the matching results above a minimum score, in a single walk of the results.
+     * A value is a local maximum if none of its 8 neighbours is greater. The candidates are sorted by decreasing score.
+     *
+     * @param candidates the vector to fill. It is cleared first, and its memory is reused.
+     */
+    inline void findOccurrenceCandidates(const cv::Mat& matchingResults, float minScore, std::vector<OccurrenceCandidate>& candidates) {
+        candidates.clear();
+
+        for (int y = 0; y < matchingResults.rows; y++) {
+            const float* previousRow = y > 0 ? matchingResults.ptr<float>(y - 1) : nullptr;
+            const float* row = matchingResults.ptr<float>(y);
+            const float* nextRow = y < matchingResults.rows - 1 ? matchingResults.ptr<float>(y + 1) : nullptr;
+
+            for (int x = 0; x < matchingResults.cols; x++) {
+                float score = row[x];
+                if (score <= minScore) continue;
+
+                bool isLocalMaximum = true;
+                int firstX = std::max(x - 1, 0);
+                int lastX = std::min(x + 1, matchingResults.cols - 1);
+                for (int neighbourX = firstX; neighbourX <= lastX && isLocalMaximum; neighbourX++) {
+                    if ((previousRow != nullptr && previousRow[neighbourX] > score)
+                            || row[neighbourX] > score
+                            || (nextRow != nullptr && nextRow[neighbourX] > score)) {
+                        isLocalMaximum = false;
+                    }
+                }
+
+                if (isLocalMaximum) candidates.push_back({score, cv::Point(x, y)});
+            }
+        }
+
+        std::sort(candidates.begin(), candidates.end(), [](const OccurrenceCandidate& first, const OccurrenceCandidate& second) {
+            return first.score > second.score;
+        });
+    }
+
+    /**
+     * Tells if a candidate is the same occurrence than an already accepted one, as they overlap by more than half of
+     * the condition size in both directions.
+     */
+    inline bool isSameOccurrence(const cv::Point& candidate, const cv::Point& occurrence, const cv::Size& conditionSize) {
+        return std::abs(candidate.x - occurrence.x) * 2 < conditionSize.width
+               && std::abs(candidate.y - occurrence.y) * 2 < conditionSize.height;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <opencv2/core/types.hpp>
+
+namespace smartautoclicker {
+
+    /**
+     * Maximum ratio of changed tiles allowing to reuse the result of a condition detected in the whole screen. Above,
+     * the condition is detected again even if the tiles at its last position haven't changed.
+     */
+    const double WHOLE_SCREEN_REUSE_MAX_DIRTY_RATIO = 0.1;
+
+    /** How the last result of a condition can be used on the current frame. */
+    enum class ResultReuse {
+        /** The result can't be reused, the condition must be detected again. */
+        NONE,
+        /** The result have been computed on this frame, or on an identical one. It can be used as is. */
+        SAME_FRAME,
+        /** The result have been computed on the previous frame, it can be reused if its area is in unchanged tiles. */
+        PREVIOUS_FRAME,
+    };
+
+    /**
+     * Get how a result computed on a frame of the generation [resultGeneration] can be used on the current frame.
+     *
+     * The generation only increases on changed frames, and the changed tiles compare the current frame with the
+     * previous one only. A result of the previous generation can then be verified by the tiles only if the current
+     * frame is the changed one: on the following unchanged frames, there is no changed tiles anymore, while the frame
+     * still differs from the one of the result.
+     */
+    inline ResultReuse getResultReuse(long long resultGeneration, long long frameGeneration, bool isFrameChanged) {
+        if (resultGeneration == frameGeneration) return ResultReuse::SAME_FRAME;
+        if (isFrameChanged && resultGeneration == frameGeneration - 1) return ResultReuse::PREVIOUS_FRAME;
+        return ResultReuse::NONE;
+    }
+
+    /** The last result of a condition, kept between frames to be reused if its detection area haven't changed. */
+    class ReusableResult {
+
+    public:
+        /** The generation of the frame the result is valid for. */
+        long long frameGeneration = -1;
+        /** The detection area of the condition, in full size coordinates. */
+        cv::Rect fullSizeDetectionRoi;
+        /** The threshold of the condition. */
+        int threshold = 0;
+        /** The result of the detection. */
+        DetectionResult result;
+    };
+
+    /**
+     * Tells if the last result of a condition can be used on the current frame, instead of detecting the condition again.
+     * FrameTiles must be declared before including this header.
+     *
+     * @param previous the last result of the condition.
+     * @param fullSizeDetectionRoi the detection area of the condition on the current frame, in full size coordinates.
+     * @param threshold the threshold of the condition on the current frame.
+     * @param frameGeneration the generation of the current frame.
+     * @param frameTiles the tiles changed between the current frame and the previous one.
+     * @param scaledDetectionRoi the detection area in the scaled gray image, with the pixels mixed with it by the pyramid.
+     * @param scaledHitRoi the area of the last detected position of the condition, in the scaled gray image.
+     * @param isWholeScreen true if the condition is detected in the whole screen.
+     */
+    inline bool isResultReusable(const ReusableResult& previous, const cv::Rect& fullSizeDetectionRoi, int threshold,
+                                 long long frameGeneration, const FrameTiles& frameTiles,
+                                 const cv::Rect& scaledDetectionRoi, const cv::Rect& scaledHitRoi, bool isWholeScreen) {
+        if (previous.threshold != threshold || previous.fullSizeDetectionRoi != fullSizeDetectionRoi) return false;
+
+        switch (getResultReuse(previous.frameGeneration, frameGeneration, frameTiles.isChanged())) {
+            case ResultReuse::SAME_FRAME:
+                return true;
+            case ResultReuse::NONE:
+                return false;
+            case ResultReuse::PREVIOUS_FRAME:
+                // Verified with the tiles changed since the previous image below
+                break;
+        }
+
+        if (!frameTiles.isDirty(scaledDetectionRoi)) return true;
+
+        // Only a condition detected in the whole screen can be reused with changes in its detection area: it is still
+        // detected if its last position haven't changed. A better match could appear elsewhere, so this is only done if
+        // the screen haven't changed much.
+        if (!previous.result.isDetected || !isWholeScreen) return false;
+        if (frameTiles.getDirtyRatio() > WHOLE_SCREEN_REUSE_MAX_DIRTY_RATIO) return false;
+
+        return !frameTiles.isDirty(scaledHitRoi);
+    }
+
+    /** Statistics of the results reuse of a condition since the detector creation. */
+    class ReuseStats {
+
+    public:
+        /** Number of detections requested for the condition. */
+        long long detectionCount = 0;
+        /** Number of detections answered with the result of the previous frame. */
+        long long reuseCount = 0;
+    };
+}
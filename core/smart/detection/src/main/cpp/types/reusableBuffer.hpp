@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <atomic>
+#include <opencv2/core/mat.hpp>
+
+namespace smartautoclicker {
+
+    /**
+     * Count the allocations of the memory of the images owned by the detector.
+     * Once the screen and the conditions are known, the detection should not change it anymore.
+     */
+    class BufferAllocations {
+
+    private:
+        std::atomic<long long> count{0};
+
+    public:
+        void onAllocation() {
+            count++;
+        }
+
+        /** Count an allocation if the memory of an image written by OpenCV is not [previousData] anymore. */
+        void onImageWritten(const cv::Mat& image, const uchar* previousData) {
+            if (image.data != previousData) count++;
+        }
+
+        long long getCount() const {
+            return count.load();
+        }
+    };
+
+    /**
+     * Memory reused for images of different sizes, such as the matching results of several conditions.
+     * It only grows when a bigger image is requested, so alternating between sizes doesn't reallocate it.
+     */
+    class ReusableBuffer {
+
+    private:
+        cv::Mat storage;
+
+    public:
+        /** Get an image of the given size and type using the memory of this buffer. Its content is undefined. */
+        cv::Mat getImage(int rows, int cols, int type, BufferAllocations& allocations) {
+            size_t byteCount = (size_t) rows * cols * CV_ELEM_SIZE(type);
+            if (byteCount == 0) return cv::Mat(rows, cols, type);
+
+            if (storage.empty() || storage.total() < byteCount) {
+                storage.create(1, (int) byteCount, CV_8UC1);
+                allocations.onAllocation();
+            }
+            return cv::Mat(rows, cols, type, storage.data);
+        }
+    };
+
+    /** The buffers used to match the conditions. Each thread matching conditions must have its own. */
+    class MatchingBuffers {
+
+    public:
+        /** The matching results in the whole detection area. */
+        ReusableBuffer results;
+        /** The matching results at the coarse level of the pyramid. */
+        ReusableBuffer coarseResults;
+        /** The matching results around a coarse candidate. */
+        ReusableBuffer candidateResults;
+    };
+}
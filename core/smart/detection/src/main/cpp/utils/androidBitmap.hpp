@@ -22,8 +22,13 @@
 
 namespace smartautoclicker {
 
-    /** Create a cv::Mat containing the pixels data of an Android Bitmap. */
-    std::unique_ptr<cv::Mat> createColorMatFromARGB8888BitmapData(JNIEnv *env, jobject bitmap) {
+    /**
+     * Set a cv::Mat on the pixels data of an Android Bitmap. The pixels are not copied, and the Mat is only modified,
+     * so nothing is allocated.
+     *
+     * @return true if the Mat is set, false if the bitmap can't be read. The Mat is then empty.
+     */
+    bool createColorMatFromARGB8888BitmapData(JNIEnv *env, jobject bitmap, cv::Mat& colorMat) {
         try {
             AndroidBitmapInfo info;
             void *pixels = nullptr;
@@ -32,7 +37,7 @@ namespace smartautoclicker {
             CV_Assert(info.format == ANDROID_BITMAP_FORMAT_RGBA_8888);
             CV_Assert(AndroidBitmap_lockPixels(env, bitmap, &pixels) >= 0);
 
-            auto argbMat = std::make_unique<cv::Mat>(
+            colorMat = cv::Mat(
                 info.height,
                 info.width,
                 CV_8UC4,
@@ -40,17 +45,45 @@ namespace smartautoclicker {
             );
             AndroidBitmap_unlockPixels(env, bitmap);
 
-            return argbMat;
+            return true;
         } catch (...) {
             AndroidBitmap_unlockPixels(env, bitmap);
+            colorMat.release();
 
             __android_log_print(ANDROID_LOG_ERROR, "androidBitmap",
                                 "createColorMatFromARGB8888BitmapData caught an exception");
             jclass je = env->FindClass("java/lang/Exception");
             env->ThrowNew(je, "Android Bitmap exception in JNI code {createColorMatFromARGB8888BitmapData}");
 
-            return nullptr;
+            return false;
         }
     }
 
+    /** Create a cv::Mat containing a copy of the pixels data of an Android Bitmap. */
+    std::unique_ptr<cv::Mat> cloneColorMatFromARGB8888BitmapData(JNIEnv *env, jobject bitmap) {
+        try {
+            AndroidBitmapInfo info;
+            void *pixels = nullptr;
+
+            CV_Assert(AndroidBitmap_getInfo(env, bitmap, &info) >= 0);
+            CV_Assert(info.format == ANDROID_BITMAP_FORMAT_RGBA_8888);
+            CV_Assert(AndroidBitmap_lockPixels(env, bitmap, &pixels) >= 0);
+
+            auto argbMat = std::make_unique<cv::Mat>(
+                cv::Mat(info.height, info.width, CV_8UC4, pixels, info.stride).clone()
+            );
+            AndroidBitmap_unlockPixels(env, bitmap);
+
+            return argbMat;
+        } catch (...) {
+            AndroidBitmap_unlockPixels(env, bitmap);
+
+            __android_log_print(ANDROID_LOG_ERROR, "androidBitmap",
+                                "cloneColorMatFromARGB8888BitmapData caught an exception");
+            jclass je = env->FindClass("java/lang/Exception");
+            env->ThrowNew(je, "Android Bitmap exception in JNI code {cloneColorMatFromARGB8888BitmapData}");
+
+            return nullptr;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <cstdint>
+#include <cstring>
+#include <opencv2/core/mat.hpp>
+
+namespace smartautoclicker {
+
+    /** Multiplier of the signature mixing function. */
+    const uint64_t FRAME_SIGNATURE_PRIME = 0x9E3779B97F4A7C15ULL;
+
+    /** Mix a value into a signature. */
+    inline uint64_t mixFrameSignature(uint64_t signature, uint64_t value) {
+        signature ^= value + FRAME_SIGNATURE_PRIME + (signature << 6) + (signature >> 2);
+        return signature * FRAME_SIGNATURE_PRIME;
+    }
+
+    /**
+     * Compute the signature of an area of a gray image.
+     * All pixels are read, 8 at a time, so even a small change in the area changes the signature. Inline, as this
+     * header is included by several translation units.
+     */
+    inline uint64_t computeRegionSignature(const cv::Mat& grayImage, const cv::Rect& roi) {
+        uint64_t signature = mixFrameSignature(roi.width, roi.height);
+        const size_t rowSize = roi.width * grayImage.elemSize();
+
+        for (int row = roi.y; row < roi.y + roi.height; row++) {
+            const uchar* pixels = grayImage.ptr(row) + roi.x * grayImage.elemSize();
+
+            size_t index = 0;
+            for (; index + sizeof(uint64_t) <= rowSize; index += sizeof(uint64_t)) {
+                uint64_t value;
+                std::memcpy(&value, pixels + index, sizeof(uint64_t));
+                signature = mixFrameSignature(signature, value);
+            }
+            for (; index < rowSize; index++) {
+                signature = mixFrameSignature(signature, pixels[index]);
+            }
+        }
+
+        return signature;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <android/log.h>
+#include <jni.h>
+
+#include <opencv2/imgproc/imgproc.hpp>
+
+namespace smartautoclicker {
+
+    /**
+     * Set a cv::Mat on the pixels data of a direct ByteBuffer in RGBA_8888, such as an ImageReader plane.
+     * The pixels are not copied, and the row stride is used as the Mat step, so the padding at the end of each row is
+     * never read. The buffer must stay valid as long as the Mat is used.
+     * The Mat is only modified, so it can be set on each image without allocation.
+     *
+     * @return true if the Mat is set, false if the buffer is invalid. The Mat is then empty.
+     */
+    bool createColorMatFromRGBA8888Buffer(JNIEnv *env, jobject buffer, int width, int height, int rowStride, cv::Mat& colorMat) {
+        try {
+            void* pixels = env->GetDirectBufferAddress(buffer);
+            jlong capacity = env->GetDirectBufferCapacity(buffer);
+
+            CV_Assert(pixels != nullptr);
+            CV_Assert(width > 0 && height > 0 && rowStride >= width * 4);
+            CV_Assert(capacity >= (jlong) rowStride * (height - 1) + width * 4);
+
+            colorMat = cv::Mat(height, width, CV_8UC4, pixels, rowStride);
+            return true;
+        } catch (...) {
+            colorMat.release();
+            __android_log_print(ANDROID_LOG_ERROR, "imageBuffer",
+                                "createColorMatFromRGBA8888Buffer caught an exception");
+            jclass je = env->FindClass("java/lang/Exception");
+            env->ThrowNew(je, "Image buffer exception in JNI code {createColorMatFromRGBA8888Buffer}");
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <opencv2/imgproc/imgproc.hpp>
+
+namespace smartautoclicker {
+
+    /** Size ratio between the working scale images and the coarse ones. */
+    const int PYRAMID_FACTOR = 4;
+    /** Minimum width and height of a condition at the coarse scale. Smaller conditions are not matched with the pyramid. */
+    const int PYRAMID_MIN_CONDITION_SIZE = 8;
+    /** Minimum ratio between the search area and the condition area to use the pyramid. */
+    const int PYRAMID_MIN_AREA_RATIO = 16;
+    /** Number of coarse candidates refined at the working scale. */
+    const int PYRAMID_CANDIDATES_COUNT = 5;
+    /** Value written in a coarse result to exclude a candidate. Lower than any TM_CCOEFF_NORMED value. */
+    const float PYRAMID_INVALID_CANDIDATE = -2;
+
+    /** Create the coarse version of a working scale image. */
+    void scaleToPyramidCoarse(const cv::Mat& image, cv::Mat& coarseImage) {
+        cv::resize(image, coarseImage, cv::Size(), 1.0 / PYRAMID_FACTOR, 1.0 / PYRAMID_FACTOR, cv::INTER_AREA);
+    }
+
+    /** Tells if a condition can be matched in a search area with the pyramid. */
+    bool isPyramidMatchingApplicable(const cv::Mat& searchImage, const cv::Mat& condition, const cv::Mat* coarseCondition) {
+        return coarseCondition != nullptr && !coarseCondition->empty()
+               && searchImage.size().area() >= condition.size().area() * PYRAMID_MIN_AREA_RATIO;
+    }
+
+    /** Get the area of the coarse image corresponding to a working scale area. */
+    cv::Rect getPyramidCoarseRoi(const cv::Rect& roi, const cv::Mat& coarseImage) {
+        cv::Rect coarseRoi(
+                roi.x / PYRAMID_FACTOR,
+                roi.y / PYRAMID_FACTOR,
+                roi.width / PYRAMID_FACTOR,
+                roi.height / PYRAMID_FACTOR
+        );
+        return coarseRoi & cv::Rect(0, 0, coarseImage.cols, coarseImage.rows);
+    }
+
+    /**
+     * Get the working scale area to refine around a coarse candidate.
+     * The area is enlarged by one coarse pixel on each side to absorb the rounding of the coarse scaling.
+     *
+     * @param candidateLoc the location of the candidate, converted to the working scale.
+     */
+    cv::Rect getPyramidRefineRoi(const cv::Point& candidateLoc, const cv::Mat& condition, const cv::Mat& image) {
+        cv::Rect refineRoi(
+                candidateLoc.x - PYRAMID_FACTOR,
+                candidateLoc.y - PYRAMID_FACTOR,
+                condition.cols + 2 * PYRAMID_FACTOR,
+                condition.rows + 2 * PYRAMID_FACTOR
+        );
+        return refineRoi & cv::Rect(0, 0, image.cols, image.rows);
+    }
+
+    /** Exclude a candidate and its neighbours from a coarse matching result. */
+    void markCandidateAsInvalidInCoarseResults(const cv::Point& coarseLoc, const cv::Mat& coarseCondition, cv::Mat& coarseResults) {
+        cv::Rect candidateRoi(
+                coarseLoc.x - coarseCondition.cols / 2,
+                coarseLoc.y - coarseCondition.rows / 2,
+                coarseCondition.cols,
+                coarseCondition.rows
+        );
+        cv::rectangle(coarseResults, candidateRoi, cv::Scalar(PYRAMID_INVALID_CANDIDATE), cv::FILLED);
+    }
+}
@@ -18,9 +18,13 @@
 
 namespace smartautoclicker {
 
+    bool isRoiNotContainedInSize(const cv::Rect& roi, const cv::Size& size) {
+        return 0 > roi.x || 0 > roi.width || roi.x + roi.width > size.width
+                || 0 > roi.y || 0 > roi.height || roi.y + roi.height > size.height;
+    }
+
     bool isRoiNotContainedInImage(const cv::Rect& roi, const cv::Mat& image) {
-        return 0 > roi.x || 0 > roi.width || roi.x + roi.width > image.cols
-                || 0 > roi.y || 0 > roi.height || roi.y + roi.height > image.rows;
+        return isRoiNotContainedInSize(roi, image.size());
     }
 
     bool isRoiNotContainingImage(const cv::Rect& roi, const cv::Mat& image) {
@@ -55,12 +59,16 @@ namespace smartautoclicker {
         cv::rectangle(results, roi, cv::Scalar(0), CV_FILLED);
     }
 
-    void logInvalidRoiInImage(const cv::Rect& roi, const cv::Mat& image) {
+    void logInvalidRoiInSize(const cv::Rect& roi, const cv::Size& size) {
         __android_log_print(
                 ANDROID_LOG_ERROR, "Detector",
                 "ROI is invalid, %1d/%2d %3d/%4d in %5d/%6d",
                 roi.x, roi.y, roi.width, roi.height,
-                image.cols, image.rows
+                size.width, size.height
         );
     }
+
+    void logInvalidRoiInImage(const cv::Rect& roi, const cv::Mat& image) {
+        logInvalidRoiInSize(roi, image.size());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <condition_variable>
+#include <functional>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+namespace smartautoclicker {
+
+    /**
+     * Pool of threads executing a task for each index of a range.
+     * The thread calling [run] also executes tasks, and is blocked until they are all completed.
+     * Each task receives the index of the thread executing it, 0 for the calling thread, allowing to use per thread data.
+     */
+    class WorkerPool {
+
+    private:
+        std::vector<std::thread> workers;
+
+        std::mutex mutex;
+        std::condition_variable taskAvailable;
+        std::condition_variable tasksCompleted;
+
+        /** Incremented for each call to run. Allows the workers to ignore the tasks of a previous run. */
+        unsigned long generation = 0;
+        bool isStopping = false;
+
+        const std::function<void(int, int)>* currentTask = nullptr;
+        int taskCount = 0;
+        int nextTaskIndex = 0;
+        int completedTaskCount = 0;
+
+        void workerLoop(int workerIndex) {
+            unsigned long lastGeneration = 0;
+
+            while (true) {
+                {
+                    std::unique_lock<std::mutex> lock(mutex);
+                    taskAvailable.wait(lock, [&] { return isStopping || generation != lastGeneration; });
+                    if (isStopping) return;
+                    lastGeneration = generation;
+                }
+
+                executeTasks(lastGeneration, workerIndex);
+            }
+        }
+
+        void executeTasks(unsigned long taskGeneration, int workerIndex) {
+            while (true) {
+                int index;
+                const std::function<void(int, int)>* task;
+                {
+                    std::lock_guard<std::mutex> lock(mutex);
+                    if (generation != taskGeneration || nextTaskIndex >= taskCount) return;
+                    index = nextTaskIndex++;
+                    task = currentTask;
+                }
+
+                (*task)(index, workerIndex);
+
+                {
+                    std::lock_guard<std::mutex> lock(mutex);
+                    if (++completedTaskCount == taskCount) tasksCompleted.notify_all();
+                }
+            }
+        }
+
+    public:
+
+        explicit WorkerPool(int threadCount) {
+            for (int i = 0; i < threadCount; i++) {
+                workers.emplace_back(&WorkerPool::workerLoop, this, i + 1);
+            }
+        }
+
+        ~WorkerPool() {
+            {
+                std::lock_guard<std::mutex> lock(mutex);
+                isStopping = true;
+            }
+            taskAvailable.notify_all();
+
+            for (auto& worker : workers) {
+                worker.join();
+            }
+        }
+
+        /** @return the number of threads executing the tasks, including the calling one. */
+        int getThreadCount() const {
+            return (int) workers.size() + 1;
+        }
+
+        /**
+         * Execute the task for each index in [0, count[ and wait for their completion.
+         * The task is called with the task index and the index of the executing thread, in [0, getThreadCount()[.
+         */
+        void run(int count, const std::function<void(int, int)>& task) {
+            unsigned long runGeneration;
+            {
+                std::lock_guard<std::mutex> lock(mutex);
+                currentTask = &task;
+                taskCount = count;
+                nextTaskIndex = 0;
+                completedTaskCount = 0;
+                runGeneration = ++generation;
+            }
+            taskAvailable.notify_all();
+
+            executeTasks(runGeneration, 0);
+
+            std::unique_lock<std::mutex> lock(mutex);
+            tasksCompleted.wait(lock, [&] { return completedTaskCount == taskCount; });
+            currentTask = nullptr;
+        }
+    };
+}
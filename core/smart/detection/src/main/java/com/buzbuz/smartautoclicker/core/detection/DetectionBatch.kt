@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.detection
+
+import android.graphics.Bitmap
+import android.graphics.Rect
+
+/**
+ * A list of conditions to be detected with a single call to [ImageDetector.detectConditions].
+ *
+ * All values are stored in primitive arrays shared with the native code, allowing to reuse the same batch for each
+ * frame without any allocation once its capacity is big enough. The conditions are evaluated in their insertion order,
+ * and the evaluation stops as soon as the result of the whole batch is known, according to [operator].
+ *
+ * @param initialCapacity the number of conditions that can be added before growing the arrays.
+ */
+class DetectionBatch(initialCapacity: Int = DEFAULT_CAPACITY) {
+
+    /** The number of conditions in this batch. */
+    var size: Int = 0
+        private set
+    /**
+     * The operator to apply between the conditions.
+     * Must be one of [BATCH_OPERATOR_NONE], [BATCH_OPERATOR_AND] or [BATCH_OPERATOR_OR].
+     */
+    var operator: Int = BATCH_OPERATOR_AND
+
+    /** The number of conditions evaluated during the last detection. Set by [ImageDetector.detectConditions]. */
+    var evaluatedCount: Int = 0
+        internal set
+
+    internal var conditionIds: LongArray = LongArray(initialCapacity)
+        private set
+    internal var conditionBitmaps: Array<Bitmap?> = arrayOfNulls(initialCapacity)
+        private set
+    /** Detection areas, as [left, top, width, height] for each condition. */
+    internal var areas: IntArray = IntArray(initialCapacity * AREA_STRIDE)
+        private set
+    internal var thresholds: IntArray = IntArray(initialCapacity)
+        private set
+    internal var detectionTypes: IntArray = IntArray(initialCapacity)
+        private set
+    internal var shouldBeDetected: BooleanArray = BooleanArray(initialCapacity)
+        private set
+
+    /** Detection results, as [isDetected, isFulfilled, centerX, centerY] for each condition. */
+    internal var results: IntArray = IntArray(initialCapacity * RESULT_STRIDE)
+        private set
+    internal var confidenceRates: DoubleArray = DoubleArray(initialCapacity)
+        private set
+    /** The time spent matching each condition, in nanoseconds. 0 if the detector reused a previous result. */
+    internal var durationsNs: LongArray = LongArray(initialCapacity)
+        private set
+
+    /**
+     * Tells if the whole batch is fulfilled.
+     * As the evaluation stops on the first decisive condition, this is the state of the last evaluated condition.
+     * Not relevant for [BATCH_OPERATOR_NONE].
+     */
+    val isFulfilled: Boolean
+        get() = evaluatedCount > 0 && isFulfilled(evaluatedCount - 1)
+
+    /** Remove all conditions and results from this batch, but keep its capacity. */
+    fun clear() {
+        size = 0
+        evaluatedCount = 0
+        conditionBitmaps.fill(null)
+    }
+
+    /**
+     * Add a condition to this batch.
+     *
+     * @param conditionId the unique identifier of the condition. Used as the key of the conditions cache.
+     * @param conditionBitmap the condition to detect in the screen. If null, the condition will never be fulfilled.
+     * @param detectionType the type of detection. Must be one of [BATCH_DETECTION_TYPE_EXACT],
+     *                      [BATCH_DETECTION_TYPE_WHOLE_SCREEN] or [BATCH_DETECTION_TYPE_IN_AREA].
+     * @param area the area on the screen to detect the condition in. Ignored for [BATCH_DETECTION_TYPE_WHOLE_SCREEN].
+     * @param threshold the allowed error threshold allowed for the condition.
+     * @param shouldBeDetected true if the condition is fulfilled when detected, false if it is fulfilled when not.
+     */
+    fun add(
+        conditionId: Long,
+        conditionBitmap: Bitmap?,
+        detectionType: Int,
+        area: Rect?,
+        threshold: Int,
+        shouldBeDetected: Boolean,
+    ) {
+        ensureCapacity(size + 1)
+
+        conditionIds[size] = conditionId
+        conditionBitmaps[size] = conditionBitmap
+        detectionTypes[size] = detectionType
+        thresholds[size] = threshold
+        this.shouldBeDetected[size] = shouldBeDetected
+
+        val areaIndex = size * AREA_STRIDE
+        areas[areaIndex] = area?.left ?: 0
+        areas[areaIndex + 1] = area?.top ?: 0
+        areas[areaIndex + 2] = area?.width() ?: 0
+        areas[areaIndex + 3] = area?.height() ?: 0
+
+        size++
+    }
+
+    fun hasConditionBitmap(index: Int): Boolean = conditionBitmaps[index] != null
+    fun isDetected(index: Int): Boolean = results[index * RESULT_STRIDE] != 0
+    fun isFulfilled(index: Int): Boolean = results[index * RESULT_STRIDE + 1] != 0
+    fun getCenterX(index: Int): Int = results[index * RESULT_STRIDE + 2]
+    fun getCenterY(index: Int): Int = results[index * RESULT_STRIDE + 3]
+    fun getConfidenceRate(index: Int): Double = confidenceRates[index]
+    fun getDurationNs(index: Int): Long = durationsNs[index]
+
+    private fun ensureCapacity(capacity: Int) {
+        if (capacity <= conditionIds.size) return
+
+        val newCapacity = maxOf(capacity, conditionIds.size * 2)
+        conditionIds = conditionIds.copyOf(newCapacity)
+        conditionBitmaps = conditionBitmaps.copyOf(newCapacity)
+        areas = areas.copyOf(newCapacity * AREA_STRIDE)
+        thresholds = thresholds.copyOf(newCapacity)
+        detectionTypes = detectionTypes.copyOf(newCapacity)
+        shouldBeDetected = shouldBeDetected.copyOf(newCapacity)
+        results = results.copyOf(newCapacity * RESULT_STRIDE)
+        confidenceRates = confidenceRates.copyOf(newCapacity)
+        durationsNs = durationsNs.copyOf(newCapacity)
+    }
+}
+
+/** The conditions are independent, they are all evaluated. */
+const val BATCH_OPERATOR_NONE = 0
+/** All conditions of the batch must be fulfilled. */
+const val BATCH_OPERATOR_AND = 1
+/** Only one of the conditions of the batch must be fulfilled. */
+const val BATCH_OPERATOR_OR = 2
+
+/** The condition must be detected at its exact area. */
+const val BATCH_DETECTION_TYPE_EXACT = 1
+/** The condition can be detected anywhere on the screen. */
+const val BATCH_DETECTION_TYPE_WHOLE_SCREEN = 2
+/** The condition can be detected anywhere in its area. */
+const val BATCH_DETECTION_TYPE_IN_AREA = 3
+
+/** Default number of conditions in a batch. */
+private const val DEFAULT_CAPACITY = 8
+/** Number of values for each area in [DetectionBatch.areas]. Must match the native code. */
+internal const val AREA_STRIDE = 4
+/** Number of values for each result in [DetectionBatch.results]. Must match the native code. */
+internal const val RESULT_STRIDE = 4
@@ -21,9 +21,15 @@ import android.graphics.Point
 import android.graphics.Rect
 import androidx.annotation.Keep
 
+import java.nio.ByteBuffer
+
 /**
  * Detects bitmaps within other bitmaps for conditions detection on the screen.
  * All calls should be made on the same thread.
+ *
+ * The conditions bitmaps are converted into the detection format at their first detection and kept in a cache, using
+ * their identifier as key. This cache is invalidated when the scale ratio changes (see [setScreenMetrics]), and can be
+ * dropped manually with [clearConditionsCache].
  */
 interface ImageDetector : AutoCloseable {
 
@@ -47,28 +53,164 @@ interface ImageDetector : AutoCloseable {
      */
     fun setupDetection(screenBitmap: Bitmap)
 
+    /**
+     * Set the current metrics of the screen, using the content of a pixels buffer instead of a bitmap.
+     * Same as [setScreenMetrics], but the pixels are read directly from the buffer.
+     *
+     * The screen image can be captured at a lower resolution than the screen, with the same aspect ratio. Conditions
+     * areas and detection results positions are always in screen coordinates.
+     *
+     * @param screenBuffer a direct buffer containing the screen pixels in RGBA_8888, such as an ImageReader plane.
+     * @param width the width of the screen image, in pixels.
+     * @param height the height of the screen image, in pixels.
+     * @param rowStride the number of bytes between the start of two rows. Can be greater than width * 4.
+     * @param screenSize the size of the screen, in pixels.
+     * @param detectionQuality the quality of the detection. The higher the preciser, the lower the faster. Must be
+     *                         contained in [DETECTION_QUALITY_MIN] and [DETECTION_QUALITY_MAX].
+     */
+    fun setScreenMetrics(
+        metricsKey: String,
+        screenBuffer: ByteBuffer,
+        width: Int,
+        height: Int,
+        rowStride: Int,
+        screenSize: Point,
+        detectionQuality: Double,
+    )
+
+    /**
+     * Set the content of the screen from a pixels buffer instead of a bitmap.
+     * The pixels are not copied: the buffer must stay valid and unmodified until the detection on this image is over.
+     *
+     * @param screenBuffer a direct buffer containing the screen pixels in RGBA_8888, such as an ImageReader plane.
+     * @param width the width of the screen image, in pixels.
+     * @param height the height of the screen image, in pixels.
+     * @param rowStride the number of bytes between the start of two rows. Can be greater than width * 4.
+     */
+    fun setupDetection(screenBuffer: ByteBuffer, width: Int, height: Int, rowStride: Int)
+
+    /**
+     * Release the screen content set with the last [setupDetection], once the detections on it are over.
+     * The detector no longer refers to the screen pixels afterward, the buffer can be reused or closed. [isScreenChanged]
+     * is still valid, but no condition can be detected until the next [setupDetection].
+     */
+    fun releaseScreenImage()
+
+    /**
+     * Tells if the screen content set with the last [setupDetection] is different from the previous one.
+     *
+     * The comparison is made on the image used for the detection, so the results of the detections on an unchanged
+     * screen will be the same than on the previous one. The first screen content after a [setScreenMetrics] is always
+     * considered as changed.
+     *
+     * @return true if the screen content has changed, false if not.
+     */
+    fun isScreenChanged(): Boolean
+
     /**
      * Detect if the bitmap is in the whole current screen bitmap.
      * [setupDetection] must have been called first with the content of the screen.
      *
+     * @param conditionId the unique identifier of the condition. Used as the key of the conditions cache.
      * @param conditionBitmap the condition to detect in the screen.
      * @param threshold the allowed error threshold allowed for the condition.
      *
-     * @return the results of the detection.
+     * @return the results of the detection. The instance is reused by the detector, it is only valid until the next
+     *         detection.
      */
-    fun detectCondition(conditionBitmap: Bitmap, threshold: Int): DetectionResult
+    fun detectCondition(conditionId: Long, conditionBitmap: Bitmap, threshold: Int): DetectionResult
 
     /**
      * Detect if the bitmap is at a specific position in the current screen bitmap.
      * [setupDetection] must have been called first with the content of the screen.
      *
+     * @param conditionId the unique identifier of the condition. Used as the key of the conditions cache.
      * @param conditionBitmap the condition to detect in the screen.
      * @param position the position on the screen where the condition should be detected.
      * @param threshold the allowed error threshold allowed for the condition.
      *
-     * @return the results of the detection.
+     * @return the results of the detection. The instance is reused by the detector, it is only valid until the next
+     *         detection.
+     */
+    fun detectCondition(conditionId: Long, conditionBitmap: Bitmap, position: Rect, threshold: Int): DetectionResult
+
+    /**
+     * Detect all occurrences of the bitmap in an area of the current screen bitmap.
+     * [setupDetection] must have been called first with the content of the screen.
+     *
+     * The matching results are walked once to find the candidates, and a candidate overlapping a better occurrence by
+     * more than half of the condition size is suppressed. The occurrences are sorted from the best match to the worst.
+     *
+     * @param conditionId the unique identifier of the condition. Used as the key of the conditions cache.
+     * @param conditionBitmap the condition to detect in the screen.
+     * @param area the area on the screen to detect the condition in, or null for the whole screen.
+     * @param threshold the allowed error threshold allowed for the condition.
+     * @param maxResults the maximum number of occurrences to detect.
+     *
+     * @return the center of each occurrence, as [x, y] in screen coordinates. Use [getOccurrencesCount],
+     * [getOccurrenceX] and [getOccurrenceY] to read it.
+     */
+    fun detectAllOccurrences(conditionId: Long, conditionBitmap: Bitmap, area: Rect?, threshold: Int, maxResults: Int): IntArray
+
+    /**
+     * Detect all conditions of a batch with a single call to the detector.
+     * [setupDetection] must have been called first with the content of the screen.
+     *
+     * The conditions are evaluated in the batch order, and the evaluation stops once the batch result is known: on the
+     * first unfulfilled condition for [BATCH_OPERATOR_AND], on the first fulfilled one for [BATCH_OPERATOR_OR]. All
+     * conditions are evaluated with [BATCH_OPERATOR_NONE]. The results are written into the batch.
+     *
+     * If more than one detection thread is set (see [setDetectionThreads]), the conditions are matched in parallel
+     * against the current screen image, and the results are merged in the batch order.
+     *
+     * @param batch the conditions to detect, and the storage for the results.
      */
-    fun detectCondition(conditionBitmap: Bitmap, position: Rect, threshold: Int): DetectionResult
+    fun detectConditions(batch: DetectionBatch)
+
+    /**
+     * Set the number of threads used to match the conditions of a batch with [detectConditions].
+     * The calling thread is one of them, so 1 means no parallel matching, which is the default.
+     *
+     * @param threadCount the number of detection threads.
+     */
+    fun setDetectionThreads(threadCount: Int)
+
+    /**
+     * Get the statistics of the locality search since the creation of this detector.
+     *
+     * When a condition have been detected on the previous screen image, it is first searched in a small window around
+     * its last position, and in its whole detection area only if it is not found in this window.
+     *
+     * @return the locality search statistics.
+     */
+    fun getLocalitySearchStats(): LocalitySearchStats
+
+    /**
+     * Get the statistics of the results reuse since the creation of this detector, by condition identifier.
+     *
+     * The screen image is split in tiles, compared with the ones of the previous image. A condition with no changed
+     * tiles in its detection area isn't matched again, its previous result is reused. A condition detected in the
+     * whole screen is also reused if its last position haven't changed and only a few tiles have.
+     *
+     * @return the results reuse statistics, by condition identifier.
+     */
+    fun getResultReuseStats(): Map<Long, ResultReuseStats>
+
+    /**
+     * Get the number of allocations of the detector images and buffers since the creation of this detector.
+     *
+     * They are kept and reused between the screen images, and only allocated again when the screen metrics change or
+     * when new conditions needs bigger buffers. Once the detection is running, this count should not change anymore.
+     *
+     * @return the number of allocations.
+     */
+    fun getBufferAllocationCount(): Long
+
+    /**
+     * Drop all pre-processed conditions images kept between detections.
+     * The conditions will be processed again from their bitmap at their next detection.
+     */
+    fun clearConditionsCache()
 }
 
 /** The maximum detection quality for the algorithm. */
@@ -98,4 +240,45 @@ data class DetectionResult(
         position.set(centerX, centerY)
         this.confidenceRate = confidenceRate
     }
-}
\ No newline at end of file
+}
+/**
+ * The statistics of the locality search.
+ * @param searchCount the number of detections tried around the last known position of a condition.
+ * @param hitCount the number of those detections that have found the condition.
+ * @param savedTimeMs the estimated detection time saved by the locality search. Can be negative if it misses often.
+ */
+data class LocalitySearchStats(
+    val searchCount: Long = 0,
+    val hitCount: Long = 0,
+    val savedTimeMs: Long = 0,
+) {
+
+    /** The ratio of locality searches that have found the condition, between 0 and 1. */
+    val hitRate: Double
+        get() = if (searchCount == 0L) 0.0 else hitCount.toDouble() / searchCount
+}
+
+/**
+ * The statistics of the results reuse for a condition.
+ * @param detectionCount the number of detections requested for the condition.
+ * @param reuseCount the number of those detections answered with the result of the previous screen image.
+ */
+data class ResultReuseStats(
+    val detectionCount: Long = 0,
+    val reuseCount: Long = 0,
+) {
+
+    /** The ratio of detections answered with the previous result, between 0 and 1. */
+    val reuseRate: Double
+        get() = if (detectionCount == 0L) 0.0 else reuseCount.toDouble() / detectionCount
+}
+
+/** @return the number of occurrences in the results of [ImageDetector.detectAllOccurrences]. */
+fun IntArray.getOccurrencesCount(): Int = size / OCCURRENCE_STRIDE
+/** @return the horizontal center of an occurrence in the results of [ImageDetector.detectAllOccurrences]. */
+fun IntArray.getOccurrenceX(index: Int): Int = this[index * OCCURRENCE_STRIDE]
+/** @return the vertical center of an occurrence in the results of [ImageDetector.detectAllOccurrences]. */
+fun IntArray.getOccurrenceY(index: Int): Int = this[index * OCCURRENCE_STRIDE + 1]
+
+/** Number of values for each occurrence in the results of [ImageDetector.detectAllOccurrences]. Must match the native code. */
+private const val OCCURRENCE_STRIDE = 2
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.detection
+
+import android.graphics.Bitmap
+import android.graphics.Point
+import android.graphics.Rect
+
+import com.buzbuz.smartautoclicker.core.detection.jvm.ColorImage
+import com.buzbuz.smartautoclicker.core.detection.jvm.JvmMatchingEngine
+import com.buzbuz.smartautoclicker.core.detection.jvm.MatchResult
+
+import java.nio.ByteBuffer
+
+/**
+ * Pure Kotlin implementation of the image detector, used when the native library can't be loaded.
+ *
+ * It uses the same template matching algorithm than [NativeDetector], with the same scaling and thresholds, but without
+ * OpenCv: the images are kept in primitive arrays and the matching is split between the threads of a fork-join pool.
+ * It is slower, and doesn't have the locality search or the results reuse of the native detector.
+ *
+ * Unlike [NativeDetector], the pixels of the screen buffers are copied during [setupDetection].
+ */
+class JvmDetector : ImageDetector {
+
+    private val engine = JvmMatchingEngine()
+    /** The content of the screen, in ARGB, read from the last bitmap or buffer. */
+    private val screenColors = ColorImage()
+    /** Buffer for reading the condition bitmaps pixels. */
+    private val conditionColors = ColorImage()
+
+    /** The results of the detection, reused for all detections. */
+    private val matchResult = MatchResult()
+    /** The results returned by [detectCondition], reused for all detections. */
+    private val detectionResult = DetectionResult()
+    /** The detection area, as [left, top, width, height], reused for all detections. */
+    private val detectionArea = IntArray(AREA_STRIDE)
+
+    private var isClosed: Boolean = false
+
+    override fun close() {
+        if (isClosed) return
+
+        isClosed = true
+        engine.close()
+    }
+
+    override fun setScreenMetrics(metricsKey: String, screenBitmap: Bitmap, detectionQuality: Double) {
+        if (isClosed) return
+
+        if (detectionQuality < DETECTION_QUALITY_MIN || detectionQuality > DETECTION_QUALITY_MAX)
+            throw IllegalArgumentException("Invalid detection quality")
+
+        screenColors.readFrom(screenBitmap)
+        // The bitmap is a full size screenshot
+        engine.setScreenMetrics(screenColors, screenColors.width, screenColors.height, detectionQuality)
+    }
+
+    override fun setupDetection(screenBitmap: Bitmap) {
+        if (isClosed) return
+
+        screenColors.readFrom(screenBitmap)
+        engine.setScreenImage(screenColors)
+    }
+
+    override fun setScreenMetrics(
+        metricsKey: String,
+        screenBuffer: ByteBuffer,
+        width: Int,
+        height: Int,
+        rowStride: Int,
+        screenSize: Point,
+        detectionQuality: Double,
+    ) {
+        if (isClosed) return
+
+        if (detectionQuality < DETECTION_QUALITY_MIN || detectionQuality > DETECTION_QUALITY_MAX)
+            throw IllegalArgumentException("Invalid detection quality")
+        if (width > screenSize.x || height > screenSize.y) throw IllegalArgumentException("Screen image is bigger than screen")
+
+        screenColors.readFrom(screenBuffer, width, height, rowStride)
+        engine.setScreenMetrics(screenColors, screenSize.x, screenSize.y, detectionQuality)
+    }
+
+    override fun setupDetection(screenBuffer: ByteBuffer, width: Int, height: Int, rowStride: Int) {
+        if (isClosed) return
+
+        screenColors.readFrom(screenBuffer, width, height, rowStride)
+        engine.setScreenImage(screenColors)
+    }
+
+    override fun releaseScreenImage() {
+        // The pixels are copied by setupDetection, the screen buffers are never referenced
+    }
+
+    override fun isScreenChanged(): Boolean {
+        if (isClosed) return true
+
+        return engine.isScreenChanged
+    }
+
+    override fun detectCondition(conditionId: Long, conditionBitmap: Bitmap, threshold: Int): DetectionResult {
+        if (isClosed) return DetectionResult()
+
+        cacheCondition(conditionId, conditionBitmap)
+        engine.detectCondition(conditionId, null, threshold, matchResult)
+        return matchResult.toDetectionResult()
+    }
+
+    override fun detectCondition(conditionId: Long, conditionBitmap: Bitmap, position: Rect, threshold: Int): DetectionResult {
+        if (isClosed) return DetectionResult()
+
+        cacheCondition(conditionId, conditionBitmap)
+        engine.detectCondition(conditionId, position.toDetectionArea(), threshold, matchResult)
+        return matchResult.toDetectionResult()
+    }
+
+    override fun detectAllOccurrences(
+        conditionId: Long,
+        conditionBitmap: Bitmap,
+        area: Rect?,
+        threshold: Int,
+        maxResults: Int,
+    ): IntArray {
+        if (isClosed || maxResults <= 0) return IntArray(0)
+
+        cacheCondition(conditionId, conditionBitmap)
+        return engine.detectAllOccurrences(conditionId, area?.toDetectionArea(), threshold, maxResults)
+    }
+
+    override fun detectConditions(batch: DetectionBatch) {
+        if (isClosed || batch.size == 0) {
+            batch.evaluatedCount = 0
+            return
+        }
+
+        var evaluatedCount = 0
+        for (index in 0 until batch.size) {
+            val conditionBitmap = batch.conditionBitmaps[index]
+            val startNs = System.nanoTime()
+            matchResult.reset()
+
+            // No condition image, it can't be fulfilled
+            if (conditionBitmap != null) {
+                batch.areas.copyInto(detectionArea, 0, index * AREA_STRIDE, (index + 1) * AREA_STRIDE)
+
+                cacheCondition(batch.conditionIds[index], conditionBitmap)
+                engine.detectCondition(
+                    conditionId = batch.conditionIds[index],
+                    area = if (batch.detectionTypes[index] == BATCH_DETECTION_TYPE_WHOLE_SCREEN) null else detectionArea,
+                    threshold = batch.thresholds[index],
+                    result = matchResult,
+                )
+            }
+
+            val isFulfilled = conditionBitmap != null && matchResult.isDetected == batch.shouldBeDetected[index]
+            val resultIndex = index * RESULT_STRIDE
+            batch.results[resultIndex] = if (matchResult.isDetected) 1 else 0
+            batch.results[resultIndex + 1] = if (isFulfilled) 1 else 0
+            batch.results[resultIndex + 2] = matchResult.centerX
+            batch.results[resultIndex + 3] = matchResult.centerY
+            batch.confidenceRates[index] = matchResult.confidenceRate
+            batch.durationsNs[index] = System.nanoTime() - startNs
+            evaluatedCount++
+
+            // Short circuit once the result of the batch is known
+            if (batch.operator == BATCH_OPERATOR_AND && !isFulfilled) break
+            if (batch.operator == BATCH_OPERATOR_OR && isFulfilled) break
+        }
+
+        batch.evaluatedCount = evaluatedCount
+    }
+
+    override fun setDetectionThreads(threadCount: Int) {
+        if (isClosed) return
+        if (threadCount < 1) throw IllegalArgumentException("Invalid detection thread count")
+
+        engine.setParallelism(threadCount)
+    }
+
+    override fun getLocalitySearchStats(): LocalitySearchStats =
+        LocalitySearchStats()
+
+    override fun getResultReuseStats(): Map<Long, ResultReuseStats> =
+        emptyMap()
+
+    override fun getBufferAllocationCount(): Long =
+        engine.allocationCount + screenColors.allocationCount + conditionColors.allocationCount
+
+    override fun clearConditionsCache() {
+        if (isClosed) return
+
+        engine.clearConditionsCache()
+    }
+
+    /** Prepare the condition for the detection if it isn't in the cache yet. */
+    private fun cacheCondition(conditionId: Long, conditionBitmap: Bitmap) {
+        if (engine.isConditionCached(conditionId)) return
+
+        conditionColors.readFrom(conditionBitmap)
+        engine.cacheCondition(conditionId, conditionColors.pixels, conditionColors.width, conditionColors.height)
+    }
+
+    private fun Rect.toDetectionArea(): IntArray {
+        detectionArea[0] = left
+        detectionArea[1] = top
+        detectionArea[2] = width()
+        detectionArea[3] = height()
+        return detectionArea
+    }
+
+    private fun MatchResult.toDetectionResult(): DetectionResult =
+        detectionResult.apply { setResults(isDetected, centerX, centerY, confidenceRate) }
+}
+
+private fun ColorImage.readFrom(bitmap: Bitmap) {
+    resize(bitmap.width, bitmap.height)
+    bitmap.getPixels(pixels, 0, bitmap.width, 0, 0, bitmap.width, bitmap.height)
+}
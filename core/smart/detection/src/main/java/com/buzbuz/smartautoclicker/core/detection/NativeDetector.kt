@@ -17,9 +17,12 @@
 package com.buzbuz.smartautoclicker.core.detection
 
 import android.graphics.Bitmap
+import android.graphics.Point
 import android.graphics.Rect
 import androidx.annotation.Keep
 
+import java.nio.ByteBuffer
+
 /**
  * Native implementation of the image detector.
  * It uses OpenCv template matching algorithms to achieve condition detection on the screen.
@@ -40,6 +43,8 @@ class NativeDetector private constructor() : ImageDetector {
 
     /** The results of the detection. Modified by native code. */
     private val detectionResult = DetectionResult()
+    /** The locality search statistics, as [searchCount, hitCount, savedTimeNs]. Modified by native code. */
+    private val localityStats = LongArray(3)
 
     /** Native pointer of the detector object. */
     @Keep
@@ -69,18 +74,141 @@ class NativeDetector private constructor() : ImageDetector {
         setScreenImage(screenBitmap)
     }
 
-    override fun detectCondition(conditionBitmap: Bitmap, threshold: Int): DetectionResult {
-        if (isClosed) return detectionResult.copy()
+    override fun setScreenMetrics(
+        metricsKey: String,
+        screenBuffer: ByteBuffer,
+        width: Int,
+        height: Int,
+        rowStride: Int,
+        screenSize: Point,
+        detectionQuality: Double,
+    ) {
+        if (isClosed) return
+
+        if (detectionQuality < DETECTION_QUALITY_MIN || detectionQuality > DETECTION_QUALITY_MAX)
+            throw IllegalArgumentException("Invalid detection quality")
+        if (!screenBuffer.isDirect) throw IllegalArgumentException("Screen buffer must be direct")
+        if (width > screenSize.x || height > screenSize.y) throw IllegalArgumentException("Screen image is bigger than screen")
+
+        updateScreenMetricsFromBuffer(
+            metricsKey, screenBuffer, width, height, rowStride, screenSize.x, screenSize.y, detectionQuality,
+        )
+    }
+
+    override fun setupDetection(screenBuffer: ByteBuffer, width: Int, height: Int, rowStride: Int) {
+        if (isClosed) return
+        if (!screenBuffer.isDirect) throw IllegalArgumentException("Screen buffer must be direct")
+
+        setScreenImageFromBuffer(screenBuffer, width, height, rowStride)
+    }
+
+    override fun releaseScreenImage() {
+        if (isClosed) return
+
+        clearScreenImage()
+    }
+
+    override fun isScreenChanged(): Boolean {
+        if (isClosed) return true
+
+        return isScreenImageChanged()
+    }
+
+    override fun detectCondition(conditionId: Long, conditionBitmap: Bitmap, threshold: Int): DetectionResult {
+        if (isClosed) return detectionResult
+
+        detect(conditionId, conditionBitmap, threshold, detectionResult)
+        return detectionResult
+    }
+
+    override fun detectCondition(conditionId: Long, conditionBitmap: Bitmap, position: Rect, threshold: Int): DetectionResult {
+        if (isClosed) return detectionResult
+
+        detectAt(conditionId, conditionBitmap, position.left, position.top, position.width(), position.height(), threshold, detectionResult)
+        return detectionResult
+    }
+
+    override fun detectAllOccurrences(
+        conditionId: Long,
+        conditionBitmap: Bitmap,
+        area: Rect?,
+        threshold: Int,
+        maxResults: Int,
+    ): IntArray {
+        if (isClosed || maxResults <= 0) return IntArray(0)
 
-        detect(conditionBitmap, threshold, detectionResult)
-        return detectionResult.copy()
+        return detectAll(
+            conditionId,
+            conditionBitmap,
+            area == null,
+            area?.left ?: 0,
+            area?.top ?: 0,
+            area?.width() ?: 0,
+            area?.height() ?: 0,
+            threshold,
+            maxResults,
+        ) ?: IntArray(0)
     }
 
-    override fun detectCondition(conditionBitmap: Bitmap, position: Rect, threshold: Int): DetectionResult {
-        if (isClosed) return detectionResult.copy()
+    override fun detectConditions(batch: DetectionBatch) {
+        if (isClosed || batch.size == 0) {
+            batch.evaluatedCount = 0
+            return
+        }
 
-        detectAt(conditionBitmap, position.left, position.top, position.width(), position.height(), threshold, detectionResult)
-        return detectionResult.copy()
+        batch.evaluatedCount = detectBatch(
+            batch.size,
+            batch.operator,
+            batch.conditionIds,
+            batch.conditionBitmaps,
+            batch.areas,
+            batch.thresholds,
+            batch.detectionTypes,
+            batch.shouldBeDetected,
+            batch.results,
+            batch.confidenceRates,
+            batch.durationsNs,
+        )
+    }
+
+    override fun setDetectionThreads(threadCount: Int) {
+        if (isClosed) return
+        if (threadCount < 1) throw IllegalArgumentException("Invalid detection thread count")
+
+        setThreadCount(threadCount)
+    }
+
+    override fun getLocalitySearchStats(): LocalitySearchStats {
+        if (!isClosed) getLocalityStats(localityStats)
+
+        return LocalitySearchStats(
+            searchCount = localityStats[0],
+            hitCount = localityStats[1],
+            savedTimeMs = localityStats[2] / 1_000_000,
+        )
+    }
+
+    override fun getResultReuseStats(): Map<Long, ResultReuseStats> {
+        if (isClosed) return emptyMap()
+
+        val stats = getReuseStats()
+        return buildMap {
+            for (index in stats.indices step REUSE_STATS_STRIDE) {
+                put(stats[index], ResultReuseStats(detectionCount = stats[index + 1], reuseCount = stats[index + 2]))
+            }
+        }
+    }
+
+    override fun getBufferAllocationCount(): Long {
+        if (isClosed) return 0
+
+        return getAllocationCount()
+    }
+
+    override fun clearConditionsCache() {
+        if (isClosed) return
+
+        clearCache()
     }
 
     /**
@@ -113,18 +241,62 @@ class NativeDetector private constructor() : ImageDetector {
      */
     private external fun setScreenImage(screenBitmap: Bitmap)
 
+    /**
+     * Native method for screen metrics setup from a pixels buffer.
+     *
+     * @param screenBuffer the content of the screen, as a direct buffer in RGBA_8888.
+     * @param width the width of the screen image, in pixels.
+     * @param height the height of the screen image, in pixels.
+     * @param rowStride the number of bytes between the start of two rows.
+     * @param screenWidth the width of the screen, in pixels.
+     * @param screenHeight the height of the screen, in pixels.
+     * @param detectionQuality the quality of the detection.
+     */
+    private external fun updateScreenMetricsFromBuffer(
+        metricsKey: String,
+        screenBuffer: ByteBuffer,
+        width: Int,
+        height: Int,
+        rowStride: Int,
+        screenWidth: Int,
+        screenHeight: Int,
+        detectionQuality: Double,
+    )
+
+    /**
+     * Native method for detection setup from a pixels buffer. The pixels are not copied.
+     *
+     * @param screenBuffer the content of the screen, as a direct buffer in RGBA_8888.
+     * @param width the width of the screen image, in pixels.
+     * @param height the height of the screen image, in pixels.
+     * @param rowStride the number of bytes between the start of two rows.
+     */
+    private external fun setScreenImageFromBuffer(screenBuffer: ByteBuffer, width: Int, height: Int, rowStride: Int)
+
+    /** Native method for clearing the reference to the pixels of the current screen image. */
+    private external fun clearScreenImage()
+
+    /**
+     * Native method for comparing the current screen image with the previous one.
+     *
+     * @return true if the current screen image is different from the previous one.
+     */
+    private external fun isScreenImageChanged(): Boolean
+
     /**
      * Native method for detecting if the bitmap is in the whole current screen bitmap.
      *
+     * @param conditionId the unique identifier of the condition.
      * @param conditionBitmap the condition to detect in the screen.
      * @param threshold the allowed error threshold allowed for the condition.
      * @param result stores the results on this detection.
      */
-    private external fun detect(conditionBitmap: Bitmap, threshold: Int, result: DetectionResult)
+    private external fun detect(conditionId: Long, conditionBitmap: Bitmap, threshold: Int, result: DetectionResult)
 
     /**
      * Native method for detecting if the bitmap is at a specific position in the current screen bitmap.
      *
+     * @param conditionId the unique identifier of the condition.
      * @param conditionBitmap the condition to detect in the screen.
      * @param x the horizontal position of the condition.
      * @param y the vertical position of the condition.
@@ -134,6 +306,7 @@ class NativeDetector private constructor() : ImageDetector {
      * @param result stores the results on this detection.
      */
     private external fun detectAt(
+        conditionId: Long,
         conditionBitmap: Bitmap,
         x: Int,
         y: Int,
@@ -142,4 +315,85 @@ class NativeDetector private constructor() : ImageDetector {
         threshold: Int,
         result: DetectionResult
     )
-}
\ No newline at end of file
+
+    /**
+     * Native method for detecting all occurrences of the bitmap in the current screen bitmap.
+     *
+     * @param conditionId the unique identifier of the condition.
+     * @param conditionBitmap the condition to detect in the screen.
+     * @param inWholeScreen true to detect in the whole screen, false to detect in the area defined by x, y, width and height.
+     * @param x the horizontal position of the area.
+     * @param y the vertical position of the area.
+     * @param width the width of the area.
+     * @param height the height of the area.
+     * @param threshold the allowed error threshold allowed for the condition.
+     * @param maxResults the maximum number of occurrences.
+     *
+     * @return the center of each occurrence, as [x, y]. Null if the detection have thrown an exception.
+     */
+    private external fun detectAll(
+        conditionId: Long,
+        conditionBitmap: Bitmap,
+        inWholeScreen: Boolean,
+        x: Int,
+        y: Int,
+        width: Int,
+        height: Int,
+        threshold: Int,
+        maxResults: Int,
+    ): IntArray?
+
+    /**
+     * Native method for detecting a batch of conditions.
+     * See [DetectionBatch] for the content of each array.
+     *
+     * @return the number of conditions evaluated before the result of the batch was known.
+     */
+    private external fun detectBatch(
+        count: Int,
+        operator: Int,
+        conditionIds: LongArray,
+        conditionBitmaps: Array<Bitmap?>,
+        areas: IntArray,
+        thresholds: IntArray,
+        detectionTypes: IntArray,
+        shouldBeDetected: BooleanArray,
+        results: IntArray,
+        confidenceRates: DoubleArray,
+        durationsNs: LongArray,
+    ): Int
+
+    /**
+     * Native method for setting the number of threads used by [detectBatch].
+     *
+     * @param threadCount the number of threads, including the calling one.
+     */
+    private external fun setThreadCount(threadCount: Int)
+
+    /**
+     * Native method for getting the locality search statistics.
+     *
+     * @param stats stores the statistics, as [searchCount, hitCount, savedTimeNs].
+     */
+    private external fun getLocalityStats(stats: LongArray)
+
+    /**
+     * Native method for getting the results reuse statistics.
+     *
+     * @return the statistics, as [conditionId, detectionCount, reuseCount] for each condition.
+     */
+    private external fun getReuseStats(): LongArray
+
+    /**
+     * Native method for getting the number of allocations of the detector images and buffers.
+     *
+     * @return the number of allocations since the creation of the detector.
+     */
+    private external fun getAllocationCount(): Long
+
+    /** Native method for dropping the conditions cache. */
+    private external fun clearCache()
+}
+
+/** Number of values for each condition in the results reuse statistics. Must match the native code. */
+private const val REUSE_STATS_STRIDE = 3
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.detection.jvm
+
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * The detection logic of the JVM detector, without any Android dependency.
+ *
+ * It follows the native detector: the screen image is scaled according to the detection quality and converted to gray,
+ * the conditions are matched in it with the normalized correlation coefficient, and the best match is then verified
+ * against the mean colors of the condition in the full size screen image.
+ *
+ * All areas and positions are in screen coordinates.
+ */
+internal class JvmMatchingEngine : AutoCloseable {
+
+    private val matcher = TemplateMatcher()
+
+    /** The conditions prepared for the detection, by identifier. */
+    private val conditions: MutableMap<Long, ConditionPattern> = HashMap()
+
+    /** The screen image, in the capture resolution. Set by [setScreenImage]. */
+    private var screenColors: ColorImage? = null
+    /** The screen image scaled and in gray, used for the matching. */
+    private var scaledGray = GrayImage()
+    /** The gray image of the previous screen, to detect the changes. */
+    private var previousScaledGray = GrayImage()
+    /** The integral images of [scaledGray]. */
+    private val scaledGrayIntegral = IntegralImage()
+
+    /** The matching results, reused for all detections. */
+    private var matchingResults = FloatArray(0)
+    /** The occurrences candidates, as [score bits, result index] packed in a long to be sorted by score. */
+    private var occurrenceCandidates = LongArray(0)
+    /** The position in the matching results of the accepted occurrences, as [x, y]. */
+    private var occurrenceLocations = IntArray(0)
+
+    private var screenWidth: Int = 0
+    private var screenHeight: Int = 0
+    /** Ratio between the captured image size and the screen size. */
+    private var captureRatio: Double = 1.0
+    /** Ratio between the scaled gray image and the captured image. */
+    private var frameScaleRatio: Double = 1.0
+    /** Ratio between the scaled gray image and the screen, the one applied to areas and conditions. */
+    private var scaleRatio: Double = 1.0
+
+    /** True if the screen metrics have changed since the last [setScreenImage]. */
+    private var isMetricsChanged: Boolean = true
+
+    /** Tells if the last screen image set with [setScreenImage] is different from the previous one. */
+    var isScreenChanged: Boolean = true
+        private set
+
+    /** The number of allocations of the buffers of this engine. */
+    var allocationCount: Long = 0
+        private set
+
+    fun setParallelism(parallelism: Int) {
+        matcher.setParallelism(parallelism)
+    }
+
+    override fun close() {
+        matcher.close()
+        conditions.clear()
+        screenColors = null
+    }
+
+    /**
+     * Set the screen metrics.
+     *
+     * @param capturedImage the content of the screen. Can be captured at a lower resolution than the screen.
+     * @param width the width of the screen.
+     * @param height the height of the screen.
+     * @param detectionQuality the maximum size of the scaled image used for the matching.
+     */
+    fun setScreenMetrics(capturedImage: ColorImage, width: Int, height: Int, detectionQuality: Double) {
+        screenWidth = width
+        screenHeight = height
+        captureRatio = capturedImage.width.toDouble() / width
+
+        val maxImageDim = max(capturedImage.width, capturedImage.height)
+        frameScaleRatio = if (maxImageDim <= detectionQuality) 1.0 else detectionQuality / maxImageDim
+
+        // The prepared conditions are scaled with the previous ratio, they must be computed again.
+        val newScaleRatio = frameScaleRatio * captureRatio
+        if (newScaleRatio != scaleRatio) conditions.clear()
+        scaleRatio = newScaleRatio
+
+        isMetricsChanged = true
+    }
+
+    /**
+     * Set the screen image to detect the conditions in. [setScreenMetrics] must have been called first.
+     * The image is kept until the next call, it must not be modified before the detections on it are over.
+     */
+    fun setScreenImage(capturedImage: ColorImage) {
+        screenColors = capturedImage
+
+        val previous = previousScaledGray
+        previousScaledGray = scaledGray
+        scaledGray = previous
+
+        if (matcher.scaleToGray(capturedImage.pixels, capturedImage.width, capturedImage.height, frameScaleRatio, scaledGray))
+            allocationCount++
+        if (scaledGrayIntegral.compute(scaledGray)) allocationCount++
+
+        isScreenChanged = isMetricsChanged || !scaledGray.contentEquals(previousScaledGray)
+        isMetricsChanged = false
+    }
+
+    fun isConditionCached(conditionId: Long): Boolean =
+        conditions.containsKey(conditionId)
+
+    /**
+     * Prepare a condition for the detection and keep it in the cache.
+     *
+     * @param conditionId the unique identifier of the condition.
+     * @param pixels the ARGB pixels of the condition, in screen resolution.
+     * @param width the width of the condition.
+     * @param height the height of the condition.
+     */
+    fun cacheCondition(conditionId: Long, pixels: IntArray, width: Int, height: Int) {
+        var redSum = 0L
+        var greenSum = 0L
+        var blueSum = 0L
+        for (index in 0 until width * height) {
+            val color = pixels[index]
+            redSum += (color shr 16) and 0xFF
+            greenSum += (color shr 8) and 0xFF
+            blueSum += color and 0xFF
+        }
+
+        val scaledGrayCondition = GrayImage()
+        matcher.scaleToGray(pixels, width, height, scaleRatio, scaledGrayCondition)
+
+        val count = (width * height).toDouble()
+        conditions[conditionId] = ConditionPattern(
+            width = width,
+            height = height,
+            redMean = redSum / count,
+            greenMean = greenSum / count,
+            blueMean = blueSum / count,
+            template = TemplatePattern(scaledGrayCondition.width, scaledGrayCondition.height, scaledGrayCondition.pixels),
+        )
+    }
+
+    fun clearConditionsCache() {
+        conditions.clear()
+    }
+
+    /**
+     * Detect a cached condition in an area of the screen.
+     *
+     * @param conditionId the identifier of the condition. It must have been cached with [cacheCondition].
+     * @param area the area to detect the condition in, as [left, top, width, height], or null for the whole screen.
+     * @param threshold the allowed error threshold allowed for the condition.
+     * @param result set with the results of the detection.
+     */
+    fun detectCondition(conditionId: Long, area: IntArray?, threshold: Int, result: MatchResult) {
+        result.reset()
+
+        val condition = conditions[conditionId] ?: return
+        val detectionArea = getDetectionArea(condition, area) ?: return
+        val minScore = getMinimumMatchingScore(threshold)
+        val resultsWidth = detectionArea.scaledWidth - condition.template.width + 1
+        val resultsHeight = detectionArea.scaledHeight - condition.template.height + 1
+        val results = getMatchingResults(resultsWidth * resultsHeight)
+
+        matcher.match(scaledGray, scaledGrayIntegral, detectionArea.scaledX, detectionArea.scaledY,
+            detectionArea.scaledWidth, detectionArea.scaledHeight, condition.template, results)
+
+        // Until a condition is detected or none fits
+        while (true) {
+            val bestIndex = results.indexOfMax(resultsWidth * resultsHeight)
+            val resultX = bestIndex % resultsWidth
+            val resultY = bestIndex / resultsWidth
+            val matchX = detectionArea.x + (resultX / scaleRatio).roundToInt()
+            val matchY = detectionArea.y + (resultY / scaleRatio).roundToInt()
+            result.confidenceRate = results[bestIndex].toDouble()
+
+            // If the maximum for the whole area is below the threshold, we will never find.
+            if (results[bestIndex] <= minScore) return
+
+            if (!isContainedInScreen(matchX, matchY, condition.width, condition.height)) {
+                // Out of bounds, invalid match
+                results.invalidate(resultX, resultY, condition.template, resultsWidth, resultsHeight)
+                continue
+            }
+
+            result.centerX = matchX + condition.width / 2
+            result.centerY = matchY + condition.height / 2
+
+            if (isColorMatching(condition, matchX, matchY, threshold)) {
+                result.isDetected = true
+                return
+            }
+
+            // Colors are invalid, the best match is not this one
+            results.invalidate(resultX, resultY, condition.template, resultsWidth, resultsHeight)
+        }
+    }
+
+    /**
+     * Detect all occurrences of a cached condition in an area of the screen.
+     *
+     * @param conditionId the identifier of the condition. It must have been cached with [cacheCondition].
+     * @param area the area to detect the condition in, as [left, top, width, height], or null for the whole screen.
+     * @param threshold the allowed error threshold allowed for the condition.
+     * @param maxResults the maximum number of occurrences to detect.
+     *
+     * @return the centers of the occurrences, as [x, y], sorted from the best match to the worst.
+     */
+    fun detectAllOccurrences(conditionId: Long, area: IntArray?, threshold: Int, maxResults: Int): IntArray {
+        val condition = conditions[conditionId] ?: return IntArray(0)
+        val detectionArea = getDetectionArea(condition, area) ?: return IntArray(0)
+        val template = condition.template
+        val resultsWidth = detectionArea.scaledWidth - template.width + 1
+        val resultsHeight = detectionArea.scaledHeight - template.height + 1
+        val results = getMatchingResults(resultsWidth * resultsHeight)
+
+        matcher.match(scaledGray, scaledGrayIntegral, detectionArea.scaledX, detectionArea.scaledY,
+            detectionArea.scaledWidth, detectionArea.scaledHeight, template, results)
+        val candidatesCount = findOccurrenceCandidates(results, resultsWidth, resultsHeight, getMinimumMatchingScore(threshold))
+
+        if (occurrenceLocations.size < maxResults * 2) {
+            occurrenceLocations = IntArray(maxResults * 2)
+            allocationCount++
+        }
+        val centers = IntArray(min(maxResults, candidatesCount) * 2)
+        var occurrencesCount = 0
+
+        // The candidates are sorted by increasing score, start from the best one.
+        for (candidateIndex in candidatesCount - 1 downTo 0) {
+            if (occurrencesCount >= maxResults) break
+
+            val resultIndex = occurrenceCandidates[candidateIndex].toInt()
+            val resultX = resultIndex % resultsWidth
+            val resultY = resultIndex / resultsWidth
+
+            // A candidate overlapping an accepted occurrence is a worse match of it.
+            if (isSameAsAcceptedOccurrence(resultX, resultY, occurrencesCount, template)) continue
+
+            val matchX = detectionArea.x + (resultX / scaleRatio).roundToInt()
+            val matchY = detectionArea.y + (resultY / scaleRatio).roundToInt()
+            if (!isContainedInScreen(matchX, matchY, condition.width, condition.height)) continue
+
+            // A candidate with invalid colors is not an occurrence, so it doesn't suppress its neighbours.
+            if (!isColorMatching(condition, matchX, matchY, threshold)) continue
+
+            occurrenceLocations[occurrencesCount * 2] = resultX
+            occurrenceLocations[occurrencesCount * 2 + 1] = resultY
+            centers[occurrencesCount * 2] = matchX + condition.width / 2
+            centers[occurrencesCount * 2 + 1] = matchY + condition.height / 2
+            occurrencesCount++
+        }
+
+        return if (occurrencesCount * 2 == centers.size) centers else centers.copyOf(occurrencesCount * 2)
+    }
+
+    /** @return the detection area in screen and in scaled coordinates, or null if the condition can't be in it. */
+    private fun getDetectionArea(condition: ConditionPattern, area: IntArray?): DetectionArea? {
+        val x = area?.get(0) ?: 0
+        val y = area?.get(1) ?: 0
+        val width = area?.get(2) ?: screenWidth
+        val height = area?.get(3) ?: screenHeight
+        if (screenColors == null || !isContainedInScreen(x, y, width, height)) return null
+        if (width < condition.width || height < condition.height) return null
+
+        var scaledX = (x * scaleRatio).roundToInt()
+        var scaledY = (y * scaleRatio).roundToInt()
+        var scaledWidth = (width * scaleRatio).roundToInt()
+        var scaledHeight = (height * scaleRatio).roundToInt()
+
+        // The scaled image size is rounded, absorb the difference at the borders.
+        scaledX = min(scaledX, scaledGray.width)
+        scaledY = min(scaledY, scaledGray.height)
+        scaledWidth = min(scaledWidth, scaledGray.width - scaledX)
+        scaledHeight = min(scaledHeight, scaledGray.height - scaledY)
+        if (scaledWidth < condition.template.width || scaledHeight < condition.template.height) return null
+
+        return DetectionArea(x, y, scaledX, scaledY, scaledWidth, scaledHeight)
+    }
+
+    private fun getMatchingResults(size: Int): FloatArray {
+        if (size > matchingResults.size) {
+            matchingResults = FloatArray(size)
+            allocationCount++
+        }
+        return matchingResults
+    }
+
+    /**
+     * Collect the local maxima of the matching results above a minimum score into [occurrenceCandidates].
+     * A value is a local maximum if none of its 8 neighbours is greater.
+     *
+     * @return the number of candidates, sorted by increasing score.
+     */
+    private fun findOccurrenceCandidates(results: FloatArray, width: Int, height: Int, minScore: Float): Int {
+        var count = 0
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val score = results[y * width + x]
+                if (score <= minScore) continue
+                if (!results.isLocalMaximum(x, y, width, height)) continue
+
+                if (count == occurrenceCandidates.size) {
+                    occurrenceCandidates = occurrenceCandidates.copyOf(max(DEFAULT_CANDIDATES_CAPACITY, count * 2))
+                    allocationCount++
+                }
+                // Positive floats bits have the same order than their values, the sort is done on the score.
+                occurrenceCandidates[count++] = (score.toRawBits().toLong() shl 32) or (y * width + x).toLong()
+            }
+        }
+
+        occurrenceCandidates.sort(0, count)
+        return count
+    }
+
+    private fun FloatArray.isLocalMaximum(x: Int, y: Int, width: Int, height: Int): Boolean {
+        val score = this[y * width + x]
+        for (neighbourY in max(y - 1, 0)..min(y + 1, height - 1)) {
+            for (neighbourX in max(x - 1, 0)..min(x + 1, width - 1)) {
+                if (this[neighbourY * width + neighbourX] > score) return false
+            }
+        }
+        return true
+    }
+
+    private fun isSameAsAcceptedOccurrence(resultX: Int, resultY: Int, acceptedCount: Int, template: TemplatePattern): Boolean {
+        for (index in 0 until acceptedCount) {
+            if (abs(resultX - occurrenceLocations[index * 2]) * 2 < template.width
+                && abs(resultY - occurrenceLocations[index * 2 + 1]) * 2 < template.height) return true
+        }
+        return false
+    }
+
+    private fun isContainedInScreen(x: Int, y: Int, width: Int, height: Int): Boolean =
+        x >= 0 && y >= 0 && width >= 0 && height >= 0 && x + width <= screenWidth && y + height <= screenHeight
+
+    /**
+     * Tells if the mean colors of an area of the screen are close enough to the condition ones.
+     * The means are the same at any resolution, so this is done in the captured image.
+     */
+    private fun isColorMatching(condition: ConditionPattern, x: Int, y: Int, threshold: Int): Boolean {
+        val colors = screenColors ?: return false
+
+        val left = max(0, (x * captureRatio).roundToInt())
+        val top = max(0, (y * captureRatio).roundToInt())
+        val right = min(colors.width, left + (condition.width * captureRatio).roundToInt())
+        val bottom = min(colors.height, top + (condition.height * captureRatio).roundToInt())
+        if (right <= left || bottom <= top) return false
+
+        var redSum = 0L
+        var greenSum = 0L
+        var blueSum = 0L
+        for (row in top until bottom) {
+            for (column in left until right) {
+                val color = colors.pixels[row * colors.width + column]
+                redSum += (color shr 16) and 0xFF
+                greenSum += (color shr 8) and 0xFF
+                blueSum += color and 0xFF
+            }
+        }
+
+        val count = ((right - left) * (bottom - top)).toDouble()
+        val diff = abs(redSum / count - condition.redMean) + abs(greenSum / count - condition.greenMean) +
+                abs(blueSum / count - condition.blueMean)
+        return (diff * 100) / (255 * 3) < threshold
+    }
+
+    /** The invalidated results are set to 0, so the score can't be negative or the search would never end. */
+    private fun getMinimumMatchingScore(threshold: Int): Float =
+        max(0f, (100 - threshold) / 100f)
+}
+
+/** The result of a detection by the [JvmMatchingEngine]. */
+internal class MatchResult {
+
+    var isDetected: Boolean = false
+    var centerX: Int = 0
+    var centerY: Int = 0
+    var confidenceRate: Double = 0.0
+
+    fun reset() {
+        isDetected = false
+        centerX = 0
+        centerY = 0
+        confidenceRate = 0.0
+    }
+}
+
+/** A condition prepared for the detection. */
+private class ConditionPattern(
+    val width: Int,
+    val height: Int,
+    val redMean: Double,
+    val greenMean: Double,
+    val blueMean: Double,
+    val template: TemplatePattern,
+)
+
+/** A detection area, in screen coordinates for its position and in the scaled gray image. */
+private class DetectionArea(
+    val x: Int,
+    val y: Int,
+    val scaledX: Int,
+    val scaledY: Int,
+    val scaledWidth: Int,
+    val scaledHeight: Int,
+)
+
+private fun FloatArray.indexOfMax(size: Int): Int {
+    var maxIndex = 0
+    for (index in 1 until size) {
+        if (this[index] > this[maxIndex]) maxIndex = index
+    }
+    return maxIndex
+}
+
+/** Set the results around a position to 0, so the next best match is in another place. */
+private fun FloatArray.invalidate(x: Int, y: Int, template: TemplatePattern, width: Int, height: Int) {
+    for (row in y until min(y + template.height, height)) {
+        fill(0f, row * width + x, row * width + min(x + template.width, width))
+    }
+}
+
+/** Initial capacity of the occurrences candidates. */
+private const val DEFAULT_CANDIDATES_CAPACITY = 64
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.detection.jvm
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+/**
+ * A color image, with its pixels stored row by row as ARGB values.
+ * The pixels array only grows, so the same image can be reused for all images with a smaller or equal size.
+ */
+internal class ColorImage {
+
+    var width: Int = 0
+        private set
+    var height: Int = 0
+        private set
+    var pixels: IntArray = IntArray(0)
+        private set
+
+    /** The number of times the pixels array have been allocated. */
+    var allocationCount: Long = 0
+        private set
+
+    /** Set the size of this image. The pixels values are undefined after this call. */
+    fun resize(newWidth: Int, newHeight: Int) {
+        width = newWidth
+        height = newHeight
+
+        if (newWidth * newHeight <= pixels.size) return
+        pixels = IntArray(newWidth * newHeight)
+        allocationCount++
+    }
+
+    /**
+     * Copy the pixels of a buffer into this image.
+     *
+     * @param buffer the pixels, in RGBA_8888.
+     * @param bufferWidth the width of the image, in pixels.
+     * @param bufferHeight the height of the image, in pixels.
+     * @param rowStride the number of bytes between the start of two rows. Must be a multiple of 4.
+     */
+    fun readFrom(buffer: ByteBuffer, bufferWidth: Int, bufferHeight: Int, rowStride: Int) {
+        resize(bufferWidth, bufferHeight)
+
+        // Read as big endian ints from the start of the buffer, the pixels are then RRGGBBAA.
+        val rgbaBuffer = buffer.duplicate().also { it.position(0) }.order(ByteOrder.BIG_ENDIAN).asIntBuffer()
+        for (y in 0 until bufferHeight) {
+            rgbaBuffer.position(y * rowStride / Int.SIZE_BYTES)
+            rgbaBuffer.get(pixels, y * bufferWidth, bufferWidth)
+        }
+        for (index in 0 until bufferWidth * bufferHeight) {
+            val rgba = pixels[index]
+            pixels[index] = (rgba ushr 8) or (rgba shl 24)
+        }
+    }
+}
+
+/**
+ * A gray image, with the value of its pixels stored row by row.
+ * The pixels array only grows, so the same image can be reused for all images with a smaller or equal size.
+ */
+internal class GrayImage {
+
+    var width: Int = 0
+        private set
+    var height: Int = 0
+        private set
+    var pixels: FloatArray = FloatArray(0)
+        private set
+
+    /**
+     * Set the size of this image. The pixels values are undefined after this call.
+     * @return true if the pixels array has been allocated, false if it has been reused.
+     */
+    fun resize(newWidth: Int, newHeight: Int): Boolean {
+        width = newWidth
+        height = newHeight
+
+        if (newWidth * newHeight <= pixels.size) return false
+        pixels = FloatArray(newWidth * newHeight)
+        return true
+    }
+
+    /** @return true if this image have the same size and pixels than [other]. */
+    fun contentEquals(other: GrayImage): Boolean {
+        if (width != other.width || height != other.height) return false
+        for (index in 0 until width * height) {
+            if (pixels[index] != other.pixels[index]) return false
+        }
+        return true
+    }
+}
+
+/**
+ * The integral images of a [GrayImage], for its pixels values and their squares.
+ *
+ * Each value is the sum of all pixels above and on the left of its position, allowing to get the sum of any area of
+ * the image with four reads. The sums are stored with one more row and column than the image, filled with zeros.
+ */
+internal class IntegralImage {
+
+    private var stride: Int = 0
+
+    var sums: DoubleArray = DoubleArray(0)
+        private set
+    var squaredSums: DoubleArray = DoubleArray(0)
+        private set
+
+    /**
+     * Compute the integral images of [image].
+     * @return true if the sums arrays have been allocated, false if they have been reused.
+     */
+    fun compute(image: GrayImage): Boolean {
+        stride = image.width + 1
+
+        val size = stride * (image.height + 1)
+        val isAllocating = size > sums.size
+        if (isAllocating) {
+            sums = DoubleArray(size)
+            squaredSums = DoubleArray(size)
+        }
+
+        val pixels = image.pixels
+        sums.fill(0.0, 0, stride)
+        squaredSums.fill(0.0, 0, stride)
+        for (y in 0 until image.height) {
+            var rowSum = 0.0
+            var rowSquaredSum = 0.0
+            val rowIndex = (y + 1) * stride
+            sums[rowIndex] = 0.0
+            squaredSums[rowIndex] = 0.0
+
+            for (x in 0 until image.width) {
+                val pixel = pixels[y * image.width + x].toDouble()
+                rowSum += pixel
+                rowSquaredSum += pixel * pixel
+                sums[rowIndex + x + 1] = sums[rowIndex - stride + x + 1] + rowSum
+                squaredSums[rowIndex + x + 1] = squaredSums[rowIndex - stride + x + 1] + rowSquaredSum
+            }
+        }
+
+        return isAllocating
+    }
+
+    fun getSum(x: Int, y: Int, width: Int, height: Int): Double =
+        sums.getAreaSum(x, y, width, height)
+
+    fun getSquaredSum(x: Int, y: Int, width: Int, height: Int): Double =
+        squaredSums.getAreaSum(x, y, width, height)
+
+    private fun DoubleArray.getAreaSum(x: Int, y: Int, width: Int, height: Int): Double {
+        val top = y * stride
+        val bottom = (y + height) * stride
+        return this[bottom + x + width] - this[top + x + width] - this[bottom + x] + this[top + x]
+    }
+}
+
+/**
+ * A condition prepared for the template matching.
+ * Its pixels are centered on their mean, so the correlation with the screen image doesn't need the screen mean.
+ */
+internal class TemplatePattern(val width: Int, val height: Int, pixels: FloatArray) {
+
+    /** The pixels of the template, minus their mean. */
+    val centeredPixels: FloatArray = FloatArray(width * height)
+    /** The square root of the sum of the squares of [centeredPixels]. */
+    val norm: Double
+    /** True if all pixels have the same value. As with OpenCv, such template matches any position. */
+    val isUniform: Boolean
+
+    init {
+        val count = width * height
+        var mean = 0.0
+        for (index in 0 until count) mean += pixels[index]
+        mean /= count
+
+        var squaredSum = 0.0
+        for (index in 0 until count) {
+            val centered = (pixels[index] - mean).toFloat()
+            centeredPixels[index] = centered
+            squaredSum += centered * centered
+        }
+        norm = sqrt(squaredSum)
+        isUniform = squaredSum / count < MIN_TEMPLATE_VARIANCE
+    }
+}
+
+/**
+ * Computes the normalized correlation coefficient between a [TemplatePattern] and each position of an area of an image,
+ * the same way as OpenCv TM_CCOEFF_NORMED.
+ *
+ * The numerator is computed from the centered template, and the denominator from the [IntegralImage] of the image. The
+ * result rows are split between the threads of a fork-join pool.
+ *
+ * @param parallelism the number of threads computing the results.
+ */
+internal class TemplateMatcher(parallelism: Int = 1) : AutoCloseable {
+
+    private var pool: ForkJoinPool? = null
+
+    init {
+        setParallelism(parallelism)
+    }
+
+    /** Set the number of threads computing the results. 1 computes them on the calling thread. */
+    fun setParallelism(parallelism: Int) {
+        pool?.shutdown()
+        pool = if (parallelism > 1) ForkJoinPool(parallelism) else null
+    }
+
+    override fun close() {
+        pool?.shutdown()
+        pool = null
+    }
+
+    /**
+     * Execute [block] for all rows from 0 to [rowCount], split in ranges between the threads.
+     * @param block called with the first row of the range, included, and the last one, excluded.
+     */
+    fun forEachRowRange(rowCount: Int, block: (Int, Int) -> Unit) {
+        val currentPool = pool
+        if (currentPool == null || rowCount <= MIN_ROWS_PER_TASK) block(0, rowCount)
+        else currentPool.invoke(RowRangeTask(0, rowCount, block))
+    }
+
+    /**
+     * Match the template at each position of an area of the image.
+     *
+     * @param image the image to match the template in.
+     * @param integral the integral images of [image].
+     * @param areaX the left of the area in the image.
+     * @param areaY the top of the area in the image.
+     * @param areaWidth the width of the area. Must be greater or equal to the template width.
+     * @param areaHeight the height of the area. Must be greater or equal to the template height.
+     * @param template the template to match.
+     * @param results the score of each position of the template in the area, row by row. Must contains at least
+     * (areaWidth - template.width + 1) * (areaHeight - template.height + 1) values.
+     */
+    fun match(
+        image: GrayImage,
+        integral: IntegralImage,
+        areaX: Int,
+        areaY: Int,
+        areaWidth: Int,
+        areaHeight: Int,
+        template: TemplatePattern,
+        results: FloatArray,
+    ) {
+        val resultsWidth = areaWidth - template.width + 1
+        val resultsHeight = areaHeight - template.height + 1
+
+        forEachRowRange(resultsHeight) { fromRow, toRow ->
+            for (y in fromRow until toRow) {
+                for (x in 0 until resultsWidth) {
+                    results[y * resultsWidth + x] = getScore(image, integral, areaX + x, areaY + y, template)
+                }
+            }
+        }
+    }
+
+    /** @return the score of the template at a position of the image, between -1 and 1. */
+    fun getScore(image: GrayImage, integral: IntegralImage, x: Int, y: Int, template: TemplatePattern): Float {
+        if (template.isUniform) return 1f
+
+        val pixels = image.pixels
+        val templatePixels = template.centeredPixels
+
+        var correlation = 0.0
+        for (templateY in 0 until template.height) {
+            var rowCorrelation = 0f
+            val imageRowIndex = (y + templateY) * image.width + x
+            val templateRowIndex = templateY * template.width
+            for (templateX in 0 until template.width) {
+                rowCorrelation += templatePixels[templateRowIndex + templateX] * pixels[imageRowIndex + templateX]
+            }
+            correlation += rowCorrelation
+        }
+
+        val count = template.width * template.height
+        val sum = integral.getSum(x, y, template.width, template.height)
+        val variance = integral.getSquaredSum(x, y, template.width, template.height) - sum * sum / count
+        val denominator = template.norm * sqrt(max(variance, 0.0))
+        if (denominator <= MIN_DENOMINATOR) return 0f
+
+        return max(-1.0, min(1.0, correlation / denominator)).toFloat()
+    }
+
+    private class RowRangeTask(
+        private val fromRow: Int,
+        private val toRow: Int,
+        private val block: (Int, Int) -> Unit,
+    ) : RecursiveAction() {
+
+        override fun compute() {
+            if (toRow - fromRow <= MIN_ROWS_PER_TASK) {
+                block(fromRow, toRow)
+                return
+            }
+
+            val middleRow = (fromRow + toRow) ushr 1
+            invokeAll(RowRangeTask(fromRow, middleRow, block), RowRangeTask(middleRow, toRow, block))
+        }
+    }
+}
+
+/**
+ * Fill [gray] with the gray values of an ARGB image scaled with [ratio].
+ * Each scaled pixel is the mean of the pixels it covers in the original image, as OpenCv INTER_AREA resize does when
+ * reducing an image.
+ *
+ * @return true if the gray image pixels have been allocated, false if they have been reused.
+ */
+internal fun TemplateMatcher.scaleToGray(colors: IntArray, width: Int, height: Int, ratio: Double, gray: GrayImage): Boolean {
+    val scaledWidth = max(1, (width * ratio).roundToInt())
+    val scaledHeight = max(1, (height * ratio).roundToInt())
+    val isAllocating = gray.resize(scaledWidth, scaledHeight)
+    val grayPixels = gray.pixels
+
+    forEachRowRange(scaledHeight) { fromRow, toRow ->
+        for (scaledY in fromRow until toRow) {
+            val top = scaledY * height / scaledHeight
+            val bottom = max(top + 1, (scaledY + 1) * height / scaledHeight)
+
+            for (scaledX in 0 until scaledWidth) {
+                val left = scaledX * width / scaledWidth
+                val right = max(left + 1, (scaledX + 1) * width / scaledWidth)
+
+                var sum = 0f
+                for (y in top until bottom) {
+                    for (x in left until right) sum += colors[y * width + x].toGray()
+                }
+                grayPixels[scaledY * scaledWidth + scaledX] = sum / ((bottom - top) * (right - left))
+            }
+        }
+    }
+
+    return isAllocating
+}
+
+/** @return the gray value of an ARGB color, with the same weights as OpenCv RGBA2GRAY. */
+internal fun Int.toGray(): Float =
+    GRAY_RED_WEIGHT * ((this shr 16) and 0xFF) + GRAY_GREEN_WEIGHT * ((this shr 8) and 0xFF) + GRAY_BLUE_WEIGHT * (this and 0xFF)
+
+/** Minimum number of result rows computed by a fork-join task. */
+private const val MIN_ROWS_PER_TASK = 8
+/** Below this value, the area is considered as uniform and the score is 0. */
+private const val MIN_DENOMINATOR = 1e-6
+/** Below this variance, the template is considered as uniform and the score is 1, as with OpenCv (DBL_EPSILON). */
+private const val MIN_TEMPLATE_VARIANCE = 2.220446049250313e-16
+
+private const val GRAY_RED_WEIGHT = 0.299f
+private const val GRAY_GREEN_WEIGHT = 0.587f
+private const val GRAY_BLUE_WEIGHT = 0.114f
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <cmath>
+#include <cstdio>
+#include <random>
+
+#include <opencv2/core.hpp>
+#include <opencv2/imgproc.hpp>
+
+#include "../../main/cpp/types/exactMatchTemplate.hpp"
+
+using namespace smartautoclicker;
+
+/*
+ * Equivalence tests of the single position matching with cv::matchTemplate, built for the host and linked with the
+ * OpenCV installed on it by the CMakeLists.txt of this directory.
+ */
+
+/** The maximum difference with the OpenCV scores, computed in float. */
+static const double SCORE_TOLERANCE = 1e-4;
+/** The number of random images and conditions compared. */
+static const int RANDOM_CASES_COUNT = 2000;
+
+static int failureCount = 0;
+
+static void assertScore(const char* message, double expected, double actual) {
+    if (std::fabs(expected - actual) <= SCORE_TOLERANCE) return;
+
+    std::printf("FAILED: %s, expected %f but was %f\n", message, expected, actual);
+    failureCount++;
+}
+
+static double matchWithOpenCv(const cv::Mat& grayImage, const cv::Mat& grayCondition) {
+    cv::Mat result;
+    cv::matchTemplate(grayImage, grayCondition, result, cv::TM_CCOEFF_NORMED);
+    return result.at<float>(0, 0);
+}
+
+static double matchExact(const cv::Mat& grayImage, const cv::Mat& grayCondition, double minScore) {
+    ExactMatchTemplate exactMatch;
+    exactMatch.initialize(grayCondition);
+    return exactMatch.match(grayImage, grayCondition, minScore);
+}
+
+static cv::Mat newRandomImage(std::mt19937& random, int width, int height) {
+    cv::Mat image(height, width, CV_8UC1);
+    for (int row = 0; row < height; row++) {
+        for (int column = 0; column < width; column++) image.at<uchar>(row, column) = (uchar) (random() % 256);
+    }
+    return image;
+}
+
+/** @return a copy of the image, with some noise. */
+static cv::Mat newNoisyCopy(std::mt19937& random, const cv::Mat& image) {
+    cv::Mat copy = image.clone();
+    for (int row = 0; row < copy.rows; row++) {
+        for (int column = 0; column < copy.cols; column++) {
+            copy.at<uchar>(row, column) = (uchar) std::min(255, copy.at<uchar>(row, column) + (int) (random() % 32));
+        }
+    }
+    return copy;
+}
+
+static void uniformCondition_uniformImage() {
+    cv::Mat condition(10, 12, CV_8UC1, cv::Scalar(128));
+    cv::Mat image(10, 12, CV_8UC1, cv::Scalar(30));
+
+    assertScore("Uniform condition on uniform image", matchWithOpenCv(image, condition), matchExact(image, condition, -1));
+    assertScore("Uniform condition should always match", 1, matchExact(image, condition, 0.9));
+}
+
+static void uniformCondition_randomImage() {
+    std::mt19937 random(1);
+    cv::Mat condition(10, 12, CV_8UC1, cv::Scalar(200));
+    cv::Mat image = newRandomImage(random, 12, 10);
+
+    assertScore("Uniform condition on random image", matchWithOpenCv(image, condition), matchExact(image, condition, -1));
+}
+
+static void randomCondition_uniformImage() {
+    std::mt19937 random(2);
+    cv::Mat condition = newRandomImage(random, 12, 10);
+    cv::Mat image(10, 12, CV_8UC1, cv::Scalar(75));
+
+    assertScore("Random condition on uniform image", matchWithOpenCv(image, condition), matchExact(image, condition, -1));
+}
+
+static void sameImage() {
+    std::mt19937 random(3);
+    cv::Mat condition = newRandomImage(random, 40, 30);
+
+    assertScore("Condition on itself", matchWithOpenCv(condition, condition), matchExact(condition, condition, -1));
+}
+
+static void randomImages() {
+    std::mt19937 random(4);
+    for (int i = 0; i < RANDOM_CASES_COUNT; i++) {
+        int width = 1 + (int) (random() % 48);
+        int height = 1 + (int) (random() % 48);
+        cv::Mat condition = newRandomImage(random, width, height);
+        cv::Mat image = (i % 2 == 0) ? newNoisyCopy(random, condition) : newRandomImage(random, width, height);
+
+        assertScore("Random images", matchWithOpenCv(image, condition), matchExact(image, condition, -1));
+    }
+}
+
+static void earlyExit_neverRejectsAMatch() {
+    std::mt19937 random(5);
+    for (int i = 0; i < RANDOM_CASES_COUNT; i++) {
+        int width = 1 + (int) (random() % 48);
+        int height = 2 + (int) (random() % 48);
+        double minScore = (double) (random() % 100) / 100;
+        cv::Mat condition = newRandomImage(random, width, height);
+        cv::Mat image = (i % 2 == 0) ? newNoisyCopy(random, condition) : newRandomImage(random, width, height);
+
+        double score = matchExact(image, condition, -1);
+        double earlyExitScore = matchExact(image, condition, minScore);
+        if (earlyExitScore == score) continue;
+
+        // The computation stopped, the score must not exceed the minimum one
+        if (score > minScore || earlyExitScore != 0) {
+            std::printf("FAILED: Invalid early exit, score %f, minimum score %f\n", score, minScore);
+            failureCount++;
+        }
+    }
+}
+
+int main() {
+    uniformCondition_uniformImage();
+    uniformCondition_randomImage();
+    randomCondition_uniformImage();
+    sameImage();
+    randomImages();
+    earlyExit_neverRejectsAMatch();
+
+    if (failureCount == 0) std::printf("All tests passed\n");
+    return failureCount == 0 ? 0 : 1;
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <cmath>
+#include <cstdio>
+#include <initializer_list>
+
+#include <opencv2/core.hpp>
+
+#include "../../main/cpp/types/detectionResult.hpp"
+#include "../../main/cpp/types/frameTiles.hpp"
+#include "../../main/cpp/types/resultReuse.hpp"
+
+using namespace smartautoclicker;
+
+/*
+ * Tests of the header only parts of the native detector, built for the host and linked with the OpenCV installed on it
+ * by the CMakeLists.txt of this directory:
+ *   cmake -S src/test/cpp -B build/nativeTests && cmake --build build/nativeTests && ctest --test-dir build/nativeTests --output-on-failure
+ */
+
+static int failureCount = 0;
+
+/** The size of the test images, in tiles. */
+static const int TEST_IMAGE_TILES = 4;
+/** The size of the test images, in pixels. */
+static const int TEST_IMAGE_SIZE = TEST_IMAGE_TILES * FRAME_TILE_SIZE;
+/** The threshold of the test condition. */
+static const int TEST_THRESHOLD = 5;
+
+static void assertReuse(const char* message, ResultReuse expected, ResultReuse actual) {
+    if (expected == actual) return;
+
+    std::printf("FAILED: %s\n", message);
+    failureCount++;
+}
+
+static void assertTrue(const char* message, bool value) {
+    if (value) return;
+
+    std::printf("FAILED: %s\n", message);
+    failureCount++;
+}
+
+static void assertRatio(const char* message, double expected, double actual) {
+    if (std::fabs(expected - actual) < 1e-9) return;
+
+    std::printf("FAILED: %s, expected %f but was %f\n", message, expected, actual);
+    failureCount++;
+}
+
+/** @return a black image of [TEST_IMAGE_SIZE]. */
+static cv::Mat newImage() {
+    return cv::Mat(TEST_IMAGE_SIZE, TEST_IMAGE_SIZE, CV_8UC1, cv::Scalar(0));
+}
+
+/** Change a pixel of a tile of the image. */
+static void changeTile(cv::Mat& image, int column, int row) {
+    uchar& pixel = image.at<uchar>(row * FRAME_TILE_SIZE + 1, column * FRAME_TILE_SIZE + 1);
+    pixel = pixel + 1;
+}
+
+/** @return the roi of a tile of the test images. */
+static cv::Rect getTileRoi(int column, int row) {
+    return cv::Rect(column * FRAME_TILE_SIZE, row * FRAME_TILE_SIZE, FRAME_TILE_SIZE, FRAME_TILE_SIZE);
+}
+
+/** The generation of the frames, as updated by the detector for each frame. */
+class FrameSequence {
+
+public:
+    long long generation = 0;
+    bool isChanged = false;
+
+    void onFrame(bool changed) {
+        isChanged = changed;
+        if (changed) generation++;
+    }
+
+    ResultReuse getReuse(long long resultGeneration) const {
+        return getResultReuse(resultGeneration, generation, isChanged);
+    }
+};
+
+static void sameFrame() {
+    FrameSequence frames;
+    frames.onFrame(true);
+    long long resultGeneration = frames.generation;
+
+    assertReuse("Result should be used on its frame", ResultReuse::SAME_FRAME, frames.getReuse(resultGeneration));
+    frames.onFrame(false);
+    assertReuse("Result should be used on an identical frame", ResultReuse::SAME_FRAME, frames.getReuse(resultGeneration));
+}
+
+static void previousFrame_changed() {
+    FrameSequence frames;
+    frames.onFrame(true);
+    long long resultGeneration = frames.generation;
+
+    frames.onFrame(true);
+    assertReuse("Result should be verified with the changed tiles", ResultReuse::PREVIOUS_FRAME,
+                frames.getReuse(resultGeneration));
+}
+
+static void skippedOnChangedFrame_evaluatedOnUnchangedFrame() {
+    FrameSequence frames;
+    frames.onFrame(true);
+    long long resultGeneration = frames.generation;
+
+    // The condition is not evaluated on the changed frame (short circuit, disabled event...)
+    frames.onFrame(true);
+    // Then evaluated on the next one, identical: there is no changed tiles to verify the result with.
+    frames.onFrame(false);
+    assertReuse("Result of a different frame can't be reused", ResultReuse::NONE, frames.getReuse(resultGeneration));
+}
+
+static void olderFrame() {
+    FrameSequence frames;
+    frames.onFrame(true);
+    long long resultGeneration = frames.generation;
+
+    frames.onFrame(true);
+    frames.onFrame(true);
+    assertReuse("Result older than the previous frame can't be reused", ResultReuse::NONE,
+                frames.getReuse(resultGeneration));
+}
+
+static void frameTiles_firstImage() {
+    FrameTiles tiles;
+    tiles.update(newImage());
+
+    assertTrue("First image should be changed", tiles.isChanged());
+    assertRatio("All tiles of the first image should be dirty", 1, tiles.getDirtyRatio());
+}
+
+static void frameTiles_sameImage() {
+    FrameTiles tiles;
+    cv::Mat image = newImage();
+    tiles.update(image);
+    tiles.update(image);
+
+    assertTrue("Same image should not be changed", !tiles.isChanged());
+    assertRatio("No tiles should be dirty", 0, tiles.getDirtyRatio());
+    assertTrue("Whole image should not be dirty", !tiles.isDirty(cv::Rect(0, 0, TEST_IMAGE_SIZE, TEST_IMAGE_SIZE)));
+}
+
+static void frameTiles_changedTiles() {
+    FrameTiles tiles;
+    cv::Mat image = newImage();
+    tiles.update(image);
+    changeTile(image, 1, 2);
+    changeTile(image, 3, 3);
+    tiles.update(image);
+
+    assertTrue("Image should be changed", tiles.isChanged());
+    assertRatio("Invalid dirty ratio", 2.0 / (TEST_IMAGE_TILES * TEST_IMAGE_TILES), tiles.getDirtyRatio());
+    assertTrue("Changed tile should be dirty", tiles.isDirty(getTileRoi(1, 2)));
+    assertTrue("Area across a changed tile should be dirty", tiles.isDirty(cv::Rect(10, 70, 30, 10)));
+    assertTrue("Unchanged tile should not be dirty", !tiles.isDirty(getTileRoi(0, 0)));
+    assertTrue("Area of unchanged tiles should not be dirty", !tiles.isDirty(cv::Rect(0, 0, TEST_IMAGE_SIZE, 60)));
+}
+
+static void frameTiles_sizeChanged() {
+    FrameTiles tiles;
+    tiles.update(newImage());
+    tiles.update(cv::Mat(TEST_IMAGE_SIZE / 2, TEST_IMAGE_SIZE, CV_8UC1, cv::Scalar(0)));
+
+    assertRatio("All tiles should be dirty after a size change", 1, tiles.getDirtyRatio());
+}
+
+static void frameTiles_invalidate() {
+    FrameTiles tiles;
+    cv::Mat image = newImage();
+    tiles.update(image);
+    tiles.invalidate();
+    tiles.update(image);
+
+    assertRatio("All tiles should be dirty after an invalidation", 1, tiles.getDirtyRatio());
+}
+
+/** A previous frame, then the current frame, with the tiles changed between them. */
+class ReuseFixture {
+
+public:
+    FrameTiles tiles;
+    FrameSequence frames;
+    ReusableResult previous;
+    cv::Mat image = newImage();
+
+    /** Set the result of the previous frame, detected in the tile (1, 1) if [isDetected]. */
+    ReuseFixture(const cv::Rect& fullSizeDetectionRoi, bool isDetected) {
+        tiles.update(image);
+        frames.onFrame(true);
+
+        previous.frameGeneration = frames.generation;
+        previous.fullSizeDetectionRoi = fullSizeDetectionRoi;
+        previous.threshold = TEST_THRESHOLD;
+        previous.result.reset();
+        previous.result.isDetected = isDetected;
+    }
+
+    /** Process the current frame, with the given tiles changed. */
+    void onFrame(std::initializer_list<cv::Point> changedTiles) {
+        for (const cv::Point& tile : changedTiles) changeTile(image, tile.x, tile.y);
+        tiles.update(image);
+        frames.onFrame(tiles.isChanged());
+    }
+
+    bool isReusable(const cv::Rect& detectionRoi, int threshold = TEST_THRESHOLD) const {
+        // The test images are not scaled, the full size and scaled coordinates are the same
+        return isResultReusable(previous, detectionRoi, threshold, frames.generation, tiles, detectionRoi,
+                                getTileRoi(1, 1), detectionRoi == cv::Rect(0, 0, TEST_IMAGE_SIZE, TEST_IMAGE_SIZE));
+    }
+};
+
+static const cv::Rect TEST_WHOLE_SCREEN_ROI(0, 0, TEST_IMAGE_SIZE, TEST_IMAGE_SIZE);
+static const cv::Rect TEST_AREA_ROI(0, 0, 2 * FRAME_TILE_SIZE, 2 * FRAME_TILE_SIZE);
+
+static void reusableResult_sameFrame() {
+    ReuseFixture fixture(TEST_AREA_ROI, true);
+    fixture.onFrame({});
+
+    assertTrue("Result of an identical frame should be reused", fixture.isReusable(TEST_AREA_ROI));
+    assertTrue("Result with another threshold should not be reused", !fixture.isReusable(TEST_AREA_ROI, TEST_THRESHOLD + 1));
+    assertTrue("Result of another area should not be reused", !fixture.isReusable(cv::Rect(0, 0, 10, 10)));
+}
+
+static void reusableResult_areaUnchanged() {
+    ReuseFixture fixture(TEST_AREA_ROI, false);
+    fixture.onFrame({ cv::Point(3, 3) });
+
+    assertTrue("Result should be reused when its area is unchanged", fixture.isReusable(TEST_AREA_ROI));
+}
+
+static void reusableResult_areaChanged() {
+    ReuseFixture fixture(TEST_AREA_ROI, true);
+    fixture.onFrame({ cv::Point(0, 0) });
+
+    assertTrue("Result should not be reused when its area changed", !fixture.isReusable(TEST_AREA_ROI));
+}
+
+static void reusableResult_wholeScreen_hitUnchanged() {
+    ReuseFixture fixture(TEST_WHOLE_SCREEN_ROI, true);
+    fixture.onFrame({ cv::Point(3, 3) });
+
+    assertTrue("Detected result should be reused when its position is unchanged", fixture.isReusable(TEST_WHOLE_SCREEN_ROI));
+}
+
+static void reusableResult_wholeScreen_hitChanged() {
+    ReuseFixture fixture(TEST_WHOLE_SCREEN_ROI, true);
+    fixture.onFrame({ cv::Point(1, 1) });
+
+    assertTrue("Detected result should not be reused when its position changed", !fixture.isReusable(TEST_WHOLE_SCREEN_ROI));
+}
+
+static void reusableResult_wholeScreen_notDetected() {
+    ReuseFixture fixture(TEST_WHOLE_SCREEN_ROI, false);
+    fixture.onFrame({ cv::Point(3, 3) });
+
+    assertTrue("Not detected result should not be reused when the screen changed", !fixture.isReusable(TEST_WHOLE_SCREEN_ROI));
+}
+
+static void reusableResult_wholeScreen_tooManyChanges() {
+    ReuseFixture fixture(TEST_WHOLE_SCREEN_ROI, true);
+    // 2 tiles of 16, above the maximum dirty ratio
+    fixture.onFrame({ cv::Point(3, 3), cv::Point(2, 3) });
+
+    assertTrue("Result should not be reused when the screen changed too much", !fixture.isReusable(TEST_WHOLE_SCREEN_ROI));
+}
+
+static void reusableResult_olderFrame() {
+    ReuseFixture fixture(TEST_AREA_ROI, true);
+    fixture.onFrame({ cv::Point(3, 3) });
+    fixture.onFrame({ cv::Point(3, 3) });
+
+    assertTrue("Result older than the previous frame should not be reused", !fixture.isReusable(TEST_AREA_ROI));
+}
+
+int main() {
+    sameFrame();
+    previousFrame_changed();
+    skippedOnChangedFrame_evaluatedOnUnchangedFrame();
+    olderFrame();
+    frameTiles_firstImage();
+    frameTiles_sameImage();
+    frameTiles_changedTiles();
+    frameTiles_sizeChanged();
+    frameTiles_invalidate();
+    reusableResult_sameFrame();
+    reusableResult_areaUnchanged();
+    reusableResult_areaChanged();
+    reusableResult_wholeScreen_hitUnchanged();
+    reusableResult_wholeScreen_hitChanged();
+    reusableResult_wholeScreen_notDetected();
+    reusableResult_wholeScreen_tooManyChanges();
+    reusableResult_olderFrame();
+
+    if (failureCount == 0) std::printf("All tests passed\n");
+    return failureCount == 0 ? 0 : 1;
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.detection.jvm
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.infra.Blackhole
+
+import java.util.concurrent.TimeUnit
+
+import kotlin.random.Random
+
+/**
+ * Benchmark of the [JvmMatchingEngine] on a phone sized screen, with a single thread and with the fork-join split.
+ *
+ * The durations are comparable with the detection durations of the native detector shown in the debug report for the
+ * same detection quality.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class JvmMatchingEngineBenchmark {
+
+    @Param("1", "4")
+    @JvmField var parallelism: Int = 0
+
+    private lateinit var engine: JvmMatchingEngine
+    private lateinit var screen: ColorImage
+    private val result = MatchResult()
+
+    @Setup
+    fun setUp() {
+        val random = Random(42)
+        screen = ColorImage().apply {
+            resize(SCREEN_WIDTH, SCREEN_HEIGHT)
+            for (index in 0 until SCREEN_WIDTH * SCREEN_HEIGHT) pixels[index] = (0xFF shl 24) or random.nextInt(0x1000000)
+        }
+
+        // Take the condition from the screen, it is detected by each invocation
+        val condition = IntArray(CONDITION_SIZE * CONDITION_SIZE)
+        for (row in 0 until CONDITION_SIZE) {
+            val rowStart = (CONDITION_Y + row) * SCREEN_WIDTH + CONDITION_X
+            screen.pixels.copyInto(condition, row * CONDITION_SIZE, rowStart, rowStart + CONDITION_SIZE)
+        }
+
+        engine = JvmMatchingEngine().apply {
+            setParallelism(parallelism)
+            setScreenMetrics(screen, SCREEN_WIDTH, SCREEN_HEIGHT, DETECTION_QUALITY)
+            cacheCondition(CONDITION_ID, condition, CONDITION_SIZE, CONDITION_SIZE)
+        }
+    }
+
+    @TearDown
+    fun tearDown() {
+        engine.close()
+    }
+
+    @Benchmark
+    fun wholeScreenDetection(blackhole: Blackhole) {
+        engine.setScreenImage(screen)
+        engine.detectCondition(CONDITION_ID, null, THRESHOLD, result)
+
+        blackhole.consume(result.isDetected)
+    }
+}
+
+private const val SCREEN_WIDTH = 1080
+private const val SCREEN_HEIGHT = 2400
+private const val CONDITION_SIZE = 120
+private const val CONDITION_X = 300
+private const val CONDITION_Y = 500
+private const val CONDITION_ID = 1L
+private const val THRESHOLD = 10
+/** The default detection quality of a scenario. */
+private const val DETECTION_QUALITY = 1200.0
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.detection.jvm
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+import kotlin.math.abs
+import kotlin.random.Random
+
+/** Tests for the [JvmMatchingEngine]. Pure JVM, no Android framework is required. */
+class JvmMatchingEngineTests {
+
+    private companion object {
+        private const val TEST_SCREEN_WIDTH = 320
+        private const val TEST_SCREEN_HEIGHT = 240
+        private const val TEST_CONDITION_WIDTH = 32
+        private const val TEST_CONDITION_HEIGHT = 24
+        private const val TEST_CONDITION_ID = 42L
+        private const val TEST_THRESHOLD = 10
+        /** Bigger than the screen, the matching is done at full size. */
+        private const val TEST_QUALITY_FULL_SIZE = 1000.0
+    }
+
+    private val random = Random(1337)
+    private lateinit var engine: JvmMatchingEngine
+    private lateinit var screen: ColorImage
+    private lateinit var condition: IntArray
+
+    @Before
+    fun setUp() {
+        engine = JvmMatchingEngine()
+        screen = newRandomImage(TEST_SCREEN_WIDTH, TEST_SCREEN_HEIGHT)
+        condition = IntArray(TEST_CONDITION_WIDTH * TEST_CONDITION_HEIGHT) { random.nextColor() }
+    }
+
+    @After
+    fun tearDown() {
+        engine.close()
+    }
+
+    private fun Random.nextColor(): Int =
+        (0xFF shl 24) or nextInt(0x1000000)
+
+    private fun newRandomImage(width: Int, height: Int): ColorImage =
+        ColorImage().apply {
+            resize(width, height)
+            for (index in 0 until width * height) pixels[index] = random.nextColor()
+        }
+
+    private fun ColorImage.drawCondition(x: Int, y: Int) {
+        for (row in 0 until TEST_CONDITION_HEIGHT) {
+            condition.copyInto(pixels, (y + row) * width + x, row * TEST_CONDITION_WIDTH, (row + 1) * TEST_CONDITION_WIDTH)
+        }
+    }
+
+    private fun setupDetection(quality: Double = TEST_QUALITY_FULL_SIZE) {
+        engine.setScreenMetrics(screen, TEST_SCREEN_WIDTH, TEST_SCREEN_HEIGHT, quality)
+        engine.setScreenImage(screen)
+        engine.cacheCondition(TEST_CONDITION_ID, condition, TEST_CONDITION_WIDTH, TEST_CONDITION_HEIGHT)
+    }
+
+    private fun detect(area: IntArray? = null): MatchResult =
+        MatchResult().also { result -> engine.detectCondition(TEST_CONDITION_ID, area, TEST_THRESHOLD, result) }
+
+    @Test
+    fun detectCondition_wholeScreen() {
+        screen.drawCondition(100, 50)
+        setupDetection()
+
+        val result = detect()
+
+        assertTrue("Condition should be detected", result.isDetected)
+        assertEquals("Invalid center X", 100 + TEST_CONDITION_WIDTH / 2, result.centerX)
+        assertEquals("Invalid center Y", 50 + TEST_CONDITION_HEIGHT / 2, result.centerY)
+        assertEquals("Invalid confidence rate", 1.0, result.confidenceRate, 0.001)
+    }
+
+    @Test
+    fun detectCondition_notInScreen() {
+        setupDetection()
+
+        assertFalse("Condition should not be detected", detect().isDetected)
+    }
+
+    @Test
+    fun detectCondition_inArea() {
+        screen.drawCondition(100, 50)
+        setupDetection()
+
+        assertTrue("Condition should be detected in its area", detect(intArrayOf(90, 40, 60, 60)).isDetected)
+        assertFalse("Condition should not be detected outside of its area", detect(intArrayOf(150, 100, 60, 60)).isDetected)
+    }
+
+    @Test
+    fun detectCondition_exactPosition() {
+        screen.drawCondition(100, 50)
+        setupDetection()
+
+        val exactArea = intArrayOf(100, 50, TEST_CONDITION_WIDTH, TEST_CONDITION_HEIGHT)
+        val shiftedArea = intArrayOf(110, 50, TEST_CONDITION_WIDTH, TEST_CONDITION_HEIGHT)
+        assertTrue("Condition should be detected at its position", detect(exactArea).isDetected)
+        assertFalse("Condition should not be detected at another position", detect(shiftedArea).isDetected)
+    }
+
+    @Test
+    fun detectCondition_uniformCondition_uniformScreen() {
+        val color = random.nextColor()
+        screen.pixels.fill(color)
+        condition.fill(color)
+        setupDetection()
+
+        val result = detect(intArrayOf(100, 50, TEST_CONDITION_WIDTH, TEST_CONDITION_HEIGHT))
+
+        // As with OpenCv TM_CCOEFF_NORMED, a uniform condition matches any position
+        assertTrue("Uniform condition should be detected", result.isDetected)
+        assertEquals("Invalid confidence rate", 1.0, result.confidenceRate, 0.001)
+    }
+
+    @Test
+    fun detectCondition_areaSmallerThanCondition() {
+        screen.drawCondition(100, 50)
+        setupDetection()
+
+        assertFalse("Condition can't be in a smaller area", detect(intArrayOf(100, 50, 10, 10)).isDetected)
+    }
+
+    @Test
+    fun detectCondition_scaled() {
+        screen.drawCondition(100, 50)
+        setupDetection(quality = TEST_SCREEN_WIDTH / 2.0)
+
+        val result = detect()
+
+        assertTrue("Condition should be detected", result.isDetected)
+        assertTrue("Invalid center X", abs(100 + TEST_CONDITION_WIDTH / 2 - result.centerX) <= 2)
+        assertTrue("Invalid center Y", abs(50 + TEST_CONDITION_HEIGHT / 2 - result.centerY) <= 2)
+    }
+
+    @Test
+    fun detectCondition_parallel() {
+        screen.drawCondition(200, 150)
+        setupDetection()
+        val sequentialResult = detect()
+
+        engine.setParallelism(4)
+        val parallelResult = detect()
+
+        assertEquals("Invalid detection state", sequentialResult.isDetected, parallelResult.isDetected)
+        assertEquals("Invalid center X", sequentialResult.centerX, parallelResult.centerX)
+        assertEquals("Invalid center Y", sequentialResult.centerY, parallelResult.centerY)
+        assertEquals("Invalid confidence rate", sequentialResult.confidenceRate, parallelResult.confidenceRate, 0.0)
+    }
+
+    @Test
+    fun detectAllOccurrences() {
+        screen.drawCondition(10, 10)
+        screen.drawCondition(150, 20)
+        screen.drawCondition(60, 180)
+        setupDetection()
+
+        val occurrences = engine.detectAllOccurrences(TEST_CONDITION_ID, null, TEST_THRESHOLD, 10)
+
+        assertEquals("Invalid occurrences count", 6, occurrences.size)
+        val centers = (0 until 3).map { index -> occurrences[index * 2] to occurrences[index * 2 + 1] }.toSet()
+        val expectedCenters = setOf(
+            10 + TEST_CONDITION_WIDTH / 2 to 10 + TEST_CONDITION_HEIGHT / 2,
+            150 + TEST_CONDITION_WIDTH / 2 to 20 + TEST_CONDITION_HEIGHT / 2,
+            60 + TEST_CONDITION_WIDTH / 2 to 180 + TEST_CONDITION_HEIGHT / 2,
+        )
+        assertEquals("Invalid occurrences", expectedCenters, centers)
+    }
+
+    @Test
+    fun detectAllOccurrences_maxResults() {
+        screen.drawCondition(10, 10)
+        screen.drawCondition(150, 20)
+        screen.drawCondition(60, 180)
+        setupDetection()
+
+        val occurrences = engine.detectAllOccurrences(TEST_CONDITION_ID, null, TEST_THRESHOLD, 2)
+
+        assertEquals("Invalid occurrences count", 4, occurrences.size)
+    }
+
+    @Test
+    fun detectAllOccurrences_none() {
+        setupDetection()
+
+        assertArrayEquals(IntArray(0), engine.detectAllOccurrences(TEST_CONDITION_ID, null, TEST_THRESHOLD, 10))
+    }
+
+    @Test
+    fun isScreenChanged() {
+        setupDetection()
+        assertTrue("First image after metrics should be changed", engine.isScreenChanged)
+
+        engine.setScreenImage(screen)
+        assertFalse("Same image should not be changed", engine.isScreenChanged)
+
+        screen.drawCondition(0, 0)
+        engine.setScreenImage(screen)
+        assertTrue("Modified image should be changed", engine.isScreenChanged)
+    }
+
+    @Test
+    fun buffersReused() {
+        screen.drawCondition(100, 50)
+        setupDetection()
+        detect()
+        // The gray image of the previous screen is allocated with the second image.
+        engine.setScreenImage(screen)
+        detect()
+        val allocationCount = engine.allocationCount
+
+        repeat(3) {
+            engine.setScreenImage(screen)
+            detect()
+        }
+
+        assertEquals("Buffers should be reused between images", allocationCount, engine.allocationCount)
+    }
+}
@@ -92,7 +92,15 @@ sealed class Action : Identifiable, Completable {
              * When the condition operator is AND, click on the condition specified by the user.
              * When the condition operator is OR, click on the condition detected condition.
              */
-            ON_DETECTED_CONDITION;
+            ON_DETECTED_CONDITION,
+            /**
+             * Click on all occurrences of the detected condition on the screen.
+             * The condition is selected the same way as for [ON_DETECTED_CONDITION].
+             */
+            ON_ALL_DETECTED_OCCURRENCES;
+
+            /** Tells if the position of this click depends on a detected condition. */
+            fun isOnDetectedCondition(): Boolean = this != USER_SELECTED
 
             fun toEntity(): ClickPositionType = ClickPositionType.valueOf(name)
         }
@@ -108,10 +116,10 @@ sealed class Action : Identifiable, Completable {
         override fun deepCopy(): Click = copy(name = "" + name)
 
         private fun isPositionValid(): Boolean =
-            (positionType == PositionType.USER_SELECTED && x != null && y != null) || positionType == PositionType.ON_DETECTED_CONDITION
+            (positionType == PositionType.USER_SELECTED && x != null && y != null) || positionType.isOnDetectedCondition()
 
         fun isClickOnConditionValid(): Boolean =
-            (positionType == PositionType.ON_DETECTED_CONDITION && clickOnConditionId != null) || positionType == PositionType.USER_SELECTED
+            (positionType.isOnDetectedCondition() && clickOnConditionId != null) || positionType == PositionType.USER_SELECTED
     }
 
     /**
@@ -21,12 +21,14 @@ import android.content.Intent
 import android.graphics.Bitmap
 import android.media.Image
 import android.media.projection.MediaProjectionManager
+import android.os.SystemClock
 import android.util.Log
 
 import com.buzbuz.smartautoclicker.core.base.AndroidExecutor
 import com.buzbuz.smartautoclicker.core.display.DisplayRecorder
 import com.buzbuz.smartautoclicker.core.display.DisplayMetrics
 import com.buzbuz.smartautoclicker.core.detection.ImageDetector
+import com.buzbuz.smartautoclicker.core.detection.JvmDetector
 import com.buzbuz.smartautoclicker.core.detection.NativeDetector
 import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
 import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
@@ -34,6 +36,7 @@ import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
 import com.buzbuz.smartautoclicker.core.domain.model.scenario.Scenario
 import com.buzbuz.smartautoclicker.core.processing.domain.ScenarioProcessingListener
 import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioProcessor
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FrameRecorder
 
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.CoroutineStart
@@ -41,13 +44,15 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.cancelAndJoin
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 
+import java.io.File
 import javax.inject.Inject
 import javax.inject.Singleton
+import kotlin.math.max
 
 /**
  * Detects [ImageEvent] conditions on a display and execute its actions.
@@ -72,6 +77,8 @@ class DetectorEngine @Inject constructor(
     private var imageDetector: ImageDetector? = null
     /** The executor for the actions requiring an interaction with Android. */
     private var androidExecutor: AndroidExecutor? = null
+    /** Records the processed frames into a file, if requested with [startFrameRecording]. */
+    @Volatile private var frameRecorder: FrameRecorder? = null
 
     /** Coroutine scope for the image processing. */
     private var processingScope: CoroutineScope? = null
@@ -163,17 +170,18 @@ class DetectorEngine @Inject constructor(
             return
         }
 
-        val detector = NativeDetector.newInstance()
-        if (detector == null) {
-            Log.e(TAG, "startDetection: native library not found.")
-            _state.value = DetectorState.ERROR_NATIVE_DETECTOR_LIB_NOT_FOUND
-            return
+        val detector: ImageDetector = NativeDetector.newInstance() ?: run {
+            Log.w(TAG, "startDetection: native library not found, using the JVM detector.")
+            JvmDetector()
         }
 
         _state.value = DetectorState.TRANSITIONING
 
         Log.i(TAG, "startDetection")
 
+        val detectionThreads = Runtime.getRuntime().availableProcessors().coerceIn(1, MAX_DETECTION_THREADS)
+        detector.setDetectionThreads(detectionThreads)
+
         processingScope?.launchProcessingJob {
             imageDetector = detector
 
@@ -191,9 +199,16 @@ class DetectorEngine @Inject constructor(
                 androidExecutor = executor,
                 onStopRequested = { stopDetection() },
                 progressListener  = progressListener,
+                batchDetection = true,
+                parallelDetection = detectionThreads > 1,
+                skipUnchangedFrames = true,
+                adaptiveConditionsOrder = true,
             )
             scenarioProcessor?.onScenarioStart(context)
 
+            // Let the compositor scale the screen down to the detection resolution
+            displayRecorder.setCaptureScale(getCaptureScale(scenario.detectionQuality))
+
             processScreenImages()
         }
     }
@@ -244,10 +259,12 @@ class DetectorEngine @Inject constructor(
 
             processingJob?.cancelAndJoin()
             processingJob = null
-            imageDetector?.close()
-            imageDetector = null
+            displayRecorder.setCaptureScale(1.0)
+            displayRecorder.setCapturePaused(false)
             scenarioProcessor?.onScenarioEnd()
             scenarioProcessor = null
+            imageDetector?.close()
+            imageDetector = null
             detectionProgressListener?.onSessionEnded()
             detectionProgressListener = null
 
@@ -256,6 +273,45 @@ class DetectorEngine @Inject constructor(
         }
     }
 
+    /**
+     * Start recording the frames processed by the detection into a frame sequence file.
+     *
+     * The frames are written in gray levels, at the detection resolution, and in colour if [recordColor] is true. The
+     * colour frames allow to replay the sequence with a
+     * [com.buzbuz.smartautoclicker.core.processing.data.replay.ScenarioReplayer]. The recording continues until
+     * [stopFrameRecording] or [stopScreenRecord] is called, and never slows down the detection: frames are dropped
+     * if the file writes are too slow.
+     *
+     * @param file the file to append the frames to.
+     * @param recordColor true to record the frames in colour as well.
+     */
+    internal fun startFrameRecording(file: File, recordColor: Boolean) {
+        if (frameRecorder != null) {
+            Log.w(TAG, "startFrameRecording: frame recording is already started")
+            return
+        }
+
+        Log.i(TAG, "startFrameRecording in ${file.path}")
+
+        val screenSize = displayMetrics.screenSize
+        frameRecorder = FrameRecorder(file, screenSize.x, screenSize.y, recordColor)
+    }
+
+    /**
+     * Stop the frame recording started with [startFrameRecording].
+     * Waits for the frames already recorded to be written, the file is complete once this method returns.
+     */
+    internal fun stopFrameRecording() {
+        val recorder = frameRecorder ?: return
+        Log.i(TAG, "stopFrameRecording")
+
+        frameRecorder = null
+        recorder.close()
+        if (!recorder.awaitTermination(FRAME_RECORDING_STOP_TIMEOUT_MS)) {
+            Log.w(TAG, "stopFrameRecording: the frames are still being written")
+        }
+    }
+
     /**
      * Stop the screen recording and the detection, if any.
      *
@@ -274,6 +330,7 @@ class DetectorEngine @Inject constructor(
     private fun stopRecording() {
         Log.i(TAG, "stopScreenRecord")
         _state.value = DetectorState.TRANSITIONING
+        stopFrameRecording()
 
         displayMetrics.removeOrientationListener(orientationListener)
         processingScope?.launch {
@@ -288,15 +345,39 @@ class DetectorEngine @Inject constructor(
         }
     }
 
-    /** Process the latest images provided by the [DisplayRecorder]. */
-    private suspend fun processScreenImages() {
+    /** @return the capture scale reducing the screen size to the detection quality, or 1 if it is already smaller. */
+    private fun getCaptureScale(detectionQuality: Int): Double {
+        val screenSize = displayMetrics.screenSize
+        val maxScreenDim = max(screenSize.x, screenSize.y)
+        return if (maxScreenDim <= detectionQuality) 1.0 else detectionQuality.toDouble() / maxScreenDim
+    }
+
+    /**
+     * Process the latest images provided by the [DisplayRecorder].
+     * Suspends until a new image is available, the images received during a processing are conflated.
+     * The timers are processed in parallel, at their end, without waiting for an image.
+     */
+    private suspend fun processScreenImages(): Unit = coroutineScope {
         _state.emit(DetectorState.DETECTING)
 
+        scenarioProcessor?.let { processor ->
+            launch { processor.processTriggers() }
+            // No screen images are needed while all image events are disabled
+            launch { processor.isCaptureRequired.collect { isRequired -> displayRecorder.setCapturePaused(!isRequired) } }
+        }
         scenarioProcessor?.invalidateScreenMetrics()
-        while (processingJob?.isActive == true) {
-            displayRecorder.acquireLatestBitmap()?.let { screenFrame ->
-                scenarioProcessor?.process(screenFrame)
-            } ?: delay(NO_IMAGE_DELAY_MS)
+        displayRecorder.frameAvailable.collect { frameArrivalTimeNs ->
+            val processor = scenarioProcessor ?: return@collect
+
+            // The detector reads the image pixels directly, avoiding a copy into a bitmap. The image, and the recorder
+            // with it, are only kept during the detection, not during the actions execution.
+            processor.process(displayMetrics.screenSize) { detectImageEvents ->
+                displayRecorder.useLatestImage { screenImage ->
+                    frameRecorder?.recordImage(screenImage)
+                    processor.onFrameLatency(SystemClock.elapsedRealtimeNanos() - frameArrivalTimeNs)
+                    detectImageEvents(screenImage)
+                }
+            }
         }
     }
 
@@ -331,6 +412,12 @@ class DetectorEngine @Inject constructor(
     }
 }
 
+/** Copy the image into the frame recorder, the image can be closed once this method returns. */
+private fun FrameRecorder.recordImage(image: Image) {
+    val plane = image.planes[0]
+    onFrame(image.timestamp, plane.buffer, image.width, image.height, plane.rowStride)
+}
+
 /** The different states of the [DetectorEngine]. */
 internal enum class DetectorState {
     /** The engine is created and ready to be used. */
@@ -346,15 +433,12 @@ internal enum class DetectorState {
     DETECTING,
     /** The engine is destroyed and can no longer be used. */
     DESTROYED,
-    /** The native lib can't be loaded and the detection can't be used. */
-    ERROR_NATIVE_DETECTOR_LIB_NOT_FOUND,
 }
 
-/**
- * Waiting delay after getting a null image.
- * This is to avoid spamming when there is no image.
- */
-private const val NO_IMAGE_DELAY_MS = 20L
+/** Maximum number of threads matching the image conditions in parallel. */
+private const val MAX_DETECTION_THREADS = 4
+/** Maximum time to wait for the frames recorded to be written when stopping the frame recording. */
+private const val FRAME_RECORDING_STOP_TIMEOUT_MS = 1_000L
 
 /** Tag for logs. */
 private const val TAG = "DetectorEngine"
\ No newline at end of file
@@ -22,11 +22,15 @@ import android.graphics.Path
 import android.util.Log
 
 import com.buzbuz.smartautoclicker.core.base.AndroidExecutor
+import com.buzbuz.smartautoclicker.core.base.extensions.buildSequentialStrokes
 import com.buzbuz.smartautoclicker.core.base.extensions.buildSingleStroke
 import com.buzbuz.smartautoclicker.core.base.extensions.nextIntInOffset
 import com.buzbuz.smartautoclicker.core.base.extensions.nextLongInOffset
 import com.buzbuz.smartautoclicker.core.base.extensions.safeLineTo
 import com.buzbuz.smartautoclicker.core.base.extensions.safeMoveTo
+import com.buzbuz.smartautoclicker.core.detection.getOccurrenceX
+import com.buzbuz.smartautoclicker.core.detection.getOccurrenceY
+import com.buzbuz.smartautoclicker.core.detection.getOccurrencesCount
 import com.buzbuz.smartautoclicker.core.domain.model.OR
 import com.buzbuz.smartautoclicker.core.domain.model.action.Action
 import com.buzbuz.smartautoclicker.core.domain.model.action.Action.Click
@@ -35,9 +39,11 @@ import com.buzbuz.smartautoclicker.core.domain.model.action.Action.Swipe
 import com.buzbuz.smartautoclicker.core.domain.model.action.Action.ToggleEvent
 import com.buzbuz.smartautoclicker.core.domain.model.action.Action.ChangeCounter
 import com.buzbuz.smartautoclicker.core.domain.model.action.putDomainExtra
+import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
 import com.buzbuz.smartautoclicker.core.domain.model.event.Event
 import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
 import com.buzbuz.smartautoclicker.core.processing.data.processor.state.ProcessingState
+import com.buzbuz.smartautoclicker.core.processing.domain.ImageConditionResult
 
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.delay
@@ -49,49 +55,102 @@ import kotlin.random.Random
  *
  * @param androidExecutor the executor for the actions requiring an interaction with Android.
  * @param processingState the state of the current processing (counters, enabled events...).
+ * @param plan the compiled scenario, providing the actions of the events.
  * @param randomize true to randomize the actions values a bit (positions, timers...), false to be precise.
+ * @param occurrencesDetector detects all occurrences of a condition on the current screen, for the clicks on all
+ * occurrences. Takes the condition and the maximum number of occurrences, and returns the packed occurrences centers.
+ * As the screen content can be released before the actions are executed, the occurrences are detected by
+ * [detectOccurrences] if it has been called for the event, or when the click is executed otherwise.
  */
 internal class ActionExecutor(
     private val androidExecutor: AndroidExecutor,
     private val processingState: ProcessingState,
+    private val plan: ScenarioPlan,
     randomize: Boolean,
+    private val occurrencesDetector: (suspend (ImageCondition, Int) -> IntArray)? = null,
 ) {
 
     private val random: Random? = if (randomize) Random(System.currentTimeMillis()) else null
 
-    suspend fun executeActions(event: Event, results: ConditionsResult? = null) {
-        event.actions.forEach { action ->
-            when (action) {
-                is Click -> executeClick(event, action, results)
-                is Swipe -> executeSwipe(action)
+    /**
+     * The gestures of the clicks at a user selected position and of the swipes, by action slot.
+     * As they are always the same without randomization, they are built once with the plan. Null for the other actions.
+     */
+    private val gestureTemplates: Array<GestureDescription?> =
+        if (random != null) emptyArray()
+        else Array(plan.actions.size) { actionSlot ->
+            when (val action = plan.actions[actionSlot]) {
+                is Click -> if (action.positionType == Click.PositionType.USER_SELECTED) buildClickGesture(action) else null
+                is Swipe -> buildSwipeGesture(action)
+                else -> null
+            }
+        }
+
+    /**
+     * The occurrences detected by [detectOccurrences] for the clicks on all occurrences, by action slot.
+     * Consumed by the execution of the click.
+     */
+    private val detectedOccurrences: Array<IntArray?> = arrayOfNulls(plan.actions.size)
+
+    /**
+     * Detect the occurrences of the conditions clicked by the clicks on all occurrences of an event, while the screen
+     * content is still available. They are used by the next [executeActions] for this event.
+     */
+    suspend fun detectOccurrences(eventSlot: Int, results: ConditionsResult? = null) {
+        val event = plan.events[eventSlot]
+
+        for (actionSlot in plan.getActionStart(eventSlot) until plan.getActionEnd(eventSlot)) {
+            val click = plan.actions[actionSlot] as? Click ?: continue
+            if (click.positionType != Click.PositionType.ON_ALL_DETECTED_OCCURRENCES) continue
+
+            detectedOccurrences[actionSlot] = getOnConditionResult(event, click, results)?.let { result ->
+                occurrencesDetector?.invoke(result.condition, GestureDescription.getMaxStrokeCount())
+            }
+        }
+    }
+
+    suspend fun executeActions(eventSlot: Int, results: ConditionsResult? = null) {
+        val event = plan.events[eventSlot]
+
+        for (actionSlot in plan.getActionStart(eventSlot) until plan.getActionEnd(eventSlot)) {
+            when (val action = plan.actions[actionSlot]) {
+                is Click -> executeClick(event, action, actionSlot, results)
+                is Swipe -> executeSwipe(action, actionSlot)
                 is Pause -> executePause(action)
                 is Action.Intent -> executeIntent(action)
-                is ToggleEvent -> executeToggleEvent(action)
-                is ChangeCounter -> executeChangeCounter(action)
+                is ToggleEvent -> executeToggleEvent(action, actionSlot)
+                is ChangeCounter -> executeChangeCounter(action, actionSlot)
             }
         }
     }
 
-    private suspend fun executeClick(event: Event, click: Click, results: ConditionsResult?) {
-        val clickPath = when (click.positionType) {
-            Click.PositionType.USER_SELECTED -> Path().apply {
-                moveTo(click.x!!, click.y!!)
+    private suspend fun executeClick(event: Event, click: Click, actionSlot: Int, results: ConditionsResult?) {
+        val pressDuration = random.nextLongInOffsetIfNeeded(click.pressDuration!!, RANDOMIZATION_DURATION_MAX_OFFSET_MS)
+        val clickGesture = when (click.positionType) {
+            Click.PositionType.USER_SELECTED -> gestureTemplates.getOrNull(actionSlot) ?: buildClickGesture(click)
+
+            Click.PositionType.ON_DETECTED_CONDITION -> getOnConditionResult(event, click, results)?.let { result ->
+                GestureDescription.Builder().buildSingleStroke(
+                    Path().apply { moveTo(result.position.x, result.position.y) },
+                    pressDuration,
+                )
             }
 
-            Click.PositionType.ON_DETECTED_CONDITION ->
-                getOnConditionClickPath(event, click, results)
-        } ?: return
+            Click.PositionType.ON_ALL_DETECTED_OCCURRENCES -> getOnConditionResult(event, click, results)?.let { result ->
+                val occurrences = detectedOccurrences[actionSlot]
+                    ?: occurrencesDetector?.invoke(result.condition, GestureDescription.getMaxStrokeCount())
+                detectedOccurrences[actionSlot] = null
 
-        val clickGesture = GestureDescription.Builder().buildSingleStroke(
-            clickPath, random.nextLongInOffsetIfNeeded(click.pressDuration!!, RANDOMIZATION_DURATION_MAX_OFFSET_MS)
-        )
+                getOnAllOccurrencesClickGesture(occurrences, pressDuration)
+            }
+        } ?: return
 
         withContext(Dispatchers.Main) {
             androidExecutor.executeGesture(clickGesture)
         }
     }
 
-    private fun getOnConditionClickPath(event: Event, click: Click, results: ConditionsResult?): Path? {
+    private fun getOnConditionResult(event: Event, click: Click, results: ConditionsResult?): ImageConditionResult? {
         if (event !is ImageEvent) return null
 
         val result = when {
@@ -105,17 +164,51 @@ internal class ActionExecutor(
             return null
         }
 
-        return Path().apply {
-            moveTo(result.position.x, result.position.y)
+        return result
+    }
+
+    /**
+     * Get the gesture clicking on all occurrences of a condition.
+     * Each occurrence is clicked after the previous one, but they are all dispatched as a single gesture.
+     */
+    private fun getOnAllOccurrencesClickGesture(occurrences: IntArray?, pressDuration: Long): GestureDescription? {
+        if (occurrences == null || occurrences.getOccurrencesCount() == 0) {
+            Log.w(TAG, "No occurrences found for click on all occurrences")
+            return null
         }
+
+        val clickPaths = List(occurrences.getOccurrencesCount()) { index ->
+            Path().apply { moveTo(occurrences.getOccurrenceX(index), occurrences.getOccurrenceY(index)) }
+        }
+
+        return GestureDescription.Builder().buildSequentialStrokes(
+            paths = clickPaths,
+            durationMs = pressDuration,
+            intervalMs = random.nextLongInOffsetIfNeeded(OCCURRENCES_CLICK_INTERVAL_MS, RANDOMIZATION_DURATION_MAX_OFFSET_MS),
+        )
     }
 
+    private fun buildClickGesture(click: Click): GestureDescription =
+        GestureDescription.Builder().buildSingleStroke(
+            Path().apply { moveTo(click.x!!, click.y!!) },
+            random.nextLongInOffsetIfNeeded(click.pressDuration!!, RANDOMIZATION_DURATION_MAX_OFFSET_MS),
+        )
+
     /**
      * Execute the provided swipe.
      * @param swipe the swipe to be executed.
+     * @param actionSlot the slot of the swipe in the plan.
      */
-    private suspend fun executeSwipe(swipe: Swipe) {
-        val swipeGesture = GestureDescription.Builder().buildSingleStroke(
+    private suspend fun executeSwipe(swipe: Swipe, actionSlot: Int) {
+        val swipeGesture = gestureTemplates.getOrNull(actionSlot) ?: buildSwipeGesture(swipe)
+
+        withContext(Dispatchers.Main) {
+            androidExecutor.executeGesture(swipeGesture)
+        }
+    }
+
+    private fun buildSwipeGesture(swipe: Swipe): GestureDescription =
+        GestureDescription.Builder().buildSingleStroke(
             path = Path().apply {
                 moveTo(swipe.fromX!!, swipe.fromY!!)
                 lineTo(swipe.toX!!, swipe.toY!!)
@@ -123,11 +216,6 @@ internal class ActionExecutor(
             durationMs = random.nextLongInOffsetIfNeeded(swipe.swipeDuration!!, RANDOMIZATION_DURATION_MAX_OFFSET_MS),
         )
 
-        withContext(Dispatchers.Main) {
-            androidExecutor.executeGesture(swipeGesture)
-        }
-    }
-
     /**
      * Execute the provided pause.
      * @param pause the pause to be executed.
@@ -168,8 +256,9 @@ internal class ActionExecutor(
     /**
      * Execute the provided toggle event.
      * @param toggleEvent the toggleEvent to be executed.
+     * @param actionSlot the slot of the toggle event in the plan, referencing its targets slots.
      */
-    private fun executeToggleEvent(toggleEvent: ToggleEvent) {
+    private fun executeToggleEvent(toggleEvent: ToggleEvent, actionSlot: Int) {
         if (toggleEvent.toggleAll) {
             when (toggleEvent.toggleAllType) {
                 ToggleEvent.ToggleType.ENABLE -> processingState.enableAll()
@@ -181,11 +270,12 @@ internal class ActionExecutor(
             return
         }
 
-        toggleEvent.eventToggles.forEach { eventToggle ->
-            when (eventToggle.toggleType) {
-                ToggleEvent.ToggleType.ENABLE -> processingState.enableEvent(eventToggle.targetEventId!!.databaseId)
-                ToggleEvent.ToggleType.DISABLE -> processingState.disableEvent(eventToggle.targetEventId!!.databaseId)
-                ToggleEvent.ToggleType.TOGGLE -> processingState.toggleEvent(eventToggle.targetEventId!!.databaseId)
+        for (toggleIndex in plan.getToggleStart(actionSlot) until plan.getToggleEnd(actionSlot)) {
+            val targetSlot = plan.toggleTargetSlots[toggleIndex]
+            when (plan.toggleTypes[toggleIndex]) {
+                ToggleEvent.ToggleType.ENABLE -> processingState.enableEventSlot(targetSlot)
+                ToggleEvent.ToggleType.DISABLE -> processingState.disableEventSlot(targetSlot)
+                ToggleEvent.ToggleType.TOGGLE -> processingState.toggleEventSlot(targetSlot)
             }
         }
     }
@@ -193,12 +283,15 @@ internal class ActionExecutor(
     /**
      * Execute the provided change counter.
      * @param changeCounter the changeCounter action to be executed.
+     * @param actionSlot the slot of the change counter in the plan, referencing its counter index.
      */
-    private fun executeChangeCounter(changeCounter: ChangeCounter) {
-        val oldValue = processingState.getCounterValue(changeCounter.counterName) ?: return
+    private fun executeChangeCounter(changeCounter: ChangeCounter, actionSlot: Int) {
+        val counterIndex = plan.actionCounterIndexes[actionSlot]
+        if (counterIndex == -1) return
 
+        val oldValue = processingState.getCounterValue(counterIndex)
         processingState.setCounterValue(
-            counterName = changeCounter.counterName,
+            counterIndex = counterIndex,
             value = when (changeCounter.operation) {
                 ChangeCounter.OperationType.ADD -> oldValue + changeCounter.operationValue
                 ChangeCounter.OperationType.MINUS -> oldValue - changeCounter.operationValue
@@ -234,6 +327,8 @@ private const val TAG = "ActionExecutor"
 private const val INTENT_START_ACTIVITY_DELAY = 1000L
 /** Waiting delay after a broadcast to avoid overflowing the system. */
 private const val INTENT_BROADCAST_DELAY = 100L
+/** Delay between the end of a click and the start of the next one when clicking on all occurrences of a condition. */
+private const val OCCURRENCES_CLICK_INTERVAL_MS = 50L
 
 private const val RANDOMIZATION_POSITION_MAX_OFFSET_PX = 5
 private const val RANDOMIZATION_DURATION_MAX_OFFSET_MS = 5L
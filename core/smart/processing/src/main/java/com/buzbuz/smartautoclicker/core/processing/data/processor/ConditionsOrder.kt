@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data.processor
+
+import com.buzbuz.smartautoclicker.core.domain.model.AND
+import com.buzbuz.smartautoclicker.core.domain.model.action.Action
+import com.buzbuz.smartautoclicker.core.domain.model.event.Event
+import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
+
+/**
+ * The order of evaluation of the conditions of each event of a [ScenarioPlan].
+ *
+ * As the evaluation of an event stops on its first decisive condition (the first failing one for AND, the first
+ * fulfilled one for OR), the conditions can be evaluated in any order without changing the event result. When enabled,
+ * this class keeps running estimates of the cost and of the pass rate of each condition, and periodically sorts the
+ * conditions of each event to evaluate first the cheapest conditions with the most chances to be decisive.
+ *
+ * Only image events whose actions doesn't depend on the order are reordered:
+ *  - AND events: the actions are executed only if all conditions have been evaluated, whatever their order.
+ *  - OR events without clicks on the detected condition: those clicks are on the first fulfilled condition, in the
+ *    event order.
+ * The trigger events are always evaluated in their order, their conditions are cheap and the timers conditions are
+ * restarted when verified.
+ *
+ * For a given history of evaluations, the order is always the same: ties are broken by the event order.
+ *
+ * @param plan the compiled scenario.
+ * @param isEnabled true to reorder the conditions, false to always evaluate them in the event order.
+ */
+internal class ConditionsOrder(
+    private val plan: ScenarioPlan,
+    isEnabled: Boolean,
+) {
+
+    /** For each event, the slots of its conditions in evaluation order. Uses the same ranges than the condition slots. */
+    private val evaluationOrder: IntArray = IntArray(plan.conditions.size) { it }
+    /** Tells if the conditions order of each event can be changed, by event slot. */
+    private val isAdaptive: BooleanArray = BooleanArray(plan.eventCount) { eventSlot ->
+        isEnabled && plan.events[eventSlot].isOrderIndependent()
+    }
+    /** The number of evaluations of each event since its last sort, by event slot. */
+    private val evaluationsSinceSort: IntArray = IntArray(plan.eventCount)
+
+    /** The mean cost of each condition, in nanoseconds. 0 until the condition is evaluated once, by condition slot. */
+    private val costsNs: DoubleArray = DoubleArray(plan.conditions.size)
+    /** The mean probability of each condition to be fulfilled, by condition slot. */
+    private val passRates: DoubleArray = DoubleArray(plan.conditions.size) { INITIAL_PASS_RATE }
+    /** Tells if a condition have been evaluated at least once, by condition slot. */
+    private val isMeasured: BooleanArray = BooleanArray(plan.conditions.size)
+    /** The sort key of each condition, computed before each sort. By condition slot. */
+    private val sortKeys: DoubleArray = DoubleArray(plan.conditions.size)
+
+    /** Tells if the conditions of this event can be reordered. */
+    fun isAdaptive(eventSlot: Int): Boolean =
+        isAdaptive[eventSlot]
+
+    /** @return the slot of the condition to evaluate at [index] for this event. */
+    fun getConditionSlot(eventSlot: Int, index: Int): Int =
+        evaluationOrder[plan.getConditionStart(eventSlot) + index]
+
+    /** Update the estimates of a condition after its evaluation. */
+    fun onConditionEvaluated(conditionSlot: Int, durationNs: Long, isFulfilled: Boolean) {
+        if (isMeasured[conditionSlot]) {
+            costsNs[conditionSlot] += (durationNs - costsNs[conditionSlot]) * COST_SMOOTHING
+        } else {
+            costsNs[conditionSlot] = durationNs.toDouble()
+            isMeasured[conditionSlot] = true
+        }
+
+        val passSample = if (isFulfilled) 1.0 else 0.0
+        passRates[conditionSlot] += (passSample - passRates[conditionSlot]) * PASS_RATE_SMOOTHING
+    }
+
+    /** Notify the end of the evaluation of an event. Its conditions are sorted again once in a while. */
+    fun onEventEvaluated(eventSlot: Int) {
+        if (!isAdaptive[eventSlot] || ++evaluationsSinceSort[eventSlot] < SORT_PERIOD) return
+
+        evaluationsSinceSort[eventSlot] = 0
+        sortConditions(eventSlot)
+    }
+
+    /**
+     * Sort the conditions of an event by expected cost to reach the decision: the cost of a condition divided by its
+     * probability to be decisive. Insertion sort, events have few conditions and are usually already sorted.
+     */
+    private fun sortConditions(eventSlot: Int) {
+        val start = plan.getConditionStart(eventSlot)
+        val end = plan.getConditionEnd(eventSlot)
+        val isAnd = plan.eventOperators[eventSlot] == AND
+
+        for (conditionSlot in start until end) {
+            val decisiveRate = if (isAnd) 1.0 - passRates[conditionSlot] else passRates[conditionSlot]
+            // Conditions never evaluated have no cost, they are evaluated first to be measured
+            sortKeys[conditionSlot] = costsNs[conditionSlot] / decisiveRate.coerceAtLeast(MIN_DECISIVE_RATE)
+        }
+
+        for (index in start + 1 until end) {
+            val conditionSlot = evaluationOrder[index]
+            var position = index
+            while (position > start && isBefore(conditionSlot, evaluationOrder[position - 1])) {
+                evaluationOrder[position] = evaluationOrder[position - 1]
+                position--
+            }
+            evaluationOrder[position] = conditionSlot
+        }
+    }
+
+    private fun isBefore(conditionSlot: Int, otherSlot: Int): Boolean =
+        sortKeys[conditionSlot] < sortKeys[otherSlot]
+                || (sortKeys[conditionSlot] == sortKeys[otherSlot] && conditionSlot < otherSlot)
+
+    private fun Event.isOrderIndependent(): Boolean {
+        if (this !is ImageEvent || conditions.size < 2) return false
+        if (conditionOperator == AND) return true
+
+        return actions.none { action ->
+            action is Action.Click && action.positionType != Action.Click.PositionType.USER_SELECTED
+        }
+    }
+}
+
+/** Number of evaluations of an event between two sorts of its conditions. */
+private const val SORT_PERIOD = 16
+/** Weight of a new measure in the mean cost of a condition. */
+private const val COST_SMOOTHING = 0.1
+/** Weight of a new result in the mean pass rate of a condition. */
+private const val PASS_RATE_SMOOTHING = 0.05
+/** Pass rate of a condition before its first evaluation. */
+private const val INITIAL_PASS_RATE = 0.5
+/** Lowest probability of a condition to be decisive, avoids the division by zero for the conditions always passing. */
+private const val MIN_DECISIVE_RATE = 0.01
@@ -23,51 +23,126 @@ import com.buzbuz.smartautoclicker.core.processing.domain.ConditionResult
 import com.buzbuz.smartautoclicker.core.processing.domain.IConditionsResult
 import com.buzbuz.smartautoclicker.core.processing.domain.ImageConditionResult
 
-
+/**
+ * The results of the conditions of an event, reused for each verification.
+ *
+ * The results are kept in arrays in verification order, keyed by condition identifier, and [getAllResults] always
+ * returns the same view on them. Nothing is allocated once the arrays are big enough for the events of the scenario,
+ * but the content is only valid until the next [reset] or [setFrom].
+ */
 internal class ConditionsResult : IConditionsResult {
 
-    private val _results: MutableMap<Long, ConditionResult> = mutableMapOf()
+    private var conditionIds: LongArray = LongArray(INITIAL_CAPACITY)
+    private var results: Array<ConditionResult?> = arrayOfNulls(INITIAL_CAPACITY)
+    private var size: Int = 0
+
+    /** The view on the results returned by [getAllResults]. */
+    private val resultsView: List<ConditionResult> = object : AbstractList<ConditionResult>() {
+        override val size: Int
+            get() = this@ConditionsResult.size
+        override fun get(index: Int): ConditionResult {
+            if (index < 0 || index >= size) throw IndexOutOfBoundsException("Invalid result index $index")
+            return results[index]!!
+        }
+    }
 
     override var fulfilled: Boolean? = null
         private set
 
-    override fun getImageConditionResult(conditionId: Long): ImageConditionResult? =
-        _results[conditionId]?.let { result ->
-            if (result is ImageResult) result else null
-        }
-
-    override fun getFirstImageDetectedResult(): ImageResult? =
-        _results.values.find { it is ImageResult && it.isFulfilled && it.condition.shouldBeDetected }
-                as ImageResult?
+    override fun getImageConditionResult(conditionId: Long): ImageConditionResult? {
+        val index = indexOf(conditionId)
+        return if (index != -1) results[index] as? ImageResult else null
+    }
 
-    override fun getAllResults(): List<ConditionResult> = buildList {
-        _results.forEach { (_, result) -> add(result) }
+    override fun getFirstImageDetectedResult(): ImageResult? {
+        for (index in 0 until size) {
+            val result = results[index]
+            if (result is ImageResult && result.isFulfilled && result.condition.shouldBeDetected) return result
+        }
+        return null
     }
 
+    override fun getAllResults(): List<ConditionResult> = resultsView
+
     fun reset() {
-        _results.clear()
+        results.fill(null, 0, size)
+        size = 0
         fulfilled = null
     }
 
     fun addResult(conditionId: Long, result: ConditionResult) {
         if (fulfilled != null) return
-        _results[conditionId] = result
+
+        val index = indexOf(conditionId)
+        if (index != -1) {
+            results[index] = result
+            return
+        }
+
+        ensureCapacity(size + 1)
+        conditionIds[size] = conditionId
+        results[size] = result
+        size++
     }
+
     fun setFulfilledState(state: Boolean) {
         fulfilled = state
     }
+
+    /** Replace the content of this result with the content of [other]. */
+    fun setFrom(other: ConditionsResult) {
+        reset()
+        ensureCapacity(other.size)
+        other.conditionIds.copyInto(conditionIds, 0, 0, other.size)
+        other.results.copyInto(results, 0, 0, other.size)
+        size = other.size
+        fulfilled = other.fulfilled
+    }
+
+    /** The events have a few conditions, a linear search is faster than hashing the identifiers. */
+    private fun indexOf(conditionId: Long): Int {
+        for (index in 0 until size) {
+            if (conditionIds[index] == conditionId) return index
+        }
+        return -1
+    }
+
+    private fun ensureCapacity(capacity: Int) {
+        if (capacity <= conditionIds.size) return
+
+        val newCapacity = maxOf(capacity, conditionIds.size * 2)
+        conditionIds = conditionIds.copyOf(newCapacity)
+        results = results.copyOf(newCapacity)
+    }
 }
 
 internal data class DefaultResult(
     override val isFulfilled: Boolean,
 ) : ConditionResult
 
-internal data class ImageResult(
-    override val isFulfilled: Boolean,
-    override val haveBeenDetected: Boolean,
+/**
+ * The result of an image condition.
+ *
+ * The verifier keeps one instance per image condition and updates it at each verification, so the result, as well as
+ * its [position], is only valid until the next verification of its condition.
+ */
+internal class ImageResult(
+    override var isFulfilled: Boolean,
+    override var haveBeenDetected: Boolean,
     override val condition: ImageCondition,
     override val position: Point = Point(),
     override var confidenceRate: Double = 0.0,
-) : ImageConditionResult
+) : ImageConditionResult {
 
+    constructor(condition: ImageCondition) : this(isFulfilled = false, haveBeenDetected = false, condition = condition)
+
+    fun set(isFulfilled: Boolean, haveBeenDetected: Boolean, centerX: Int, centerY: Int, confidenceRate: Double) {
+        this.isFulfilled = isFulfilled
+        this.haveBeenDetected = haveBeenDetected
+        position.set(centerX, centerY)
+        this.confidenceRate = confidenceRate
+    }
+}
 
+/** The initial number of results of a [ConditionsResult], grown when an event has more conditions. */
+private const val INITIAL_CAPACITY = 8
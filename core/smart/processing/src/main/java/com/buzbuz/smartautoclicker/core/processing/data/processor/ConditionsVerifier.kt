@@ -17,30 +17,45 @@
 package com.buzbuz.smartautoclicker.core.processing.data.processor
 
 import android.graphics.Bitmap
-import android.graphics.Point
 
+import com.buzbuz.smartautoclicker.core.detection.BATCH_DETECTION_TYPE_WHOLE_SCREEN
+import com.buzbuz.smartautoclicker.core.detection.BATCH_OPERATOR_AND
+import com.buzbuz.smartautoclicker.core.detection.BATCH_OPERATOR_NONE
+import com.buzbuz.smartautoclicker.core.detection.BATCH_OPERATOR_OR
+import com.buzbuz.smartautoclicker.core.detection.DetectionBatch
 import com.buzbuz.smartautoclicker.core.detection.ImageDetector
 import com.buzbuz.smartautoclicker.core.domain.model.AND
-import com.buzbuz.smartautoclicker.core.domain.model.ConditionOperator
-import com.buzbuz.smartautoclicker.core.domain.model.EXACT
-import com.buzbuz.smartautoclicker.core.domain.model.IN_AREA
 import com.buzbuz.smartautoclicker.core.domain.model.OR
-import com.buzbuz.smartautoclicker.core.domain.model.WHOLE_SCREEN
-import com.buzbuz.smartautoclicker.core.domain.model.condition.Condition
 import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
 import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
 import com.buzbuz.smartautoclicker.core.processing.data.processor.state.ProcessingState
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.TIMER_DISABLED
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.forEachEnabledImageEventSlot
 import com.buzbuz.smartautoclicker.core.processing.domain.ConditionResult
 import com.buzbuz.smartautoclicker.core.processing.domain.ScenarioProcessingListener
 
 import kotlinx.coroutines.yield
-import kotlin.math.max
 
+/**
+ * Verifies the conditions of the events of a [ScenarioPlan].
+ *
+ * The events are referenced by their slot in the plan. Their conditions are verified in the order given by
+ * [ConditionsOrder]: the plan order, or with [adaptiveConditionsOrder], an order learnt from the previous verifications
+ * for the events where it doesn't change the results. [detectImageEvents] always uses the plan order, as all
+ * conditions are detected in parallel.
+ *
+ * The image detections results are kept in the [detectionMemo], allowing the conditions sharing the same detection to
+ * be detected once per frame, whatever their event.
+ */
 internal class ConditionsVerifier(
+    private val plan: ScenarioPlan,
     private val state: ProcessingState,
     private val imageDetector: ImageDetector,
     private val bitmapSupplier: suspend (ImageCondition) -> Bitmap?,
     private val progressListener: ScenarioProcessingListener? = null,
+    adaptiveConditionsOrder: Boolean = false,
+    private val detectionMemo: DetectionMemo = DetectionMemo(plan.detectionCount),
+    private val currentTimeMs: () -> Long = System::currentTimeMillis,
 ) {
 
     private companion object {
@@ -49,114 +64,365 @@ internal class ConditionsVerifier(
     }
 
     private val verificationResults: ConditionsResult = ConditionsResult()
+    /** The result of each image condition, by condition slot. Updated at each verification of the condition. */
+    private val imageResults: Array<ImageResult?> = Array(plan.conditions.size) { conditionSlot ->
+        (plan.conditions[conditionSlot] as? ImageCondition)?.let(::ImageResult)
+    }
+    /** The order of verification of the conditions of each event. */
+    private val conditionsOrder: ConditionsOrder = ConditionsOrder(plan, adaptiveConditionsOrder)
+    /** The batch used for the image conditions verification with [verifyImageConditions]. Reused for each event. */
+    private val detectionBatch: DetectionBatch = DetectionBatch()
+    /** The batch containing the image conditions of all events, filled by [detectImageEvents]. Reused for each frame. */
+    private val frameBatch: DetectionBatch = DetectionBatch()
+    /** The detection index of each condition of the [frameBatch]. */
+    private val frameBatchDetections: IntArray = IntArray(plan.detectionCount)
+    /** Tells if each detection is already in the [frameBatch]. */
+    private val isInFrameBatch: BooleanArray = BooleanArray(plan.detectionCount)
     /**
-     * Set only during a [verifyConditions], it contains the system time at verification start.
+     * Set only during a [verifyConditions], it contains the current time at verification start.
      * This allows to use the same reference time for all conditions during the same verification loop.
      */
-    private var currentVerificationTsMs: Long? = null
+    private var currentVerificationTsMs: Long = 0
+
+    /** The number of timers verified as reached. */
+    var reachedTimerCount: Long = 0
+        private set
+    /** The sum of the delays between the end of the timers and their verification, in milliseconds. */
+    var totalTimerDelayMs: Long = 0
+        private set
+    /** The maximum delay between the end of a timer and its verification, in milliseconds. */
+    var maxTimerDelayMs: Long = 0
+        private set
 
-    suspend fun verifyConditions(@ConditionOperator operator: Int, conditions: List<Condition>): ConditionsResult {
+    suspend fun verifyConditions(eventSlot: Int): ConditionsResult {
         verificationResults.reset()
-        currentVerificationTsMs = System.currentTimeMillis()
+        currentVerificationTsMs = currentTimeMs()
 
+        val operator = plan.eventOperators[eventSlot]
+        val isAdaptive = conditionsOrder.isAdaptive(eventSlot)
         var verificationResult: ConditionResult
+        var isFulfilled = operator == AND
 
-        for (condition in conditions) {
-            verificationResult = verifyCondition(condition)
-            verificationResults.addResult(condition.getValidId(), verificationResult)
+        for (index in 0 until plan.getConditionEnd(eventSlot) - plan.getConditionStart(eventSlot)) {
+            val conditionSlot = conditionsOrder.getConditionSlot(eventSlot, index)
+
+            val startNs = if (isAdaptive) System.nanoTime() else 0L
+            verificationResult = verifyCondition(conditionSlot)
+            if (isAdaptive) conditionsOrder.onConditionEvaluated(
+                conditionSlot = conditionSlot,
+                durationNs = System.nanoTime() - startNs,
+                isFulfilled = verificationResult.isFulfilled,
+            )
+            verificationResults.addResult(plan.conditions[conditionSlot].getValidId(), verificationResult)
 
             if (operator == OR && verificationResult.isFulfilled) {
-                verificationResults.setFulfilledState(true)
-                return verificationResults
+                isFulfilled = true
+                break
             }
             if (operator == AND && !verificationResult.isFulfilled) {
-                verificationResults.setFulfilledState(false)
-                return verificationResults
+                isFulfilled = false
+                break
             }
 
             yield()
         }
 
-        verificationResults.setFulfilledState(operator == AND)
+        conditionsOrder.onEventEvaluated(eventSlot)
+        verificationResults.setFulfilledState(isFulfilled)
         return verificationResults
     }
 
-    private suspend fun verifyCondition(condition: Condition): ConditionResult =
-        when (condition) {
-            is ImageCondition -> verifyImageCondition(condition)
-            is TriggerCondition -> if (verifyTriggerCondition(condition)) POSITIVE_RESULT else NEGATIVE_RESULT
-        }
+    /**
+     * Verify the image conditions of an event with a single call to the image detector.
+     *
+     * The results are the same than [verifyConditions], but the progress of each condition is not notified to the
+     * [progressListener], as they are all processed at once. The bitmaps of all conditions are requested before the
+     * detection, even if the evaluation stops before reaching them.
+     *
+     * The conditions whose detection is already known for this frame are not sent to the detector. If they are between
+     * other conditions, the detector is called once for each group of unknown conditions, to keep the evaluation order.
+     */
+    suspend fun verifyImageConditions(eventSlot: Int): ConditionsResult {
+        verificationResults.reset()
 
-    private fun verifyTriggerCondition(condition: TriggerCondition): Boolean =
-        when (condition) {
-            is TriggerCondition.OnBroadcastReceived -> verifyOnBroadcastReceived(condition)
-            is TriggerCondition.OnCounterCountReached -> verifyOnCounterReached(condition)
-            is TriggerCondition.OnTimerReached -> verifyOnTimerReached(condition)
-        }
+        val operator = plan.eventOperators[eventSlot]
+        val isAdaptive = conditionsOrder.isAdaptive(eventSlot)
+        val conditionCount = plan.getConditionEnd(eventSlot) - plan.getConditionStart(eventSlot)
+        var isFulfilled = operator == AND
+        var index = 0
 
-    private fun verifyOnBroadcastReceived(condition: TriggerCondition.OnBroadcastReceived): Boolean =
-        state.isBroadcastReceived(condition)
+        while (index < conditionCount) {
+            val conditionSlot = conditionsOrder.getConditionSlot(eventSlot, index)
 
-    private fun verifyOnCounterReached(condition: TriggerCondition.OnCounterCountReached): Boolean =
-        state.getCounterValue(condition.counterName)?.let { counterValue ->
-            when (condition.comparisonOperation) {
-                TriggerCondition.OnCounterCountReached.ComparisonOperation.GREATER ->
-                    counterValue > condition.counterValue
+            // Already detected for another condition, don't detect it again
+            if (detectionMemo.reuse(plan.conditionDetectionIndexes[conditionSlot])) {
+                val result = getMemoizedResult(conditionSlot)
+                if (isAdaptive) conditionsOrder.onConditionEvaluated(conditionSlot, 0, result.isFulfilled)
+                verificationResults.addResult(plan.conditions[conditionSlot].getValidId(), result)
+
+                index++
+                if (isDecisive(operator, result.isFulfilled)) {
+                    isFulfilled = result.isFulfilled
+                    break
+                }
+                continue
+            }
+
+            // Detect all following conditions until the next known one
+            detectionBatch.clear()
+            detectionBatch.operator = if (operator == OR) BATCH_OPERATOR_OR else BATCH_OPERATOR_AND
+            var batchEnd = index
+            while (batchEnd < conditionCount) {
+                val batchConditionSlot = conditionsOrder.getConditionSlot(eventSlot, batchEnd)
+                if (detectionMemo.contains(plan.conditionDetectionIndexes[batchConditionSlot])) break
+
+                detectionBatch.addCondition(batchConditionSlot)
+                batchEnd++
+            }
 
-                TriggerCondition.OnCounterCountReached.ComparisonOperation.GREATER_OR_EQUALS ->
-                    counterValue >= condition.counterValue
+            imageDetector.detectConditions(detectionBatch)
 
-                TriggerCondition.OnCounterCountReached.ComparisonOperation.EQUALS ->
-                    counterValue == condition.counterValue
+            for (batchIndex in 0 until detectionBatch.evaluatedCount) {
+                val batchConditionSlot = conditionsOrder.getConditionSlot(eventSlot, index + batchIndex)
+                putBatchResult(detectionBatch, batchIndex, plan.conditionDetectionIndexes[batchConditionSlot])
 
-                TriggerCondition.OnCounterCountReached.ComparisonOperation.LOWER_OR_EQUALS ->
-                    counterValue <= condition.counterValue
+                val result = getMemoizedResult(batchConditionSlot)
+                if (isAdaptive) conditionsOrder.onConditionEvaluated(
+                    conditionSlot = batchConditionSlot,
+                    durationNs = detectionBatch.getDurationNs(batchIndex),
+                    isFulfilled = result.isFulfilled,
+                )
+                verificationResults.addResult(plan.conditions[batchConditionSlot].getValidId(), result)
+            }
 
-                TriggerCondition.OnCounterCountReached.ComparisonOperation.LOWER ->
-                    counterValue < condition.counterValue
+            // Nothing evaluated, the detector can't detect anymore: the remaining conditions can't be fulfilled
+            if (detectionBatch.evaluatedCount == 0) {
+                isFulfilled = false
+                break
             }
-        } ?: false
 
-    private fun verifyOnTimerReached(condition: TriggerCondition.OnTimerReached): Boolean {
-        val currentTsMs = currentVerificationTsMs ?: return false
-        val timerEndMs = state.getTimerEndMs(condition.getValidId()) ?: return false
+            // The detector stops on the first decisive condition
+            index += detectionBatch.evaluatedCount
+            val lastResultFulfilled = detectionBatch.isFulfilled
+            if (isDecisive(operator, lastResultFulfilled)) {
+                isFulfilled = lastResultFulfilled
+                break
+            }
+        }
 
-        return if (currentTsMs > timerEndMs) {
-            if (condition.restartWhenReached) state.setTimerStartToNow(condition)
-            else state.setTimerToDisabled(condition.getValidId())
-            true
-        } else false
+        conditionsOrder.onEventEvaluated(eventSlot)
+        verificationResults.setFulfilledState(isFulfilled)
+        return verificationResults
     }
 
-    private suspend fun verifyImageCondition(condition: ImageCondition): ConditionResult {
-        progressListener?.onImageConditionProcessingStarted(condition)
+    /**
+     * Detect the image conditions of all enabled image events with a single call to the image detector.
+     *
+     * All conditions are evaluated, allowing the detector to match them in parallel. The conditions sharing the same
+     * detection are only sent once. The results of each event can then be read in priority order with
+     * [getDetectedImageConditionsResults].
+     */
+    suspend fun detectImageEvents() {
+        frameBatch.clear()
+        isInFrameBatch.fill(false)
+
+        frameBatch.operator = BATCH_OPERATOR_NONE
+        state.forEachEnabledImageEventSlot { eventSlot ->
+            for (conditionSlot in plan.getConditionStart(eventSlot) until plan.getConditionEnd(eventSlot)) {
+                val detectionIndex = plan.conditionDetectionIndexes[conditionSlot]
+                if (detectionMemo.reuse(detectionIndex)) continue
+                if (isInFrameBatch[detectionIndex]) {
+                    detectionMemo.onDetectionShared()
+                    continue
+                }
+
+                isInFrameBatch[detectionIndex] = true
+                frameBatchDetections[frameBatch.size] = detectionIndex
+                frameBatch.addCondition(conditionSlot)
+            }
+        }
 
-        val result = bitmapSupplier(condition)?.let { conditionBitmap ->
-            val detectionResult = when (condition.detectionType) {
-                EXACT ->
-                    imageDetector.detectCondition(conditionBitmap, condition.area, condition.threshold)
+        imageDetector.detectConditions(frameBatch)
 
-                WHOLE_SCREEN ->
-                    imageDetector.detectCondition(conditionBitmap, condition.threshold)
+        for (batchIndex in 0 until frameBatch.evaluatedCount) {
+            putBatchResult(frameBatch, batchIndex, frameBatchDetections[batchIndex])
+        }
+    }
+
+    /**
+     * Get the results of the image conditions of an event detected with [detectImageEvents].
+     * The results are the same than [verifyConditions], conditions after the decisive one are ignored.
+     *
+     * @param eventSlot the slot of the event.
+     */
+    fun getDetectedImageConditionsResults(eventSlot: Int): ConditionsResult {
+        verificationResults.reset()
 
-                IN_AREA ->
-                    condition.detectionArea?.let { area ->
-                        imageDetector.detectCondition(conditionBitmap, area, condition.threshold)
-                    } ?: throw IllegalArgumentException("Invalid IN_AREA condition, no area defined")
+        val operator = plan.eventOperators[eventSlot]
+        for (conditionSlot in plan.getConditionStart(eventSlot) until plan.getConditionEnd(eventSlot)) {
+            val result = getMemoizedResult(conditionSlot)
+            verificationResults.addResult(plan.conditions[conditionSlot].getValidId(), result)
 
-                else -> throw IllegalArgumentException("Unexpected detection type")
+            if (isDecisive(operator, result.isFulfilled)) {
+                verificationResults.setFulfilledState(result.isFulfilled)
+                return verificationResults
             }
+        }
 
-            ImageResult(
-                isFulfilled = detectionResult.isDetected == condition.shouldBeDetected,
-                haveBeenDetected = detectionResult.isDetected,
-                condition = condition,
-                position = Point(detectionResult.position.x, detectionResult.position.y),
-                confidenceRate = detectionResult.confidenceRate,
-            )
-        } ?: NEGATIVE_RESULT
+        verificationResults.setFulfilledState(operator == AND)
+        return verificationResults
+    }
+
+    /**
+     * Detect all occurrences of an image condition on the current screen, in its detection area.
+     *
+     * @param condition the condition to detect.
+     * @param maxResults the maximum number of occurrences to return.
+     *
+     * @return the centers of the occurrences, packed as described in [ImageDetector.detectAllOccurrences].
+     */
+    suspend fun detectAllOccurrences(condition: ImageCondition, maxResults: Int): IntArray {
+        val conditionBitmap = bitmapSupplier(condition) ?: return IntArray(0)
+
+        return imageDetector.detectAllOccurrences(
+            conditionId = condition.getValidId(),
+            conditionBitmap = conditionBitmap,
+            area = condition.getBatchDetectionArea(),
+            threshold = condition.threshold,
+            maxResults = maxResults,
+        )
+    }
+
+    private suspend fun verifyCondition(conditionSlot: Int): ConditionResult {
+        val stateIndex = plan.conditionStateIndexes[conditionSlot]
+
+        val isFulfilled = when (plan.conditionTypes[conditionSlot]) {
+            CONDITION_TYPE_IMAGE -> return verifyImageCondition(conditionSlot)
+            CONDITION_TYPE_BROADCAST -> state.isBroadcastReceived(stateIndex)
+            CONDITION_TYPE_COUNTER -> stateIndex != -1 && verifyOnCounterReached(conditionSlot, stateIndex)
+            CONDITION_TYPE_TIMER -> verifyOnTimerReached(conditionSlot, stateIndex)
+            else -> false
+        }
+
+        return if (isFulfilled) POSITIVE_RESULT else NEGATIVE_RESULT
+    }
+
+    private fun verifyOnCounterReached(conditionSlot: Int, counterIndex: Int): Boolean {
+        val condition = plan.conditions[conditionSlot] as TriggerCondition.OnCounterCountReached
+        val counterValue = state.getCounterValue(counterIndex)
+
+        return when (condition.comparisonOperation) {
+            TriggerCondition.OnCounterCountReached.ComparisonOperation.GREATER ->
+                counterValue > condition.counterValue
+
+            TriggerCondition.OnCounterCountReached.ComparisonOperation.GREATER_OR_EQUALS ->
+                counterValue >= condition.counterValue
+
+            TriggerCondition.OnCounterCountReached.ComparisonOperation.EQUALS ->
+                counterValue == condition.counterValue
+
+            TriggerCondition.OnCounterCountReached.ComparisonOperation.LOWER_OR_EQUALS ->
+                counterValue <= condition.counterValue
+
+            TriggerCondition.OnCounterCountReached.ComparisonOperation.LOWER ->
+                counterValue < condition.counterValue
+        }
+    }
+
+    private fun verifyOnTimerReached(conditionSlot: Int, timerIndex: Int): Boolean {
+        val timerEndMs = state.getTimerEndMs(timerIndex)
+        if (timerEndMs == TIMER_DISABLED || currentVerificationTsMs <= timerEndMs) return false
+
+        val delayMs = currentVerificationTsMs - timerEndMs
+        reachedTimerCount++
+        totalTimerDelayMs += delayMs
+        if (delayMs > maxTimerDelayMs) maxTimerDelayMs = delayMs
+
+        val condition = plan.conditions[conditionSlot] as TriggerCondition.OnTimerReached
+        if (condition.restartWhenReached) state.setTimerStartToNow(timerIndex)
+        else state.setTimerToDisabled(timerIndex)
+        return true
+    }
+
+    private suspend fun verifyImageCondition(conditionSlot: Int): ConditionResult {
+        val condition = plan.conditions[conditionSlot] as ImageCondition
+        progressListener?.onImageConditionProcessingStarted(condition)
+
+        val detectionIndex = plan.conditionDetectionIndexes[conditionSlot]
+        if (!detectionMemo.reuse(detectionIndex)) {
+            val conditionBitmap = bitmapSupplier(condition)
+            if (conditionBitmap == null) detectionMemo.put(detectionIndex, hasBitmap = false)
+            else {
+                val detectionResult =
+                    if (plan.conditionDetectionTypes[conditionSlot] == BATCH_DETECTION_TYPE_WHOLE_SCREEN)
+                        imageDetector.detectCondition(condition.getValidId(), conditionBitmap, condition.threshold)
+                    else
+                        imageDetector.detectCondition(
+                            condition.getValidId(),
+                            conditionBitmap,
+                            plan.conditionDetectionAreas[conditionSlot]!!,
+                            condition.threshold,
+                        )
+
+                detectionMemo.put(
+                    detectionIndex = detectionIndex,
+                    hasBitmap = true,
+                    isDetected = detectionResult.isDetected,
+                    centerX = detectionResult.position.x,
+                    centerY = detectionResult.position.y,
+                    confidenceRate = detectionResult.confidenceRate,
+                )
+            }
+        }
 
+        val result = getMemoizedResult(conditionSlot)
         progressListener?.onImageConditionProcessingCompleted(result)
         return result
     }
-}
\ No newline at end of file
+
+    /** @return the result of an image condition, from the result of its detection on the current frame. */
+    private fun getMemoizedResult(conditionSlot: Int): ConditionResult {
+        val detectionIndex = plan.conditionDetectionIndexes[conditionSlot]
+        // No condition image, it can't be fulfilled
+        if (!detectionMemo.contains(detectionIndex) || !detectionMemo.hasBitmap(detectionIndex)) return NEGATIVE_RESULT
+
+        val result = imageResults[conditionSlot]!!
+        val isDetected = detectionMemo.isDetected(detectionIndex)
+        result.set(
+            isFulfilled = isDetected == result.condition.shouldBeDetected,
+            haveBeenDetected = isDetected,
+            centerX = detectionMemo.getCenterX(detectionIndex),
+            centerY = detectionMemo.getCenterY(detectionIndex),
+            confidenceRate = detectionMemo.getConfidenceRate(detectionIndex),
+        )
+        return result
+    }
+
+    /** Keep the result of a condition of a detection batch in the [detectionMemo]. */
+    private fun putBatchResult(batch: DetectionBatch, batchIndex: Int, detectionIndex: Int) {
+        detectionMemo.put(
+            detectionIndex = detectionIndex,
+            hasBitmap = batch.hasConditionBitmap(batchIndex),
+            isDetected = batch.isDetected(batchIndex),
+            centerX = batch.getCenterX(batchIndex),
+            centerY = batch.getCenterY(batchIndex),
+            confidenceRate = batch.getConfidenceRate(batchIndex),
+        )
+    }
+
+    /** @return true if a condition with this result decides of the result of an event with this operator. */
+    private fun isDecisive(operator: Int, isFulfilled: Boolean): Boolean =
+        (operator == OR && isFulfilled) || (operator == AND && !isFulfilled)
+
+    private suspend fun DetectionBatch.addCondition(conditionSlot: Int) {
+        val condition = plan.conditions[conditionSlot] as ImageCondition
+        add(
+            conditionId = condition.getValidId(),
+            conditionBitmap = bitmapSupplier(condition),
+            detectionType = plan.conditionDetectionTypes[conditionSlot],
+            area = plan.conditionDetectionAreas[conditionSlot],
+            threshold = condition.threshold,
+            shouldBeDetected = condition.shouldBeDetected,
+        )
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data.processor
+
+/**
+ * The results of the image detections of the current frame, by detection index of the [ScenarioPlan].
+ *
+ * The image conditions sharing the same detection, even in different events, are detected once per frame: the first
+ * one stores its result here, and the next ones reuse it. The memo must be cleared each time the screen image given to
+ * the detector changes.
+ *
+ * @param detectionCount the number of detections of the scenario.
+ */
+internal class DetectionMemo(detectionCount: Int) {
+
+    /** Tells if the result of each detection is known for the current frame. */
+    private val isKnown: BooleanArray = BooleanArray(detectionCount)
+    /** Tells if the condition bitmap was available for each detection. Without it, the condition is never fulfilled. */
+    private val hasBitmap: BooleanArray = BooleanArray(detectionCount)
+    private val isDetected: BooleanArray = BooleanArray(detectionCount)
+    private val centersX: IntArray = IntArray(detectionCount)
+    private val centersY: IntArray = IntArray(detectionCount)
+    private val confidenceRates: DoubleArray = DoubleArray(detectionCount)
+
+    /** The number of detections executed since the start of the processing. */
+    var executedCount: Long = 0
+        private set
+    /** The number of detections whose result have been reused since the start of the processing. */
+    var reusedCount: Long = 0
+        private set
+
+    /** The ratio of detections avoided by reusing the result of another condition, between 0 and 1. */
+    val reuseRate: Double
+        get() = if (executedCount + reusedCount == 0L) 0.0 else reusedCount.toDouble() / (executedCount + reusedCount)
+
+    /** Forget all results, to be called when the screen image changes. */
+    fun clear() {
+        isKnown.fill(false)
+    }
+
+    /** @return true if the result of this detection is known for the current frame. */
+    fun contains(detectionIndex: Int): Boolean =
+        isKnown[detectionIndex]
+
+    /**
+     * Get the result of a detection, if it is known for the current frame.
+     * If it is, it is counted as a reused detection.
+     *
+     * @return true if the result is known and can be read with the getters, false if it must be detected.
+     */
+    fun reuse(detectionIndex: Int): Boolean {
+        if (!isKnown[detectionIndex]) return false
+
+        reusedCount++
+        return true
+    }
+
+    /** Count a detection avoided because the condition shares a detection already queued in a batch. */
+    fun onDetectionShared() {
+        reusedCount++
+    }
+
+    /** Keep the result of a detection for the current frame. */
+    fun put(
+        detectionIndex: Int,
+        hasBitmap: Boolean,
+        isDetected: Boolean = false,
+        centerX: Int = 0,
+        centerY: Int = 0,
+        confidenceRate: Double = 0.0,
+    ) {
+        isKnown[detectionIndex] = true
+        this.hasBitmap[detectionIndex] = hasBitmap
+        this.isDetected[detectionIndex] = isDetected
+        centersX[detectionIndex] = centerX
+        centersY[detectionIndex] = centerY
+        confidenceRates[detectionIndex] = confidenceRate
+        executedCount++
+    }
+
+    fun hasBitmap(detectionIndex: Int): Boolean = hasBitmap[detectionIndex]
+    fun isDetected(detectionIndex: Int): Boolean = isDetected[detectionIndex]
+    fun getCenterX(detectionIndex: Int): Int = centersX[detectionIndex]
+    fun getCenterY(detectionIndex: Int): Int = centersY[detectionIndex]
+    fun getConfidenceRate(detectionIndex: Int): Double = confidenceRates[detectionIndex]
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data.processor
+
+import android.graphics.Rect
+
+import com.buzbuz.smartautoclicker.core.detection.BATCH_DETECTION_TYPE_EXACT
+import com.buzbuz.smartautoclicker.core.detection.BATCH_DETECTION_TYPE_IN_AREA
+import com.buzbuz.smartautoclicker.core.detection.BATCH_DETECTION_TYPE_WHOLE_SCREEN
+import com.buzbuz.smartautoclicker.core.domain.model.EXACT
+import com.buzbuz.smartautoclicker.core.domain.model.IN_AREA
+import com.buzbuz.smartautoclicker.core.domain.model.WHOLE_SCREEN
+import com.buzbuz.smartautoclicker.core.domain.model.action.Action
+import com.buzbuz.smartautoclicker.core.domain.model.condition.Condition
+import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
+import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
+import com.buzbuz.smartautoclicker.core.domain.model.event.Event
+import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
+import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
+
+/**
+ * The events of a scenario, compiled once at the start of the detection into flat arrays.
+ *
+ * Each event, condition and action gets a slot, its index in the arrays of its kind. The image events come first, in
+ * priority order, followed by the trigger events. The conditions and actions of an event are contiguous, between the
+ * event start and the start of the next one. The counters, timers and broadcasts referenced by the conditions and
+ * actions are resolved into indexes of the processing state arrays.
+ *
+ * This allows the processing to walk the scenario for each frame with integer indexes only, without any map lookup.
+ * The lookups by identifier or name are only available for the initialisation of the states and the broadcasts.
+ *
+ * @param imageEvents the image events of the scenario, in priority order.
+ * @param triggerEvents the trigger events of the scenario.
+ */
+internal class ScenarioPlan(
+    val imageEvents: List<ImageEvent>,
+    val triggerEvents: List<TriggerEvent>,
+) {
+
+    /** The number of image events, also the slot of the first trigger event. */
+    val imageEventCount: Int = imageEvents.size
+    /** The total number of events. */
+    val eventCount: Int = imageEvents.size + triggerEvents.size
+
+    /** The events, by event slot. */
+    val events: Array<Event> = Array(eventCount) { slot ->
+        if (slot < imageEventCount) imageEvents[slot] else triggerEvents[slot - imageEventCount]
+    }
+    /** The condition operator of each event, by event slot. */
+    val eventOperators: IntArray = IntArray(eventCount) { slot -> events[slot].conditionOperator }
+    /** The slot of the first condition of each event. The last value is the total number of conditions. */
+    private val eventConditionStarts: IntArray = IntArray(eventCount + 1)
+    /** The slot of the first action of each event. The last value is the total number of actions. */
+    private val eventActionStarts: IntArray = IntArray(eventCount + 1)
+
+    /** The conditions, by condition slot. */
+    val conditions: Array<Condition> = events.flatMap { it.conditions }.toTypedArray()
+    /** The slot of the event of each condition. */
+    val conditionEventSlots: IntArray = IntArray(conditions.size)
+    /** The type of each condition, one of the CONDITION_TYPE values. */
+    val conditionTypes: IntArray = IntArray(conditions.size)
+    /**
+     * The index of the state of each trigger condition: the counter index for [CONDITION_TYPE_COUNTER], the timer index
+     * for [CONDITION_TYPE_TIMER] and the broadcast index for [CONDITION_TYPE_BROADCAST]. -1 if there is none.
+     */
+    val conditionStateIndexes: IntArray = IntArray(conditions.size) { -1 }
+    /** The detection type of each image condition, as a BATCH_DETECTION_TYPE value of the detector. */
+    val conditionDetectionTypes: IntArray = IntArray(conditions.size)
+    /** The detection area of each image condition, null for the whole screen. */
+    val conditionDetectionAreas: Array<Rect?> = arrayOfNulls(conditions.size)
+    /**
+     * The index of the detection of each image condition, -1 for the trigger conditions. The image conditions with the
+     * same image, detection type, area and threshold have the same result on a frame, they share the same detection.
+     */
+    val conditionDetectionIndexes: IntArray = IntArray(conditions.size) { -1 }
+    /** The number of different detections of the image conditions. */
+    val detectionCount: Int
+
+    /** The names of the counters, by counter index. Only the counters both changed and verified are kept. */
+    val counterNames: Array<String>
+    /** The slot of the condition of each timer, by timer index. */
+    val timerConditionSlots: IntArray
+    /** The intent actions of the broadcasts, by broadcast index. */
+    val broadcastActions: Array<String>
+
+    /** The actions, by action slot. */
+    val actions: Array<Action> = events.flatMap { it.actions }.toTypedArray()
+    /** The counter index of each [Action.ChangeCounter] action, -1 if the counter is never verified. */
+    val actionCounterIndexes: IntArray = IntArray(actions.size) { -1 }
+    /** The first toggle of each action in [toggleTargetSlots]. The last value is the total number of toggles. */
+    private val actionToggleStarts: IntArray = IntArray(actions.size + 1)
+    /** The slot of the event targeted by each toggle of the [Action.ToggleEvent] actions. */
+    val toggleTargetSlots: IntArray
+    /** The type of each toggle of the [Action.ToggleEvent] actions. */
+    val toggleTypes: Array<Action.ToggleEvent.ToggleType>
+
+    private val eventSlotsById: Map<Long, Int>
+    private val counterIndexesByName: Map<String, Int>
+    private val broadcastIndexesByAction: Map<String, Int>
+
+    init {
+        var conditionSlot = 0
+        var actionSlot = 0
+        events.forEachIndexed { slot, event ->
+            eventConditionStarts[slot] = conditionSlot
+            eventActionStarts[slot] = actionSlot
+            conditionEventSlots.fill(slot, conditionSlot, conditionSlot + event.conditions.size)
+            conditionSlot += event.conditions.size
+            actionSlot += event.actions.size
+        }
+        eventConditionStarts[eventCount] = conditionSlot
+        eventActionStarts[eventCount] = actionSlot
+
+        // With duplicated identifiers, the event with the highest priority is the one referenced
+        eventSlotsById = buildMap { events.forEachIndexed { slot, event -> getOrPut(event.getValidId()) { slot } } }
+
+        // A counter is only relevant if it is both changed by an action and verified by a condition
+        val changedCounters = actions.mapNotNullTo(mutableSetOf()) { (it as? Action.ChangeCounter)?.counterName }
+        val counterIndexes = mutableMapOf<String, Int>()
+        val broadcastIndexes = mutableMapOf<String, Int>()
+        val timerSlots = mutableListOf<Int>()
+        val detectionIndexes = mutableMapOf<DetectionKey, Int>()
+
+        conditions.forEachIndexed { slot, condition ->
+            when (condition) {
+                is ImageCondition -> {
+                    conditionTypes[slot] = CONDITION_TYPE_IMAGE
+                    conditionDetectionTypes[slot] = condition.getBatchDetectionType()
+                    conditionDetectionAreas[slot] = condition.getBatchDetectionArea()
+                    conditionDetectionIndexes[slot] = detectionIndexes.getOrPut(DetectionKey(condition)) {
+                        detectionIndexes.size
+                    }
+                }
+
+                is TriggerCondition.OnCounterCountReached -> {
+                    conditionTypes[slot] = CONDITION_TYPE_COUNTER
+                    if (condition.counterName in changedCounters) conditionStateIndexes[slot] =
+                        counterIndexes.getOrPut(condition.counterName) { counterIndexes.size }
+                }
+
+                is TriggerCondition.OnTimerReached -> {
+                    conditionTypes[slot] = CONDITION_TYPE_TIMER
+                    conditionStateIndexes[slot] = timerSlots.size
+                    timerSlots.add(slot)
+                }
+
+                is TriggerCondition.OnBroadcastReceived -> {
+                    conditionTypes[slot] = CONDITION_TYPE_BROADCAST
+                    conditionStateIndexes[slot] =
+                        broadcastIndexes.getOrPut(condition.intentAction) { broadcastIndexes.size }
+                }
+            }
+        }
+
+        val targetSlots = mutableListOf<Int>()
+        val targetTypes = mutableListOf<Action.ToggleEvent.ToggleType>()
+        actions.forEachIndexed { slot, action ->
+            actionToggleStarts[slot] = targetSlots.size
+            when (action) {
+                is Action.ChangeCounter -> actionCounterIndexes[slot] = counterIndexes[action.counterName] ?: -1
+                is Action.ToggleEvent -> if (!action.toggleAll) action.eventToggles.forEach { toggle ->
+                    // A toggle on an event that isn't in the scenario have no effect
+                    val targetSlot = toggle.targetEventId?.let { eventSlotsById[it.databaseId] } ?: return@forEach
+                    targetSlots.add(targetSlot)
+                    targetTypes.add(toggle.toggleType)
+                }
+                else -> Unit
+            }
+        }
+        actionToggleStarts[actions.size] = targetSlots.size
+
+        counterIndexesByName = counterIndexes
+        counterNames = Array(counterIndexes.size) { "" }.apply { counterIndexes.forEach { (name, index) -> set(index, name) } }
+        timerConditionSlots = timerSlots.toIntArray()
+        detectionCount = detectionIndexes.size
+        broadcastIndexesByAction = broadcastIndexes
+        broadcastActions = Array(broadcastIndexes.size) { "" }.apply { broadcastIndexes.forEach { (action, index) -> set(index, action) } }
+        toggleTargetSlots = targetSlots.toIntArray()
+        toggleTypes = targetTypes.toTypedArray()
+    }
+
+    /** The number of counters, timers and broadcasts referenced by the scenario. */
+    val counterCount: Int get() = counterNames.size
+    val timerCount: Int get() = timerConditionSlots.size
+    val broadcastCount: Int get() = broadcastActions.size
+
+    fun isImageEvent(eventSlot: Int): Boolean = eventSlot < imageEventCount
+
+    fun getConditionStart(eventSlot: Int): Int = eventConditionStarts[eventSlot]
+    fun getConditionEnd(eventSlot: Int): Int = eventConditionStarts[eventSlot + 1]
+    fun getActionStart(eventSlot: Int): Int = eventActionStarts[eventSlot]
+    fun getActionEnd(eventSlot: Int): Int = eventActionStarts[eventSlot + 1]
+    fun getToggleStart(actionSlot: Int): Int = actionToggleStarts[actionSlot]
+    fun getToggleEnd(actionSlot: Int): Int = actionToggleStarts[actionSlot + 1]
+
+    /** @return the slot of the event with this identifier, or -1 if it isn't in the scenario. */
+    fun getEventSlot(eventId: Long): Int = eventSlotsById[eventId] ?: -1
+    /** @return the index of the counter with this name, or -1 if it isn't used by the scenario. */
+    fun getCounterIndex(counterName: String): Int = counterIndexesByName[counterName] ?: -1
+    /** @return the index of the broadcast with this intent action, or -1 if it isn't used by the scenario. */
+    fun getBroadcastIndex(intentAction: String): Int = broadcastIndexesByAction[intentAction] ?: -1
+
+    fun getTimerEventSlot(timerIndex: Int): Int =
+        conditionEventSlots[timerConditionSlots[timerIndex]]
+
+    fun getTimerCondition(timerIndex: Int): TriggerCondition.OnTimerReached =
+        conditions[timerConditionSlots[timerIndex]] as TriggerCondition.OnTimerReached
+}
+
+/** Identifies the detections of the image conditions giving the same result on a frame. */
+private data class DetectionKey(
+    val path: String,
+    val detectionType: Int,
+    val area: Rect?,
+    val threshold: Int,
+) {
+    constructor(condition: ImageCondition) : this(
+        path = condition.path,
+        detectionType = condition.getBatchDetectionType(),
+        area = condition.getBatchDetectionArea(),
+        threshold = condition.threshold,
+    )
+}
+
+internal fun ImageCondition.getBatchDetectionType(): Int =
+    when (detectionType) {
+        EXACT -> BATCH_DETECTION_TYPE_EXACT
+        WHOLE_SCREEN -> BATCH_DETECTION_TYPE_WHOLE_SCREEN
+        IN_AREA -> BATCH_DETECTION_TYPE_IN_AREA
+        else -> throw IllegalArgumentException("Unexpected detection type")
+    }
+
+internal fun ImageCondition.getBatchDetectionArea(): Rect? =
+    when (detectionType) {
+        EXACT -> area
+        WHOLE_SCREEN -> null
+        IN_AREA -> detectionArea ?: throw IllegalArgumentException("Invalid IN_AREA condition, no area defined")
+        else -> throw IllegalArgumentException("Unexpected detection type")
+    }
+
+/** The condition is an [ImageCondition]. */
+internal const val CONDITION_TYPE_IMAGE = 1
+/** The condition is a [TriggerCondition.OnCounterCountReached]. */
+internal const val CONDITION_TYPE_COUNTER = 2
+/** The condition is a [TriggerCondition.OnTimerReached]. */
+internal const val CONDITION_TYPE_TIMER = 3
+/** The condition is a [TriggerCondition.OnBroadcastReceived]. */
+internal const val CONDITION_TYPE_BROADCAST = 4
@@ -18,6 +18,8 @@ package com.buzbuz.smartautoclicker.core.processing.data.processor
 
 import android.content.Context
 import android.graphics.Bitmap
+import android.graphics.Point
+import android.media.Image
 
 import com.buzbuz.smartautoclicker.core.base.AndroidExecutor
 import com.buzbuz.smartautoclicker.core.detection.ImageDetector
@@ -25,13 +27,34 @@ import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
 import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
 import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
 import com.buzbuz.smartautoclicker.core.processing.data.processor.state.ProcessingState
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.TIMER_DISABLED
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.TimersState
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.forEachEnabledImageEventSlot
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.forEachEnabledTriggerEventSlot
+import com.buzbuz.smartautoclicker.core.processing.domain.ImageProcessingStats
 import com.buzbuz.smartautoclicker.core.processing.domain.ScenarioProcessingListener
 
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeoutOrNull
 import kotlinx.coroutines.yield
 
+import java.nio.ByteBuffer
+
 /**
  * Process a screen image and tries to detect the list of [ImageEvent] on it.
  *
+ * The trigger events are processed with each screen image, and by [processTriggers] at the end of each timer. Both can
+ * be called concurrently, the processing of the scenario is serialized by a mutex.
+ *
+ * While all image events are disabled, the screen images are useless: [isCaptureRequired] is false and the caller can
+ * pause the capture. [processTriggers] then also processes the trigger events when a broadcast is received or a counter
+ * changes, until an image event is enabled again.
+ *
  * @param imageDetector the detector for images.
  * @param detectionQuality the quality of the detection.
  * @param randomize true to randomize the actions values a bit to avoid being taken for a bot.
@@ -40,6 +63,18 @@ import kotlinx.coroutines.yield
  * @param androidExecutor execute the actions requiring an interaction with Android..
  * @param onStopRequested called when a end condition of the scenario have been reached or all events are disabled.
  * @param progressListener the object to notify for detection progress. Can be null if not required.
+ * @param batchDetection true to detect all image conditions of an event with a single call to the detector. As the
+ *                       conditions progress can't be notified in this mode, it is ignored if [progressListener] is set.
+ * @param parallelDetection true to detect the image conditions of all events with a single call to the detector, letting
+ *                          it match them in parallel. The events are still checked in priority order. As for
+ *                          [batchDetection], it is ignored if [progressListener] is set.
+ * @param skipUnchangedFrames true to reuse the image events results of the previous frame when the detector reports the
+ *                            screen as unchanged. Trigger events are still processed for each frame.
+ * @param adaptiveConditionsOrder true to verify first the cheapest and most decisive conditions of the image events, when
+ *                                their order doesn't change the actions. As the debug report shows the conditions in
+ *                                the event order, it is ignored if [progressListener] is set.
+ * @param currentTimeMs provides the current time of the timers, in milliseconds. The coroutines delays must follow the
+ *                      same time: it is replaced by the virtual time of the test dispatcher in the tests.
  */
 internal class ScenarioProcessor(
     private val processingTag: String,
@@ -52,29 +87,163 @@ internal class ScenarioProcessor(
     androidExecutor: AndroidExecutor,
     private val onStopRequested: () -> Unit,
     private val progressListener: ScenarioProcessingListener? = null,
+    batchDetection: Boolean = false,
+    parallelDetection: Boolean = false,
+    private val skipUnchangedFrames: Boolean = false,
+    adaptiveConditionsOrder: Boolean = false,
+    private val currentTimeMs: () -> Long = System::currentTimeMillis,
 ) {
 
+    /** The scenario compiled into flat arrays, walked for each frame with the events, conditions and actions slots. */
+    private val plan: ScenarioPlan = ScenarioPlan(imageEvents, triggerEvents)
     /** Handle the processing state of the scenario. */
-    private val processingState: ProcessingState = ProcessingState(imageEvents, triggerEvents)
+    private val processingState: ProcessingState =
+        ProcessingState(plan, timersState = TimersState(plan, currentTimeMs))
+    /** The image detections results of the current frame, shared between all events. */
+    private val detectionMemo: DetectionMemo = DetectionMemo(plan.detectionCount)
     /** Check conditions and tell if they are fulfilled. */
-    private val conditionsVerifier = ConditionsVerifier(processingState, imageDetector, bitmapSupplier, progressListener)
+    private val conditionsVerifier = ConditionsVerifier(
+        plan = plan,
+        state = processingState,
+        imageDetector = imageDetector,
+        bitmapSupplier = bitmapSupplier,
+        progressListener = progressListener,
+        adaptiveConditionsOrder = adaptiveConditionsOrder && progressListener == null,
+        detectionMemo = detectionMemo,
+        currentTimeMs = currentTimeMs,
+    )
     /** Execute the detected event actions. */
-    private val actionExecutor = ActionExecutor(androidExecutor, processingState, randomize)
+    private val actionExecutor =
+        ActionExecutor(androidExecutor, processingState, plan, randomize, conditionsVerifier::detectAllOccurrences)
+
+    /** Tells if the image conditions of an event should be verified with a single detection. */
+    private val useBatchDetection: Boolean = batchDetection && progressListener == null
+    /** Tells if the image conditions of all events should be verified with a single parallel detection. */
+    private val useParallelDetection: Boolean = parallelDetection && progressListener == null
 
     /** Tells if the screen metrics have been invalidated and should be updated. */
     private var invalidateScreenMetrics = true
 
+    /** Ensure the screen images and the timers are not processed at the same time. */
+    private val processingMutex: Mutex = Mutex()
+    /** Notified when the next timer end, a broadcast, a counter or the image events state changes. */
+    private val triggersStateChanged: Channel<Unit> = Channel(Channel.CONFLATED)
+
+    private val _isCaptureRequired: MutableStateFlow<Boolean> = MutableStateFlow(true)
+    /** False while all image events are disabled, the screen images are not used by the processing. */
+    val isCaptureRequired: StateFlow<Boolean> = _isCaptureRequired
+
+    /**
+     * The results of the image events verified on the last changed frame, by event slot.
+     * Only filled if [skipUnchangedFrames] is true, and only valid if [lastImageEventsResultsValid] is true for the slot.
+     */
+    private val lastImageEventsResults: Array<ConditionsResult?> = arrayOfNulls(plan.imageEventCount)
+    private val lastImageEventsResultsValid: BooleanArray = BooleanArray(plan.imageEventCount)
+    /** The results of the conditions of the event fulfilled by the last call to [processTriggerEvents] or [processImageEvents]. */
+    private var fulfilledEventResults: ConditionsResult? = null
+    /** The number of frames for which the image events results of the previous frame have been reused. */
+    private var skippedFrameCount: Long = 0
+
+    /** The number of frames notified via [onFrameLatency]. */
+    private var frameCount: Long = 0
+    /** The sum of all frames latencies, in nanoseconds. */
+    private var totalFrameLatencyNs: Long = 0
+    /** The minimum frame latency, in nanoseconds. */
+    private var minFrameLatencyNs: Long = Long.MAX_VALUE
+    /** The maximum frame latency, in nanoseconds. */
+    private var maxFrameLatencyNs: Long = 0
+
     fun onScenarioStart(context: Context) {
+        processingState.apply {
+            setNextTimerEndListener { triggersStateChanged.trySend(Unit) }
+            setBroadcastReceivedListener { triggersStateChanged.trySend(Unit) }
+            setCounterChangedListener { triggersStateChanged.trySend(Unit) }
+            setImageEventsStateListener { areAllDisabled ->
+                _isCaptureRequired.value = !areAllDisabled
+                triggersStateChanged.trySend(Unit)
+            }
+        }
+        _isCaptureRequired.value = !processingState.areAllImageEventsDisabled()
         processingState.onProcessingStarted(context)
+
+        // Process the trigger events once at start, they might not wait for any change
+        triggersStateChanged.trySend(Unit)
     }
 
-    fun onScenarioEnd() {
+    suspend fun onScenarioEnd() {
         processingState.onProcessingStopped()
+        progressListener?.onImageProcessingStats(getImageProcessingStats())
+        imageDetector.clearConditionsCache()
+    }
+
+    /**
+     * Notify the delay between the availability of a new frame and the start of its processing.
+     * Called before each frame processing by the caller waiting for the frames.
+     *
+     * @param latencyNs the latency of the frame, in nanoseconds.
+     */
+    fun onFrameLatency(latencyNs: Long) {
+        frameCount++
+        totalFrameLatencyNs += latencyNs
+        if (latencyNs < minFrameLatencyNs) minFrameLatencyNs = latencyNs
+        if (latencyNs > maxFrameLatencyNs) maxFrameLatencyNs = latencyNs
+    }
+
+    /**
+     * Process the trigger events at the end of each timer, without waiting for the next screen image.
+     * While [isCaptureRequired] is false, they are also processed after each broadcast reception or counter change, at
+     * most once per [TRIGGERS_PROCESSING_MIN_INTERVAL_MS].
+     *
+     * Suspends until cancelled, or until the scenario stops itself. It must be called in its own coroutine.
+     */
+    suspend fun processTriggers() {
+        var lastProcessingMs = 0L
+        while (true) {
+            val nextTimerEndMs = processingMutex.withLock { processingState.getNextTimerEndMs() }
+
+            // A timer is reached once the current time is after its end
+            val timerDelayMs =
+                if (nextTimerEndMs == TIMER_DISABLED) Long.MAX_VALUE
+                else nextTimerEndMs + 1 - currentTimeMs()
+            val isTimerReached = timerDelayMs <= 0 ||
+                    withTimeoutOrNull(timerDelayMs) { triggersStateChanged.receive() } == null
+
+            // The screen images processing handles the other changes, unless the capture is paused
+            if (!isTimerReached && _isCaptureRequired.value) continue
+
+            // Counters changed by the actions can trigger the events again, keep the frames rate at most
+            val throttleMs = lastProcessingMs + TRIGGERS_PROCESSING_MIN_INTERVAL_MS - currentTimeMs()
+            if (throttleMs > 0) delay(throttleMs)
+            lastProcessingMs = currentTimeMs()
+
+            val isStopped = processingMutex.withLock {
+                if (!processingState.areAllEventsDisabled()) {
+                    processTriggerEventsActions()
+                    // No screen image will reset the received broadcasts
+                    if (processingState.areAllImageEventsDisabled()) processingState.clearIterationState()
+                }
+
+                // The actions can disable all events, and no change notification will come if the capture is paused
+                processingState.areAllEventsDisabled()
+            }
+            if (isStopped) {
+                onStopRequested()
+                return
+            }
+
+            // The timer is still running if the other conditions of its event are not fulfilled. Nothing will change
+            // until the next change notification.
+            if (isTimerReached && processingMutex.withLock { processingState.getNextTimerEndMs() } == nextTimerEndMs) {
+                triggersStateChanged.receive()
+            }
+        }
     }
 
     /** Drop all current cache related to screen metrics. */
     fun invalidateScreenMetrics() {
         invalidateScreenMetrics = true
+        lastImageEventsResultsValid.fill(false)
+        detectionMemo.clear()
     }
 
     /**
@@ -84,74 +253,247 @@ internal class ScenarioProcessor(
      *
      * @return the first Event with all conditions fulfilled, or null if none has been found.
      */
-    suspend fun process(screenFrame: Bitmap) {
+    suspend fun process(screenFrame: Bitmap): ImageEvent? = processScreen { detectImageEvents ->
+        detectImageEvents { metricsInvalidated ->
+            if (metricsInvalidated) imageDetector.setScreenMetrics(processingTag, screenFrame, detectionQuality.toDouble())
+            imageDetector.setupDetection(screenFrame)
+        }
+    }
+
+    /**
+     * Find an event with the conditions fulfilled on the latest screen image.
+     *
+     * The detector reads the pixels directly from the image plane, but only during the detection: the image can be closed
+     * once the block provided to [useLatestImage] returns, before the actions of the fulfilled event are executed.
+     *
+     * @param screenSize the size of the screen. The detection results positions are in this coordinates space.
+     * @param useLatestImage executes the provided block with the latest screen image, in RGBA_8888. The image can be
+     *                       smaller than the screen. The block is not executed if there is no image.
+     *
+     * @return the first Event with all conditions fulfilled, or null if none has been found.
+     */
+    suspend fun process(screenSize: Point, useLatestImage: suspend (block: suspend (Image) -> Unit) -> Unit): ImageEvent? =
+        processScreen { detectImageEvents ->
+            useLatestImage { screenImage ->
+                val plane = screenImage.planes[0]
+                detectImageEvents { metricsInvalidated ->
+                    setupScreenBuffer(plane.buffer, screenImage.width, screenImage.height, plane.rowStride, screenSize,
+                        metricsInvalidated)
+                }
+            }
+        }
+
+    /**
+     * Find an event with the conditions fulfilled on the current screen pixels.
+     * The detector reads the pixels directly from the buffer, it must not be modified before the end of this method.
+     *
+     * @param screenBuffer a direct buffer containing the current screen display, in RGBA_8888.
+     * @param width the width of the screen image. Can be smaller than the screen.
+     * @param height the height of the screen image. Can be smaller than the screen.
+     * @param rowStride the number of bytes between the start of two rows in the buffer.
+     * @param screenSize the size of the screen. The detection results positions are in this coordinates space.
+     *
+     * @return the first Event with all conditions fulfilled, or null if none has been found.
+     */
+    suspend fun process(screenBuffer: ByteBuffer, width: Int, height: Int, rowStride: Int, screenSize: Point): ImageEvent? =
+        processScreen { detectImageEvents ->
+            detectImageEvents { metricsInvalidated ->
+                setupScreenBuffer(screenBuffer, width, height, rowStride, screenSize, metricsInvalidated)
+            }
+        }
+
+    private fun setupScreenBuffer(
+        screenBuffer: ByteBuffer,
+        width: Int,
+        height: Int,
+        rowStride: Int,
+        screenSize: Point,
+        metricsInvalidated: Boolean,
+    ) {
+        if (metricsInvalidated) imageDetector.setScreenMetrics(
+            processingTag, screenBuffer, width, height, rowStride, screenSize, detectionQuality.toDouble(),
+        )
+        imageDetector.setupDetection(screenBuffer, width, height, rowStride)
+    }
+
+    /**
+     * Process the current screen content.
+     *
+     * @param useScreen provides the screen content to the detection of the image events. Its parameter must be called
+     *                  with a method setting the current screen content in the detector, itself called with true if
+     *                  the screen metrics must be updated as well. The detector releases the screen content before the
+     *                  detection method returns, and the actions are executed after [useScreen] returns.
+     *
+     * @return the image event executed on this screen content, if any.
+     */
+    private suspend fun processScreen(
+        useScreen: suspend (detectImageEvents: suspend (setupScreen: (Boolean) -> Unit) -> Unit) -> Unit,
+    ): ImageEvent? = processingMutex.withLock {
         // No more events enabled, there is nothing more to do. Stop the detection.
         if (processingState.areAllEventsDisabled()) {
             onStopRequested()
-            return
+            return null
         }
 
         // Handle all trigger events enabled during previous processing
-        if (!processingState.areAllTriggerEventsDisabled()) {
-            processTriggerEvents(processingState.getEnabledTriggerEvents())?.let { (triggerEvent, results) ->
-                actionExecutor.executeActions(triggerEvent, results)
-            }
-        }
+        processTriggerEventsActions()
 
         // Reset any values that needs to be reset for each iteration
         // After the triggers to let them handle changes, before the image processing to start capturing values before
         processingState.clearIterationState()
 
         // Handle the image detection
+        var executedImageEvent: ImageEvent? = null
         progressListener?.onImageEventsProcessingStarted()
         if (!processingState.areAllImageEventsDisabled()) {
-            processImageEvents(screenFrame, processingState.getEnabledImageEvents())?.let { (imageEvent, results) ->
-                actionExecutor.executeActions(imageEvent, results)
+            var imageEventSlot = -1
+            useScreen { setupScreen ->
+                try {
+                    imageEventSlot = processImageEvents(setupScreen)
+                    // The clicks on all occurrences need the screen content, detect them before releasing it
+                    if (imageEventSlot != -1) actionExecutor.detectOccurrences(imageEventSlot, fulfilledEventResults)
+                } finally {
+                    imageDetector.releaseScreenImage()
+                }
+            }
+
+            // The screen content is no longer used, the actions can take as long as they need
+            if (imageEventSlot != -1) {
+                actionExecutor.executeActions(imageEventSlot, fulfilledEventResults)
+                executedImageEvent = plan.events[imageEventSlot] as ImageEvent
             }
         }
         progressListener?.onImageEventsProcessingCompleted()
 
-        return
+        executedImageEvent
+    }
+
+    private fun getImageProcessingStats(): ImageProcessingStats {
+        val localityStats = imageDetector.getLocalitySearchStats()
+        return ImageProcessingStats(
+            localitySearchCount = localityStats.searchCount,
+            localityHitCount = localityStats.hitCount,
+            localitySavedTimeMs = localityStats.savedTimeMs,
+            frameCount = frameCount,
+            avgFrameLatencyMs = if (frameCount == 0L) 0 else (totalFrameLatencyNs / frameCount).nanosToMillis(),
+            minFrameLatencyMs = if (frameCount == 0L) 0 else minFrameLatencyNs.nanosToMillis(),
+            maxFrameLatencyMs = maxFrameLatencyNs.nanosToMillis(),
+            skippedFrameCount = skippedFrameCount,
+            conditionsReuseRate = imageDetector.getResultReuseStats().mapValues { (_, stats) -> stats.reuseRate },
+            conditionsDedupeRate = detectionMemo.reuseRate,
+            reachedTimerCount = conditionsVerifier.reachedTimerCount,
+            avgTimerDelayMs = conditionsVerifier.run {
+                if (reachedTimerCount == 0L) 0 else totalTimerDelayMs / reachedTimerCount
+            },
+            maxTimerDelayMs = conditionsVerifier.maxTimerDelayMs,
+            bufferAllocationCount = imageDetector.getBufferAllocationCount(),
+        )
+    }
+
+    /** Execute the actions of the first enabled trigger event with its conditions fulfilled, if any. */
+    private suspend fun processTriggerEventsActions() {
+        if (processingState.areAllTriggerEventsDisabled()) return
+
+        val triggerEventSlot = processTriggerEvents()
+        if (triggerEventSlot != -1) actionExecutor.executeActions(triggerEventSlot, fulfilledEventResults)
     }
 
-    private suspend fun processTriggerEvents(events: Collection<TriggerEvent>): Pair<TriggerEvent, ConditionsResult>? {
-        for (triggerEvent in events) {
+    /** @return the slot of the first enabled trigger event with its conditions fulfilled, or -1 if there is none. */
+    private suspend fun processTriggerEvents(): Int {
+        processingState.forEachEnabledTriggerEventSlot { eventSlot ->
             // No conditions ? This should not happen, skip this event
-            if (triggerEvent.conditions.isEmpty()) continue
+            if (plan.getConditionStart(eventSlot) == plan.getConditionEnd(eventSlot)) return@forEachEnabledTriggerEventSlot
 
-            val results = conditionsVerifier.verifyConditions(triggerEvent.conditionOperator, triggerEvent.conditions)
-            if (results.fulfilled == true) return triggerEvent to results
+            val results = conditionsVerifier.verifyConditions(eventSlot)
+            if (results.fulfilled == true) {
+                fulfilledEventResults = results
+                return eventSlot
+            }
         }
 
-        return null
+        return -1
     }
 
-    private suspend fun processImageEvents(
-        screenFrame: Bitmap,
-        events: Collection<ImageEvent>,
-    ): Pair<ImageEvent, ConditionsResult>? {
+    /** @return the slot of the first enabled image event with its conditions fulfilled, or -1 if there is none. */
+    private suspend fun processImageEvents(setupScreen: (Boolean) -> Unit): Int {
         // Set the current screen image
-        if (invalidateScreenMetrics) {
-            imageDetector.setScreenMetrics(processingTag, screenFrame, detectionQuality.toDouble())
-            invalidateScreenMetrics = false
-        }
-        imageDetector.setupDetection(screenFrame)
+        setupScreen(invalidateScreenMetrics)
+        invalidateScreenMetrics = false
+        detectionMemo.clear()
+
+        // If the screen haven't changed, the image events results of the previous frame are still valid
+        val isScreenUnchanged = skipUnchangedFrames && !imageDetector.isScreenChanged()
+        if (isScreenUnchanged) skippedFrameCount++
+        else lastImageEventsResultsValid.fill(false)
+
+        if (useParallelDetection && !isScreenUnchanged) return processImageEventsInParallel()
 
         // Check all events
-        for (imageEvent in events) {
+        processingState.forEachEnabledImageEventSlot { eventSlot ->
             // No conditions ? This should not happen, skip this event
-            if (imageEvent.conditions.isEmpty()) continue
+            if (plan.getConditionStart(eventSlot) == plan.getConditionEnd(eventSlot)) return@forEachEnabledImageEventSlot
 
-            progressListener?.onImageEventProcessingStarted(imageEvent)
-            val results = conditionsVerifier.verifyConditions(imageEvent.conditionOperator, imageEvent.conditions)
-            progressListener?.onImageEventProcessingCompleted(imageEvent, results)
+            // An event enabled since the last changed frame have no results yet, verify it on this frame
+            val results =
+                if (isScreenUnchanged && lastImageEventsResultsValid[eventSlot]) lastImageEventsResults[eventSlot]!!
+                else verifyImageEvent(eventSlot)
 
-            if (results.fulfilled == true) return imageEvent to results
+            if (results.fulfilled == true) {
+                fulfilledEventResults = results
+                return eventSlot
+            }
 
             // Stop processing if requested
             yield()
         }
 
-        return null
+        return -1
+    }
+
+    private suspend fun verifyImageEvent(eventSlot: Int): ConditionsResult {
+        val imageEvent = plan.events[eventSlot] as ImageEvent
+
+        progressListener?.onImageEventProcessingStarted(imageEvent)
+        val results =
+            if (useBatchDetection) conditionsVerifier.verifyImageConditions(eventSlot)
+            else conditionsVerifier.verifyConditions(eventSlot)
+        progressListener?.onImageEventProcessingCompleted(imageEvent, results)
+
+        keepImageEventResults(eventSlot, results)
+        return results
+    }
+
+    /** Keep a copy of the results of an event, as the verifier reuses the same results object for each event. */
+    private fun keepImageEventResults(eventSlot: Int, results: ConditionsResult) {
+        if (!skipUnchangedFrames) return
+
+        val eventResults = lastImageEventsResults[eventSlot]
+            ?: ConditionsResult().also { lastImageEventsResults[eventSlot] = it }
+        eventResults.setFrom(results)
+        lastImageEventsResultsValid[eventSlot] = true
+    }
+
+    private suspend fun processImageEventsInParallel(): Int {
+        conditionsVerifier.detectImageEvents()
+
+        // Merge the results in priority order, the first fulfilled event wins
+        processingState.forEachEnabledImageEventSlot { eventSlot ->
+            // No conditions ? This should not happen, skip this event
+            if (plan.getConditionStart(eventSlot) == plan.getConditionEnd(eventSlot)) return@forEachEnabledImageEventSlot
+
+            val results = conditionsVerifier.getDetectedImageConditionsResults(eventSlot)
+            keepImageEventResults(eventSlot, results)
+            if (results.fulfilled == true) {
+                fulfilledEventResults = results
+                return eventSlot
+            }
+        }
+
+        return -1
     }
 }
+
+private fun Long.nanosToMillis(): Long = this / NANOS_IN_MILLIS
+private const val NANOS_IN_MILLIS = 1_000_000L
+/** Minimum delay between two processing of the trigger events by [ScenarioProcessor.processTriggers], one frame at 60fps. */
+private const val TRIGGERS_PROCESSING_MIN_INTERVAL_MS = 16L
@@ -21,61 +21,63 @@ import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
 
-import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
-import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
 
-import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicIntegerArray
 
 interface IBroadcastsState {
-    fun isBroadcastReceived(condition: TriggerCondition.OnBroadcastReceived): Boolean
+    fun isBroadcastReceived(broadcastIndex: Int): Boolean
+    /** Set the listener notified on the main thread each time a broadcast of the scenario is received. */
+    fun setBroadcastReceivedListener(listener: () -> Unit)
 }
 
+/**
+ * The reception state of the broadcasts of the scenario, by broadcast index of the [ScenarioPlan].
+ * The broadcasts are received on the main thread, the states are atomic to be read by the processing.
+ */
 internal class BroadcastsState(
-    triggerEvents: List<TriggerEvent>,
+    private val plan: ScenarioPlan,
 ): IBroadcastsState {
 
-    private val broadcastsState: ConcurrentHashMap<String, Boolean> = ConcurrentHashMap<String, Boolean>().apply {
-        triggerEvents.forEach { triggerEvent ->
-            triggerEvent.conditions.forEach { triggerCondition ->
-                if (triggerCondition is TriggerCondition.OnBroadcastReceived) {
-                    put(triggerCondition.intentAction, false)
-                }
-            }
-        }
-    }
+    private val broadcastsReceived: AtomicIntegerArray = AtomicIntegerArray(plan.broadcastCount)
 
     private val broadcastFilter: IntentFilter = IntentFilter().apply {
-        broadcastsState.keys.forEach(::addAction)
+        plan.broadcastActions.forEach(::addAction)
     }
 
     private val broadcastReceiver = object : BroadcastReceiver() {
         override fun onReceive(context: Context?, intent: Intent?) {
-            intent?.action?.let { intentAction ->
-                broadcastsState[intentAction] = true
-            }
+            val broadcastIndex = intent?.action?.let(plan::getBroadcastIndex) ?: return
+            if (broadcastIndex == -1) return
+
+            broadcastsReceived.set(broadcastIndex, 1)
+            broadcastReceivedListener?.invoke()
         }
     }
 
     private var context: Context? = null
+    private var broadcastReceivedListener: (() -> Unit)? = null
 
     fun onProcessingStarted(context: Context) {
-        if (broadcastsState.isEmpty()) return
+        if (plan.broadcastCount == 0) return
         this.context = context
         context.registerReceiver(broadcastReceiver, broadcastFilter)
     }
 
     fun onProcessingStopped() {
-        if (broadcastsState.isEmpty()) return
+        if (plan.broadcastCount == 0) return
         context?.unregisterReceiver(broadcastReceiver)
         context = null
     }
 
-    override fun isBroadcastReceived(condition: TriggerCondition.OnBroadcastReceived): Boolean =
-        broadcastsState[condition.intentAction] ?: false
+    override fun isBroadcastReceived(broadcastIndex: Int): Boolean =
+        broadcastsReceived.get(broadcastIndex) != 0
+
+    override fun setBroadcastReceivedListener(listener: () -> Unit) {
+        broadcastReceivedListener = listener
+    }
 
     fun clearReceivedBroadcast() {
-        broadcastsState.keys.forEach { key ->
-            broadcastsState[key] = false
-        }
+        for (broadcastIndex in 0 until plan.broadcastCount) broadcastsReceived.set(broadcastIndex, 0)
     }
-}
\ No newline at end of file
+}
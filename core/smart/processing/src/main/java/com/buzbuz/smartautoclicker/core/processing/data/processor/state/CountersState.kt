@@ -16,52 +16,39 @@
  */
 package com.buzbuz.smartautoclicker.core.processing.data.processor.state
 
-import com.buzbuz.smartautoclicker.core.domain.model.action.Action
-import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
-import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
-import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
 
 
 interface ICountersState {
-    fun getCounterValue(counterName: String): Int?
-    fun setCounterValue(counterName: String, value: Int)
+    fun getCounterValue(counterIndex: Int): Int
+    fun setCounterValue(counterIndex: Int, value: Int)
+    /** Set the listener notified each time the value of a counter changes. */
+    fun setCounterChangedListener(listener: () -> Unit)
 }
 
+/**
+ * The values of the counters of the scenario, by counter index of the [ScenarioPlan].
+ * If a condition listen to a counter but nothing changes it (or the opposite), the plan doesn't give it an index to
+ * avoid unnecessary processing.
+ */
 internal class CountersState(
-    imageEvents: List<ImageEvent>,
-    triggerEvent: List<TriggerEvent>,
+    plan: ScenarioPlan,
 ) : ICountersState {
 
-    /**
-     * Parse the whole event list to get all the counters name.
-     * If a condition listen to a counter but nothing (or the opposite), we skip it to avoid unnecessary processing.
-     */
-    private val counterMap: MutableMap<String, Int> = mutableMapOf<String, Int>().apply {
-        val allEvents = imageEvents + triggerEvent
-        val conditionCounterSet = mutableSetOf<String>()
+    private val counterValues: IntArray = IntArray(plan.counterCount)
+    private var counterChangedListener: (() -> Unit)? = null
 
-        allEvents.forEach { event ->
-            event.conditions.forEach { condition ->
-                if (condition is TriggerCondition.OnCounterCountReached) {
-                    conditionCounterSet.add(condition.counterName)
-                }
-            }
-        }
+    override fun getCounterValue(counterIndex: Int): Int =
+        counterValues[counterIndex]
 
-        allEvents.forEach { event ->
-            event.actions.forEach { action ->
-                if (action is Action.ChangeCounter) {
-                    if (conditionCounterSet.remove(action.counterName)) put(action.counterName, 0)
-                }
-            }
-        }
-    }
+    override fun setCounterValue(counterIndex: Int, value: Int) {
+        if (counterValues[counterIndex] == value) return
 
-    override fun getCounterValue(counterName: String): Int? =
-        counterMap[counterName]
+        counterValues[counterIndex] = value
+        counterChangedListener?.invoke()
+    }
 
-    override fun setCounterValue(counterName: String, value: Int) {
-        if (!counterMap.containsKey(counterName)) return
-        counterMap[counterName] = value
+    override fun setCounterChangedListener(listener: () -> Unit) {
+        counterChangedListener = listener
     }
-}
\ No newline at end of file
+}
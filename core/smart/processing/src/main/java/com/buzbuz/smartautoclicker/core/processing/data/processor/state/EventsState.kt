@@ -30,27 +30,57 @@ interface IEventsState {
     fun getEnabledImageEvents(): Collection<ImageEvent>
     fun getEnabledTriggerEvents(): Collection<TriggerEvent>
 
+    /** @return the slot of the first enabled image event from [fromSlot] (included), or -1 if there is none. */
+    fun getNextEnabledImageEventSlot(fromSlot: Int): Int
+    /** @return the slot of the first enabled trigger event from [fromSlot] (included), or -1 if there is none. */
+    fun getNextEnabledTriggerEventSlot(fromSlot: Int): Int
+
     fun enableAll()
     fun enableEvent(eventId: Long)
+    fun enableEventSlot(eventSlot: Int)
     fun disableAll()
     fun disableEvent(eventId: Long)
+    fun disableEventSlot(eventSlot: Int)
     fun toggleAll()
     fun toggleEvent(eventId: Long)
+    fun toggleEventSlot(eventSlot: Int)
     fun setEventStateListener(listener: EventStateListener)
 }
 
+/** Iterate on the slots of the enabled image events, in priority order. */
+internal inline fun IEventsState.forEachEnabledImageEventSlot(action: (eventSlot: Int) -> Unit) {
+    var eventSlot = getNextEnabledImageEventSlot(0)
+    while (eventSlot != -1) {
+        action(eventSlot)
+        eventSlot = getNextEnabledImageEventSlot(eventSlot + 1)
+    }
+}
+
+/** Iterate on the slots of the enabled trigger events, in priority order. */
+internal inline fun IEventsState.forEachEnabledTriggerEventSlot(action: (eventSlot: Int) -> Unit) {
+    var eventSlot = getNextEnabledTriggerEventSlot(0)
+    while (eventSlot != -1) {
+        action(eventSlot)
+        eventSlot = getNextEnabledTriggerEventSlot(eventSlot + 1)
+    }
+}
+
 interface EventStateListener {
-    fun onEventEnabled(event: Event)
-    fun onEventDisabled(event: Event)
+    fun onEventEnabled(eventSlot: Int)
+    fun onEventDisabled(eventSlot: Int)
 }
 
 /**
  * Handle the state of the scenario events.
  *
- * Maintains two maps:
- *  - the enabled events map: those are the events that will be processed.
- *  - the disabled events map: those are the events that will be skipped.
- * Handles the ToggleEvent actions and move the events between those maps accordingly.
+ * The events are identified by their slot: the image events come first, in the order of the list, followed by the
+ * trigger events, as in the ScenarioPlan.
+ *
+ * Maintains two sets of slots:
+ *  - the enabled image events: those are the image events that will be processed.
+ *  - the enabled trigger events: those are the trigger events that will be processed.
+ * Handles the ToggleEvent actions and add or remove the events from those sets accordingly. The sets are always
+ * iterated in slot order, which is the priority order of the events, whatever the order of the changes.
  */
 internal class EventsState(
     imageEvents: List<ImageEvent>,
@@ -58,9 +88,9 @@ internal class EventsState(
 ) : IEventsState {
 
     /** Monitor the state of all image events. */
-    private val imageEventList: EventList<ImageEvent> = EventList(imageEvents)
+    private val imageEventList: EventList<ImageEvent> = EventList(imageEvents, firstSlot = 0)
     /** Monitor the state of all trigger events. */
-    private val triggerEventList: EventList<TriggerEvent> = EventList(triggerEvents)
+    private val triggerEventList: EventList<TriggerEvent> = EventList(triggerEvents, firstSlot = imageEvents.size)
 
     override fun setEventStateListener(listener: EventStateListener) {
         triggerEventList.eventEnabledListener = listener
@@ -79,27 +109,45 @@ internal class EventsState(
     override fun getEnabledImageEvents(): Collection<ImageEvent> =
         imageEventList.getEnabledEvents()
 
+    override fun getNextEnabledImageEventSlot(fromSlot: Int): Int =
+        imageEventList.getNextEnabledSlot(fromSlot)
+
     override fun areAllTriggerEventsDisabled(): Boolean =
         triggerEventList.areAllEventsDisabled()
 
     override fun getEnabledTriggerEvents(): Collection<TriggerEvent> =
         triggerEventList.getEnabledEvents()
 
+    override fun getNextEnabledTriggerEventSlot(fromSlot: Int): Int =
+        triggerEventList.getNextEnabledSlot(fromSlot)
+
     override fun enableEvent(eventId: Long) {
         imageEventList.enableEvent(eventId)
         triggerEventList.enableEvent(eventId)
     }
 
+    override fun enableEventSlot(eventSlot: Int) {
+        getEventList(eventSlot).enableSlot(eventSlot)
+    }
+
     override fun disableEvent(eventId: Long) {
         imageEventList.disableEvent(eventId)
         triggerEventList.disableEvent(eventId)
     }
 
+    override fun disableEventSlot(eventSlot: Int) {
+        getEventList(eventSlot).disableSlot(eventSlot)
+    }
+
     override fun toggleEvent(eventId: Long) {
         imageEventList.toggleEvent(eventId)
         triggerEventList.toggleEvent(eventId)
     }
 
+    override fun toggleEventSlot(eventSlot: Int) {
+        getEventList(eventSlot).toggleSlot(eventSlot)
+    }
+
     override fun enableAll() {
         imageEventList.enableAll()
         triggerEventList.enableAll()
@@ -114,61 +162,173 @@ internal class EventsState(
         imageEventList.toggleAll()
         triggerEventList.toggleAll()
     }
+
+    private fun getEventList(eventSlot: Int): EventList<*> =
+        if (triggerEventList.containsSlot(eventSlot)) triggerEventList else imageEventList
 }
 
-private class EventList<T : Event>(events: List<T>) {
+/**
+ * The state of a list of events, each one identified by its slot.
+ *
+ * The enabled events are kept in a bitset, one bit per event in the list order. Changing the state of an event is a
+ * single bit operation, the bulk operations are done a word at a time, and the iteration follows the list order.
+ *
+ * @param events the events of the list.
+ * @param firstSlot the slot of the first event of the list.
+ */
+private class EventList<T : Event>(
+    private val events: List<T>,
+    private val firstSlot: Int,
+) {
+
+    /** The enabled state of each event, by index in [events]. Bits after the last event are never set. */
+    private val enabledBits: LongArray = LongArray((events.size + WORD_MASK) ushr WORD_SHIFT)
+    /** The number of enabled events. */
+    private var enabledCount: Int = 0
+
+    /** Index in [events] of the event with an identifier, for the calls using the identifiers. */
+    private val eventIndexesById: Map<Long, Int> = buildMap {
+        events.forEachIndexed { index, event -> getOrPut(event.getValidId()) { index } }
+    }
+
+    var eventEnabledListener: EventStateListener? = null
 
-    /** Set of enabled events ids. */
-    private val enabledEventsMap: MutableMap<Long, T> = mutableMapOf()
-    /** Map of the all events. */
-    private val eventsMap: Map<Long, T> = buildMap {
-        events.forEach { event ->
-            if (event.enabledOnStart) enabledEventsMap[event.getValidId()] = event
-            put(event.getValidId(), event)
+    init {
+        events.forEachIndexed { index, event ->
+            if (event.enabledOnStart) {
+                setBit(index)
+                enabledCount++
+            }
         }
     }
 
-    var eventEnabledListener: EventStateListener? = null
+    fun containsSlot(eventSlot: Int): Boolean =
+        eventSlot >= firstSlot && eventSlot < firstSlot + events.size
 
     fun isEventEnabled(eventDbId: Long): Boolean =
-        enabledEventsMap.containsKey(eventDbId)
+        eventIndexesById[eventDbId]?.let(::isBitSet) ?: false
 
     fun areAllEventsDisabled(): Boolean =
-        enabledEventsMap.isEmpty()
+        enabledCount == 0
+
+    fun getNextEnabledSlot(fromSlot: Int): Int {
+        val fromIndex = maxOf(fromSlot - firstSlot, 0)
+        if (fromIndex >= events.size) return -1
+
+        var wordIndex = fromIndex ushr WORD_SHIFT
+        // Ignore the bits before fromIndex in its word
+        var word = enabledBits[wordIndex] and (-1L shl fromIndex)
+        while (word == 0L) {
+            if (++wordIndex == enabledBits.size) return -1
+            word = enabledBits[wordIndex]
+        }
 
-    fun getEnabledEvents(): Collection<T> =
-        enabledEventsMap.values
+        return firstSlot + (wordIndex shl WORD_SHIFT) + word.countTrailingZeroBits()
+    }
+
+    fun getEnabledEvents(): Collection<T> = buildList(enabledCount) {
+        var slot = getNextEnabledSlot(firstSlot)
+        while (slot != -1) {
+            add(events[slot - firstSlot])
+            slot = getNextEnabledSlot(slot + 1)
+        }
+    }
 
     fun enableEvent(eventId: Long) {
-        if (enabledEventsMap.containsKey(eventId)) return
-        val event = eventsMap[eventId] ?: return
+        val index = eventIndexesById[eventId] ?: return
+        enableSlot(firstSlot + index)
+    }
+
+    fun enableSlot(eventSlot: Int) {
+        val index = eventSlot - firstSlot
+        if (isBitSet(index)) return
 
-        enabledEventsMap[eventId] = event
-        eventEnabledListener?.onEventEnabled(event)
+        setBit(index)
+        enabledCount++
+        eventEnabledListener?.onEventEnabled(eventSlot)
     }
 
     fun disableEvent(eventId: Long) {
-        if (!enabledEventsMap.containsKey(eventId)) return
-        val event = eventsMap[eventId] ?: return
+        val index = eventIndexesById[eventId] ?: return
+        disableSlot(firstSlot + index)
+    }
+
+    fun disableSlot(eventSlot: Int) {
+        val index = eventSlot - firstSlot
+        if (!isBitSet(index)) return
 
-        enabledEventsMap.remove(eventId)
-        eventEnabledListener?.onEventDisabled(event)
+        enabledBits[index ushr WORD_SHIFT] = enabledBits[index ushr WORD_SHIFT] and (1L shl index).inv()
+        enabledCount--
+        eventEnabledListener?.onEventDisabled(eventSlot)
     }
 
     fun toggleEvent(eventId: Long) {
-        if (enabledEventsMap.containsKey(eventId)) disableEvent(eventId)
-        else enableEvent(eventId)
+        val index = eventIndexesById[eventId] ?: return
+        toggleSlot(firstSlot + index)
+    }
+
+    fun toggleSlot(eventSlot: Int) {
+        if (isBitSet(eventSlot - firstSlot)) disableSlot(eventSlot)
+        else enableSlot(eventSlot)
     }
 
     fun enableAll() {
-        eventsMap.keys.forEach(::enableEvent)
+        updateAllWords { _, wordMask -> wordMask }
     }
 
     fun disableAll() {
-        eventsMap.keys.forEach(::disableEvent)
+        updateAllWords { _, _ -> 0L }
     }
 
     fun toggleAll() {
-        eventsMap.keys.forEach(::toggleEvent)
+        updateAllWords { word, wordMask -> word.inv() and wordMask }
+    }
+
+    /**
+     * Replace each word of the bitset with the result of [update] and notify the listener for the changed events.
+     * [update] is called with the current word and the mask of the bits used by the events in this word.
+     */
+    private inline fun updateAllWords(update: (word: Long, wordMask: Long) -> Long) {
+        for (wordIndex in enabledBits.indices) {
+            val oldWord = enabledBits[wordIndex]
+            val newWord = update(oldWord, getWordMask(wordIndex))
+            enabledBits[wordIndex] = newWord
+            // Updated before the notifications, the listener can read the count
+            enabledCount += newWord.countOneBits() - oldWord.countOneBits()
+
+            notifyChanges(wordIndex, oldWord, newWord)
+        }
+    }
+
+    private fun notifyChanges(wordIndex: Int, oldWord: Long, newWord: Long) {
+        val listener = eventEnabledListener ?: return
+
+        var changes = oldWord xor newWord
+        while (changes != 0L) {
+            val bit = changes.countTrailingZeroBits()
+            val eventSlot = firstSlot + (wordIndex shl WORD_SHIFT) + bit
+            if (newWord and (1L shl bit) != 0L) listener.onEventEnabled(eventSlot)
+            else listener.onEventDisabled(eventSlot)
+
+            // Clear the lowest set bit
+            changes = changes and (changes - 1)
+        }
+    }
+
+    private fun getWordMask(wordIndex: Int): Long {
+        val usedBits = events.size - (wordIndex shl WORD_SHIFT)
+        return if (usedBits >= Long.SIZE_BITS) -1L else (1L shl usedBits) - 1
+    }
+
+    private fun isBitSet(index: Int): Boolean =
+        enabledBits[index ushr WORD_SHIFT] and (1L shl index) != 0L
+
+    private fun setBit(index: Int) {
+        enabledBits[index ushr WORD_SHIFT] = enabledBits[index ushr WORD_SHIFT] or (1L shl index)
     }
 }
+
+/** Shift converting an event index into the index of its word in the bitset. */
+private const val WORD_SHIFT = 6
+/** Mask giving the index of the bit of an event in its word. */
+private const val WORD_MASK = Long.SIZE_BITS - 1
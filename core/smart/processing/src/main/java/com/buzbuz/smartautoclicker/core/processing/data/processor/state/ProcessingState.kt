@@ -17,25 +17,27 @@
 package com.buzbuz.smartautoclicker.core.processing.data.processor.state
 
 import android.content.Context
-import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
-import com.buzbuz.smartautoclicker.core.domain.model.event.Event
 
-import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
-import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
+import com.buzbuz.smartautoclicker.core.processing.data.processor.CONDITION_TYPE_TIMER
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
 
 internal class ProcessingState(
-    imageEvents: List<ImageEvent>,
-    triggerEvents: List<TriggerEvent>,
-    private val eventsState: EventsState = EventsState(imageEvents, triggerEvents),
-    private val broadcastsState: BroadcastsState = BroadcastsState(triggerEvents),
-    private val countersState: CountersState = CountersState(imageEvents, triggerEvents),
-    private val timersState: TimersState = TimersState(triggerEvents),
+    private val plan: ScenarioPlan,
+    private val eventsState: EventsState = EventsState(plan.imageEvents, plan.triggerEvents),
+    private val broadcastsState: BroadcastsState = BroadcastsState(plan),
+    private val countersState: CountersState = CountersState(plan),
+    private val timersState: TimersState = TimersState(plan),
 ) : IBroadcastsState by broadcastsState, ICountersState by countersState, ITimersState by timersState, IEventsState by eventsState {
 
+    /** Notified when the first image event is enabled, or the last one is disabled. */
+    private var imageEventsStateListener: ((areAllDisabled: Boolean) -> Unit)? = null
+    /** The value of [areAllImageEventsDisabled] last notified to the [imageEventsStateListener]. */
+    private var notifiedAllImageEventsDisabled: Boolean = eventsState.areAllImageEventsDisabled()
+
     init {
         eventsState.setEventStateListener(object : EventStateListener {
-            override fun onEventEnabled(event: Event): Unit = this@ProcessingState.onEventEnabled(event)
-            override fun onEventDisabled(event: Event): Unit = this@ProcessingState.onEventDisabled(event)
+            override fun onEventEnabled(eventSlot: Int): Unit = this@ProcessingState.onEventEnabled(eventSlot)
+            override fun onEventDisabled(eventSlot: Int): Unit = this@ProcessingState.onEventDisabled(eventSlot)
         })
     }
 
@@ -53,15 +55,34 @@ internal class ProcessingState(
         broadcastsState.clearReceivedBroadcast()
     }
 
-    private fun onEventEnabled(event: Event) {
-        event.conditions.forEach { condition ->
-            if (condition is TriggerCondition.OnTimerReached) timersState.setTimerStartToNow(condition)
+    /** Set the listener notified each time the result of [areAllImageEventsDisabled] changes. */
+    fun setImageEventsStateListener(listener: (areAllDisabled: Boolean) -> Unit) {
+        imageEventsStateListener = listener
+    }
+
+    private fun onEventEnabled(eventSlot: Int) {
+        if (eventSlot < plan.imageEventCount) onImageEventStateChanged()
+
+        for (conditionSlot in plan.getConditionStart(eventSlot) until plan.getConditionEnd(eventSlot)) {
+            if (plan.conditionTypes[conditionSlot] == CONDITION_TYPE_TIMER)
+                timersState.setTimerStartToNow(plan.conditionStateIndexes[conditionSlot])
         }
     }
 
-    private fun onEventDisabled(event: Event) {
-        event.conditions.forEach { condition ->
-            if (condition is TriggerCondition.OnTimerReached) timersState.setTimerToDisabled(condition.getValidId())
+    private fun onEventDisabled(eventSlot: Int) {
+        if (eventSlot < plan.imageEventCount) onImageEventStateChanged()
+
+        for (conditionSlot in plan.getConditionStart(eventSlot) until plan.getConditionEnd(eventSlot)) {
+            if (plan.conditionTypes[conditionSlot] == CONDITION_TYPE_TIMER)
+                timersState.setTimerToDisabled(plan.conditionStateIndexes[conditionSlot])
         }
     }
-}
\ No newline at end of file
+
+    private fun onImageEventStateChanged() {
+        val areAllDisabled = eventsState.areAllImageEventsDisabled()
+        if (areAllDisabled == notifiedAllImageEventsDisabled) return
+
+        notifiedAllImageEventsDisabled = areAllDisabled
+        imageEventsStateListener?.invoke(areAllDisabled)
+    }
+}
@@ -16,53 +16,149 @@
  */
 package com.buzbuz.smartautoclicker.core.processing.data.processor.state
 
-import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
-import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
 
 interface ITimersState {
 
-    fun getTimerEndMs(conditionId: Long): Long?
-    fun setTimerStartToNow(condition: TriggerCondition.OnTimerReached)
+    /** @return the end time of the timer, or [TIMER_DISABLED] if it is not running. */
+    fun getTimerEndMs(timerIndex: Int): Long
+    /** @return the end time of the first running timer to end, or [TIMER_DISABLED] if none is running. */
+    fun getNextTimerEndMs(): Long
+    fun setTimerStartToNow(timerIndex: Int)
 
-    fun setTimerToDisabled(conditionId: Long)
+    fun setTimerToDisabled(timerIndex: Int)
+    /** Set the listener notified each time [getNextTimerEndMs] changes. */
+    fun setNextTimerEndListener(listener: () -> Unit)
 }
 
+/** The end time of a timer that is not running. */
+const val TIMER_DISABLED = -1L
+
+/**
+ * The end time of the timers of the scenario, by timer index of the [ScenarioPlan].
+ *
+ * The running timers are also kept in a binary min-heap ordered by end time, giving the next timer to end without
+ * iterating on all of them. Each heap entry is a timer index, and the position of each timer in the heap is kept to
+ * update it in place when it is restarted or disabled.
+ */
 internal class TimersState(
-    private val triggerEvents: List<TriggerEvent>,
+    private val plan: ScenarioPlan,
+    private val currentTimeMs: () -> Long = System::currentTimeMillis,
 ): ITimersState {
 
-    private val idToTimerEnd: MutableMap<Long, Long> = mutableMapOf()
+    private val timerEndsMs: LongArray = LongArray(plan.timerCount) { TIMER_DISABLED }
 
-    fun onProcessingStarted() {
-        val startTimeMs = System.currentTimeMillis()
+    /** The indexes of the running timers, as a min-heap on their end time. */
+    private val heap: IntArray = IntArray(plan.timerCount)
+    /** The position of each timer in the [heap], or -1 if it is not running. */
+    private val heapPositions: IntArray = IntArray(plan.timerCount) { -1 }
+    private var heapSize: Int = 0
 
-        triggerEvents.forEach { triggerEvent ->
-            if (!triggerEvent.enabledOnStart) return@forEach
+    private var nextTimerEndListener: (() -> Unit)? = null
 
-            triggerEvent.conditions.forEach { triggerCondition ->
-                if (triggerCondition is TriggerCondition.OnTimerReached) {
-                    idToTimerEnd[triggerCondition.getValidId()] = triggerCondition.getEndTimeMs(startTimeMs)
-                }
-            }
+    fun onProcessingStarted() {
+        val startTimeMs = currentTimeMs()
+
+        for (timerIndex in 0 until plan.timerCount) {
+            val eventSlot = plan.getTimerEventSlot(timerIndex)
+            if (plan.events[eventSlot].enabledOnStart) setTimerEnd(timerIndex, getEndTimeMs(timerIndex, startTimeMs))
         }
     }
 
     fun onProcessingStopped() {
-        idToTimerEnd.clear()
+        timerEndsMs.fill(TIMER_DISABLED)
+        heapPositions.fill(-1)
+        heapSize = 0
     }
 
-    override fun getTimerEndMs(conditionId: Long): Long? =
-        idToTimerEnd[conditionId]
+    override fun getTimerEndMs(timerIndex: Int): Long =
+        timerEndsMs[timerIndex]
 
-    override fun setTimerStartToNow(condition: TriggerCondition.OnTimerReached) {
-        idToTimerEnd[condition.getValidId()] = condition.getEndTimeMs(System.currentTimeMillis())
+    override fun getNextTimerEndMs(): Long =
+        if (heapSize == 0) TIMER_DISABLED else timerEndsMs[heap[0]]
+
+    override fun setTimerStartToNow(timerIndex: Int) {
+        setTimerEnd(timerIndex, getEndTimeMs(timerIndex, currentTimeMs()))
     }
 
-    override fun setTimerToDisabled(conditionId: Long) {
-        idToTimerEnd.remove(conditionId)
+    override fun setTimerToDisabled(timerIndex: Int) {
+        setTimerEnd(timerIndex, TIMER_DISABLED)
     }
 
-    private fun TriggerCondition.OnTimerReached.getEndTimeMs(startTimeMs: Long): Long =
-        if (Long.MAX_VALUE - durationMs < startTimeMs) Long.MAX_VALUE
+    override fun setNextTimerEndListener(listener: () -> Unit) {
+        nextTimerEndListener = listener
+    }
+
+    private fun getEndTimeMs(timerIndex: Int, startTimeMs: Long): Long {
+        val durationMs = plan.getTimerCondition(timerIndex).durationMs
+
+        return if (Long.MAX_VALUE - durationMs < startTimeMs) Long.MAX_VALUE
         else startTimeMs + durationMs
-}
\ No newline at end of file
+    }
+
+    private fun setTimerEnd(timerIndex: Int, endMs: Long) {
+        val previousNextEndMs = getNextTimerEndMs()
+        timerEndsMs[timerIndex] = endMs
+
+        val position = heapPositions[timerIndex]
+        when {
+            endMs == TIMER_DISABLED -> if (position != -1) removeFromHeap(position)
+            position == -1 -> {
+                heap[heapSize] = timerIndex
+                heapPositions[timerIndex] = heapSize
+                heapSize++
+                siftUp(heapSize - 1)
+            }
+            else -> siftDown(siftUp(position))
+        }
+
+        if (getNextTimerEndMs() != previousNextEndMs) nextTimerEndListener?.invoke()
+    }
+
+    private fun removeFromHeap(position: Int) {
+        heapPositions[heap[position]] = -1
+        heapSize--
+        if (position == heapSize) return
+
+        // Move the last timer in the hole, it can go in both directions
+        moveInHeap(heap[heapSize], position)
+        siftDown(siftUp(position))
+    }
+
+    /** @return the final position of the timer. */
+    private fun siftUp(startPosition: Int): Int {
+        val timerIndex = heap[startPosition]
+        var position = startPosition
+        while (position > 0) {
+            val parent = (position - 1) / 2
+            if (timerEndsMs[heap[parent]] <= timerEndsMs[timerIndex]) break
+
+            moveInHeap(heap[parent], position)
+            position = parent
+        }
+
+        moveInHeap(timerIndex, position)
+        return position
+    }
+
+    private fun siftDown(startPosition: Int) {
+        val timerIndex = heap[startPosition]
+        var position = startPosition
+        while (true) {
+            var child = position * 2 + 1
+            if (child >= heapSize) break
+            if (child + 1 < heapSize && timerEndsMs[heap[child + 1]] < timerEndsMs[heap[child]]) child++
+            if (timerEndsMs[timerIndex] <= timerEndsMs[heap[child]]) break
+
+            moveInHeap(heap[child], position)
+            position = child
+        }
+
+        moveInHeap(timerIndex, position)
+    }
+
+    private fun moveInHeap(timerIndex: Int, position: Int) {
+        heap[position] = timerIndex
+        heapPositions[timerIndex] = position
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data.replay
+
+import android.util.Log
+
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ThreadFactory
+
+/**
+ * Records the processed screen frames into a frame sequence file, readable with [FrameSequenceReader].
+ *
+ * Each frame is written in gray levels, at the resolution of the captured image, which is already scaled down to the
+ * detection quality by the display recorder. If [recordColor] is true, the RGBA frame is written as well, before its
+ * gray version, allowing to replay the sequence with a [ScenarioReplayer].
+ *
+ * The caller only copies the recorded pixels into a free slot of a bounded ring: the RGBA frame if [recordColor] is
+ * true, or its gray version otherwise. The other conversions and the file writes are done on a dedicated thread. If the
+ * writer is late and no slot is free, the frame is dropped instead of waiting.
+ *
+ * The recording stops by itself once the file reaches [maxFileSize].
+ *
+ * @param file the file to append the frames to.
+ * @param screenWidth the width of the screen the frames are captured on.
+ * @param screenHeight the height of the screen the frames are captured on.
+ * @param recordColor true to record the RGBA frames as well as the gray ones.
+ * @param ringSize the maximum number of frames waiting to be written.
+ * @param maxFileSize the size of the file, in bytes, stopping the recording once reached.
+ * @param threadFactory creates the thread writing the frames.
+ */
+class FrameRecorder(
+    private val file: File,
+    private val screenWidth: Int,
+    private val screenHeight: Int,
+    private val recordColor: Boolean,
+    ringSize: Int = DEFAULT_RING_SIZE,
+    private val maxFileSize: Long = DEFAULT_MAX_FILE_SIZE,
+    threadFactory: ThreadFactory = ThreadFactory { runnable -> Thread(runnable, WRITER_THREAD_NAME) },
+) : AutoCloseable {
+
+    /** The slots ready to receive a frame. */
+    private val freeSlots = ArrayBlockingQueue<FrameSlot>(ringSize)
+    /** The slots containing a frame to be written, followed by [endOfRecording] once closed. */
+    private val pendingSlots = ArrayBlockingQueue<FrameSlot>(ringSize + 1)
+    /** Marker slot stopping the writer thread. */
+    private val endOfRecording = FrameSlot()
+
+    /** Thread converting and writing the frames. */
+    private val writerThread = threadFactory.newThread(::writeFrames)
+
+    @Volatile private var isClosed: Boolean = false
+
+    /** The number of frames dropped because the writer was late. */
+    @Volatile var droppedFrameCount: Long = 0
+        private set
+
+    init {
+        if (ringSize < 1) throw IllegalArgumentException("Invalid ring size $ringSize")
+
+        repeat(ringSize) { freeSlots.add(FrameSlot()) }
+        writerThread.start()
+    }
+
+    /**
+     * Record a new frame. Never blocks on the file writes.
+     *
+     * @param timestampNs the time of the capture of the frame, in nanoseconds.
+     * @param pixels the pixels of the frame, in RGBA_8888, from position 0 to its limit. Its position is not modified.
+     * @param width the width of the frame, in pixels.
+     * @param height the height of the frame, in pixels.
+     * @param rowStride the number of bytes between the start of two rows in [pixels].
+     *
+     * @return true if the frame will be written, false if it has been dropped.
+     */
+    fun onFrame(timestampNs: Long, pixels: ByteBuffer, width: Int, height: Int, rowStride: Int): Boolean {
+        if (isClosed) return false
+
+        val slot = freeSlots.poll()
+        if (slot == null) {
+            droppedFrameCount++
+            return false
+        }
+
+        if (recordColor) slot.setFrame(timestampNs, pixels, width, height, rowStride)
+        else slot.setGrayFrame(timestampNs, pixels, width, height, rowStride)
+        pendingSlots.add(slot)
+        return true
+    }
+
+    /** Stop the recording. The frames already recorded are written in the file before it is closed. */
+    override fun close() {
+        if (isClosed) return
+
+        isClosed = true
+        pendingSlots.add(endOfRecording)
+        Log.i(TAG, "Frame recording stopped, $droppedFrameCount frames dropped")
+    }
+
+    /**
+     * Wait for the end of the writes of the frames. Must be called after [close], or once the file is full.
+     *
+     * @param timeoutMs the maximum time to wait, in milliseconds. 0 to wait forever.
+     * @return true if the writes are over, false if the timeout have been reached.
+     */
+    fun awaitTermination(timeoutMs: Long = 0): Boolean {
+        writerThread.join(timeoutMs)
+        return !writerThread.isAlive
+    }
+
+    private fun writeFrames() {
+        try {
+            FrameSequenceWriter(file, screenWidth, screenHeight).use { writer ->
+                while (true) {
+                    val slot = pendingSlots.take()
+                    if (slot === endOfRecording) break
+
+                    if (recordColor) {
+                        writer.append(slot.timestampNs, FRAME_FORMAT_RGBA_8888, slot.width, slot.height, slot.rowStride, slot.pixels)
+                        slot.gray.setFromRgba(slot.pixels, slot.width, slot.height, slot.rowStride)
+                    }
+                    writer.append(slot.timestampNs, FRAME_FORMAT_GRAY_8, slot.width, slot.height, slot.width, slot.gray.pixels)
+                    freeSlots.add(slot)
+
+                    if (writer.size >= maxFileSize) {
+                        Log.w(TAG, "Frame sequence file ${file.path} is full, recording is stopped")
+                        isClosed = true
+                        break
+                    }
+                }
+            }
+        } catch (ioEx: IOException) {
+            Log.e(TAG, "Can't write frames in ${file.path}, recording is stopped", ioEx)
+            isClosed = true
+        } catch (iEx: InterruptedException) {
+            Log.w(TAG, "Frame recording interrupted", iEx)
+        }
+    }
+}
+
+/**
+ * A frame of the ring. Its buffers only grow, in order to be reused for all frames.
+ * The RGBA [pixels] are only copied when the colors are recorded, and converted into [gray] by the writer. Otherwise,
+ * [gray] is set directly from the frame.
+ */
+private class FrameSlot {
+
+    var timestampNs: Long = 0
+    var width: Int = 0
+    var height: Int = 0
+    var rowStride: Int = 0
+    var pixels: ByteBuffer = ByteBuffer.allocateDirect(0)
+    val gray: GrayBuffer = GrayBuffer()
+
+    /** Copy the RGBA pixels of a frame. */
+    fun setFrame(timestampNs: Long, source: ByteBuffer, width: Int, height: Int, rowStride: Int) {
+        val sourcePixels = source.duplicate().apply { position(0) }
+        if (pixels.capacity() < sourcePixels.remaining()) pixels = ByteBuffer.allocateDirect(sourcePixels.remaining())
+
+        pixels.clear()
+        pixels.put(sourcePixels)
+        pixels.flip()
+
+        setFrameInfo(timestampNs, width, height, rowStride)
+    }
+
+    /** Convert the RGBA pixels of a frame into gray, without copying them. */
+    fun setGrayFrame(timestampNs: Long, source: ByteBuffer, width: Int, height: Int, rowStride: Int) {
+        gray.setFromRgba(source, width, height, rowStride)
+        setFrameInfo(timestampNs, width, height, rowStride)
+    }
+
+    private fun setFrameInfo(timestampNs: Long, width: Int, height: Int, rowStride: Int) {
+        this.timestampNs = timestampNs
+        this.width = width
+        this.height = height
+        this.rowStride = rowStride
+    }
+}
+
+/** The gray version of a frame, with a row stride equals to its width. Its pixels buffer only grows. */
+private class GrayBuffer {
+
+    var pixels: ByteBuffer = ByteBuffer.allocateDirect(0)
+        private set
+
+    fun setFromRgba(source: ByteBuffer, width: Int, height: Int, rowStride: Int) {
+        val size = width * height
+        if (pixels.capacity() < size) pixels = ByteBuffer.allocateDirect(size)
+        pixels.clear()
+
+        // Big endian ints, the pixels are RRGGBBAA
+        val rgbaPixels = source.duplicate().order(ByteOrder.BIG_ENDIAN)
+        for (y in 0 until height) {
+            var offset = y * rowStride
+            for (x in 0 until width) {
+                val rgba = rgbaPixels.getInt(offset)
+                val red = (rgba ushr 24) and 0xFF
+                val green = (rgba ushr 16) and 0xFF
+                val blue = (rgba ushr 8) and 0xFF
+                pixels.put(((red * GRAY_RED_WEIGHT + green * GRAY_GREEN_WEIGHT + blue * GRAY_BLUE_WEIGHT) shr 8).toByte())
+                offset += Int.SIZE_BYTES
+            }
+        }
+        pixels.flip()
+    }
+}
+
+/** The default maximum number of frames waiting to be written. */
+private const val DEFAULT_RING_SIZE = 3
+/** The default size of the file stopping the recording, in bytes. */
+private const val DEFAULT_MAX_FILE_SIZE = 1024L * 1024 * 1024
+/** Weights of the color components for the gray conversion, in 1/256. */
+private const val GRAY_RED_WEIGHT = 77
+private const val GRAY_GREEN_WEIGHT = 150
+private const val GRAY_BLUE_WEIGHT = 29
+/** Name of the thread writing the frames. */
+private const val WRITER_THREAD_NAME = "FrameRecorder"
+/** Tag for logs. */
+private const val TAG = "FrameRecorder"
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data.replay
+
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+import kotlin.math.max
+import kotlin.math.min
+
+/*
+ * A frame sequence is a raw container for screen frames, made to be written in append only and read by mapping the
+ * file in memory.
+ *
+ * All values are little endian:
+ * - Header: magic (int), version (int), screen width (int), screen height (int).
+ * - Then for each frame: timestamp in nanoseconds (long), format (int), width (int), height (int), row stride (int),
+ *   pixels size in bytes (int), followed by the pixels.
+ *
+ * A frame truncated at the end of the file, because the writer have been interrupted, is ignored by the reader.
+ */
+
+/** The frame pixels are in RGBA_8888, 4 bytes per pixel. */
+const val FRAME_FORMAT_RGBA_8888 = 1
+/** The frame pixels are in gray levels, 1 byte per pixel. */
+const val FRAME_FORMAT_GRAY_8 = 2
+
+/**
+ * A frame of a [FrameSequenceReader].
+ * The pixels buffer is a view on the mapped file, only valid until the next frame is read.
+ */
+class SequenceFrame {
+
+    /** The index of this frame in the sequence. */
+    var index: Int = 0
+        internal set
+    /** The time of the capture of this frame, in nanoseconds. */
+    var timestampNs: Long = 0
+        internal set
+    /** The format of the pixels, [FRAME_FORMAT_RGBA_8888] or [FRAME_FORMAT_GRAY_8]. */
+    var format: Int = 0
+        internal set
+    var width: Int = 0
+        internal set
+    var height: Int = 0
+        internal set
+    /** The number of bytes between the start of two rows in [pixels]. */
+    var rowStride: Int = 0
+        internal set
+    /** The pixels of the frame, from position 0 to its limit. */
+    var pixels: ByteBuffer = ByteBuffer.allocate(0)
+        internal set
+}
+
+/**
+ * Reads a frame sequence file by mapping it in memory.
+ * The frames pixels are never copied, they are provided as views on the mapped file. As a sequence can be bigger than
+ * the maximum size of a mapping, the file is mapped by windows, moved forward as the frames are read.
+ *
+ * @param file the frame sequence file to read.
+ * @param mappingWindowSize the size of the part of the file mapped at once, in bytes. A frame bigger than it is mapped
+ * entirely.
+ */
+class FrameSequenceReader(
+    file: File,
+    private val mappingWindowSize: Long = MAPPING_WINDOW_SIZE,
+) : AutoCloseable {
+
+    private val channel: FileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)
+    /** The size of the file when opened. The frames appended afterward are not read. */
+    private val fileSize: Long = channel.size()
+
+    /** The part of the file currently mapped in memory. */
+    private var mappedWindow: MappedByteBuffer? = null
+    /** The position of [mappedWindow] in the file. */
+    private var mappedWindowPosition: Long = 0
+
+    /** The width of the screen the frames have been captured on. */
+    val screenWidth: Int
+    /** The height of the screen the frames have been captured on. */
+    val screenHeight: Int
+
+    init {
+        val header = mapFileRange(0, HEADER_SIZE)
+        if (header == null || header.getInt() != FRAME_SEQUENCE_MAGIC) throw IOException("Not a frame sequence file")
+        val version = header.getInt()
+        if (version != FRAME_SEQUENCE_VERSION) throw IOException("Unsupported frame sequence version $version")
+
+        screenWidth = header.getInt()
+        screenHeight = header.getInt()
+    }
+
+    /** The index of the next frame read by [readNextFrame]. */
+    private var nextFrameIndex: Int = 0
+    /** The position in the file of the next frame read by [readNextFrame]. */
+    private var nextFramePosition: Long = HEADER_SIZE.toLong()
+
+    /**
+     * Iterate on all frames of the sequence, from the first one.
+     * The same [SequenceFrame] instance is provided for each frame, and its pixels are only valid during [onFrame].
+     */
+    inline fun forEachFrame(onFrame: (SequenceFrame) -> Unit) {
+        val frame = SequenceFrame()
+        rewind()
+        while (readNextFrame(frame)) onFrame(frame)
+    }
+
+    /** Restart the reading from the first frame. */
+    fun rewind() {
+        nextFramePosition = HEADER_SIZE.toLong()
+        nextFrameIndex = 0
+    }
+
+    /**
+     * Read the next frame of the sequence into [frame].
+     * @return true if a frame have been read, false if the end of the sequence is reached.
+     */
+    fun readNextFrame(frame: SequenceFrame): Boolean {
+        val header = mapFileRange(nextFramePosition, FRAME_HEADER_SIZE) ?: return false
+
+        val timestampNs = header.getLong()
+        val format = header.getInt()
+        val width = header.getInt()
+        val height = header.getInt()
+        val rowStride = header.getInt()
+        val size = header.getInt()
+
+        val pixelsPosition = nextFramePosition + FRAME_HEADER_SIZE
+        val pixels = if (size >= 0) mapFileRange(pixelsPosition, size) else null
+        if (pixels == null) {
+            // Truncated frame, the end of the file is not valid.
+            nextFramePosition = fileSize
+            return false
+        }
+        nextFramePosition = pixelsPosition + size
+
+        frame.index = nextFrameIndex++
+        frame.timestampNs = timestampNs
+        frame.format = format
+        frame.width = width
+        frame.height = height
+        frame.rowStride = rowStride
+        frame.pixels = pixels
+        return true
+    }
+
+    override fun close() {
+        mappedWindow = null
+        channel.close()
+    }
+
+    /**
+     * Get a range of the file, mapping a new window if it is not in the current one.
+     * @return a view on the range, or null if it goes beyond the end of the file.
+     */
+    private fun mapFileRange(position: Long, size: Int): ByteBuffer? {
+        if (position + size > fileSize) return null
+
+        var window = mappedWindow
+        if (window == null || position < mappedWindowPosition ||
+            position + size > mappedWindowPosition + window.capacity()) {
+
+            val windowSize = min(max(size.toLong(), mappingWindowSize), fileSize - position)
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize)
+            mappedWindow = window
+            mappedWindowPosition = position
+        }
+
+        val offset = (position - mappedWindowPosition).toInt()
+        return window.duplicate()
+            .apply {
+                position(offset)
+                limit(offset + size)
+            }
+            .slice()
+            .order(ByteOrder.LITTLE_ENDIAN)
+    }
+}
+
+/**
+ * Appends frames to a frame sequence file.
+ * The file is created with its header if it doesn't exist, or the frames are added after the existing ones.
+ *
+ * @param file the frame sequence file to write.
+ * @param screenWidth the width of the screen the frames are captured on.
+ * @param screenHeight the height of the screen the frames are captured on.
+ */
+class FrameSequenceWriter(file: File, screenWidth: Int, screenHeight: Int) : AutoCloseable {
+
+    private val channel: FileChannel = FileChannel.open(
+        file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND,
+    )
+    /** Buffer for the headers, reused for all frames. */
+    private val headerBuffer: ByteBuffer = ByteBuffer.allocate(FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+
+    init {
+        if (channel.size() == 0L) {
+            headerBuffer.clear()
+            headerBuffer.putInt(FRAME_SEQUENCE_MAGIC)
+            headerBuffer.putInt(FRAME_SEQUENCE_VERSION)
+            headerBuffer.putInt(screenWidth)
+            headerBuffer.putInt(screenHeight)
+            headerBuffer.flip()
+            channel.writeFully(headerBuffer)
+        }
+    }
+
+    /** The size of the file, in bytes. */
+    val size: Long
+        get() = channel.size()
+
+    /**
+     * Append a frame at the end of the sequence.
+     *
+     * @param timestampNs the time of the capture of the frame, in nanoseconds.
+     * @param format the format of the pixels, [FRAME_FORMAT_RGBA_8888] or [FRAME_FORMAT_GRAY_8].
+     * @param width the width of the frame, in pixels.
+     * @param height the height of the frame, in pixels.
+     * @param rowStride the number of bytes between the start of two rows in [pixels].
+     * @param pixels the pixels of the frame, from its position to its limit. Its position is not modified.
+     */
+    fun append(timestampNs: Long, format: Int, width: Int, height: Int, rowStride: Int, pixels: ByteBuffer) {
+        val frameData = pixels.duplicate()
+
+        headerBuffer.clear()
+        headerBuffer.putLong(timestampNs)
+        headerBuffer.putInt(format)
+        headerBuffer.putInt(width)
+        headerBuffer.putInt(height)
+        headerBuffer.putInt(rowStride)
+        headerBuffer.putInt(frameData.remaining())
+        headerBuffer.flip()
+
+        channel.writeFully(headerBuffer)
+        channel.writeFully(frameData)
+    }
+
+    override fun close() {
+        channel.close()
+    }
+
+    private fun FileChannel.writeFully(buffer: ByteBuffer) {
+        while (buffer.hasRemaining()) write(buffer)
+    }
+}
+
+/** "SACF" in ASCII, identifying a frame sequence file. */
+private const val FRAME_SEQUENCE_MAGIC = 0x46434153
+private const val FRAME_SEQUENCE_VERSION = 1
+/** Size of the file header, in bytes. */
+private const val HEADER_SIZE = 16
+/** Size of the header of each frame, in bytes. */
+private const val FRAME_HEADER_SIZE = 28
+/** Default size of the part of a frame sequence file mapped at once, in bytes. */
+private const val MAPPING_WINDOW_SIZE = 64L * 1024 * 1024
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data.replay
+
+import android.accessibilityservice.GestureDescription
+import android.content.Intent
+
+import com.buzbuz.smartautoclicker.core.base.AndroidExecutor
+
+/**
+ * [AndroidExecutor] used during a replay.
+ * Nothing is executed, the gestures are recorded with the index of the frame being processed and the intents are counted.
+ */
+internal class ReplayAndroidExecutor : AndroidExecutor {
+
+    /** The index of the frame currently processed. */
+    var currentFrameIndex: Int = 0
+
+    private val _gestures: MutableList<ReplayGesture> = mutableListOf()
+    /** The gestures executed since the creation of this executor. */
+    val gestures: List<ReplayGesture> = _gestures
+
+    /** The number of activities started since the creation of this executor. */
+    var startedActivityCount: Int = 0
+        private set
+    /** The number of broadcasts sent since the creation of this executor. */
+    var sentBroadcastCount: Int = 0
+        private set
+
+    override suspend fun executeGesture(gestureDescription: GestureDescription) {
+        _gestures.add(ReplayGesture(currentFrameIndex, gestureDescription))
+    }
+
+    override fun executeStartActivity(intent: Intent) {
+        startedActivityCount++
+    }
+
+    override fun executeSendBroadcast(intent: Intent) {
+        sentBroadcastCount++
+    }
+}
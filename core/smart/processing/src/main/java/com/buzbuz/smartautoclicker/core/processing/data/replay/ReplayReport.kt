@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data.replay
+
+import android.accessibilityservice.GestureDescription
+
+/**
+ * The results of the replay of a frame sequence.
+ *
+ * @param frameCount the number of frames processed.
+ * @param processingDurationNs the total duration of the processing of all frames, in nanoseconds.
+ * @param eventsLatencies the latency of each executed image event, by event identifier.
+ * @param gestures the gestures executed during the replay, in execution order.
+ * @param startedActivityCount the number of activities started during the replay.
+ * @param sentBroadcastCount the number of broadcasts sent during the replay.
+ */
+data class ReplayReport(
+    val frameCount: Int,
+    val processingDurationNs: Long,
+    val eventsLatencies: Map<Long, EventLatency>,
+    val gestures: List<ReplayGesture>,
+    val startedActivityCount: Int,
+    val sentBroadcastCount: Int,
+) {
+
+    /** The number of frames processed per second. */
+    val framesPerSecond: Double
+        get() = if (processingDurationNs == 0L) 0.0 else frameCount * NANOS_IN_SECOND / processingDurationNs
+}
+
+/**
+ * The latency of an image event, from the start of the processing of a frame to the end of the execution of the event
+ * actions on this frame.
+ *
+ * @param count the number of frames the event has been executed on.
+ * @param avgLatencyNs the average latency, in nanoseconds.
+ * @param maxLatencyNs the maximum latency, in nanoseconds.
+ */
+data class EventLatency(
+    val count: Int,
+    val avgLatencyNs: Long,
+    val maxLatencyNs: Long,
+)
+
+/**
+ * A gesture executed during a replay.
+ *
+ * @param frameIndex the index of the frame in the sequence that has caused the gesture.
+ * @param gesture the gesture executed.
+ */
+data class ReplayGesture(
+    val frameIndex: Int,
+    val gesture: GestureDescription,
+)
+
+private const val NANOS_IN_SECOND = 1_000_000_000.0
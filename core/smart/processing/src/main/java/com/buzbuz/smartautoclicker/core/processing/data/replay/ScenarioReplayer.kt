@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data.replay
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Point
+import android.util.Log
+
+import com.buzbuz.smartautoclicker.core.detection.ImageDetector
+import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
+import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
+import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioProcessor
+
+import kotlinx.coroutines.yield
+
+/**
+ * Replays a scenario on a recorded frame sequence, without any device.
+ *
+ * The frames are provided to the [ScenarioProcessor] in their recording order, as fast as possible, and the actions
+ * are executed on a fake executor recording the gestures. This allows to measure the processing throughput of a
+ * scenario on a host, for example with the [com.buzbuz.smartautoclicker.core.detection.JvmDetector] when the native
+ * library isn't available.
+ *
+ * @param imageDetector the detector for images. It is not closed at the end of the replay.
+ * @param detectionQuality the quality of the detection.
+ * @param imageEvents the list of scenario image events.
+ * @param triggerEvents the list of scenario trigger events.
+ * @param bitmapSupplier provides the conditions bitmaps.
+ * @param batchDetection true to detect all image conditions of an event with a single call to the detector.
+ * @param parallelDetection true to detect the image conditions of all events with a single call to the detector.
+ * @param skipUnchangedFrames true to reuse the image events results of the previous frame when the screen is unchanged.
+ * @param adaptiveConditionsOrder true to reorder the conditions of the image events by measured cost and pass rate.
+ */
+class ScenarioReplayer(
+    private val imageDetector: ImageDetector,
+    private val detectionQuality: Int,
+    private val imageEvents: List<ImageEvent>,
+    private val triggerEvents: List<TriggerEvent>,
+    private val bitmapSupplier: suspend (ImageCondition) -> Bitmap?,
+    private val batchDetection: Boolean = false,
+    private val parallelDetection: Boolean = false,
+    private val skipUnchangedFrames: Boolean = false,
+    private val adaptiveConditionsOrder: Boolean = false,
+) {
+
+    /**
+     * Process all frames of the sequence with the scenario.
+     * The replay ends with the sequence, or when the scenario requests to be stopped.
+     *
+     * @param context the Android context.
+     * @param frames the recorded frames. Only the [FRAME_FORMAT_RGBA_8888] frames are processed, the others are skipped.
+     *
+     * @return the results of the replay.
+     */
+    suspend fun replay(context: Context, frames: FrameSequenceReader): ReplayReport {
+        val androidExecutor = ReplayAndroidExecutor()
+        var isStopRequested = false
+        val processor = ScenarioProcessor(
+            processingTag = REPLAY_PROCESSING_TAG,
+            imageDetector = imageDetector,
+            detectionQuality = detectionQuality,
+            randomize = false,
+            imageEvents = imageEvents,
+            triggerEvents = triggerEvents,
+            bitmapSupplier = bitmapSupplier,
+            androidExecutor = androidExecutor,
+            onStopRequested = { isStopRequested = true },
+            batchDetection = batchDetection,
+            parallelDetection = parallelDetection,
+            skipUnchangedFrames = skipUnchangedFrames,
+            adaptiveConditionsOrder = adaptiveConditionsOrder,
+        )
+
+        val screenSize = Point(frames.screenWidth, frames.screenHeight)
+        val latencies = mutableMapOf<Long, LatencyAccumulator>()
+        val frame = SequenceFrame()
+        var frameCount = 0
+        var processingDurationNs = 0L
+
+        processor.onScenarioStart(context)
+        frames.rewind()
+        while (!isStopRequested && frames.readNextFrame(frame)) {
+            if (frame.format != FRAME_FORMAT_RGBA_8888) continue
+
+            androidExecutor.currentFrameIndex = frame.index
+            val startNs = System.nanoTime()
+            val executedEvent = processor.process(frame.pixels, frame.width, frame.height, frame.rowStride, screenSize)
+            val latencyNs = System.nanoTime() - startNs
+
+            frameCount++
+            processingDurationNs += latencyNs
+            executedEvent?.let { event ->
+                latencies.getOrPut(event.getValidId()) { LatencyAccumulator() }.add(latencyNs)
+            }
+
+            yield()
+        }
+        processor.onScenarioEnd()
+
+        return ReplayReport(
+            frameCount = frameCount,
+            processingDurationNs = processingDurationNs,
+            eventsLatencies = latencies.mapValues { (_, accumulator) -> accumulator.toEventLatency() },
+            gestures = androidExecutor.gestures.toList(),
+            startedActivityCount = androidExecutor.startedActivityCount,
+            sentBroadcastCount = androidExecutor.sentBroadcastCount,
+        ).also { report ->
+            Log.i(TAG, "Replay completed: ${report.frameCount} frames, ${"%.2f".format(report.framesPerSecond)} fps, " +
+                    "${report.gestures.size} gestures")
+        }
+    }
+
+    private class LatencyAccumulator {
+        private var count: Int = 0
+        private var totalNs: Long = 0
+        private var maxNs: Long = 0
+
+        fun add(latencyNs: Long) {
+            count++
+            totalNs += latencyNs
+            if (latencyNs > maxNs) maxNs = latencyNs
+        }
+
+        fun toEventLatency(): EventLatency =
+            EventLatency(count = count, avgLatencyNs = totalNs / count, maxLatencyNs = maxNs)
+    }
+}
+
+private const val REPLAY_PROCESSING_TAG = "Replay"
+/** Tag for logs. */
+private const val TAG = "ScenarioReplayer"
@@ -53,6 +53,7 @@ import kotlinx.coroutines.flow.flatMapLatest
 import kotlinx.coroutines.flow.mapNotNull
 import kotlinx.coroutines.launch
 
+import java.io.File
 import java.io.PrintWriter
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -88,8 +89,7 @@ class DetectionRepository @Inject constructor(
         .filterNotNull()
         .flatMapLatest { scenarioRepository.getEventsFlow(it.databaseId) }
         .combine(detectionState) { events, state ->
-            if (state == DetectionState.INACTIVE || state == DetectionState.ERROR_NO_NATIVE_LIB)
-                return@combine false
+            if (state == DetectionState.INACTIVE) return@combine false
 
             events.forEach {
                 event -> if (event.enabledOnStart) return@combine true
@@ -142,6 +142,20 @@ class DetectionRepository @Inject constructor(
         autoStopJob = null
     }
 
+    /**
+     * Record the frames processed by the detection in a file, to reproduce or profile a detection later.
+     * See [DetectorEngine.startFrameRecording].
+     *
+     * This is a development API, it is not exposed in the application settings.
+     */
+    fun startFrameRecording(file: File, recordColor: Boolean = false) {
+        detectorEngine.startFrameRecording(file, recordColor)
+    }
+
+    fun stopFrameRecording() {
+        detectorEngine.stopFrameRecording()
+    }
+
     fun stopScreenRecord() {
         detectorEngine.apply {
             stopScreenRecord()
@@ -26,8 +26,6 @@ enum class DetectionState {
     RECORDING,
     /** The screen is being recorded and the detection is running. */
     DETECTING,
-    /** The native lib is not found and the detector can't work. */
-    ERROR_NO_NATIVE_LIB
 }
 
 internal fun DetectorState.toDetectionState(): DetectionState? = when (this) {
@@ -36,5 +34,4 @@ internal fun DetectorState.toDetectionState(): DetectionState? = when (this) {
     DetectorState.DETECTING -> DetectionState.DETECTING
     DetectorState.DESTROYED -> DetectionState.INACTIVE
     DetectorState.TRANSITIONING -> null // Return null to avoid notifying state change when transitioning
-    DetectorState.ERROR_NATIVE_DETECTOR_LIB_NOT_FOUND -> DetectionState.ERROR_NO_NATIVE_LIB
 }
\ No newline at end of file
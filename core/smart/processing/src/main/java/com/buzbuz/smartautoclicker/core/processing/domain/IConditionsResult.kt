@@ -19,6 +19,10 @@ package com.buzbuz.smartautoclicker.core.processing.domain
 import android.graphics.Point
 import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
 
+/**
+ * The results of the conditions of an event.
+ * The instances are reused by the processing, they are only valid during the listener call providing them.
+ */
 interface IConditionsResult {
 
     val fulfilled: Boolean?
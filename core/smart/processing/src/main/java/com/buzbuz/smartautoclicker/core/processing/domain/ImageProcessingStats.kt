@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.domain
+
+/**
+ * Statistics about the image processing of a detection session.
+ *
+ * @param localitySearchCount the number of conditions searched around their last known position first.
+ * @param localityHitCount the number of conditions found around their last known position.
+ * @param localitySavedTimeMs the estimated processing time saved by searching around the last known positions.
+ * @param frameCount the number of frames received from the screen recorder.
+ * @param avgFrameLatencyMs the average delay between the availability of a frame and the start of its processing.
+ * @param minFrameLatencyMs the minimum delay between the availability of a frame and the start of its processing.
+ * @param maxFrameLatencyMs the maximum delay between the availability of a frame and the start of its processing.
+ * @param skippedFrameCount the number of frames not detected because the screen haven't changed since the previous one.
+ * @param conditionsReuseRate for each image condition identifier, the ratio of detections that have reused the result
+ *                            of the previous frame because its detection area haven't changed, between 0 and 1.
+ * @param conditionsDedupeRate the ratio of image detections avoided because another condition of the same frame had the
+ *                             same image, area and threshold, between 0 and 1.
+ * @param reachedTimerCount the number of timer conditions verified as reached.
+ * @param avgTimerDelayMs the average delay between the end of a timer and the verification of its condition.
+ * @param maxTimerDelayMs the maximum delay between the end of a timer and the verification of its condition.
+ * @param bufferAllocationCount the number of allocations of the detector images and buffers. Should stop increasing
+ *                              once the detection is running.
+ */
+data class ImageProcessingStats(
+    val localitySearchCount: Long = 0,
+    val localityHitCount: Long = 0,
+    val localitySavedTimeMs: Long = 0,
+    val frameCount: Long = 0,
+    val avgFrameLatencyMs: Long = 0,
+    val minFrameLatencyMs: Long = 0,
+    val maxFrameLatencyMs: Long = 0,
+    val skippedFrameCount: Long = 0,
+    val conditionsReuseRate: Map<Long, Double> = emptyMap(),
+    val conditionsDedupeRate: Double = 0.0,
+    val reachedTimerCount: Long = 0,
+    val avgTimerDelayMs: Long = 0,
+    val maxTimerDelayMs: Long = 0,
+    val bufferAllocationCount: Long = 0,
+)
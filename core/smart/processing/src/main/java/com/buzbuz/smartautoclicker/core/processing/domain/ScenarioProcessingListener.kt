@@ -45,5 +45,7 @@ interface ScenarioProcessingListener {
 
     suspend fun onImageEventsProcessingCompleted() = Unit
 
+    suspend fun onImageProcessingStats(stats: ImageProcessingStats) = Unit
+
     suspend fun onSessionEnded() = Unit
 }
\ No newline at end of file
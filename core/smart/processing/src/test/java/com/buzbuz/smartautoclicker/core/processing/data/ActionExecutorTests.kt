@@ -34,6 +34,7 @@ import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
 import com.buzbuz.smartautoclicker.core.processing.data.processor.ActionExecutor
 import com.buzbuz.smartautoclicker.core.processing.data.processor.ConditionsResult
 import com.buzbuz.smartautoclicker.core.processing.data.processor.ImageResult
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
 import com.buzbuz.smartautoclicker.core.processing.data.processor.state.ProcessingState
 import com.buzbuz.smartautoclicker.core.processing.utils.anyNotNull
 
@@ -78,6 +79,8 @@ class ActionExecutorTests {
             Action.Click(Identifier(databaseId = id), TEST_EVENT_ID, TEST_NAME, 0, duration, Action.Click.PositionType.USER_SELECTED, TEST_X1, TEST_Y1, null)
         fun getNewDefaultClickCondition(id: Long, conditionId: Long? = null) =
             Action.Click(Identifier(databaseId = id), TEST_EVENT_ID, TEST_NAME, 1, TEST_DURATION, Action.Click.PositionType.ON_DETECTED_CONDITION, null, null, conditionId?.let { Identifier(databaseId = conditionId) })
+        fun getNewDefaultClickAllOccurrences(id: Long, conditionId: Long) =
+            Action.Click(Identifier(databaseId = id), TEST_EVENT_ID, TEST_NAME, 1, TEST_DURATION, Action.Click.PositionType.ON_ALL_DETECTED_OCCURRENCES, null, null, Identifier(databaseId = conditionId))
         fun getNewDefaultSwipe(id: Long) =
             Action.Swipe(Identifier(databaseId = id), TEST_EVENT_ID, TEST_NAME, 2, TEST_DURATION, TEST_X1, TEST_Y1, TEST_X2, TEST_Y2)
         fun getNewDefaultPause(id: Long) =
@@ -90,7 +93,8 @@ class ActionExecutorTests {
     @Mock private lateinit var mockAndroidExecutor: AndroidExecutor
     @Mock private lateinit var mockProcessingState: ProcessingState
 
-    private lateinit var actionExecutor: ActionExecutor
+    /** The detector provided to the executor for the clicks on all occurrences. */
+    private var occurrencesDetector: (suspend (ImageCondition, Int) -> IntArray)? = null
 
     private fun assertActionGesture(gesture: GestureDescription) {
         assertEquals("Gesture should contains only one stroke", 1, gesture.strokeCount)
@@ -100,12 +104,19 @@ class ActionExecutorTests {
         }
     }
 
+    /** Execute the actions of [event], with an executor for a scenario containing only this event. */
+    private suspend fun executeActions(event: ImageEvent, results: ConditionsResult) {
+        val plan = ScenarioPlan(listOf(event), emptyList())
+        ActionExecutor(mockAndroidExecutor, mockProcessingState, plan, randomize = false, occurrencesDetector)
+            .executeActions(0, results)
+    }
+
     @Before
     fun setUp() {
         MockitoAnnotations.openMocks(this)
         Dispatchers.setMain(StandardTestDispatcher())
 
-        actionExecutor = ActionExecutor(mockAndroidExecutor, mockProcessingState, randomize = false)
+        occurrencesDetector = null
     }
 
     @After
@@ -116,7 +127,7 @@ class ActionExecutorTests {
     @Test
     fun noActions() = runTest {
         val event = getNewDefaultEvent()
-        actionExecutor.executeActions(event, ConditionsResult())
+        executeActions(event, ConditionsResult())
         verify(mockAndroidExecutor, never()).executeGesture(anyNotNull())
     }
 
@@ -125,7 +136,7 @@ class ActionExecutorTests {
         val clickAction = getNewDefaultClickUserPos(1)
         val event = getNewDefaultEvent(actions = listOf(clickAction))
 
-        actionExecutor.executeActions(event, ConditionsResult())
+        executeActions(event, ConditionsResult())
 
         val gestureCaptor = argumentCaptor<GestureDescription>()
         verify(mockAndroidExecutor).executeGesture(gestureCaptor.capture())
@@ -149,7 +160,7 @@ class ActionExecutorTests {
             ImageResult(isFulfilled = true, haveBeenDetected = true, condition, Point(15, 15), 100.0)
         )
 
-        actionExecutor.executeActions(event, results)
+        executeActions(event, results)
 
         val gestureCaptor = argumentCaptor<GestureDescription>()
         verify(mockAndroidExecutor).executeGesture(gestureCaptor.capture())
@@ -177,18 +188,73 @@ class ActionExecutorTests {
             ImageResult(isFulfilled = true, haveBeenDetected = false, conditionOther, Point(45, 45), 98.0)
         )
 
-        actionExecutor.executeActions(event, results)
+        executeActions(event, results)
 
         val gestureCaptor = argumentCaptor<GestureDescription>()
         verify(mockAndroidExecutor).executeGesture(gestureCaptor.capture())
         assertActionGesture(gestureCaptor.lastValue)
     }
 
+    @Test
+    fun execute_oneClick_onAllOccurrences() = runTest {
+        val condition = getNewDefaultCondition(42L)
+        val clickAction = getNewDefaultClickAllOccurrences(1, condition.id.databaseId)
+        val event = getNewDefaultEvent(
+            AND,
+            conditions = listOf(condition),
+            actions = listOf(clickAction),
+        )
+        val results = ConditionsResult()
+        results.addResult(
+            condition.getDatabaseId(),
+            ImageResult(isFulfilled = true, haveBeenDetected = true, condition, Point(15, 15), 100.0)
+        )
+
+        var detectedCondition: ImageCondition? = null
+        occurrencesDetector = { cond, _ ->
+            detectedCondition = cond
+            intArrayOf(TEST_X1, TEST_Y1, TEST_X2, TEST_Y2)
+        }
+        executeActions(event, results)
+
+        assertEquals("Invalid condition for the occurrences detection", condition, detectedCondition)
+        val gestureCaptor = argumentCaptor<GestureDescription>()
+        verify(mockAndroidExecutor, times(1)).executeGesture(gestureCaptor.capture())
+        gestureCaptor.lastValue.let { gesture ->
+            assertEquals("Gesture should contains one stroke per occurrence", 2, gesture.strokeCount)
+            assertTrue("Second stroke should start after the first one",
+                gesture.getStroke(1).startTime >= gesture.getStroke(0).startTime + TEST_DURATION)
+        }
+    }
+
+    @Test
+    fun execute_oneClick_onAllOccurrences_noOccurrences() = runTest {
+        val condition = getNewDefaultCondition(42L)
+        val clickAction = getNewDefaultClickAllOccurrences(1, condition.id.databaseId)
+        val event = getNewDefaultEvent(
+            AND,
+            conditions = listOf(condition),
+            actions = listOf(clickAction),
+        )
+        val results = ConditionsResult()
+        results.addResult(
+            condition.getDatabaseId(),
+            ImageResult(isFulfilled = true, haveBeenDetected = true, condition, Point(15, 15), 100.0)
+        )
+
+        occurrencesDetector = { _, _ ->
+            IntArray(0)
+        }
+        executeActions(event, results)
+
+        verify(mockAndroidExecutor, never()).executeGesture(anyNotNull())
+    }
+
     @Test
     fun execute_oneSwipe() = runTest {
         val swipeAction = getNewDefaultSwipe(1)
 
-        actionExecutor.executeActions(
+        executeActions(
             getNewDefaultEvent(actions = listOf(swipeAction)),
             ConditionsResult(),
         )
@@ -203,7 +269,7 @@ class ActionExecutorTests {
         val pause = getNewDefaultPause(1)
 
         // Execute the pause. As the handler is waiting to the finish the pause, we should stays in EXECUTING
-        actionExecutor.executeActions(
+        executeActions(
             getNewDefaultEvent(actions = listOf(pause)),
             ConditionsResult(),
         )
@@ -220,7 +286,7 @@ class ActionExecutorTests {
         val gestureCaptor = argumentCaptor<GestureDescription>()
 
         // Execute the actions.
-        actionExecutor.executeActions(
+        executeActions(
             getNewDefaultEvent(actions = listOf(click, pause, swipe)),
             ConditionsResult(),
         )
@@ -244,7 +310,7 @@ class ActionExecutorTests {
         }
 
         launch(Dispatchers.IO) {
-            actionExecutor.executeActions(
+            executeActions(
                 getNewDefaultEvent(actions = listOf(getNewDefaultClickUserPos(1, executionDurationMs))),
                 ConditionsResult(),
             )
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data
+
+import android.graphics.Rect
+import android.os.Build
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+
+import com.buzbuz.smartautoclicker.core.base.identifier.Identifier
+import com.buzbuz.smartautoclicker.core.domain.model.AND
+import com.buzbuz.smartautoclicker.core.domain.model.EXACT
+import com.buzbuz.smartautoclicker.core.domain.model.OR
+import com.buzbuz.smartautoclicker.core.domain.model.WHOLE_SCREEN
+import com.buzbuz.smartautoclicker.core.domain.model.action.Action
+import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ConditionsOrder
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
+import com.buzbuz.smartautoclicker.core.processing.utils.ProcessingData
+
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+
+import org.robolectric.annotation.Config
+
+/** Test the [ConditionsOrder] class. */
+@RunWith(AndroidJUnit4::class)
+@Config(sdk = [Build.VERSION_CODES.Q])
+class ConditionsOrderTests {
+
+    private companion object {
+        /** Enough evaluations for the conditions to be sorted at least once. */
+        private const val EVALUATION_COUNT = 64
+
+        private const val EXPENSIVE_DURATION_NS = 10_000_000L
+        private const val CHEAP_DURATION_NS = 100_000L
+
+        private val CLICK_ON_CONDITION = Action.Click(
+            id = Identifier(databaseId = 1),
+            eventId = Identifier(databaseId = 1),
+            priority = 0,
+            pressDuration = 1,
+            positionType = Action.Click.PositionType.ON_DETECTED_CONDITION,
+        )
+    }
+
+    /** @return an event with an expensive condition, followed by two cheap ones. */
+    private fun newEvent(operator: Int, actions: List<Action> = emptyList()): ImageEvent =
+        ProcessingData.newEvent(
+            operator = operator,
+            actions = actions,
+            conditions = listOf(
+                ProcessingData.newCondition("expensive", Rect(0, 0, 10, 10), 1, WHOLE_SCREEN),
+                ProcessingData.newCondition("cheap1", Rect(0, 0, 10, 10), 1, EXACT),
+                ProcessingData.newCondition("cheap2", Rect(0, 0, 10, 10), 1, EXACT),
+            ),
+        )
+
+    /**
+     * Evaluate the conditions of the event at slot 0 in their current order, like the verifier does.
+     * The expensive condition (slot 0) always passes, the cheap ones always fail.
+     */
+    private fun ConditionsOrder.evaluate(operator: Int) {
+        repeat(EVALUATION_COUNT) {
+            for (index in 0 until 3) {
+                val conditionSlot = getConditionSlot(0, index)
+                val isFulfilled = conditionSlot == 0
+                onConditionEvaluated(
+                    conditionSlot = conditionSlot,
+                    durationNs = if (conditionSlot == 0) EXPENSIVE_DURATION_NS else CHEAP_DURATION_NS,
+                    isFulfilled = isFulfilled,
+                )
+
+                // Stop on the decisive condition
+                if (operator == AND && !isFulfilled || operator == OR && isFulfilled) break
+            }
+            onEventEvaluated(0)
+        }
+    }
+
+    private fun ConditionsOrder.getOrder(): List<Int> =
+        (0 until 3).map { index -> getConditionSlot(0, index) }
+
+    @Test
+    fun disabled_eventOrder() {
+        val conditionsOrder = ConditionsOrder(ScenarioPlan(listOf(newEvent(AND)), emptyList()), isEnabled = false)
+
+        conditionsOrder.evaluate(AND)
+
+        Assert.assertFalse("Event should not be adaptive", conditionsOrder.isAdaptive(0))
+        Assert.assertEquals("Conditions should be in the event order", listOf(0, 1, 2), conditionsOrder.getOrder())
+    }
+
+    @Test
+    fun and_cheapFailingConditionsFirst() {
+        val conditionsOrder = ConditionsOrder(ScenarioPlan(listOf(newEvent(AND)), emptyList()), isEnabled = true)
+
+        conditionsOrder.evaluate(AND)
+
+        Assert.assertTrue("Event should be adaptive", conditionsOrder.isAdaptive(0))
+        Assert.assertEquals("Expensive condition should be last", 0, conditionsOrder.getOrder().last())
+    }
+
+    @Test
+    fun or_clickOnCondition_eventOrder() {
+        val event = newEvent(OR, actions = listOf(CLICK_ON_CONDITION))
+        val conditionsOrder = ConditionsOrder(ScenarioPlan(listOf(event), emptyList()), isEnabled = true)
+
+        conditionsOrder.evaluate(OR)
+
+        Assert.assertFalse("Event should not be adaptive", conditionsOrder.isAdaptive(0))
+        Assert.assertEquals("Conditions should be in the event order", listOf(0, 1, 2), conditionsOrder.getOrder())
+    }
+
+    @Test
+    fun sameEvaluations_sameOrder() {
+        val plan = ScenarioPlan(listOf(newEvent(AND)), emptyList())
+        val conditionsOrder1 = ConditionsOrder(plan, isEnabled = true)
+        val conditionsOrder2 = ConditionsOrder(plan, isEnabled = true)
+
+        conditionsOrder1.evaluate(AND)
+        conditionsOrder2.evaluate(AND)
+
+        Assert.assertEquals("Order should be deterministic", conditionsOrder1.getOrder(), conditionsOrder2.getOrder())
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data
+
+import android.graphics.Rect
+import android.os.Build
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+
+import com.buzbuz.smartautoclicker.core.domain.model.EXACT
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ConditionsResult
+import com.buzbuz.smartautoclicker.core.processing.data.processor.DefaultResult
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ImageResult
+import com.buzbuz.smartautoclicker.core.processing.utils.ProcessingData
+
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+
+import org.robolectric.annotation.Config
+
+/** Test the [ConditionsResult] class. */
+@RunWith(AndroidJUnit4::class)
+@Config(sdk = [Build.VERSION_CODES.Q])
+class ConditionsResultTests {
+
+    private fun newImageResult(isFulfilled: Boolean, shouldBeDetected: Boolean = true): ImageResult =
+        ImageResult(ProcessingData.newCondition("path", Rect(0, 0, 10, 10), 1, EXACT, shouldBeDetected)).apply {
+            set(isFulfilled, isFulfilled == shouldBeDetected, 5, 5, 0.9)
+        }
+
+    @Test
+    fun addResult_sameConditionReplaced() {
+        val results = ConditionsResult()
+        val imageResult = newImageResult(isFulfilled = true)
+
+        results.addResult(1L, DefaultResult(false))
+        results.addResult(1L, imageResult)
+
+        Assert.assertEquals("Invalid results count", 1, results.getAllResults().size)
+        Assert.assertSame("Invalid image result", imageResult, results.getImageConditionResult(1L))
+    }
+
+    @Test
+    fun addResult_ignoredOnceFulfilled() {
+        val results = ConditionsResult()
+
+        results.addResult(1L, DefaultResult(true))
+        results.setFulfilledState(true)
+        results.addResult(2L, DefaultResult(true))
+
+        Assert.assertEquals("Invalid results count", 1, results.getAllResults().size)
+    }
+
+    @Test
+    fun getFirstImageDetectedResult() {
+        val results = ConditionsResult()
+        val notDetected = newImageResult(isFulfilled = false)
+        val shouldNotBeDetected = newImageResult(isFulfilled = true, shouldBeDetected = false)
+        val detected = newImageResult(isFulfilled = true)
+
+        results.addResult(1L, notDetected)
+        results.addResult(2L, shouldNotBeDetected)
+        results.addResult(3L, detected)
+
+        Assert.assertSame("Invalid first detected result", detected, results.getFirstImageDetectedResult())
+    }
+
+    @Test
+    fun getAllResults_stableView() {
+        val results = ConditionsResult()
+        val view = results.getAllResults()
+
+        // More results than the initial capacity
+        for (id in 1L..20L) results.addResult(id, DefaultResult(id % 2 == 0L))
+        Assert.assertSame("View should not change", view, results.getAllResults())
+        Assert.assertEquals("Invalid results count", 20, view.size)
+        Assert.assertTrue("Invalid last result", view[19].isFulfilled)
+
+        results.reset()
+        Assert.assertTrue("View should be empty after reset", view.isEmpty())
+    }
+
+    @Test
+    fun setFrom() {
+        val source = ConditionsResult().apply {
+            addResult(1L, DefaultResult(true))
+            addResult(2L, DefaultResult(false))
+            setFulfilledState(false)
+        }
+        val copy = ConditionsResult().apply { addResult(3L, DefaultResult(true)) }
+
+        copy.setFrom(source)
+        source.reset()
+
+        Assert.assertEquals("Invalid results count", 2, copy.getAllResults().size)
+        Assert.assertEquals("Invalid fulfilled state", false, copy.fulfilled)
+        Assert.assertFalse("Invalid second result", copy.getAllResults()[1].isFulfilled)
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data
+
+import android.graphics.Bitmap
+import android.graphics.Point
+import android.graphics.Rect
+
+import com.buzbuz.smartautoclicker.core.base.identifier.Identifier
+import com.buzbuz.smartautoclicker.core.detection.DetectionBatch
+import com.buzbuz.smartautoclicker.core.detection.DetectionResult
+import com.buzbuz.smartautoclicker.core.detection.ImageDetector
+import com.buzbuz.smartautoclicker.core.detection.LocalitySearchStats
+import com.buzbuz.smartautoclicker.core.detection.ResultReuseStats
+import com.buzbuz.smartautoclicker.core.domain.model.AND
+import com.buzbuz.smartautoclicker.core.domain.model.EXACT
+import com.buzbuz.smartautoclicker.core.domain.model.WHOLE_SCREEN
+import com.buzbuz.smartautoclicker.core.domain.model.action.Action
+import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
+import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
+import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
+import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ConditionsVerifier
+import com.buzbuz.smartautoclicker.core.processing.data.processor.DetectionMemo
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.ProcessingState
+
+import kotlinx.coroutines.runBlocking
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+import java.nio.ByteBuffer
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmark of [ConditionsVerifier.verifyConditions], with a detector answering immediately.
+ * It measures the cost of the verification itself, without the image processing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ConditionsVerifierBenchmark {
+
+    @Param("5", "20")
+    @JvmField var conditionCount: Int = 0
+
+    private lateinit var verifier: ConditionsVerifier
+    private lateinit var detectionMemo: DetectionMemo
+    private var imageEventSlot: Int = 0
+    private var triggerEventSlot: Int = 0
+
+    @Setup
+    fun setUp() {
+        val conditionBitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888)
+
+        val imageConditions = (1..conditionCount).map { id ->
+            ImageCondition(
+                id = Identifier(databaseId = id.toLong()),
+                eventId = Identifier(databaseId = 1L),
+                name = "Condition $id",
+                path = "/condition/$id",
+                area = Rect(id, id, id + 50, id + 50),
+                threshold = 10,
+                detectionType = if (id % 2 == 0) EXACT else WHOLE_SCREEN,
+                shouldBeDetected = true,
+            )
+        }
+
+        // Counters and timers conditions, all fulfilled
+        val triggerConditions = (1..conditionCount).map { id ->
+            if (id % 2 == 0) TriggerCondition.OnCounterCountReached(
+                id = Identifier(databaseId = id.toLong()),
+                eventId = Identifier(databaseId = 1L),
+                name = "Counter $id",
+                counterName = "Counter $id",
+                comparisonOperation = TriggerCondition.OnCounterCountReached.ComparisonOperation.EQUALS,
+                counterValue = 0,
+            ) else TriggerCondition.OnTimerReached(
+                id = Identifier(databaseId = id.toLong()),
+                eventId = Identifier(databaseId = 1L),
+                name = "Timer $id",
+                durationMs = 1,
+                restartWhenReached = true,
+            )
+        }
+        val imageEvent = ImageEvent(
+            id = Identifier(databaseId = 1L),
+            scenarioId = Identifier(databaseId = 1L),
+            name = "Image",
+            conditionOperator = AND,
+            conditions = imageConditions,
+            priority = 0,
+        )
+        val triggerEvent = TriggerEvent(
+            id = Identifier(databaseId = 2L),
+            scenarioId = Identifier(databaseId = 1L),
+            name = "Trigger",
+            conditionOperator = AND,
+            conditions = triggerConditions,
+            actions = triggerConditions.filterIsInstance<TriggerCondition.OnCounterCountReached>().map { condition ->
+                Action.ChangeCounter(
+                    id = condition.id,
+                    eventId = condition.eventId,
+                    priority = 0,
+                    counterName = condition.counterName,
+                    operation = Action.ChangeCounter.OperationType.SET,
+                    operationValue = 0,
+                )
+            },
+        )
+
+        val plan = ScenarioPlan(listOf(imageEvent), listOf(triggerEvent))
+        imageEventSlot = plan.getEventSlot(imageEvent.id.databaseId)
+        triggerEventSlot = plan.getEventSlot(triggerEvent.id.databaseId)
+
+        // Timers must be started before the verification, and reached
+        val state = ProcessingState(plan).apply {
+            for (timerIndex in 0 until plan.timerCount) setTimerStartToNow(timerIndex)
+        }
+        Thread.sleep(TIMERS_END_WAIT_MS)
+
+        detectionMemo = DetectionMemo(plan.detectionCount)
+        verifier = ConditionsVerifier(plan, state, StubImageDetector(), { conditionBitmap }, detectionMemo = detectionMemo)
+    }
+
+    @Benchmark
+    fun verifyImageConditions(blackhole: Blackhole) = runBlocking {
+        // Each verification is a new frame, the detections of the previous one can't be reused
+        detectionMemo.clear()
+        blackhole.consume(verifier.verifyConditions(imageEventSlot).fulfilled)
+    }
+
+    @Benchmark
+    fun verifyTriggerConditions(blackhole: Blackhole) = runBlocking {
+        blackhole.consume(verifier.verifyConditions(triggerEventSlot).fulfilled)
+    }
+}
+
+/** Detector detecting all conditions, without looking at the screen. */
+private class StubImageDetector : ImageDetector {
+
+    private val result = DetectionResult(isDetected = true, position = Point(10, 10), confidenceRate = 1.0)
+
+    override fun detectCondition(conditionId: Long, conditionBitmap: Bitmap, threshold: Int): DetectionResult = result
+    override fun detectCondition(conditionId: Long, conditionBitmap: Bitmap, position: Rect, threshold: Int): DetectionResult =
+        result
+    override fun detectAllOccurrences(conditionId: Long, conditionBitmap: Bitmap, area: Rect?, threshold: Int, maxResults: Int): IntArray =
+        IntArray(0)
+
+    override fun setScreenMetrics(metricsKey: String, screenBitmap: Bitmap, detectionQuality: Double) = Unit
+    override fun setupDetection(screenBitmap: Bitmap) = Unit
+    override fun setScreenMetrics(
+        metricsKey: String,
+        screenBuffer: ByteBuffer,
+        width: Int,
+        height: Int,
+        rowStride: Int,
+        screenSize: Point,
+        detectionQuality: Double,
+    ) = Unit
+    override fun setupDetection(screenBuffer: ByteBuffer, width: Int, height: Int, rowStride: Int) = Unit
+    override fun releaseScreenImage() = Unit
+    override fun isScreenChanged(): Boolean = true
+    override fun detectConditions(batch: DetectionBatch) = Unit
+    override fun setDetectionThreads(threadCount: Int) = Unit
+    override fun getLocalitySearchStats(): LocalitySearchStats = LocalitySearchStats()
+    override fun getResultReuseStats(): Map<Long, ResultReuseStats> = emptyMap()
+    override fun getBufferAllocationCount(): Long = 0
+    override fun clearConditionsCache() = Unit
+    override fun close() = Unit
+}
+
+/** Wait for the end of the timers of the conditions, so they are always reached. */
+private const val TIMERS_END_WAIT_MS = 5L
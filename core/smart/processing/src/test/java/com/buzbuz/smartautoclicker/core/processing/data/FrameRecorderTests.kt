@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data
+
+import android.os.Build
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FRAME_FORMAT_GRAY_8
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FRAME_FORMAT_RGBA_8888
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FrameRecorder
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FrameSequenceReader
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ThreadFactory
+
+/** Test the [FrameRecorder] class. */
+@RunWith(AndroidJUnit4::class)
+@Config(sdk = [Build.VERSION_CODES.Q])
+class FrameRecorderTests {
+
+    private companion object {
+        private const val TEST_WIDTH = 8
+        private const val TEST_HEIGHT = 4
+        /** Rows are padded, as in the images of the display recorder. */
+        private const val TEST_ROW_STRIDE = (TEST_WIDTH + 2) * Int.SIZE_BYTES
+        /** Opaque red, in RGBA. */
+        private const val TEST_RGBA_RED = 0xFF0000FF.toInt()
+        /** Gray level of [TEST_RGBA_RED]. */
+        private const val TEST_GRAY_RED = 76
+        /** Maximum time to wait for the writer thread. */
+        private const val TEST_TIMEOUT_MS = 5_000L
+    }
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private fun newRedFrame(): ByteBuffer =
+        ByteBuffer.allocateDirect(TEST_ROW_STRIDE * TEST_HEIGHT).apply {
+            while (hasRemaining()) putInt(TEST_RGBA_RED)
+            flip()
+        }
+
+    /** @return the format, timestamp and first pixel of each frame of the file. */
+    private fun readFrames(file: File): List<Triple<Int, Long, Int>> {
+        val frames = mutableListOf<Triple<Int, Long, Int>>()
+        FrameSequenceReader(file).use { reader ->
+            reader.forEachFrame { frame ->
+                frames.add(Triple(frame.format, frame.timestampNs, frame.pixels.get(0).toInt() and 0xFF))
+            }
+        }
+        return frames
+    }
+
+    @Test
+    fun record_grayAndColor() {
+        val file = temporaryFolder.newFile()
+        val recorder = FrameRecorder(file, TEST_WIDTH, TEST_HEIGHT, recordColor = true, ringSize = 4)
+
+        assertTrue("Frame should be recorded", recorder.onFrame(10, newRedFrame(), TEST_WIDTH, TEST_HEIGHT, TEST_ROW_STRIDE))
+        assertTrue("Frame should be recorded", recorder.onFrame(20, newRedFrame(), TEST_WIDTH, TEST_HEIGHT, TEST_ROW_STRIDE))
+        recorder.close()
+        recorder.awaitTermination()
+
+        assertEquals(
+            "Invalid recorded frames",
+            listOf(
+                Triple(FRAME_FORMAT_RGBA_8888, 10L, 0xFF),
+                Triple(FRAME_FORMAT_GRAY_8, 10L, TEST_GRAY_RED),
+                Triple(FRAME_FORMAT_RGBA_8888, 20L, 0xFF),
+                Triple(FRAME_FORMAT_GRAY_8, 20L, TEST_GRAY_RED),
+            ),
+            readFrames(file),
+        )
+    }
+
+    @Test
+    fun record_grayOnly() {
+        val file = temporaryFolder.newFile()
+        val recorder = FrameRecorder(file, TEST_WIDTH, TEST_HEIGHT, recordColor = false)
+
+        recorder.onFrame(10, newRedFrame(), TEST_WIDTH, TEST_HEIGHT, TEST_ROW_STRIDE)
+        recorder.close()
+        recorder.awaitTermination()
+
+        assertEquals("Invalid recorded frames", listOf(Triple(FRAME_FORMAT_GRAY_8, 10L, TEST_GRAY_RED)), readFrames(file))
+    }
+
+    @Test
+    fun record_afterClose() {
+        val recorder = FrameRecorder(temporaryFolder.newFile(), TEST_WIDTH, TEST_HEIGHT, recordColor = false)
+        recorder.close()
+
+        assertFalse("Frame should not be recorded", recorder.onFrame(10, newRedFrame(), TEST_WIDTH, TEST_HEIGHT, TEST_ROW_STRIDE))
+        recorder.awaitTermination()
+    }
+
+    @Test
+    fun record_writerLate_framesDropped() {
+        val file = temporaryFolder.newFile()
+        // The writer waits for the frames to be recorded, it is late for all of them
+        val writerStart = CountDownLatch(1)
+        val recorder = FrameRecorder(
+            file, TEST_WIDTH, TEST_HEIGHT,
+            recordColor = false,
+            ringSize = 2,
+            threadFactory = ThreadFactory { runnable -> Thread { writerStart.await(); runnable.run() } },
+        )
+
+        assertTrue("Frame should be recorded", recorder.onFrame(10, newRedFrame(), TEST_WIDTH, TEST_HEIGHT, TEST_ROW_STRIDE))
+        assertTrue("Frame should be recorded", recorder.onFrame(20, newRedFrame(), TEST_WIDTH, TEST_HEIGHT, TEST_ROW_STRIDE))
+        assertFalse("Frame should be dropped", recorder.onFrame(30, newRedFrame(), TEST_WIDTH, TEST_HEIGHT, TEST_ROW_STRIDE))
+        assertEquals("Invalid dropped frame count", 1, recorder.droppedFrameCount)
+
+        writerStart.countDown()
+        recorder.close()
+        recorder.awaitTermination()
+
+        assertEquals(
+            "Invalid recorded frames",
+            listOf(Triple(FRAME_FORMAT_GRAY_8, 10L, TEST_GRAY_RED), Triple(FRAME_FORMAT_GRAY_8, 20L, TEST_GRAY_RED)),
+            readFrames(file),
+        )
+    }
+
+    @Test
+    fun record_maxFileSize() {
+        val file = temporaryFolder.newFile()
+        // Reached with the first frame
+        val recorder = FrameRecorder(file, TEST_WIDTH, TEST_HEIGHT, recordColor = false, maxFileSize = 1)
+
+        assertTrue("Frame should be recorded", recorder.onFrame(10, newRedFrame(), TEST_WIDTH, TEST_HEIGHT, TEST_ROW_STRIDE))
+        assertTrue("Recording should stop by itself", recorder.awaitTermination(TEST_TIMEOUT_MS))
+
+        assertFalse("Frame should not be recorded", recorder.onFrame(20, newRedFrame(), TEST_WIDTH, TEST_HEIGHT, TEST_ROW_STRIDE))
+        assertEquals("Invalid recorded frames", listOf(Triple(FRAME_FORMAT_GRAY_8, 10L, TEST_GRAY_RED)), readFrames(file))
+    }
+}
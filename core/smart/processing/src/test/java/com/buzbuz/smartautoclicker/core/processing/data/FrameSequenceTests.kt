@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data
+
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FRAME_FORMAT_GRAY_8
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FrameSequenceReader
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FrameSequenceWriter
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+
+/** Test the [FrameSequenceReader] and [FrameSequenceWriter] classes. Pure JVM, no Android framework is required. */
+class FrameSequenceTests {
+
+    private companion object {
+        private const val TEST_SCREEN_WIDTH = 16
+        private const val TEST_SCREEN_HEIGHT = 8
+        /** Smaller than most frames, and not aligned on them. */
+        private const val TEST_MAPPING_WINDOW_SIZE = 100L
+        /** The sizes of the frames of the test sequence, in bytes. */
+        private val TEST_FRAMES_SIZES = intArrayOf(40, 128, 16, 70, 300, 0, 55)
+    }
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    /** @return the pixels of a frame, with values depending on its index. */
+    private fun newFramePixels(index: Int, size: Int): ByteArray =
+        ByteArray(size) { position -> (index * 31 + position).toByte() }
+
+    private fun writeSequence(file: File) {
+        FrameSequenceWriter(file, TEST_SCREEN_WIDTH, TEST_SCREEN_HEIGHT).use { writer ->
+            TEST_FRAMES_SIZES.forEachIndexed { index, size ->
+                writer.append(index * 10L, FRAME_FORMAT_GRAY_8, size, 1, size, ByteBuffer.wrap(newFramePixels(index, size)))
+            }
+        }
+    }
+
+    /** @return the timestamp and pixels of each frame of the file. */
+    private fun readFrames(file: File, mappingWindowSize: Long): List<Pair<Long, ByteArray>> {
+        val frames = mutableListOf<Pair<Long, ByteArray>>()
+        FrameSequenceReader(file, mappingWindowSize).use { reader ->
+            assertEquals("Invalid screen width", TEST_SCREEN_WIDTH, reader.screenWidth)
+            assertEquals("Invalid screen height", TEST_SCREEN_HEIGHT, reader.screenHeight)
+
+            reader.forEachFrame { frame ->
+                frames.add(frame.timestampNs to ByteArray(frame.pixels.remaining()).also { frame.pixels.get(it) })
+            }
+        }
+        return frames
+    }
+
+    private fun assertFrames(expectedCount: Int, frames: List<Pair<Long, ByteArray>>) {
+        assertEquals("Invalid frame count", expectedCount, frames.size)
+        frames.forEachIndexed { index, (timestampNs, pixels) ->
+            assertEquals("Invalid timestamp", index * 10L, timestampNs)
+            assertArrayEquals("Invalid pixels", newFramePixels(index, TEST_FRAMES_SIZES[index]), pixels)
+        }
+    }
+
+    @Test
+    fun read_singleWindow() {
+        val file = temporaryFolder.newFile()
+        writeSequence(file)
+
+        assertFrames(TEST_FRAMES_SIZES.size, readFrames(file, file.length()))
+    }
+
+    @Test
+    fun read_multipleWindows() {
+        val file = temporaryFolder.newFile()
+        writeSequence(file)
+
+        assertFrames(TEST_FRAMES_SIZES.size, readFrames(file, TEST_MAPPING_WINDOW_SIZE))
+    }
+
+    @Test
+    fun read_rewind() {
+        val file = temporaryFolder.newFile()
+        writeSequence(file)
+
+        FrameSequenceReader(file, TEST_MAPPING_WINDOW_SIZE).use { reader ->
+            var firstReadCount = 0
+            reader.forEachFrame { firstReadCount++ }
+            var secondReadCount = 0
+            reader.forEachFrame { secondReadCount++ }
+
+            assertEquals("Invalid frame count", TEST_FRAMES_SIZES.size, firstReadCount)
+            assertEquals("Frames should be read again after a rewind", TEST_FRAMES_SIZES.size, secondReadCount)
+        }
+    }
+
+    @Test
+    fun read_truncatedFrame() {
+        val file = temporaryFolder.newFile()
+        writeSequence(file)
+        // Cut the pixels of the last frame
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 10) }
+
+        assertFrames(TEST_FRAMES_SIZES.size - 1, readFrames(file, TEST_MAPPING_WINDOW_SIZE))
+    }
+}
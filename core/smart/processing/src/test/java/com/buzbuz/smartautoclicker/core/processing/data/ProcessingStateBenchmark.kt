@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data
+
+import com.buzbuz.smartautoclicker.core.base.identifier.Identifier
+import com.buzbuz.smartautoclicker.core.domain.model.AND
+import com.buzbuz.smartautoclicker.core.domain.model.action.Action
+import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
+import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.CountersState
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.EventsState
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.TimersState
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.forEachEnabledImageEventSlot
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.forEachEnabledTriggerEventSlot
+import com.buzbuz.smartautoclicker.core.processing.utils.ProcessingData
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmark of the updates of the processing state made by the actions of the events: toggling of the events, change
+ * of the counters and restart of the timers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class ProcessingStateBenchmark {
+
+    @Param("20", "200")
+    @JvmField var eventCount: Int = 0
+
+    private lateinit var eventsState: EventsState
+    private lateinit var countersState: CountersState
+    private lateinit var timersState: TimersState
+
+    /** The index of the counter of each trigger event. */
+    private lateinit var counterIndexes: IntArray
+
+    /** Index of the event/counter/timer to update in the next invocation. */
+    private var updateIndex: Int = 0
+
+    @Setup
+    fun setUp() {
+        val imageEvents = (1..eventCount).map { id -> ProcessingData.newEvent(id = id.toLong()) }
+        val triggerEvents = (1..eventCount).map { index -> newTriggerEvent(eventCount + index.toLong()) }
+
+        val plan = ScenarioPlan(imageEvents, triggerEvents)
+        counterIndexes = IntArray(eventCount) { index -> plan.getCounterIndex(counterName(eventCount + index + 1L)) }
+
+        eventsState = EventsState(imageEvents, triggerEvents)
+        countersState = CountersState(plan)
+        timersState = TimersState(plan).apply { onProcessingStarted() }
+    }
+
+    @Benchmark
+    fun toggleEvent(blackhole: Blackhole) {
+        // Toggle an image event and a trigger event, then iterate on the enabled ones, like the processing loop
+        val eventId = nextIndex() + 1L
+        eventsState.toggleEvent(eventId)
+        eventsState.toggleEvent(eventId + eventCount)
+
+        eventsState.forEachEnabledImageEventSlot(blackhole::consume)
+        eventsState.forEachEnabledTriggerEventSlot(blackhole::consume)
+    }
+
+    @Benchmark
+    fun changeCounter(blackhole: Blackhole) {
+        val counterIndex = counterIndexes[nextIndex()]
+        countersState.setCounterValue(counterIndex, countersState.getCounterValue(counterIndex) + 1)
+
+        blackhole.consume(countersState.getCounterValue(counterIndex))
+    }
+
+    @Benchmark
+    fun restartTimer(blackhole: Blackhole) {
+        // Each trigger event have a single timer condition, there is one timer per event
+        val timerIndex = nextIndex()
+        timersState.setTimerStartToNow(timerIndex)
+
+        blackhole.consume(timersState.getTimerEndMs(timerIndex))
+    }
+
+    private fun nextIndex(): Int {
+        val index = updateIndex
+        updateIndex = (updateIndex + 1) % eventCount
+        return index
+    }
+
+    /** @return a trigger event with a counter and a timer condition, and the action changing its counter. */
+    private fun newTriggerEvent(id: Long): TriggerEvent {
+        val eventId = Identifier(databaseId = id)
+
+        return TriggerEvent(
+            id = eventId,
+            scenarioId = Identifier(databaseId = 1L),
+            name = "Trigger $id",
+            conditionOperator = AND,
+            conditions = listOf(
+                TriggerCondition.OnCounterCountReached(
+                    id = Identifier(databaseId = id * 2),
+                    eventId = eventId,
+                    name = "Counter condition",
+                    counterName = counterName(id),
+                    comparisonOperation = TriggerCondition.OnCounterCountReached.ComparisonOperation.GREATER,
+                    counterValue = 10,
+                ),
+                TriggerCondition.OnTimerReached(
+                    id = Identifier(databaseId = id * 2 + 1),
+                    eventId = eventId,
+                    name = "Timer condition",
+                    durationMs = 1000,
+                    restartWhenReached = false,
+                ),
+            ),
+            actions = listOf(
+                Action.ChangeCounter(
+                    id = Identifier(databaseId = id),
+                    eventId = eventId,
+                    priority = 0,
+                    counterName = counterName(id),
+                    operation = Action.ChangeCounter.OperationType.ADD,
+                    operationValue = 1,
+                ),
+            ),
+        )
+    }
+
+    private fun counterName(eventId: Long): String = "Counter $eventId"
+}
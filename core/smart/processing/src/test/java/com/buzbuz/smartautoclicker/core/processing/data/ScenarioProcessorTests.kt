@@ -17,10 +17,14 @@
 package com.buzbuz.smartautoclicker.core.processing.data
 
 import android.accessibilityservice.GestureDescription
+import android.content.Context
+import android.content.Intent
 import android.graphics.Bitmap
 import android.graphics.Rect
 import android.os.Build
+import android.os.Looper
 
+import androidx.test.core.app.ApplicationProvider
 import androidx.test.ext.junit.runners.AndroidJUnit4
 
 import com.buzbuz.smartautoclicker.core.base.AndroidExecutor
@@ -34,20 +38,25 @@ import com.buzbuz.smartautoclicker.core.domain.model.OR
 import com.buzbuz.smartautoclicker.core.domain.model.WHOLE_SCREEN
 import com.buzbuz.smartautoclicker.core.domain.model.action.Action
 import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
+import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
 import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
 import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
 import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioProcessor
 import com.buzbuz.smartautoclicker.core.processing.shadows.ShadowBitmapCreator
 import com.buzbuz.smartautoclicker.core.processing.utils.ProcessingData.newCondition
 import com.buzbuz.smartautoclicker.core.processing.utils.ProcessingData.newEvent
+import com.buzbuz.smartautoclicker.core.processing.utils.ProcessingData.newTriggerEvent
 
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.advanceTimeBy
 import kotlinx.coroutines.test.resetMain
 import kotlinx.coroutines.test.runTest
 import kotlinx.coroutines.test.setMain
+import kotlinx.coroutines.withTimeout
 
 import org.junit.After
 import org.junit.Assert
@@ -55,11 +64,18 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.mockito.Mock
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.inOrder
 import org.mockito.Mockito.mock
 import org.mockito.Mockito.verify
 import org.mockito.Mockito.verifyNoInteractions
 import org.mockito.MockitoAnnotations
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
 import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.times
+import org.robolectric.Shadows.shadowOf
 import org.robolectric.annotation.Config
 import org.mockito.Mockito.`when` as mockWhen
 
@@ -97,6 +113,72 @@ class ScenarioProcessorTests {
                 positionType = Action.Click.PositionType.USER_SELECTED,
                 x = 10, y = 10,
             )
+
+        private fun newClickOnAllOccurrencesAction(condition: ImageCondition, duration: Long = 1) =
+            Action.Click(
+                id = Identifier(databaseId = 1),
+                eventId = Identifier(databaseId = 1),
+                priority = 0,
+                pressDuration = duration,
+                positionType = Action.Click.PositionType.ON_ALL_DETECTED_OCCURRENCES,
+                clickOnConditionId = condition.id,
+            )
+
+        /** The name of the counter of the trigger events. */
+        private const val TEST_COUNTER_NAME = "Counter"
+        /** The maximum time given to the trigger events processing to stop itself. */
+        private const val TEST_TRIGGERS_STOP_TIMEOUT_MS = 10_000L
+
+        /** @return a condition on the [TEST_COUNTER_NAME] counter, fulfilled while the counter is at 0. */
+        private fun newCounterAtZeroCondition() =
+            TriggerCondition.OnCounterCountReached(
+                id = Identifier(databaseId = 1),
+                eventId = Identifier(databaseId = 1),
+                name = "Counter at 0",
+                counterName = TEST_COUNTER_NAME,
+                comparisonOperation = TriggerCondition.OnCounterCountReached.ComparisonOperation.EQUALS,
+                counterValue = 0,
+            )
+
+        /** @return an action keeping the [TEST_COUNTER_NAME] counter at 0, without notifying any change. */
+        private fun newResetCounterAction() =
+            Action.ChangeCounter(
+                id = Identifier(databaseId = 2),
+                eventId = Identifier(databaseId = 1),
+                priority = 0,
+                counterName = TEST_COUNTER_NAME,
+                operation = Action.ChangeCounter.OperationType.SET,
+                operationValue = 0,
+            )
+
+        /** The duration of the timer of the trigger events. */
+        private const val TEST_TIMER_DURATION_MS = 1_000L
+        /** The virtual time given to the trigger events processing to handle a change. */
+        private const val TEST_PROCESSING_DELAY_MS = 100L
+        /** The action of the broadcast of the trigger events. */
+        private const val TEST_BROADCAST_ACTION = "com.buzbuz.smartautoclicker.TEST_BROADCAST"
+
+        /** @return a condition fulfilled [TEST_TIMER_DURATION_MS] after the start of its event. */
+        private fun newTimerCondition(restartWhenReached: Boolean) =
+            TriggerCondition.OnTimerReached(
+                id = Identifier(databaseId = 1),
+                eventId = Identifier(databaseId = 1),
+                name = "Timer",
+                durationMs = TEST_TIMER_DURATION_MS,
+                restartWhenReached = restartWhenReached,
+            )
+
+        /** @return a condition fulfilled when the [TEST_BROADCAST_ACTION] is received. */
+        private fun newBroadcastCondition() =
+            TriggerCondition.OnBroadcastReceived(
+                id = Identifier(databaseId = 1),
+                eventId = Identifier(databaseId = 1),
+                name = "Broadcast",
+                intentAction = TEST_BROADCAST_ACTION,
+            )
+
+        /** Two occurrences, packed as returned by [ImageDetector.detectAllOccurrences]. */
+        private val TEST_OCCURRENCES = intArrayOf(10, 20, 30, 40)
     }
 
     /** Interface to be mocked in order to verify the calls to the bitmap supplier. */
@@ -115,6 +197,8 @@ class ScenarioProcessorTests {
 
     @Mock private lateinit var mockScreenBitmap: Bitmap
 
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
     /** The object under test. */
     private lateinit var scenarioProcessor: ScenarioProcessor
 
@@ -134,8 +218,10 @@ class ScenarioProcessorTests {
 
         val pass = if (isDetected) TEST_DETECTION_OK else TEST_DETECTION_KO
         when (detectionType) {
-            EXACT -> mockWhen(mockImageDetector.detectCondition(conditionBitmap, area, threshold)).thenReturn(pass)
-            WHOLE_SCREEN -> mockWhen(mockImageDetector.detectCondition(conditionBitmap, threshold)).thenReturn(pass)
+            EXACT -> mockWhen(mockImageDetector.detectCondition(condition.getValidId(), conditionBitmap, area, threshold))
+                .thenReturn(pass)
+            WHOLE_SCREEN -> mockWhen(mockImageDetector.detectCondition(condition.getValidId(), conditionBitmap, threshold))
+                .thenReturn(pass)
         }
 
         condition
@@ -158,6 +244,9 @@ class ScenarioProcessorTests {
     private fun createNewScenarioProcessor(
         events: List<ImageEvent>,
         triggerEvent: List<TriggerEvent>,
+        skipUnchangedFrames: Boolean = false,
+        batchDetection: Boolean = false,
+        currentTimeMs: () -> Long = System::currentTimeMillis,
     ) = ScenarioProcessor(
         "",
         mockImageDetector,
@@ -168,6 +257,9 @@ class ScenarioProcessorTests {
         mockBitmapSupplier::getBitmap,
         mockAndroidExecutor,
         mockEndListener::onStopRequested,
+        batchDetection = batchDetection,
+        skipUnchangedFrames = skipUnchangedFrames,
+        currentTimeMs = currentTimeMs,
     )
 
     @Before
@@ -1158,4 +1250,336 @@ class ScenarioProcessorTests {
         verify(mockImageDetector).setupDetection(mockScreenBitmap)
         verifyNoInteractions(mockAndroidExecutor, mockEndListener)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun skipUnchangedFrames_reusePreviousResults() = runTest {
+        val condition1 = createTestCondition(
+            TEST_CONDITION_PATH_1,
+            TEST_CONDITION_AREA_1,
+            TEST_CONDITION_THRESHOLD_1,
+            EXACT,
+            isDetected = true,
+            shouldBeOnScreen = true,
+        )
+        val actionDuration1 = 1L
+        val event1 = newEvent(
+            operator = OR,
+            conditions = listOf(condition1),
+            actions = listOf(newDefaultClickAction(actionDuration1)),
+        )
+        mockWhen(mockImageDetector.isScreenChanged()).thenReturn(true, false)
+
+        scenarioProcessor = createNewScenarioProcessor(listOf(event1), emptyList(), skipUnchangedFrames = true)
+        scenarioProcessor.process(mockScreenBitmap)
+        scenarioProcessor.process(mockScreenBitmap)
+
+        verify(mockImageDetector, times(2)).setupDetection(mockScreenBitmap)
+        verify(mockImageDetector, times(1)).detectCondition(any(), any(), any<Rect>(), any())
+        verify(mockAndroidExecutor, times(2)).executeGesture(any())
+        verifyNoInteractions(mockEndListener)
+    }
+
+    @Test
+    fun skipUnchangedFrames_screenChanged() = runTest {
+        val condition1 = createTestCondition(
+            TEST_CONDITION_PATH_1,
+            TEST_CONDITION_AREA_1,
+            TEST_CONDITION_THRESHOLD_1,
+            EXACT,
+            isDetected = false,
+            shouldBeOnScreen = true,
+        )
+        val event1 = newEvent(
+            operator = OR,
+            conditions = listOf(condition1),
+            actions = listOf(newDefaultClickAction()),
+        )
+        mockWhen(mockImageDetector.isScreenChanged()).thenReturn(true, true)
+
+        scenarioProcessor = createNewScenarioProcessor(listOf(event1), emptyList(), skipUnchangedFrames = true)
+        scenarioProcessor.process(mockScreenBitmap)
+        scenarioProcessor.process(mockScreenBitmap)
+
+        verify(mockImageDetector, times(2)).detectCondition(any(), any(), any<Rect>(), any())
+        verifyNoInteractions(mockAndroidExecutor, mockEndListener)
+    }
+
+    @Test
+    fun sharedDetection_detectedOncePerFrame() = runTest {
+        val condition1 = createTestCondition(
+            TEST_CONDITION_PATH_1,
+            TEST_CONDITION_AREA_1,
+            TEST_CONDITION_THRESHOLD_1,
+            EXACT,
+            isDetected = false,
+            shouldBeOnScreen = true,
+        )
+        val event1 = newEvent(
+            operator = OR,
+            conditions = listOf(condition1),
+            actions = listOf(newDefaultClickAction()),
+        )
+
+        val condition2 = createTestCondition(
+            TEST_CONDITION_PATH_1,
+            TEST_CONDITION_AREA_1,
+            TEST_CONDITION_THRESHOLD_1,
+            EXACT,
+            isDetected = false,
+            shouldBeOnScreen = false,
+        )
+        val actionDuration2 = 3L
+        val event2 = newEvent(
+            operator = OR,
+            conditions = listOf(condition2),
+            actions = listOf(newDefaultClickAction(actionDuration2)),
+        )
+
+        scenarioProcessor = createNewScenarioProcessor(listOf(event1, event2), emptyList())
+        scenarioProcessor.process(mockScreenBitmap)
+
+        verify(mockImageDetector, times(1)).detectCondition(any(), any(), any<Rect>(), any())
+        assertActionGesture(actionDuration2)
+        verifyNoInteractions(mockEndListener)
+    }
+
+    @Test
+    fun batchDetection_AND_nothingEvaluated() = runTest {
+        val condition1 = createTestCondition(
+            TEST_CONDITION_PATH_1,
+            TEST_CONDITION_AREA_1,
+            TEST_CONDITION_THRESHOLD_1,
+            EXACT,
+            isDetected = true,
+            shouldBeOnScreen = true,
+        )
+        val condition2 = createTestCondition(
+            TEST_CONDITION_PATH_2,
+            TEST_CONDITION_AREA_2,
+            TEST_CONDITION_THRESHOLD_2,
+            WHOLE_SCREEN,
+            isDetected = true,
+            shouldBeOnScreen = true,
+        )
+        val event = newEvent(
+            operator = AND,
+            conditions = listOf(condition1, condition2),
+            actions = listOf(newDefaultClickAction()),
+        )
+
+        // The mocked detector doesn't evaluate the batch, as a closed detector
+        scenarioProcessor = createNewScenarioProcessor(listOf(event), emptyList(), batchDetection = true)
+        scenarioProcessor.process(mockScreenBitmap)
+
+        verify(mockImageDetector).detectConditions(any())
+        verifyNoInteractions(mockAndroidExecutor, mockEndListener)
+    }
+
+    @Test
+    fun screenImageReleased_beforeActions() = runTest {
+        val condition = createTestCondition(
+            TEST_CONDITION_PATH_1,
+            TEST_CONDITION_AREA_1,
+            TEST_CONDITION_THRESHOLD_1,
+            EXACT,
+            isDetected = true,
+            shouldBeOnScreen = true,
+        )
+        val event = newEvent(
+            operator = AND,
+            conditions = listOf(condition),
+            actions = listOf(newDefaultClickAction()),
+        )
+
+        scenarioProcessor = createNewScenarioProcessor(listOf(event), emptyList())
+        scenarioProcessor.process(mockScreenBitmap)
+
+        inOrder(mockImageDetector, mockAndroidExecutor).apply {
+            verify(mockImageDetector).releaseScreenImage()
+            verify(mockAndroidExecutor).executeGesture(any())
+        }
+    }
+
+    @Test
+    fun clickOnAllOccurrences_detectedBeforeScreenRelease() = runTest {
+        val condition = createTestCondition(
+            TEST_CONDITION_PATH_1,
+            TEST_CONDITION_AREA_1,
+            TEST_CONDITION_THRESHOLD_1,
+            EXACT,
+            isDetected = true,
+            shouldBeOnScreen = true,
+        )
+        val event = newEvent(
+            operator = AND,
+            conditions = listOf(condition),
+            actions = listOf(newClickOnAllOccurrencesAction(condition)),
+        )
+
+        // As the native detector, nothing can be detected once the screen image is released
+        var isScreenReleased = false
+        doAnswer { isScreenReleased = false }.`when`(mockImageDetector).setupDetection(mockScreenBitmap)
+        doAnswer { isScreenReleased = true }.`when`(mockImageDetector).releaseScreenImage()
+        mockWhen(mockImageDetector.detectAllOccurrences(any(), any(), anyOrNull(), any(), any())).thenAnswer {
+            if (isScreenReleased) throw Exception("Can't detect condition, the screen image is released")
+            TEST_OCCURRENCES
+        }
+
+        scenarioProcessor = createNewScenarioProcessor(listOf(event), emptyList())
+        scenarioProcessor.process(mockScreenBitmap)
+
+        val gestureCaptor = argumentCaptor<GestureDescription>()
+        verify(mockAndroidExecutor).executeGesture(gestureCaptor.capture())
+        Assert.assertEquals("All occurrences should be clicked", 2, gestureCaptor.lastValue.strokeCount)
+    }
+
+    @Test
+    fun clickOnAllOccurrences_endToEnd() = runTest {
+        val condition = createTestCondition(
+            TEST_CONDITION_PATH_1,
+            TEST_CONDITION_AREA_1,
+            TEST_CONDITION_THRESHOLD_1,
+            EXACT,
+            isDetected = true,
+            shouldBeOnScreen = true,
+        )
+        val expectedDuration = 5L
+        val event = newEvent(
+            operator = AND,
+            conditions = listOf(condition),
+            actions = listOf(newClickOnAllOccurrencesAction(condition, expectedDuration)),
+        )
+        mockWhen(mockImageDetector.detectAllOccurrences(any(), any(), anyOrNull(), any(), any()))
+            .thenReturn(TEST_OCCURRENCES)
+
+        scenarioProcessor = createNewScenarioProcessor(listOf(event), emptyList())
+        scenarioProcessor.process(mockScreenBitmap)
+
+        // The occurrences are detected with the condition values, in the same area than the condition detection
+        verify(mockImageDetector).detectAllOccurrences(
+            eq(condition.getValidId()),
+            any(),
+            eq(TEST_CONDITION_AREA_1),
+            eq(TEST_CONDITION_THRESHOLD_1),
+            any(),
+        )
+
+        val gestureCaptor = argumentCaptor<GestureDescription>()
+        verify(mockAndroidExecutor).executeGesture(gestureCaptor.capture())
+        gestureCaptor.lastValue.let { gesture ->
+            Assert.assertEquals("Gesture should contains one stroke per occurrence", 2, gesture.strokeCount)
+            Assert.assertEquals("Gesture duration is invalid", expectedDuration, gesture.getStroke(0).duration)
+            Assert.assertTrue("Second stroke should start after the first one",
+                gesture.getStroke(1).startTime >= gesture.getStroke(0).startTime + expectedDuration)
+        }
+        verifyNoInteractions(mockEndListener)
+    }
+
+    @Test
+    fun triggersOnly_allEventsDisabledByActions() = runTest {
+        val triggerEvent = newTriggerEvent(
+            conditions = listOf(newCounterAtZeroCondition()),
+            actions = listOf(
+                newResetCounterAction(),
+                Action.ToggleEvent(
+                    id = Identifier(databaseId = 3),
+                    eventId = Identifier(databaseId = 1),
+                    priority = 1,
+                    toggleAll = true,
+                    toggleAllType = Action.ToggleEvent.ToggleType.DISABLE,
+                ),
+            ),
+        )
+
+        scenarioProcessor = createNewScenarioProcessor(emptyList(), listOf(triggerEvent))
+        scenarioProcessor.onScenarioStart(context)
+        Assert.assertFalse("No image events, capture should be paused", scenarioProcessor.isCaptureRequired.value)
+
+        // Nothing notifies the disabling of the trigger events, the processing must stop by itself
+        withTimeout(TEST_TRIGGERS_STOP_TIMEOUT_MS) { scenarioProcessor.processTriggers() }
+
+        verify(mockEndListener).onStopRequested()
+        verifyNoInteractions(mockImageDetector, mockAndroidExecutor)
+    }
+
+    @Test
+    fun triggers_timerReachedWithoutFrames() = runTest {
+        val imageEvent = newEvent(
+            conditions = listOf(newCondition(TEST_CONDITION_PATH_1, TEST_CONDITION_AREA_1, TEST_CONDITION_THRESHOLD_1, EXACT)),
+            actions = listOf(newDefaultClickAction()),
+        )
+        val triggerEvent = newTriggerEvent(
+            id = 2L,
+            conditions = listOf(newTimerCondition(restartWhenReached = false)),
+            actions = listOf(newDefaultClickAction()),
+        )
+
+        scenarioProcessor = createNewScenarioProcessor(listOf(imageEvent), listOf(triggerEvent),
+            currentTimeMs = { testScheduler.currentTime })
+        scenarioProcessor.onScenarioStart(context)
+        Assert.assertTrue("Image events are enabled, capture should be running", scenarioProcessor.isCaptureRequired.value)
+        backgroundScope.launch { scenarioProcessor.processTriggers() }
+
+        advanceTimeBy(TEST_TIMER_DURATION_MS)
+        verifyNoInteractions(mockAndroidExecutor)
+
+        // No screen image is processed, the timer end alone must execute the trigger event
+        advanceTimeBy(TEST_TIMER_DURATION_MS)
+        verify(mockAndroidExecutor).executeGesture(any())
+        verifyNoInteractions(mockImageDetector, mockEndListener)
+    }
+
+    @Test
+    fun triggers_timerRestarted() = runTest {
+        val imageEvent = newEvent(
+            conditions = listOf(newCondition(TEST_CONDITION_PATH_1, TEST_CONDITION_AREA_1, TEST_CONDITION_THRESHOLD_1, EXACT)),
+            actions = listOf(newDefaultClickAction()),
+        )
+        val triggerEvent = newTriggerEvent(
+            id = 2L,
+            conditions = listOf(newTimerCondition(restartWhenReached = true)),
+            actions = listOf(newDefaultClickAction()),
+        )
+
+        scenarioProcessor = createNewScenarioProcessor(listOf(imageEvent), listOf(triggerEvent),
+            currentTimeMs = { testScheduler.currentTime })
+        scenarioProcessor.onScenarioStart(context)
+        backgroundScope.launch { scenarioProcessor.processTriggers() }
+
+        // The restarted timer must be waited for again, each end executes the trigger event once
+        advanceTimeBy(TEST_TIMER_DURATION_MS * 2 + TEST_TIMER_DURATION_MS / 2)
+        verify(mockAndroidExecutor, times(2)).executeGesture(any())
+
+        advanceTimeBy(TEST_TIMER_DURATION_MS)
+        verify(mockAndroidExecutor, times(3)).executeGesture(any())
+        verifyNoInteractions(mockImageDetector, mockEndListener)
+    }
+
+    @Test
+    fun triggers_broadcastReceivedWhileCapturePaused() = runTest {
+        val triggerEvent = newTriggerEvent(
+            conditions = listOf(newBroadcastCondition()),
+            actions = listOf(newDefaultClickAction()),
+        )
+
+        scenarioProcessor = createNewScenarioProcessor(emptyList(), listOf(triggerEvent),
+            currentTimeMs = { testScheduler.currentTime })
+        scenarioProcessor.onScenarioStart(context)
+        Assert.assertFalse("No image events, capture should be paused", scenarioProcessor.isCaptureRequired.value)
+        backgroundScope.launch { scenarioProcessor.processTriggers() }
+
+        advanceTimeBy(TEST_PROCESSING_DELAY_MS)
+        verifyNoInteractions(mockAndroidExecutor)
+
+        // No screen image will come while the capture is paused, the broadcast alone must execute the trigger event
+        context.sendBroadcast(Intent(TEST_BROADCAST_ACTION))
+        shadowOf(Looper.getMainLooper()).idle()
+        advanceTimeBy(TEST_PROCESSING_DELAY_MS)
+        verify(mockAndroidExecutor).executeGesture(any())
+
+        // The received broadcast is cleared without screen images, it must not execute the trigger event again
+        advanceTimeBy(TEST_PROCESSING_DELAY_MS)
+        verify(mockAndroidExecutor).executeGesture(any())
+        verifyNoInteractions(mockImageDetector, mockEndListener)
+    }
+}
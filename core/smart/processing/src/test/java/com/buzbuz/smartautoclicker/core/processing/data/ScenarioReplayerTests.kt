@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Rect
+import android.os.Build
+
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+
+import com.buzbuz.smartautoclicker.core.base.identifier.Identifier
+import com.buzbuz.smartautoclicker.core.detection.JvmDetector
+import com.buzbuz.smartautoclicker.core.domain.model.WHOLE_SCREEN
+import com.buzbuz.smartautoclicker.core.domain.model.action.Action
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FRAME_FORMAT_GRAY_8
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FRAME_FORMAT_RGBA_8888
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FrameSequenceReader
+import com.buzbuz.smartautoclicker.core.processing.data.replay.FrameSequenceWriter
+import com.buzbuz.smartautoclicker.core.processing.data.replay.ScenarioReplayer
+import com.buzbuz.smartautoclicker.core.processing.data.replay.SequenceFrame
+import com.buzbuz.smartautoclicker.core.processing.utils.ProcessingData.newCondition
+import com.buzbuz.smartautoclicker.core.processing.utils.ProcessingData.newEvent
+
+import kotlinx.coroutines.test.runTest
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.mock
+import org.mockito.kotlin.any
+import org.robolectric.annotation.Config
+import org.mockito.Mockito.`when` as mockWhen
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+/** Test the [ScenarioReplayer] and its frame sequence container. */
+@RunWith(AndroidJUnit4::class)
+@Config(sdk = [Build.VERSION_CODES.Q])
+class ScenarioReplayerTests {
+
+    private companion object {
+        private const val TEST_SCREEN_WIDTH = 200
+        private const val TEST_SCREEN_HEIGHT = 100
+        private const val TEST_CONDITION_SIZE = 20
+        private const val TEST_CONDITION_X = 50
+        private const val TEST_CONDITION_Y = 30
+        private const val TEST_DETECTION_QUALITY = 600
+        private const val TEST_EVENT_ID = 1L
+
+        private fun newDefaultClickAction() =
+            Action.Click(
+                id = Identifier(databaseId = 1),
+                eventId = Identifier(databaseId = TEST_EVENT_ID),
+                priority = 0,
+                pressDuration = 1,
+                positionType = Action.Click.PositionType.USER_SELECTED,
+                x = 10, y = 10,
+            )
+    }
+
+    @get:Rule val temporaryFolder = TemporaryFolder()
+
+    private val random = Random(7)
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    private lateinit var detector: JvmDetector
+    private lateinit var sequenceFile: File
+    /** The pixels of the condition, in ARGB. */
+    private lateinit var conditionPixels: IntArray
+    private lateinit var conditionBitmap: Bitmap
+
+    @Before
+    fun setUp() {
+        detector = JvmDetector()
+        sequenceFile = temporaryFolder.newFile("frames.raw")
+        conditionPixels = IntArray(TEST_CONDITION_SIZE * TEST_CONDITION_SIZE) { (0xFF shl 24) or random.nextInt(0x1000000) }
+
+        conditionBitmap = mock(Bitmap::class.java)
+        mockWhen(conditionBitmap.width).thenReturn(TEST_CONDITION_SIZE)
+        mockWhen(conditionBitmap.height).thenReturn(TEST_CONDITION_SIZE)
+        doAnswer { invocation ->
+            conditionPixels.copyInto(invocation.getArgument(0))
+        }.`when`(conditionBitmap).getPixels(
+            any(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(),
+        )
+    }
+
+    @After
+    fun tearDown() {
+        detector.close()
+    }
+
+    /** @return a new RGBA_8888 screen frame, containing the condition if requested. */
+    private fun newScreenFrame(withCondition: Boolean): ByteBuffer {
+        val rowStride = TEST_SCREEN_WIDTH * Int.SIZE_BYTES
+        val frame = ByteBuffer.allocate(rowStride * TEST_SCREEN_HEIGHT)
+        for (y in 0 until TEST_SCREEN_HEIGHT) {
+            for (x in 0 until TEST_SCREEN_WIDTH) {
+                val isInCondition = withCondition && x - TEST_CONDITION_X in 0 until TEST_CONDITION_SIZE
+                        && y - TEST_CONDITION_Y in 0 until TEST_CONDITION_SIZE
+                val argb =
+                    if (isInCondition) conditionPixels[(y - TEST_CONDITION_Y) * TEST_CONDITION_SIZE + x - TEST_CONDITION_X]
+                    else (0xFF shl 24) or random.nextInt(0x1000000)
+
+                // RGBA_8888 is stored as R, G, B, A bytes
+                frame.putInt((argb shl 8) or (argb ushr 24))
+            }
+        }
+        frame.flip()
+        return frame
+    }
+
+    private fun writeSequence(vararg framesWithCondition: Boolean) {
+        FrameSequenceWriter(sequenceFile, TEST_SCREEN_WIDTH, TEST_SCREEN_HEIGHT).use { writer ->
+            framesWithCondition.forEachIndexed { index, withCondition ->
+                writer.append(
+                    timestampNs = index * 16_000_000L,
+                    format = FRAME_FORMAT_RGBA_8888,
+                    width = TEST_SCREEN_WIDTH,
+                    height = TEST_SCREEN_HEIGHT,
+                    rowStride = TEST_SCREEN_WIDTH * Int.SIZE_BYTES,
+                    pixels = newScreenFrame(withCondition),
+                )
+            }
+        }
+    }
+
+    private fun newReplayer(): ScenarioReplayer {
+        val condition = newCondition("TOTO", Rect(0, 0, TEST_CONDITION_SIZE, TEST_CONDITION_SIZE), 10, WHOLE_SCREEN)
+        val event = newEvent(id = TEST_EVENT_ID, actions = listOf(newDefaultClickAction()), conditions = listOf(condition))
+
+        return ScenarioReplayer(
+            imageDetector = detector,
+            detectionQuality = TEST_DETECTION_QUALITY,
+            imageEvents = listOf(event),
+            triggerEvents = emptyList(),
+            bitmapSupplier = { conditionBitmap },
+        )
+    }
+
+    @Test
+    fun frameSequence_readWrite() {
+        writeSequence(false, true, false)
+
+        val timestamps = mutableListOf<Long>()
+        FrameSequenceReader(sequenceFile).use { reader ->
+            assertEquals("Invalid screen width", TEST_SCREEN_WIDTH, reader.screenWidth)
+            assertEquals("Invalid screen height", TEST_SCREEN_HEIGHT, reader.screenHeight)
+
+            reader.forEachFrame { frame ->
+                assertEquals("Invalid frame index", timestamps.size, frame.index)
+                assertEquals("Invalid frame size", TEST_SCREEN_WIDTH * TEST_SCREEN_HEIGHT * Int.SIZE_BYTES, frame.pixels.remaining())
+                assertTrue("Frame pixels should be mapped", frame.pixels.isDirect)
+                timestamps.add(frame.timestampNs)
+            }
+        }
+
+        assertEquals("Invalid frames", listOf(0L, 16_000_000L, 32_000_000L), timestamps)
+    }
+
+    @Test
+    fun frameSequence_truncatedFrameIgnored() {
+        writeSequence(true, true)
+        RandomAccessFile(sequenceFile, "rw").use { file -> file.setLength(file.length() - 10) }
+
+        FrameSequenceReader(sequenceFile).use { reader ->
+            val frame = SequenceFrame()
+            assertTrue("First frame should be read", reader.readNextFrame(frame))
+            assertFalse("Truncated frame should be ignored", reader.readNextFrame(frame))
+        }
+    }
+
+    @Test
+    fun replay_gestures() = runTest {
+        writeSequence(false, true, false, true)
+
+        val report = FrameSequenceReader(sequenceFile).use { reader -> newReplayer().replay(context, reader) }
+
+        assertEquals("Invalid frame count", 4, report.frameCount)
+        assertEquals("Invalid gestures frames", listOf(1, 3), report.gestures.map { it.frameIndex })
+        assertEquals("Invalid event latency count", 2, report.eventsLatencies[TEST_EVENT_ID]?.count)
+        assertTrue("Invalid frames per second", report.framesPerSecond > 0)
+    }
+
+    @Test
+    fun replay_grayFramesSkipped() = runTest {
+        writeSequence(true)
+        FrameSequenceWriter(sequenceFile, TEST_SCREEN_WIDTH, TEST_SCREEN_HEIGHT).use { writer ->
+            val grayFrame = ByteBuffer.allocate(TEST_SCREEN_WIDTH * TEST_SCREEN_HEIGHT)
+            writer.append(16_000_000L, FRAME_FORMAT_GRAY_8, TEST_SCREEN_WIDTH, TEST_SCREEN_HEIGHT, TEST_SCREEN_WIDTH, grayFrame)
+        }
+
+        val report = FrameSequenceReader(sequenceFile).use { reader -> newReplayer().replay(context, reader) }
+
+        assertEquals("Gray frames should not be processed", 1, report.frameCount)
+        assertEquals("Invalid gestures count", 1, report.gestures.size)
+    }
+}
@@ -20,7 +20,9 @@ import android.os.Build
 
 import androidx.test.ext.junit.runners.AndroidJUnit4
 
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
 import com.buzbuz.smartautoclicker.core.processing.data.processor.state.EventsState
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.ProcessingState
 import com.buzbuz.smartautoclicker.core.processing.utils.ProcessingData
 
 import org.junit.Assert
@@ -29,7 +31,7 @@ import org.junit.runner.RunWith
 
 import org.robolectric.annotation.Config
 
-/** Test the [EventsState] class. */
+/** Test the [EventsState] class, and the notifications of its changes by the [ProcessingState]. */
 @RunWith(AndroidJUnit4::class)
 @Config(sdk = [Build.VERSION_CODES.Q])
 class ScenarioStateTests {
@@ -168,4 +170,70 @@ class ScenarioStateTests {
 
         Assert.assertTrue("Event not enabled", scenarioState.getEnabledImageEvents().contains(changingEvent))
     }
-}
\ No newline at end of file
+
+    @Test
+    fun reenabled_event_keeps_priority() {
+        val changingEvent = ProcessingData.newEvent(id = 1L, enableOnStart = true)
+        val eventList = listOf(
+            changingEvent,
+            ProcessingData.newEvent(id = 2L, enableOnStart = true),
+            ProcessingData.newEvent(id = 3L, enableOnStart = true),
+        )
+
+        val scenarioState = EventsState(eventList, emptyList()).apply {
+            disableEvent(changingEvent.getDatabaseId())
+            toggleEvent(changingEvent.getDatabaseId())
+        }
+
+        Assert.assertEquals("Events should be in priority order", eventList, scenarioState.getEnabledImageEvents())
+    }
+
+    @Test
+    fun toggle_all_multiple_words() {
+        // More events than the bits of a single word of the bitset
+        val eventList = (1L..100L).map { id -> ProcessingData.newEvent(id = id, enableOnStart = id % 3 == 0L) }
+
+        val scenarioState = EventsState(eventList, emptyList()).apply {
+            toggleAll()
+        }
+
+        Assert.assertEquals(
+            "Invalid enabled events",
+            eventList.filter { !it.enabledOnStart },
+            scenarioState.getEnabledImageEvents(),
+        )
+    }
+
+    @Test
+    fun image_events_state_listener() {
+        val changingEvent = ProcessingData.newEvent(id = 2L, enableOnStart = true)
+        val eventList = listOf(
+            ProcessingData.newEvent(id = 1L, enableOnStart = false),
+            changingEvent,
+        )
+        val notifiedStates = mutableListOf<Boolean>()
+
+        ProcessingState(ScenarioPlan(eventList, emptyList())).apply {
+            setImageEventsStateListener { areAllDisabled -> notifiedStates.add(areAllDisabled) }
+            disableEvent(changingEvent.getDatabaseId())
+            disableEvent(changingEvent.getDatabaseId())
+            toggleEvent(changingEvent.getDatabaseId())
+        }
+
+        Assert.assertEquals("Invalid notified states", listOf(true, false), notifiedStates)
+    }
+
+    @Test
+    fun image_events_state_listener_toggle_all_multiple_words() {
+        // All enabled events are in the first word, the second one is only enabled by the toggle
+        val eventList = (1L..100L).map { id -> ProcessingData.newEvent(id = id, enableOnStart = id <= 64L) }
+        val processingState = ProcessingState(ScenarioPlan(eventList, emptyList()))
+        var lastNotifiedState: Boolean? = null
+        processingState.setImageEventsStateListener { areAllDisabled -> lastNotifiedState = areAllDisabled }
+
+        processingState.toggleAll()
+
+        Assert.assertFalse("Image events should be enabled", processingState.areAllImageEventsDisabled())
+        Assert.assertEquals("Invalid last notified state", false, lastNotifiedState)
+    }
+}
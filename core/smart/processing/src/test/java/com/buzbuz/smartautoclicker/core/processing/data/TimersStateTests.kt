@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.core.processing.data
+
+import android.os.Build
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+
+import com.buzbuz.smartautoclicker.core.base.identifier.Identifier
+import com.buzbuz.smartautoclicker.core.domain.model.AND
+import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
+import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
+import com.buzbuz.smartautoclicker.core.processing.data.processor.ScenarioPlan
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.TIMER_DISABLED
+import com.buzbuz.smartautoclicker.core.processing.data.processor.state.TimersState
+
+import org.junit.Assert
+import org.junit.Test
+import org.junit.runner.RunWith
+
+import org.robolectric.annotation.Config
+
+/** Test the [TimersState] class. */
+@RunWith(AndroidJUnit4::class)
+@Config(sdk = [Build.VERSION_CODES.Q])
+class TimersStateTests {
+
+    private companion object {
+        /** The duration of the timer of each event, the timer index is the position in this array. */
+        private val TIMERS_DURATIONS_MS = longArrayOf(30_000, 10_000, 20_000)
+    }
+
+    private fun newTimerEvent(id: Long, durationMs: Long, enabledOnStart: Boolean): TriggerEvent {
+        val eventId = Identifier(databaseId = id)
+
+        return TriggerEvent(
+            id = eventId,
+            scenarioId = Identifier(databaseId = 1L),
+            name = "Timer $id",
+            conditionOperator = AND,
+            conditions = listOf(
+                TriggerCondition.OnTimerReached(
+                    id = Identifier(databaseId = id),
+                    eventId = eventId,
+                    name = "Timer condition",
+                    durationMs = durationMs,
+                    restartWhenReached = false,
+                ),
+            ),
+            enabledOnStart = enabledOnStart,
+        )
+    }
+
+    private fun newTimersState(enabledOnStart: Boolean = true): TimersState {
+        val events = TIMERS_DURATIONS_MS.mapIndexed { index, durationMs ->
+            newTimerEvent(index + 1L, durationMs, enabledOnStart)
+        }
+        return TimersState(ScenarioPlan(emptyList(), events)).apply { onProcessingStarted() }
+    }
+
+    @Test
+    fun nextTimerEnd_noTimers() {
+        val timersState = newTimersState(enabledOnStart = false)
+
+        Assert.assertEquals("No timer should be running", TIMER_DISABLED, timersState.getNextTimerEndMs())
+    }
+
+    @Test
+    fun nextTimerEnd_shortestTimer() {
+        val timersState = newTimersState()
+
+        Assert.assertEquals("Invalid next timer", timersState.getTimerEndMs(1), timersState.getNextTimerEndMs())
+    }
+
+    @Test
+    fun nextTimerEnd_timerDisabled() {
+        val timersState = newTimersState()
+
+        timersState.setTimerToDisabled(1)
+
+        Assert.assertEquals("Invalid next timer", timersState.getTimerEndMs(2), timersState.getNextTimerEndMs())
+    }
+
+    @Test
+    fun nextTimerEnd_timerRestarted() {
+        val timersState = newTimersState()
+        val previousEndMs = timersState.getTimerEndMs(1)
+
+        Thread.sleep(5)
+        timersState.setTimerStartToNow(1)
+
+        Assert.assertTrue("Timer end should be later", timersState.getTimerEndMs(1) > previousEndMs)
+        Assert.assertEquals("Invalid next timer", timersState.getTimerEndMs(1), timersState.getNextTimerEndMs())
+    }
+
+    @Test
+    fun nextTimerEnd_listener() {
+        val timersState = newTimersState(enabledOnStart = false)
+        var notificationCount = 0
+        timersState.setNextTimerEndListener { notificationCount++ }
+
+        timersState.setTimerStartToNow(2)
+        timersState.setTimerStartToNow(0)
+        timersState.setTimerStartToNow(1)
+        timersState.setTimerToDisabled(0)
+
+        Assert.assertEquals("Only the changes of the next timer should be notified", 2, notificationCount)
+    }
+
+    @Test
+    fun stopped() {
+        val timersState = newTimersState()
+
+        timersState.onProcessingStopped()
+
+        Assert.assertEquals("No timer should be running", TIMER_DISABLED, timersState.getNextTimerEndMs())
+    }
+}
@@ -24,7 +24,9 @@ import com.buzbuz.smartautoclicker.core.domain.model.DetectionType
 import com.buzbuz.smartautoclicker.core.base.identifier.Identifier
 import com.buzbuz.smartautoclicker.core.domain.model.action.Action
 import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
+import com.buzbuz.smartautoclicker.core.domain.model.condition.TriggerCondition
 import com.buzbuz.smartautoclicker.core.domain.model.event.ImageEvent
+import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
 
 /** Test data and helpers for the detection tests. */
 internal object ProcessingData {
@@ -47,6 +49,23 @@ internal object ProcessingData {
         enabledOnStart = enableOnStart,
     )
 
+    /** Instantiates a new trigger event with only the useful values for the tests. */
+    fun newTriggerEvent(
+        id: Long = 1L,
+        @ConditionOperator operator: Int = AND,
+        actions: List<Action> = emptyList(),
+        conditions: List<TriggerCondition> = emptyList(),
+        enableOnStart: Boolean = true,
+    ) = TriggerEvent(
+        id = Identifier(databaseId = id),
+        scenarioId = Identifier(databaseId = 1L),
+        name = "TOTO",
+        conditionOperator = operator,
+        actions = actions.toMutableList(),
+        conditions = conditions.toMutableList(),
+        enabledOnStart = enableOnStart,
+    )
+
     /** Instantiates a new condition with only the useful values for the tests. */
     fun newCondition(
         path: String,
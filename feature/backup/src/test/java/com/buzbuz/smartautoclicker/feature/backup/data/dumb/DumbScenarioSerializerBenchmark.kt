@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.feature.backup.data.dumb
+
+import com.buzbuz.smartautoclicker.core.dumb.data.database.DUMB_DATABASE_VERSION
+import com.buzbuz.smartautoclicker.core.dumb.data.database.DumbActionEntity
+import com.buzbuz.smartautoclicker.core.dumb.data.database.DumbActionType
+import com.buzbuz.smartautoclicker.core.dumb.data.database.DumbScenarioEntity
+import com.buzbuz.smartautoclicker.core.dumb.data.database.DumbScenarioWithActions
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmark of the export and import of a dumb scenario backup with the [DumbScenarioSerializer].
+ * The backup is at the current version, so the deserialization is done with kotlinx after the version check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class DumbScenarioSerializerBenchmark {
+
+    @Param("1000")
+    @JvmField var actionCount: Int = 0
+
+    private val serializer = DumbScenarioSerializer()
+    private lateinit var backup: DumbScenarioBackup
+    private lateinit var serializedBackup: ByteArray
+
+    @Setup
+    fun setUp() {
+        backup = DumbScenarioBackup(
+            version = DUMB_DATABASE_VERSION,
+            screenWidth = 1080,
+            screenHeight = 2400,
+            dumbScenario = DumbScenarioWithActions(
+                scenario = DumbScenarioEntity(
+                    id = 1L,
+                    name = "Benchmark",
+                    repeatCount = 1,
+                    isRepeatInfinite = true,
+                    maxDurationMin = 1,
+                    isDurationInfinite = true,
+                    randomize = false,
+                ),
+                dumbActions = List(actionCount) { index ->
+                    DumbActionEntity(
+                        id = index + 2L,
+                        dumbScenarioId = 1L,
+                        priority = index,
+                        name = "Click $index",
+                        type = DumbActionType.CLICK,
+                        repeatCount = 1,
+                        isRepeatInfinite = false,
+                        repeatDelay = 0,
+                        pressDuration = 50,
+                        x = index % 1080,
+                        y = index % 2400,
+                    )
+                },
+            ),
+        )
+        serializedBackup = ByteArrayOutputStream()
+            .also { outputStream -> serializer.serialize(backup, outputStream) }
+            .toByteArray()
+    }
+
+    @Benchmark
+    fun serialize(): Int {
+        val outputStream = ByteArrayOutputStream(serializedBackup.size)
+        serializer.serialize(backup, outputStream)
+        return outputStream.size()
+    }
+
+    @Benchmark
+    fun deserialize(): DumbScenarioBackup? =
+        serializer.deserialize(ByteArrayInputStream(serializedBackup))
+}
@@ -62,7 +62,7 @@ internal class ActionsEditor<Parent>(
         if (item is Action.Click) {
             when (parent) {
                 is TriggerEvent ->
-                    item.isComplete() && item.positionType != Action.Click.PositionType.ON_DETECTED_CONDITION
+                    item.isComplete() && !item.positionType.isOnDetectedCondition()
 
                 is ImageEvent ->
                     if (item.isComplete()) !(parent.conditionOperator == AND && !item.isClickOnConditionValid())
@@ -101,7 +101,7 @@ internal fun List<Action>.filterActionsForCopy(editedEvent: Event, editedActions
             // Remove currently edited events, called should use the up to date values from edition
             action.eventId == editedEvent.id || editedActions.containsIdentifiable(action.id) -> false
             // Remove click on conditions.
-            action is Action.Click && action.positionType == Action.Click.PositionType.ON_DETECTED_CONDITION -> false
+            action is Action.Click && action.positionType.isOnDetectedCondition() -> false
             // Remove toggle event that specifies the events toggles.
             action is Action.ToggleEvent && !action.toggleAll -> false
             // Ok for copy
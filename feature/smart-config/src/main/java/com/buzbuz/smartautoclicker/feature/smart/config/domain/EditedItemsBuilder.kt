@@ -24,7 +24,6 @@ import com.buzbuz.smartautoclicker.core.base.identifier.Identifier
 import com.buzbuz.smartautoclicker.core.base.identifier.IdentifierCreator
 import com.buzbuz.smartautoclicker.core.domain.IRepository
 import com.buzbuz.smartautoclicker.core.domain.model.action.Action
-import com.buzbuz.smartautoclicker.core.domain.model.action.Action.Click.PositionType
 import com.buzbuz.smartautoclicker.core.domain.model.action.EventToggle
 import com.buzbuz.smartautoclicker.core.domain.model.action.IntentExtra
 import com.buzbuz.smartautoclicker.core.domain.model.condition.ImageCondition
@@ -291,7 +290,7 @@ class EditedItemsBuilder internal constructor(
 
     private fun createNewClickFrom(from: Action.Click, eventId: Identifier): Action.Click {
         val conditionId =
-            if (from.positionType == PositionType.ON_DETECTED_CONDITION && from.clickOnConditionId != null)
+            if (from.positionType.isOnDetectedCondition() && from.clickOnConditionId != null)
                 eventCopyConditionIdMap[from.clickOnConditionId]
             else null
 
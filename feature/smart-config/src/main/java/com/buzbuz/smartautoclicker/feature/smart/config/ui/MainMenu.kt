@@ -118,7 +118,6 @@ class MainMenu(private val onStopClicked: () -> Unit) : OverlayMenu() {
             repeatOnLifecycle(Lifecycle.State.STARTED) {
                 launch { viewModel.canStartScenario.collect(::updatePlayPauseButtonEnabledState) }
                 launch { viewModel.detectionState.collect(::updateDetectionState) }
-                launch { viewModel.nativeLibError.collect(::showNativeLibErrorDialogIfNeeded) }
                 launch { debuggingViewModel.isDebugging.collect(::updateDebugOverlayViewVisibility) }
             }
         }
@@ -292,18 +291,4 @@ class MainMenu(private val onStopClicked: () -> Unit) : OverlayMenu() {
             .create()
             .showAsOverlay()
     }
-
-
-    private fun showNativeLibErrorDialogIfNeeded(haveError: Boolean) {
-        if (!haveError) return
-
-        MaterialAlertDialogBuilder(DynamicColors.wrapContextIfAvailable(ContextThemeWrapper(context, R.style.AppTheme)))
-            .setTitle(R.string.dialog_overlay_title_warning)
-            .setMessage(R.string.error_dialog_message_error_native_lib)
-            .setPositiveButton(android.R.string.ok) { _, _ ->
-                onStopClicked()
-            }
-            .create()
-            .showAsOverlay()
-    }
 }
\ No newline at end of file
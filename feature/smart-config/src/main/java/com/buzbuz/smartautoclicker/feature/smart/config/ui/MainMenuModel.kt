@@ -87,11 +87,6 @@ class MainMenuModel @Inject constructor(
             canStartDetection && isSynchronized
         }
 
-    /** Tells if the detector can't work due to a native library load error. */
-    val nativeLibError: Flow<Boolean> = detectionRepository.detectionState
-        .map { it == DetectionState.ERROR_NO_NATIVE_LIB }
-        .distinctUntilChanged()
-
     /** Load an advertisement, if needed. Should be called before showing the paywall to reduce user waiting time. */
     fun loadAdIfNeeded(context: Context) {
         revenueRepository.loadAdIfNeeded(context)
@@ -120,19 +120,23 @@ class ClickDialog(
                     listOf(
                         context.getString(R.string.field_click_type_desc_on_position),
                         context.getString(R.string.field_click_type_desc_on_condition),
+                        context.getString(R.string.field_click_type_desc_on_all_occurrences),
                     )
                 )
                 setButtonConfig(
                     MultiStateButtonConfig(
-                        icons = listOf(R.drawable.ic_click_on_condition, R.drawable.ic_condition),
+                        icons = listOf(R.drawable.ic_click_on_condition, R.drawable.ic_condition, R.drawable.ic_click_list),
                         singleSelection = true,
                         selectionRequired = true,
                     )
                 )
                 setOnCheckedListener { checkedId ->
                     viewModel.setClickOnCondition(
-                        if (checkedId == 0) Action.Click.PositionType.USER_SELECTED
-                        else Action.Click.PositionType.ON_DETECTED_CONDITION
+                        when (checkedId) {
+                            0 -> Action.Click.PositionType.USER_SELECTED
+                            1 -> Action.Click.PositionType.ON_DETECTED_CONDITION
+                            else -> Action.Click.PositionType.ON_ALL_DETECTED_OCCURRENCES
+                        }
                     )
                 }
             }
@@ -200,7 +204,11 @@ class ClickDialog(
         state ?: return
 
         viewBinding.fieldClickType.apply {
-            val checkIndex = if (state.positionType == Action.Click.PositionType.USER_SELECTED) 0 else 1
+            val checkIndex = when (state.positionType) {
+                Action.Click.PositionType.USER_SELECTED -> 0
+                Action.Click.PositionType.ON_DETECTED_CONDITION -> 1
+                Action.Click.PositionType.ON_ALL_DETECTED_OCCURRENCES -> 2
+            }
             setChecked(checkIndex)
             setDescription(checkIndex)
 
@@ -216,7 +224,8 @@ class ClickDialog(
             when (state.positionType) {
                 Action.Click.PositionType.USER_SELECTED ->
                     setOnClickListener { debounceUserInteraction { showPositionSelector() } }
-                Action.Click.PositionType.ON_DETECTED_CONDITION ->
+                Action.Click.PositionType.ON_DETECTED_CONDITION,
+                Action.Click.PositionType.ON_ALL_DETECTED_OCCURRENCES ->
                     setOnClickListener { debounceUserInteraction { showConditionSelector() } }
             }
         }
@@ -110,10 +110,10 @@ class ClickViewModel @Inject constructor(
                 evt is ImageEvent && click.positionType == Action.Click.PositionType.USER_SELECTED ->
                     context.getUserSelectedClickPositionState(click, forced = false)
 
-                evt is ImageEvent && click.positionType == Action.Click.PositionType.ON_DETECTED_CONDITION && event.value.conditionOperator == OR ->
-                    context.getOnConditionWithOrPositionState()
+                evt is ImageEvent && click.positionType.isOnDetectedCondition() && event.value.conditionOperator == OR ->
+                    context.getOnConditionWithOrPositionState(click)
 
-                evt is ImageEvent && click.positionType == Action.Click.PositionType.ON_DETECTED_CONDITION && event.value.conditionOperator == AND ->
+                evt is ImageEvent && click.positionType.isOnDetectedCondition() && event.value.conditionOperator == AND ->
                     context.getOnConditionWithAndPositionState(evt, click)
 
                 else -> null
@@ -219,9 +219,9 @@ class ClickViewModel @Inject constructor(
                 else getString(R.string.field_click_position_desc, click.x!!, click.y!!),
         )
 
-    private fun Context.getOnConditionWithOrPositionState(): ClickPositionUiState =
+    private fun Context.getOnConditionWithOrPositionState(click: Action.Click): ClickPositionUiState =
         ClickPositionUiState(
-            positionType = Action.Click.PositionType.ON_DETECTED_CONDITION,
+            positionType = click.positionType,
             isTypeFieldVisible = true,
             isSelectorEnabled = false,
             selectorTitle = getString(R.string.field_condition_selection_title_or_operator),
@@ -233,7 +233,7 @@ class ClickViewModel @Inject constructor(
         val conditionBitmap = conditionToClick?.let { condition -> repository.getConditionBitmap(condition) }
 
         return ClickPositionUiState(
-            positionType = Action.Click.PositionType.ON_DETECTED_CONDITION,
+            positionType = click.positionType,
             isTypeFieldVisible = true,
             isSelectorEnabled = availableConditions.value.isNotEmpty(),
             selectorTitle = getString(R.string.field_condition_selection_title_and_operator),
@@ -83,6 +83,8 @@ private fun Action.Click.toClickDetails(context: Context, inError: Boolean): Act
             inError -> context.getString(R.string.item_error_action_invalid_generic)
             positionType == Action.Click.PositionType.ON_DETECTED_CONDITION ->
                 context.getString(R.string.item_click_details_on_condition)
+            positionType == Action.Click.PositionType.ON_ALL_DETECTED_OCCURRENCES ->
+                context.getString(R.string.item_click_details_on_all_occurrences)
             else  -> context.getString(
                 R.string.item_click_details_at_position,
                 formatDuration(pressDuration!!), x, y,
@@ -17,6 +17,7 @@
 package com.buzbuz.smartautoclicker.feature.smart.debugging.data
 
 import android.content.Context
+import android.graphics.Point
 import android.graphics.Rect
 import android.util.Log
 
@@ -26,6 +27,7 @@ import com.buzbuz.smartautoclicker.core.domain.model.event.TriggerEvent
 import com.buzbuz.smartautoclicker.core.domain.model.scenario.Scenario
 import com.buzbuz.smartautoclicker.core.processing.domain.ConditionResult
 import com.buzbuz.smartautoclicker.core.processing.domain.IConditionsResult
+import com.buzbuz.smartautoclicker.core.processing.domain.ImageProcessingStats
 import com.buzbuz.smartautoclicker.core.processing.domain.ImageConditionResult
 import com.buzbuz.smartautoclicker.core.processing.domain.ScenarioProcessingListener
 import com.buzbuz.smartautoclicker.feature.smart.debugging.getDebugConfigPreferences
@@ -34,6 +36,8 @@ import com.buzbuz.smartautoclicker.feature.smart.debugging.getIsDebugViewEnabled
 import com.buzbuz.smartautoclicker.feature.smart.debugging.domain.ConditionProcessingDebugInfo
 import com.buzbuz.smartautoclicker.feature.smart.debugging.domain.DebugInfo
 import com.buzbuz.smartautoclicker.feature.smart.debugging.domain.DebugReport
+import com.buzbuz.smartautoclicker.feature.smart.debugging.domain.FrameDebugInfo
+import com.buzbuz.smartautoclicker.feature.smart.debugging.domain.LocalitySearchDebugInfo
 import com.buzbuz.smartautoclicker.feature.smart.debugging.domain.ProcessingDebugInfo
 
 import kotlinx.coroutines.flow.*
@@ -54,6 +58,9 @@ internal class DebugEngine : ScenarioProcessingListener {
     /** Map of condition id to their recorder. */
     private val conditionsRecorderMap: MutableMap<Long, ConditionRecorder> = mutableMapOf()
 
+    /** The image processing statistics of the session, received at its end. */
+    private var imageProcessingStats: ImageProcessingStats? = null
+
     /** Tells if the live debugging data should be computed. */
     private var instantData: Boolean = false
     /** Tells if the debugging report should be generated. */
@@ -176,8 +183,9 @@ internal class DebugEngine : ScenarioProcessingListener {
                 conditionResults.position.y + halfHeight
             )
 
+            // The results are reused by the processing, keep a copy of the position
             val info = DebugInfo(event, conditionResults.condition, conditionResults.haveBeenDetected,
-                conditionResults.position, conditionResults.confidenceRate, coordinates)
+                Point(conditionResults.position), conditionResults.confidenceRate, coordinates)
             currentInfo.value = info
         }
     }
@@ -188,6 +196,12 @@ internal class DebugEngine : ScenarioProcessingListener {
         imageRecorder.onProcessingEnd()
     }
 
+    override suspend fun onImageProcessingStats(stats: ImageProcessingStats) = mutex.withLock {
+        if (!generateReport) return
+
+        imageProcessingStats = stats
+    }
+
     override suspend fun onSessionEnded() = mutex.withLock {
         currentInfo.value = null
 
@@ -222,7 +236,9 @@ internal class DebugEngine : ScenarioProcessingListener {
         conditions.forEach { condition ->
             val debugInfo = conditionsRecorderMap[condition.id.databaseId]?.let { processingRecorder ->
                 conditionsDetectedCount += processingRecorder.successCount
-                processingRecorder.toConditionProcessingDebugInfo()
+                processingRecorder.toConditionProcessingDebugInfo(
+                    resultReuseRate = imageProcessingStats?.conditionsReuseRate?.get(condition.id.databaseId) ?: 0.0,
+                )
             } ?: ConditionProcessingDebugInfo()
 
             conditionReport[condition.id.databaseId] = condition to debugInfo
@@ -236,6 +252,8 @@ internal class DebugEngine : ScenarioProcessingListener {
             eventsReport,
             conditionsDetectedCount,
             conditionReport,
+            imageProcessingStats.toLocalitySearchDebugInfo(),
+            imageProcessingStats.toFrameDebugInfo(),
         )
 
         currProcEvtId = null
@@ -244,6 +262,7 @@ internal class DebugEngine : ScenarioProcessingListener {
         imageRecorder.clear()
         eventsRecorderMap.clear()
         conditionsRecorderMap.clear()
+        imageProcessingStats = null
 
         _isDebugging.value = false
     }
@@ -258,6 +277,29 @@ internal class DebugEngine : ScenarioProcessingListener {
     }
 }
 
+private fun ImageProcessingStats?.toLocalitySearchDebugInfo(): LocalitySearchDebugInfo =
+    if (this == null) LocalitySearchDebugInfo()
+    else LocalitySearchDebugInfo(
+        searchCount = localitySearchCount,
+        hitCount = localityHitCount,
+        hitRate = if (localitySearchCount == 0L) 0.0 else localityHitCount.toDouble() / localitySearchCount,
+        savedTimeMs = localitySavedTimeMs,
+    )
+
+private fun ImageProcessingStats?.toFrameDebugInfo(): FrameDebugInfo =
+    if (this == null) FrameDebugInfo()
+    else FrameDebugInfo(
+        frameCount = frameCount,
+        avgLatencyMs = avgFrameLatencyMs,
+        minLatencyMs = minFrameLatencyMs,
+        maxLatencyMs = maxFrameLatencyMs,
+        skippedFrameCount = skippedFrameCount,
+        dedupeRate = conditionsDedupeRate,
+        avgTimerDelayMs = avgTimerDelayMs,
+        maxTimerDelayMs = maxTimerDelayMs,
+        bufferAllocationCount = bufferAllocationCount,
+    )
+
 /**
  * @return the value corresponding to the given key, or insert and return newValue if such a key is not present in
  * the map.
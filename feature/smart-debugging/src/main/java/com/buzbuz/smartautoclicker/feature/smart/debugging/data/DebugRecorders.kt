@@ -74,7 +74,7 @@ internal class ConditionRecorder : Recorder() {
         if (newResult != null) detectionResultsRecorder.recordResult(newResult)
     }
 
-    fun toConditionProcessingDebugInfo() = ConditionProcessingDebugInfo(
+    fun toConditionProcessingDebugInfo(resultReuseRate: Double) = ConditionProcessingDebugInfo(
         processingCount = count,
         successCount = successCount,
         totalProcessingTimeMs = processingTimingRecorder.totalTimeMs,
@@ -84,6 +84,7 @@ internal class ConditionRecorder : Recorder() {
         avgConfidenceRate = (detectionResultsRecorder.total / count).coerceIn(0.0, 100.0),
         minConfidenceRate = detectionResultsRecorder.min.coerceAtLeast(0.0),
         maxConfidenceRate = detectionResultsRecorder.max.coerceAtMost(100.0),
+        resultReuseRate = resultReuseRate,
     )
 
     override fun clear() {
@@ -26,4 +26,5 @@ data class ConditionProcessingDebugInfo internal constructor(
     val avgConfidenceRate: Double = 0.0,
     val minConfidenceRate: Double = 0.0,
     val maxConfidenceRate: Double = 0.0,
+    val resultReuseRate: Double = 0.0,
 )
\ No newline at end of file
@@ -28,4 +28,6 @@ data class DebugReport internal constructor(
     val eventsProcessedInfo: List<Pair<ImageEvent, ProcessingDebugInfo>>,
     val conditionsDetectedCount: Long,
     val conditionsProcessedInfo: Map<Long, Pair<ImageCondition, ConditionProcessingDebugInfo>>,
+    val localitySearchInfo: LocalitySearchDebugInfo,
+    val frameInfo: FrameDebugInfo,
 )
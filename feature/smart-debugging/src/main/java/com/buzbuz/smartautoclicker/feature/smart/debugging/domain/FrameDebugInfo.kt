@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2024 Kevin Buzeau
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.buzbuz.smartautoclicker.feature.smart.debugging.domain
+
+data class FrameDebugInfo internal constructor(
+    val frameCount: Long = 0,
+    val avgLatencyMs: Long = 0,
+    val minLatencyMs: Long = 0,
+    val maxLatencyMs: Long = 0,
+    val skippedFrameCount: Long = 0,
+    val dedupeRate: Double = 0.0,
+    val avgTimerDelayMs: Long = 0,
+    val maxTimerDelayMs: Long = 0,
+    val bufferAllocationCount: Long = 0,
+)
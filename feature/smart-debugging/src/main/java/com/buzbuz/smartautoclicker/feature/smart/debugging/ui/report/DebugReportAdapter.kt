@@ -103,6 +103,38 @@ class ScenarioDebugInfoViewHolder(
                 R.string.item_title_report_detection_count,
                 item.conditionsDetected,
             )
+            rootLocalityHitRate.setValue(
+                R.string.item_title_report_locality_hit_rate,
+                item.localityHitRate,
+            )
+            rootLocalitySavedTime.setValue(
+                R.string.item_title_report_locality_saved_time,
+                item.localitySavedTime,
+            )
+            rootAvgFrameLatency.setValue(
+                R.string.item_title_report_avg_frame_latency,
+                item.averageFrameLatency,
+            )
+            rootSkippedFrames.setValue(
+                R.string.item_title_report_skipped_frames,
+                item.skippedFrames,
+            )
+            rootDedupeRate.setValue(
+                R.string.item_title_report_dedupe_rate,
+                item.dedupeRate,
+            )
+            rootAvgTimerDelay.setValue(
+                R.string.item_title_report_avg_timer_delay,
+                item.averageTimerDelay,
+            )
+            rootMaxTimerDelay.setValue(
+                R.string.item_title_report_max_timer_delay,
+                item.maxTimerDelay,
+            )
+            rootBufferAllocations.setValue(
+                R.string.item_title_report_buffer_allocations,
+                item.bufferAllocations,
+            )
         }
     }
 }
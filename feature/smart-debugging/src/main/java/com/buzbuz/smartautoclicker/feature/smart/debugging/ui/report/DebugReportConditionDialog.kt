@@ -68,6 +68,11 @@ class DebugReportConditionDialog(private val conditionReport: ConditionReport) :
                 conditionReport.avgConfidence,
                 conditionReport.maxConfidence,
             )
+
+            rootResultReuseRate.setValue(
+                R.string.item_title_report_result_reuse_rate,
+                conditionReport.resultReuseRate,
+            )
         }
     }
 }
\ No newline at end of file
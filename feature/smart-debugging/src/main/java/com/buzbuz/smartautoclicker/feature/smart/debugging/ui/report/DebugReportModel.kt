@@ -97,6 +97,14 @@ class DebugReportModel @Inject constructor(
             averageImageProcessingTime = averageImageProcessingTime.formatDuration(),
             eventsTriggered = debugInfo.eventsTriggeredCount.toString(),
             conditionsDetected = debugInfo.conditionsDetectedCount.toString(),
+            localityHitRate = debugInfo.localitySearchInfo.hitRate.formatConfidenceRate(),
+            localitySavedTime = debugInfo.localitySearchInfo.savedTimeMs.formatDuration(),
+            averageFrameLatency = debugInfo.frameInfo.avgLatencyMs.formatDuration(),
+            skippedFrames = debugInfo.frameInfo.skippedFrameCount.toString(),
+            dedupeRate = debugInfo.frameInfo.dedupeRate.formatConfidenceRate(),
+            averageTimerDelay = debugInfo.frameInfo.avgTimerDelayMs.formatDuration(),
+            maxTimerDelay = debugInfo.frameInfo.maxTimerDelayMs.formatDuration(),
+            bufferAllocations = debugInfo.frameInfo.bufferAllocationCount.toString(),
         )
 
     private fun newEventItem(id: Long, name: String, debugInfo: ProcessingDebugInfo, conditionReports: List<ConditionReport>) =
@@ -131,6 +139,7 @@ class DebugReportModel @Inject constructor(
             avgConfidence = debugInfo.avgConfidenceRate.formatConfidenceRate(),
             minConfidence = debugInfo.minConfidenceRate.formatConfidenceRate(),
             maxConfidence = debugInfo.maxConfidenceRate.formatConfidenceRate(),
+            resultReuseRate = debugInfo.resultReuseRate.formatConfidenceRate(),
         )
 }
 
@@ -147,6 +156,14 @@ sealed class DebugReportItem {
         val averageImageProcessingTime: String,
         val eventsTriggered: String,
         val conditionsDetected: String,
+        val localityHitRate: String,
+        val localitySavedTime: String,
+        val averageFrameLatency: String,
+        val skippedFrames: String,
+        val dedupeRate: String,
+        val averageTimerDelay: String,
+        val maxTimerDelay: String,
+        val bufferAllocations: String,
     ) : DebugReportItem()
 
     data class EventReportItem(
@@ -172,6 +189,7 @@ data class ConditionReport(
     val avgConfidence: String,
     val minConfidence: String,
     val maxConfidence: String,
+    val resultReuseRate: String,
 )
 
 /** Format this value as a displayable confidence rate. */
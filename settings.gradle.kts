@@ -27,6 +27,7 @@ rootProject.name = "Smart Auto Clicker"
 
 include(":core:common:android")
 include(":core:common:base")
+include(":core:common:benchmark")
 include(":core:common:bitmaps")
 include(":core:common:display")
 include(":core:common:overlays")